@@ -34,6 +34,15 @@ android {
     buildFeatures {
         compose = true
     }
+    testOptions {
+        // 单元测试中android.util.Log等方法返回默认值，不抛出异常
+        unitTests.isReturnDefaultValues = true
+        // 基准测试默认跳过，./gradlew test -Pbenchmark 时运行，-PbenchmarkMb 指定下载基准的文件大小
+        unitTests.all {
+            it.systemProperty("vision.benchmark", project.hasProperty("benchmark"))
+            project.findProperty("benchmarkMb")?.let { mb -> it.systemProperty("vision.benchmark.mb", mb) }
+        }
+    }
 
     sourceSets["main"].apply {
         jniLibs.srcDirs("libs", "libs")
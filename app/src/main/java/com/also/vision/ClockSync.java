@@ -0,0 +1,187 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * 设备时钟同步
+ * 按NTP的方式估计设备时钟偏差：每次date_time查询记录发送时间t0、接收时间t1和设备时间T，
+ * 偏差 = T - (t0 + t1) / 2，往返时间 = t1 - t0。保留最近若干个样本，取往返时间最短的样本作为估计值，
+ * 排队和网络抖动造成的误差最小。只有估计的偏差超过阈值时才下发设置时间命令。
+ * <p>
+ * 设备时间格式为"yyyy-MM-dd HH:mm:ss"，只精确到秒，按所在秒的中点计算。
+ * 线程安全。
+ */
+public class ClockSync {
+    private static final String TAG = "ClockSync";
+
+    public static final long DEFAULT_THRESHOLD = 60000;  // 偏差阈值(毫秒)
+
+    private static final int MAX_SAMPLES = 8;             // 保留的样本数
+    private static final int MIN_SAMPLES = 2;             // 下发设置时间前至少需要的样本数
+    private static final long SET_COOLDOWN = 60000;       // 两次设置时间的最小间隔(毫秒)
+
+    private static final DateTimeFormatter FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    private final DateTimeSetter setter;
+    private final long[] offsets = new long[MAX_SAMPLES];
+    private final long[] rtts = new long[MAX_SAMPLES];
+    private int sampleCount = 0;
+    private int nextSample = 0;
+    private long threshold = DEFAULT_THRESHOLD;
+    private long lastSetAt = 0;
+
+    // 统计
+    private long setCount = 0;
+    private long rejectedCount = 0;
+
+    /**
+     * @param setter 下发设置时间命令
+     */
+    public ClockSync(DateTimeSetter setter) {
+        this.setter = setter;
+    }
+
+    /**
+     * 设置偏差阈值
+     *
+     * @param threshold 偏差超过该值时同步设备时间(毫秒)
+     */
+    public synchronized void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 记录一次date_time查询的结果
+     *
+     * @param sentAt     查询发出的本地时间
+     * @param receivedAt 收到响应的本地时间
+     * @param deviceTime 设备返回的时间
+     */
+    public void onSample(long sentAt, long receivedAt, String deviceTime) {
+        long deviceMillis;
+        try {
+            deviceMillis = parse(deviceTime) + 500;
+        } catch (DateTimeParseException e) {
+            Log.e(TAG, "解析设备时间失败: " + deviceTime);
+            return;
+        }
+
+        String syncTime = null;
+        synchronized (this) {
+            if (sentAt <= 0 || receivedAt < sentAt) {
+                // 没有对应的查询，无法补偿往返时间
+                rejectedCount++;
+                return;
+            }
+            long rtt = receivedAt - sentAt;
+            long offset = deviceMillis - (sentAt + receivedAt) / 2;
+            offsets[nextSample] = offset;
+            rtts[nextSample] = rtt;
+            nextSample = (nextSample + 1) % MAX_SAMPLES;
+            sampleCount = Math.min(sampleCount + 1, MAX_SAMPLES);
+
+            int best = bestSample();
+            long filteredOffset = offsets[best];
+            if (sampleCount >= MIN_SAMPLES && Math.abs(filteredOffset) > threshold
+                && receivedAt - lastSetAt >= SET_COOLDOWN) {
+                // 设备在约半个往返时间后收到命令
+                syncTime = format(System.currentTimeMillis() + rtts[best] / 2);
+                Log.d(TAG, "设备时间偏差 " + filteredOffset + "ms (RTT " + rtts[best] + "ms)，同步时间");
+                lastSetAt = receivedAt;
+                setCount++;
+                // 设置后设备时钟跳变，旧样本作废
+                sampleCount = 0;
+                nextSample = 0;
+            }
+        }
+
+        if (syncTime != null) {
+            setter.setDateTime(syncTime);
+        }
+    }
+
+    /**
+     * 获取估计的设备时钟偏差(毫秒)，设备时间 = 本地时间 + 偏差；没有样本时为0
+     */
+    public synchronized long getOffset() {
+        return sampleCount > 0 ? offsets[bestSample()] : 0;
+    }
+
+    /**
+     * 获取估计值所用样本的往返时间(毫秒)；没有样本时为0
+     */
+    public synchronized long getRtt() {
+        return sampleCount > 0 ? rtts[bestSample()] : 0;
+    }
+
+    /**
+     * 把本地时间换算为设备时间，用于对齐设备文件时间和本地数据
+     */
+    public long toDeviceTime(long localMillis) {
+        return localMillis + getOffset();
+    }
+
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    public synchronized long getSetCount() {
+        return setCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * 清除样本
+     */
+    public synchronized void reset() {
+        sampleCount = 0;
+        nextSample = 0;
+    }
+
+    /**
+     * 按设备时间格式格式化本地时间
+     */
+    public static String format(long millis) {
+        return FORMATTER.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+    }
+
+    /**
+     * 解析设备时间
+     *
+     * @throws DateTimeParseException 格式错误
+     */
+    public static long parse(String time) {
+        return LocalDateTime.parse(time, FORMATTER).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 往返时间最短的样本
+     */
+    private int bestSample() {
+        int best = 0;
+        for (int i = 1; i < sampleCount; i++) {
+            if (rtts[i] < rtts[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 设置设备时间
+     */
+    public interface DateTimeSetter {
+        void setDateTime(String dateTime);
+    }
+}
@@ -0,0 +1,269 @@
+package com.also.vision;
+
+import java.util.Arrays;
+
+/**
+ * 命令编码器
+ * 直接把命令写成JSON字节，不经过JSONObject、中间Map和String。
+ * <p>
+ * 通用命令通过{@link #begin(int, int)}获取当前线程的编码器，依次写入字段后调用{@link #toBytes()}，
+ * 只分配最终的byte[]。固定格式的命令（心跳、轮询查询等）使用{@link Template}，
+ * 除token外的部分预先编码，token不变时直接复用上一次的结果，不产生任何分配。
+ * <p>
+ * 字段顺序与协议文档一致：token, msg_id, 其余字段。
+ */
+public final class CommandEncoder {
+    /**
+     * 不携带token的命令（如开始会话）使用该值
+     */
+    public static final int NO_TOKEN = -1;
+
+    private static final byte[] TOKEN_PREFIX = ascii("{\"token\":");
+    private static final byte[] MSG_ID_FIRST = ascii("{\"msg_id\":");
+    private static final byte[] MSG_ID_NEXT = ascii(",\"msg_id\":");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private static final ThreadLocal<CommandEncoder> LOCAL = ThreadLocal.withInitial(CommandEncoder::new);
+
+    private byte[] buffer = new byte[256];
+    private int position = 0;
+
+    private CommandEncoder() {
+    }
+
+    /**
+     * 开始编码一条命令
+     *
+     * @param token 会话令牌，NO_TOKEN表示不写入token
+     * @param msgId 消息ID
+     * @return 当前线程的编码器
+     */
+    public static CommandEncoder begin(int token, int msgId) {
+        CommandEncoder encoder = LOCAL.get();
+        encoder.position = 0;
+        if (token != NO_TOKEN) {
+            encoder.writeBytes(TOKEN_PREFIX);
+            encoder.writeInt(token);
+            encoder.writeBytes(MSG_ID_NEXT);
+        } else {
+            encoder.writeBytes(MSG_ID_FIRST);
+        }
+        encoder.writeInt(msgId);
+        return encoder;
+    }
+
+    /**
+     * 编码通用命令，param和type为null时不写入
+     */
+    public static byte[] encode(int token, int msgId, String param, String type) {
+        return begin(token, msgId)
+            .putString("param", param)
+            .putString("type", type)
+            .toBytes();
+    }
+
+    /**
+     * 写入字符串字段，value为null时跳过
+     */
+    public CommandEncoder putString(String name, String value) {
+        if (value != null) {
+            writeName(name);
+            writeQuoted(value);
+        }
+        return this;
+    }
+
+    /**
+     * 写入整数字段
+     */
+    public CommandEncoder putInt(String name, int value) {
+        writeName(name);
+        writeInt(value);
+        return this;
+    }
+
+    /**
+     * 结束编码并返回命令字节
+     */
+    public byte[] toBytes() {
+        ensureCapacity(1);
+        buffer[position++] = '}';
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeName(String name) {
+        ensureCapacity(name.length() + 4);
+        buffer[position++] = ',';
+        buffer[position++] = '"';
+        for (int i = 0; i < name.length(); i++) {
+            buffer[position++] = (byte) name.charAt(i);
+        }
+        buffer[position++] = '"';
+        buffer[position++] = ':';
+    }
+
+    /**
+     * 写入带引号的JSON字符串，转义并按UTF-8编码
+     */
+    private void writeQuoted(String value) {
+        // 最坏情况每个字符6字节(\\u00XX)
+        ensureCapacity(value.length() * 6 + 2);
+        buffer[position++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) c;
+            } else if (c < 0x20) {
+                buffer[position++] = '\\';
+                buffer[position++] = 'u';
+                buffer[position++] = '0';
+                buffer[position++] = '0';
+                buffer[position++] = HEX[c >> 4];
+                buffer[position++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[position++] = '"';
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(11);
+        position = writeInt(buffer, position, value);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+        }
+    }
+
+    /**
+     * 把整数的十进制表示写入数组，返回写入后的位置
+     */
+    private static int writeInt(byte[] dst, int offset, int value) {
+        if (value == Integer.MIN_VALUE) {
+            byte[] min = ascii(String.valueOf(Integer.MIN_VALUE));
+            System.arraycopy(min, 0, dst, offset, min.length);
+            return offset + min.length;
+        }
+        if (value < 0) {
+            dst[offset++] = '-';
+            value = -value;
+        }
+        int end = offset + digits(value);
+        int i = end;
+        do {
+            dst[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    private static int digits(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * 固定格式命令模板
+     * 形如{"token":N,"msg_id":M,"type":"T"}，只有token可变。
+     * 返回的byte[]在token不变时会被复用，调用方不得修改。
+     */
+    public static final class Template {
+        private final byte[] suffix;
+        private final boolean withToken;
+        private volatile Encoded last;
+
+        /**
+         * @param msgId 消息ID
+         * @param type  类型，为null时不写入
+         */
+        public Template(int msgId, String type) {
+            this(msgId, type, true);
+        }
+
+        /**
+         * @param msgId     消息ID
+         * @param type      类型，为null时不写入
+         * @param withToken 是否携带token
+         */
+        public Template(int msgId, String type, boolean withToken) {
+            this.withToken = withToken;
+            CommandEncoder encoder = begin(NO_TOKEN, msgId).putString("type", type);
+            suffix = encoder.toBytes();
+            if (withToken) {
+                // 开头的'{'换成','，拼接在token之后
+                suffix[0] = ',';
+            }
+        }
+
+        /**
+         * 编码命令
+         *
+         * @param token 会话令牌，模板不携带token时忽略
+         */
+        public byte[] encode(int token) {
+            if (!withToken) {
+                return suffix;
+            }
+
+            Encoded cached = last;
+            if (cached != null && cached.token == token) {
+                return cached.bytes;
+            }
+
+            byte[] bytes = new byte[TOKEN_PREFIX.length + 11 + suffix.length];
+            System.arraycopy(TOKEN_PREFIX, 0, bytes, 0, TOKEN_PREFIX.length);
+            int offset = writeInt(bytes, TOKEN_PREFIX.length, token);
+            System.arraycopy(suffix, 0, bytes, offset, suffix.length);
+            bytes = Arrays.copyOf(bytes, offset + suffix.length);
+
+            last = new Encoded(token, bytes);
+            return bytes;
+        }
+    }
+
+    private static final class Encoded {
+        final int token;
+        final byte[] bytes;
+
+        Encoded(int token, byte[] bytes) {
+            this.token = token;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 命令队列
+ * 位于DeviceConnection.sendData之前，实现Protocol中描述的CommandQueue语义：
+ * <p>
+ * 1. 去重：队列中尚未发送的同类命令（相同合并键）被新命令替换
+ * 2. 限流：相同命令键的两次发送至少间隔500ms
+ * 3. 优先级：用户操作(HIGH)先于普通命令(NORMAL)，普通命令先于后台轮询(LOW)，同优先级按入队顺序发送
+ * 4. 容量：最多保存10个命令，溢出时丢弃优先级最低且最早入队的命令
+ * 5. 设备返回系统忙(STATUS_SYSTEM_BUSY)时暂停发送一段时间
+ * <p>
+ * 线程安全，命令由单独的调度线程发送。
+ */
+public class CommandQueue {
+    private static final String TAG = "CommandQueue";
+
+    // 命令优先级
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    public static final int MAX_QUEUE_SIZE = 10;
+    public static final long MIN_SEND_INTERVAL = 500;  // 相同命令最小发送间隔(毫秒)
+    public static final long BUSY_BACKOFF = 500;       // 设备忙时暂停发送的时间(毫秒)
+
+    // 最近发送时间只保留有限个命令键
+    private static final int MAX_SEND_HISTORY = 64;
+
+    private final Sender sender;
+    private final Listener listener;
+    // 所有设备的命令队列共用一个调度线程
+    private static final ScheduledExecutorService DISPATCHER =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CommandQueue");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final List<Command> commands = new ArrayList<>();
+    private final SendHistory sendHistory = new SendHistory();
+    private ScheduledFuture<?> scheduledDrain;
+    private long pausedUntil = 0;
+    private long sequence = 0;
+
+    // 统计
+    private long enqueuedCount = 0;
+    private long sentCount = 0;
+    private long coalescedCount = 0;
+    private long overflowCount = 0;
+    private long throttledCount = 0;
+    private long busyCount = 0;
+
+    public CommandQueue(Sender sender, Listener listener) {
+        this.sender = sender;
+        this.listener = listener;
+    }
+
+    /**
+     * 命令入队
+     *
+     * @param command 命令
+     */
+    public void enqueue(Command command) {
+        Command dropped = null;
+        Command replaced = null;
+
+        synchronized (this) {
+            enqueuedCount++;
+            command.sequence = ++sequence;
+
+            // 合并尚未发送的同类命令，新命令继承原命令在队列中的顺序
+            if (command.coalesceKey != null) {
+                for (int i = 0; i < commands.size(); i++) {
+                    Command queued = commands.get(i);
+                    if (command.coalesceKey.equals(queued.coalesceKey)) {
+                        command.sequence = queued.sequence;
+                        command.priority = Math.max(command.priority, queued.priority);
+                        commands.set(i, command);
+                        replaced = queued;
+                        coalescedCount++;
+                        break;
+                    }
+                }
+            }
+
+            if (replaced == null) {
+                commands.add(command);
+                if (commands.size() > MAX_QUEUE_SIZE) {
+                    dropped = removeLowest();
+                    overflowCount++;
+                }
+            }
+
+            scheduleDrain(0);
+        }
+
+        if (replaced != null) {
+            Log.d(TAG, "合并重复命令: " + command.coalesceKey);
+            if (listener != null) {
+                listener.onCoalesced(replaced, command);
+            }
+        }
+        if (dropped != null) {
+            Log.w(TAG, "命令队列已满，丢弃命令: msg_id=" + dropped.msgId);
+            if (listener != null) {
+                listener.onDropped(dropped);
+            }
+        }
+    }
+
+    /**
+     * 设备返回系统忙，暂停发送
+     */
+    public synchronized void onSystemBusy() {
+        busyCount++;
+        pausedUntil = System.currentTimeMillis() + BUSY_BACKOFF;
+        Log.w(TAG, "设备忙，暂停发送" + BUSY_BACKOFF + "ms");
+    }
+
+    /**
+     * 清空队列，连接断开时调用
+     */
+    public void clear() {
+        List<Command> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(commands);
+            commands.clear();
+            sendHistory.clear();
+            pausedUntil = 0;
+            if (scheduledDrain != null) {
+                scheduledDrain.cancel(false);
+                scheduledDrain = null;
+            }
+        }
+
+        if (listener != null) {
+            for (Command command : dropped) {
+                listener.onDropped(command);
+            }
+        }
+    }
+
+    /**
+     * 发送所有可以发送的命令，受限流影响的命令在可发送时再调度
+     */
+    private void drain() {
+        while (true) {
+            Command next;
+            synchronized (this) {
+                scheduledDrain = null;
+                long now = System.currentTimeMillis();
+
+                if (now < pausedUntil) {
+                    scheduleDrain(pausedUntil - now);
+                    return;
+                }
+
+                next = null;
+                long nextEligible = Long.MAX_VALUE;
+                for (Command command : commands) {
+                    long eligibleAt = sendHistory.lastSent(command.sendKey) + MIN_SEND_INTERVAL;
+                    if (eligibleAt > now) {
+                        nextEligible = Math.min(nextEligible, eligibleAt);
+                        continue;
+                    }
+                    if (next == null || command.priority > next.priority
+                        || (command.priority == next.priority && command.sequence < next.sequence)) {
+                        next = command;
+                    }
+                }
+
+                if (next == null) {
+                    if (nextEligible != Long.MAX_VALUE) {
+                        throttledCount++;
+                        scheduleDrain(nextEligible - now);
+                    }
+                    return;
+                }
+
+                commands.remove(next);
+                sendHistory.put(next.sendKey, now);
+                sentCount++;
+            }
+
+            sender.send(next);
+        }
+    }
+
+    /**
+     * 调度一次发送，已有更早的调度时不重复调度
+     */
+    private void scheduleDrain(long delayMs) {
+        if (scheduledDrain != null) {
+            if (scheduledDrain.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+            scheduledDrain.cancel(false);
+        }
+        scheduledDrain = DISPATCHER.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 移除优先级最低且最早入队的命令
+     */
+    private Command removeLowest() {
+        Command lowest = null;
+        for (Command command : commands) {
+            if (lowest == null || command.priority < lowest.priority
+                || (command.priority == lowest.priority && command.sequence < lowest.sequence)) {
+                lowest = command;
+            }
+        }
+        commands.remove(lowest);
+        return lowest;
+    }
+
+    public synchronized int size() {
+        return commands.size();
+    }
+
+    public synchronized long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getOverflowCount() {
+        return overflowCount;
+    }
+
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    public synchronized long getBusyCount() {
+        return busyCount;
+    }
+
+    /**
+     * 待发送的命令
+     */
+    public static class Command {
+        final int msgId;
+        final String type;
+        final String param;
+        final byte[] data;
+        final String coalesceKey;
+        final String sendKey;
+        final boolean tracked;
+        int priority;
+        long sequence;
+
+        /**
+         * @param msgId       消息ID
+         * @param type        类型
+         * @param param       参数
+         * @param data        编码后的消息
+         * @param priority    优先级
+         * @param coalesceKey 合并键，为null时不与其他命令合并
+         * @param sendKey     限流键，相同限流键的命令按最小间隔发送
+         * @param tracked     是否有异步请求在等待该命令的响应
+         */
+        public Command(int msgId, String type, String param, byte[] data, int priority,
+                       String coalesceKey, String sendKey, boolean tracked) {
+            this.msgId = msgId;
+            this.type = type;
+            this.param = param;
+            this.data = data;
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+            this.sendKey = sendKey;
+            this.tracked = tracked;
+        }
+
+        public int getMsgId() {
+            return msgId;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getParam() {
+            return param;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isTracked() {
+            return tracked;
+        }
+    }
+
+    /**
+     * 最近发送时间记录，按访问顺序淘汰
+     */
+    private static class SendHistory extends LinkedHashMap<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        SendHistory() {
+            super(16, 0.75f, true);
+        }
+
+        long lastSent(String key) {
+            Long time = super.get(key);
+            return time != null ? time : 0;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_SEND_HISTORY;
+        }
+    }
+
+    /**
+     * 发送接口
+     */
+    public interface Sender {
+        void send(Command command);
+    }
+
+    /**
+     * 队列事件回调，在调用enqueue/clear的线程中执行
+     */
+    public interface Listener {
+        /**
+         * 队列中尚未发送的命令被同类新命令替换
+         */
+        void onCoalesced(Command replaced, Command incoming);
+
+        /**
+         * 命令因队列溢出或清空被丢弃
+         */
+        void onDropped(Command command);
+    }
+}
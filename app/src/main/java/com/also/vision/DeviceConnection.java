@@ -9,50 +9,104 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.also.vision.model.SendDataModel;
+import com.also.vision.utils.BufferPool;
+
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 设备连接管理类
  * 负责与行车记录仪设备建立Socket连接并处理通信
+ * <p>
+ * 每个实例对应一台设备，所有实例共用一个{@link NioReactor}事件循环，
+ * 对SocketChannel的操作都在事件循环线程中完成。{@link #getInstance()}返回默认地址的设备连接。
  */
-public class DeviceConnection {
+public class DeviceConnection implements NioReactor.ChannelHandler {
     private static final String TAG = "DeviceConnection";
     private static DeviceConnection instance;
     
-    private SocketChannel socketChannel;
-    private InetSocketAddress deviceAddress;
-    private InetSocketAddress localAddress;
-    private Selector selector;
-    private ByteBuffer buffer;
+    private final NioReactor reactor;
+    private final InetSocketAddress deviceAddress;
+    private SocketChannel socketChannel;  // 仅事件循环线程使用
+    private SelectionKey selectionKey;    // 仅事件循环线程使用
+    private final BufferPool bufferPool = BufferPool.getDefault();
+    private ByteBuffer readBuffer;  // 读缓冲区，仅事件循环线程使用
+    private final JsonFrameDecoder frameDecoder = new JsonFrameDecoder();
     private ConnectionCallback callback;
-    private boolean isConnected = false;
-    private int retryCount = 0;
-    private static final int MAX_RETRY_COUNT = 3;
-    private ExecutorService executorService;
+    private volatile boolean isConnected = false;
     private Handler mainHandler;
+    private volatile Handler callbackHandler;  // 回调执行的线程，默认为主线程
     private volatile boolean isRunning = false;
     
+    // 断线重连
+    private final ReconnectEngine reconnectEngine;
+    
+    // 连接超时，超时后按连接失败处理
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    private NioReactor.Timer connectTimer;  // 仅事件循环线程使用
+    
+    // 发送队列，入队后向事件循环提交一次发送任务
+    private final ConcurrentLinkedQueue<SendDataModel> sendQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sendRequested = new AtomicBoolean();
+    private final Runnable sendTask = this::onSendRequested;
+    
+    // 批量发送：聚合窗口内入队的消息，通过一次gathering write写出
+    private static final long BATCH_WINDOW_MS = 2;
+    private static final int MAX_BATCH_SIZE = 16;
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_BATCH_SIZE]; // 仅事件循环线程使用
+    private int batchStart = 0;
+    private int batchEnd = 0;
+    private NioReactor.Timer flushTimer;  // 聚合窗口，仅事件循环线程使用
+    
+    // 批量发送统计
+    private volatile long flushCount = 0;
+    private volatile long flushedMessageCount = 0;
+    private volatile int maxMessagesPerFlush = 0;
+    
+    // 读缓冲区默认大小，连续读满时扩容至上限
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    private static final int MAX_READ_BUFFER_SIZE = 64 * 1024;
+    
     // 设备默认IP地址和端口
     private static final String DEVICE_IP = "192.168.42.1";
     private static final int DEVICE_PORT = 8080;
     
     private DeviceConnection() {
-        this.deviceAddress = new InetSocketAddress(DEVICE_IP, DEVICE_PORT);
-        this.buffer = ByteBuffer.allocate(4096);
-        this.executorService = Executors.newSingleThreadExecutor();
+        this(new InetSocketAddress(DEVICE_IP, DEVICE_PORT));
+    }
+    
+    /**
+     * 创建指定地址的设备连接，使用共用的事件循环
+     *
+     * @param deviceAddress 设备地址
+     */
+    public DeviceConnection(InetSocketAddress deviceAddress) {
+        this(deviceAddress, NioReactor.getDefault());
+    }
+    
+    /**
+     * @param deviceAddress 设备地址
+     * @param reactor       事件循环
+     */
+    public DeviceConnection(InetSocketAddress deviceAddress, NioReactor reactor) {
+        this.deviceAddress = deviceAddress;
+        this.reactor = reactor;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.callbackHandler = mainHandler;
+        this.reconnectEngine = new ReconnectEngine(mainHandler, this::openConnection);
     }
     
+    /**
+     * 获取默认地址的设备连接
+     */
     public static DeviceConnection getInstance() {
         if (instance == null) {
             synchronized (DeviceConnection.class) {
@@ -106,297 +160,494 @@ public class DeviceConnection {
     }
     
     /**
-     * 初始化连接
+     * 初始化连接，回调在主线程中执行
      */
     public void init(ConnectionCallback callback) {
+        init(callback, mainHandler);
+    }
+
+    /**
+     * 初始化连接
+     *
+     * @param callback        回调接口
+     * @param callbackHandler 执行回调的Handler，收到的消息直接从事件循环线程投递到该线程
+     */
+    public void init(ConnectionCallback callback, Handler callbackHandler) {
         this.callback = callback;
-        retryCount = 0;
+        this.callbackHandler = callbackHandler != null ? callbackHandler : mainHandler;
+    }
+    
+    /**
+     * 获取设备地址
+     */
+    public InetSocketAddress getDeviceAddress() {
+        return deviceAddress;
+    }
+    
+    /**
+     * 是否已连接
+     */
+    public boolean isConnected() {
+        return isConnected;
+    }
+    
+    /**
+     * 监听Wi-Fi状态，Wi-Fi断开时暂停重连，恢复后立即重连
+     */
+    public void attachNetworkMonitor(Context context) {
+        reconnectEngine.attach(context);
+    }
+    
+    /**
+     * 获取重连引擎，用于调整退避参数或查询重连状态
+     */
+    public ReconnectEngine getReconnectEngine() {
+        return reconnectEngine;
     }
     
     /**
-     * 连接设备
+     * 连接设备，连接断开后自动重连，直到调用disconnect
      */
     public void connect() {
+        reconnectEngine.start();
+        openConnection();
+    }
+    
+    /**
+     * 发起一次连接
+     */
+    private void openConnection() {
         if (isConnected) {
-            Log.d(TAG, "已经连接到设备");
+            Log.d(TAG, "已经连接到设备: " + deviceAddress);
+            reconnectEngine.onConnected();
             if (callback != null) {
-                mainHandler.post(() -> callback.onConnected());
+                callbackHandler.post(() -> callback.onConnected());
             }
             return;
         }
         
-        // 使用线程池在后台线程执行网络操作
-        executorService.execute(() -> {
-            try {
-                // 创建选择器
-                selector = Selector.open();
-                
-                // 创建Socket通道
-                socketChannel = SocketChannel.open();
-                socketChannel.configureBlocking(false);
-                
-                // 连接设备
-                boolean connected = socketChannel.connect(deviceAddress);
-                
-                if (connected) {
-                    // 直接连接成功
-                    isConnected = true;
-                    Log.d(TAG, "连接成功");
-                    
-                    // 注册读事件
-                    socketChannel.register(selector, SelectionKey.OP_READ);
-                    
-                    if (callback != null) {
-                        mainHandler.post(() -> callback.onConnected());
-                    }
-                } else {
-                    // 异步连接，注册连接事件
-                    socketChannel.register(selector, SelectionKey.OP_CONNECT);
-                    
-                    // 启动连接监听线程
-                    isRunning = true;
-                    executorService.submit(new ConnectionMonitor());
-                    
-                    Log.d(TAG, "开始异步连接");
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "连接失败: " + e.getMessage());
-                e.printStackTrace();
-                
-                // 确保清理资源
-                cleanupResources();
-                
-                if (callback != null) {
-                    final String errorMsg = e.getMessage();
-                    mainHandler.post(() -> callback.onConnectionFailed(errorMsg));
-                }
-                
-                retryConnect();
+        if (isRunning) {
+            Log.d(TAG, "正在连接设备: " + deviceAddress);
+            return;
+        }
+
+        // 连接、读写都交给事件循环线程，任务按提交顺序执行，之前的断开任务一定先完成
+        sendQueue.clear();
+        isRunning = true;
+        reactor.execute(this::openChannel);
+    }
+    
+    /**
+     * 打开Socket通道并发起非阻塞连接
+     * 仅在事件循环线程中调用
+     */
+    private void openChannel() {
+        closeChannel();
+        if (!isRunning) {
+            return;
+        }
+        
+        try {
+            frameDecoder.reset();
+            readBuffer = bufferPool.acquire(DEFAULT_BUFFER_SIZE);
+            socketChannel = SocketChannel.open();
+            socketChannel.configureBlocking(false);
+            socketChannel.socket().setTcpNoDelay(true);
+            
+            if (socketChannel.connect(deviceAddress)) {
+                // 直接连接成功
+                selectionKey = reactor.register(socketChannel, SelectionKey.OP_READ, this);
+                onChannelConnected();
+            } else {
+                // 异步连接，注册连接事件
+                selectionKey = reactor.register(socketChannel, SelectionKey.OP_CONNECT, this);
+                connectTimer = reactor.schedule(this::onConnectTimeout, CONNECT_TIMEOUT_MS);
+                Log.d(TAG, "开始异步连接: " + deviceAddress);
             }
-        });
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+    
+    /**
+     * 连接建立后的处理
+     */
+    private void onChannelConnected() {
+        isConnected = true;
+        if (connectTimer != null) {
+            connectTimer.cancel();
+            connectTimer = null;
+        }
+        reconnectEngine.onConnected();
+        Log.d(TAG, "连接成功: " + deviceAddress);
+        
+        if (callback != null) {
+            callbackHandler.post(() -> callback.onConnected());
+        }
+    }
+    
+    private void onConnectTimeout() {
+        connectTimer = null;
+        onError(new IOException("连接超时"));
+    }
+    
+    /**
+     * 通道就绪，在事件循环线程中执行
+     */
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        if (key.isConnectable() && socketChannel.finishConnect()) {
+            key.interestOps(SelectionKey.OP_READ);
+            onChannelConnected();
+        }
+        
+        if (key.isValid() && key.isReadable()) {
+            receiveData();
+        }
+        
+        // 上一批数据没有写完，内核发送缓冲区有空间后继续写
+        if (key.isValid() && key.isWritable()) {
+            writeBatch();
+        }
     }
     
     /**
-     * 清理资源
+     * 连接或读写异常，在事件循环线程中执行
      */
-    private void cleanupResources() {
+    @Override
+    public void onError(IOException e) {
+        boolean wasRunning = isRunning;
+        Log.e(TAG, "连接异常: " + deviceAddress + ", " + e.getMessage());
+        
+        isConnected = false;
+        isRunning = false;
+        closeChannel();
+        
+        if (wasRunning) {
+            onConnectionLost(e.getMessage());
+        }
+    }
+    
+    /**
+     * 关闭通道并归还缓冲区，不修改连接状态
+     * 仅在事件循环线程中调用
+     */
+    private void closeChannel() {
+        if (connectTimer != null) {
+            connectTimer.cancel();
+            connectTimer = null;
+        }
+        if (flushTimer != null) {
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+        
         try {
             if (socketChannel != null) {
+                // 关闭通道同时取消SelectionKey
                 socketChannel.close();
-                socketChannel = null;
-            }
-            
-            if (selector != null) {
-                selector.close();
-                selector = null;
             }
-            
-            isConnected = false;
-            isRunning = false;
         } catch (IOException e) {
             Log.e(TAG, "清理资源异常: " + e.getMessage());
-            e.printStackTrace();
+        } finally {
+            socketChannel = null;
+            selectionKey = null;
+            
+            // 归还读写缓冲区
+            if (readBuffer != null) {
+                bufferPool.release(readBuffer);
+                readBuffer = null;
+            }
+            releaseWriteBatch();
         }
     }
     
     /**
-     * 重试连接
+     * 设备长时间没有响应，关闭当前连接并按连接断开处理，由重连引擎重连
+     *
+     * @param reason 原因
      */
-    private void retryConnect() {
-        if (retryCount < MAX_RETRY_COUNT) {
-            retryCount++;
-            Log.d(TAG, "重试连接，第 " + retryCount + " 次");
-            
-            // 延迟1秒后重试
-            mainHandler.postDelayed(this::connect, 1000);
-        } else {
-            Log.e(TAG, "连接失败，已达到最大重试次数");
-            
-            if (callback != null) {
-                mainHandler.post(() -> callback.onConnectionFailed("连接失败，已达到最大重试次数"));
+    public void reportDeadPeer(String reason) {
+        reactor.execute(() -> {
+            if (socketChannel != null && isConnected) {
+                onError(new IOException(reason));
             }
-        }
+        });
     }
     
     /**
      * 断开连接
      */
     public void disconnect() {
+        disconnect(null);
+    }
+    
+    /**
+     * 写出最后一条消息后断开连接，发送队列中尚未写出的消息被丢弃
+     *
+     * @param lastMessage 关闭通道前写出的消息，如结束会话，没有时为null
+     */
+    public void disconnect(byte[] lastMessage) {
+        reconnectEngine.stop();
+        boolean wasConnected = isConnected;
         isRunning = false;
         isConnected = false;
+        sendQueue.clear();
         
-        try {
-            if (socketChannel != null) {
-                socketChannel.close();
-                socketChannel = null;
+        // 由事件循环线程写出最后一条消息并关闭通道
+        reactor.execute(() -> {
+            if (wasConnected && lastMessage != null) {
+                writeLastMessage(lastMessage);
             }
-            
-            if (selector != null) {
-                selector.close();
-                selector = null;
+            closeChannel();
+        });
+        
+        Log.d(TAG, "断开连接: " + deviceAddress);
+    }
+    
+    /**
+     * 先写完当前批次中未写完的消息，再写出最后一条消息，不等待可写事件
+     * 内核发送缓冲区已满时放弃，仅在事件循环线程中调用
+     */
+    private void writeLastMessage(byte[] data) {
+        if (socketChannel == null || !socketChannel.isConnected()) {
+            return;
+        }
+        ByteBuffer buffer = bufferPool.acquire(data.length);
+        try {
+            buffer.put(data);
+            buffer.flip();
+            while (batchStart < batchEnd || buffer.hasRemaining()) {
+                long written = batchStart < batchEnd
+                    ? socketChannel.write(writeBatch, batchStart, batchEnd - batchStart)
+                    : socketChannel.write(buffer);
+                while (batchStart < batchEnd && !writeBatch[batchStart].hasRemaining()) {
+                    bufferPool.release(writeBatch[batchStart]);
+                    writeBatch[batchStart++] = null;
+                }
+                if (written == 0) {
+                    Log.w(TAG, "发送缓冲区已满，未写出最后一条消息: " + deviceAddress);
+                    return;
+                }
             }
-            
-            Log.d(TAG, "断开连接");
         } catch (IOException e) {
-            Log.e(TAG, "断开连接异常: " + e.getMessage());
-            e.printStackTrace();
+            Log.e(TAG, "写出最后一条消息失败: " + e.getMessage());
+        } finally {
+            bufferPool.release(buffer);
         }
     }
     
     /**
      * 发送数据
+     * 数据放入无锁队列后通知事件循环，由事件循环线程负责实际写入
      */
     public void sendData(byte[] data, int msgId) {
-        if (!isConnected || socketChannel == null) {
+        if (!isConnected || !isRunning) {
             Log.e(TAG, "发送数据失败: 未连接");
             return;
         }
         
-        // 使用线程池在后台线程执行网络操作
-        executorService.execute(() -> {
-            try {
-                buffer.clear();
-                buffer.put(data);
-                buffer.flip();
-                
-                while (buffer.hasRemaining()) {
-                    socketChannel.write(buffer);
-                }
-                
-                Log.d(TAG, "发送数据成功: " + new String(data));
-            } catch (IOException e) {
-                Log.e(TAG, "发送数据失败: " + e.getMessage());
-                e.printStackTrace();
-                
-                // 如果发送失败，尝试重新连接
-                isConnected = false;
-                if (msgId == MessageManager.MSG_START_SESSION) {
-                    retryConnect();
-                } else {
-                    if (callback != null) {
-                        final String errorMsg = e.getMessage();
-                        mainHandler.post(() -> callback.onConnectionFailed("发送数据失败: " + errorMsg));
-                    }
-                }
-            }
-        });
+        SendDataModel model = new SendDataModel();
+        model.setData(data);
+        model.setMsgId(msgId);
+        sendQueue.offer(model);
+        
+        // 已有未执行的发送任务时不重复提交
+        if (sendRequested.compareAndSet(false, true)) {
+            reactor.execute(sendTask);
+        }
     }
     
     /**
-     * 接收数据
+     * 有新数据入队，第一条消息到达时开启聚合窗口
+     * 仅在事件循环线程中调用
      */
-    private byte[] receiveData() {
-        if (!isConnected || socketChannel == null) {
-            Log.e(TAG, "接收数据失败: 未连接");
-            return null;
+    private void onSendRequested() {
+        sendRequested.set(false);
+        if (isConnected && socketChannel != null) {
+            openBatchWindow();
         }
-        
+    }
+    
+    /**
+     * 开启聚合窗口，已有窗口或上一批数据未写完时不重复开启
+     */
+    private void openBatchWindow() {
+        if (flushTimer == null && batchEnd == batchStart && !sendQueue.isEmpty()) {
+            flushTimer = reactor.schedule(this::onBatchWindowElapsed, BATCH_WINDOW_MS);
+        }
+    }
+    
+    /**
+     * 聚合窗口结束，取出一批消息写出
+     */
+    private void onBatchWindowElapsed() {
+        flushTimer = null;
+        if (socketChannel == null) {
+            return;
+        }
+        fillWriteBatch();
         try {
-            buffer.clear();
-            int readBytes = socketChannel.read(buffer);
-            
-            if (readBytes > 0) {
-                buffer.flip();
-                byte[] data = new byte[buffer.remaining()];
-                buffer.get(data);
-                
-                Log.d(TAG, "接收数据成功: " + new String(data));
-                return data;
-            } else if (readBytes < 0) {
-                // 连接已关闭
-                Log.e(TAG, "连接已关闭");
-                isConnected = false;
-                
-                if (callback != null) {
-                    mainHandler.post(() -> callback.onConnectionFailed("连接已关闭"));
-                }
-                
-                retryConnect();
-            }
+            writeBatch();
         } catch (IOException e) {
-            Log.e(TAG, "接收数据异常: " + e.getMessage());
-            e.printStackTrace();
-            
-            isConnected = false;
+            onError(e);
+        }
+    }
+    
+    /**
+     * 将当前批次写入Socket
+     * 仅在事件循环线程中调用。写不完时注册OP_WRITE等待下次可写，写完后为剩余消息开启新的聚合窗口
+     */
+    private void writeBatch() throws IOException {
+        if (batchEnd > batchStart) {
+            socketChannel.write(writeBatch, batchStart, batchEnd - batchStart);
             
-            if (callback != null) {
-                final String errorMsg = e.getMessage();
-                mainHandler.post(() -> callback.onConnectionFailed("接收数据异常: " + errorMsg));
+            // 归还已写完的缓冲区
+            while (batchStart < batchEnd && !writeBatch[batchStart].hasRemaining()) {
+                bufferPool.release(writeBatch[batchStart]);
+                writeBatch[batchStart++] = null;
             }
             
-            retryConnect();
+            if (batchStart < batchEnd) {
+                // 内核发送缓冲区已满，等待可写事件
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        batchStart = 0;
+        batchEnd = 0;
+        
+        // 当前批次已写完，不再关注可写事件
+        if ((selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+        openBatchWindow();
+    }
+    
+    /**
+     * 从发送队列取出一批消息，分别复制到直接缓冲区
+     */
+    private void fillWriteBatch() {
+        int totalBytes = 0;
+        SendDataModel model;
+        while (batchEnd < MAX_BATCH_SIZE && (model = sendQueue.poll()) != null) {
+            byte[] data = model.getData();
+            ByteBuffer buffer = bufferPool.acquire(data.length);
+            buffer.put(data);
+            buffer.flip();
+            writeBatch[batchEnd++] = buffer;
+            totalBytes += data.length;
         }
         
-        return null;
+        int messages = batchEnd;
+        flushCount++;
+        flushedMessageCount += messages;
+        if (messages > maxMessagesPerFlush) {
+            maxMessagesPerFlush = messages;
+        }
+        Log.d(TAG, "发送数据: " + messages + " 条消息, " + totalBytes + " 字节");
     }
     
     /**
-     * 连接监听器
+     * 归还未发送完的缓冲区
      */
-    private class ConnectionMonitor implements Runnable {
-        @Override
-        public void run() {
-            try {
-                while (isRunning) {
-                    if (selector.select(1000) > 0) {
-                        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
-                        
-                        while (keyIterator.hasNext()) {
-                            SelectionKey key = keyIterator.next();
-                            keyIterator.remove();
-                            
-                            if (key.isConnectable()) {
-                                SocketChannel channel = (SocketChannel) key.channel();
-                                
-                                // 完成连接
-                                if (channel.finishConnect()) {
-                                    isConnected = true;
-                                    Log.d(TAG, "连接完成");
-                                    
-                                    // 注册读事件
-                                    channel.register(selector, SelectionKey.OP_READ);
-                                    
-                                    if (callback != null) {
-                                        mainHandler.post(() -> callback.onConnected());
-                                    }
-                                } else {
-                                    Log.e(TAG, "连接失败");
-                                    
-                                    if (callback != null) {
-                                        mainHandler.post(() -> callback.onConnectionFailed("连接失败"));
-                                    }
-                                    return;
-                                }
-                            }
-                            
-                            if (key.isReadable()) {
-                                byte[] data = receiveData();
-                                if (data != null && data.length > 0 && callback != null) {
-                                    final byte[] finalData = data;
-                                    mainHandler.post(() -> callback.onDataReceived(finalData));
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "连接监听异常: " + e.getMessage());
-                e.printStackTrace();
-                
-                if (callback != null && isRunning) {
-                    final String errorMsg = e.getMessage();
-                    mainHandler.post(() -> callback.onConnectionFailed(errorMsg));
-                }
+    private void releaseWriteBatch() {
+        for (int i = batchStart; i < batchEnd; i++) {
+            bufferPool.release(writeBatch[i]);
+            writeBatch[i] = null;
+        }
+        batchStart = 0;
+        batchEnd = 0;
+    }
+    
+    /**
+     * 获取批量发送次数
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+    
+    /**
+     * 获取已发送的消息总数
+     */
+    public long getFlushedMessageCount() {
+        return flushedMessageCount;
+    }
+    
+    /**
+     * 获取平均每次发送的消息数
+     */
+    public double getAverageMessagesPerFlush() {
+        long flushes = flushCount;
+        return flushes == 0 ? 0 : (double) flushedMessageCount / flushes;
+    }
+    
+    /**
+     * 获取单次发送的最大消息数
+     */
+    public int getMaxMessagesPerFlush() {
+        return maxMessagesPerFlush;
+    }
+    
+    /**
+     * 接收数据
+     * 仅在事件循环线程中调用，读取到的字节交给帧解码器，每条完整的JSON消息回调一次
+     *
+     * @throws IOException 读取失败或连接已关闭
+     */
+    private void receiveData() throws IOException {
+        readBuffer.clear();
+        int readBytes = socketChannel.read(readBuffer);
+        
+        if (readBytes < 0) {
+            throw new IOException("连接已关闭");
+        }
+        
+        if (readBytes > 0) {
+            readBuffer.flip();
+            frameDecoder.decode(readBuffer, this::onFrameReceived);
+            
+            // 一次读满说明数据量较大（如文件列表），扩大读缓冲区以减少读取次数
+            if (readBytes == readBuffer.capacity() && readBuffer.capacity() < MAX_READ_BUFFER_SIZE) {
+                int newCapacity = readBuffer.capacity() * 2;
+                bufferPool.release(readBuffer);
+                readBuffer = bufferPool.acquire(newCapacity);
             }
         }
     }
     
+    /**
+     * 收到一条完整的消息
+     */
+    void onFrameReceived(byte[] frame) {
+        Log.d(TAG, "接收数据成功: " + frame.length + " 字节");
+        
+        if (callback != null) {
+            callbackHandler.post(() -> callback.onDataReceived(frame));
+        }
+    }
+    
+    /**
+     * 连接断开或连接失败，交给重连引擎决定是否重连
+     */
+    private void onConnectionLost(String reason) {
+        long retryDelay = reconnectEngine.onConnectionLost();
+        if (callback == null) {
+            return;
+        }
+        if (retryDelay == ReconnectEngine.RETRY_STOPPED) {
+            callbackHandler.post(() -> callback.onConnectionFailed(reason));
+        } else {
+            callbackHandler.post(() -> callback.onConnectionLost(reason, retryDelay));
+        }
+    }
+    
     /**
      * 释放资源
      */
     public void release() {
         disconnect();
-        executorService.shutdown();
+        reconnectEngine.detach();
     }
     
     /**
@@ -404,8 +655,21 @@ public class DeviceConnection {
      */
     public interface ConnectionCallback {
         void onConnected();
+        /**
+         * 连接失败且不再重连
+         */
         void onConnectionFailed(String reason);
+        /**
+         * 收到一条完整的JSON消息
+         */
         void onDataReceived(byte[] data);
+        /**
+         * 连接断开，将自动重连
+         *
+         * @param retryDelayMs 下次重连的等待时间，为ReconnectEngine.RETRY_SUSPENDED时等待Wi-Fi恢复
+         */
+        default void onConnectionLost(String reason, long retryDelayMs) {
+        }
     }
     
     /**
@@ -0,0 +1,194 @@
+package com.also.vision;
+
+/**
+ * 设备事件
+ * 设备主动推送的通知（msg_id=7的各种type、文件传输和升级通知）以及连接状态变化，
+ * 按{@link Type}分类，通过{@link DeviceEventPublisher}发布。不可变，可以在任意线程中使用。
+ */
+public final class DeviceEvent {
+
+    /**
+     * 事件类型
+     * 标记为conflatable的是高频状态类事件，订阅者来不及处理时只保留最新的一个
+     */
+    public enum Type {
+        // 连接状态
+        CONNECTED(false),
+        SESSION_STARTED(false),
+        RECONNECTING(false),
+        CONNECTION_FAILED(false),
+
+        // SD卡
+        SD_FULL(false),
+        SD_NO(false),
+        SD_REMOVED(false),
+        SD_INSERTED(false),
+        SD_ERROR(false),
+        SD_ABNORMAL(false),
+        SD_LOW_SPACE(true),
+        SD_UNFORMATTED(false),
+
+        // 设备状态
+        APP_STATUS(true),
+        DATE_TIME(true),
+        SYSTEM_REBOOT(false),
+        DISCONNECT_SHUTDOWN(false),
+        AUTO_FILE_DELETE(false),
+
+        // 升级
+        UPGRADE_STATUS(true),
+        APP_UPGRADE(false),
+        UPGRADE_FILE(false),
+        UPGRADE_PROGRESS(true),
+
+        // 文件传输
+        FILE_TRANSFER(false),
+
+        // 未识别的通知，原始type见getRawType
+        UNKNOWN(false);
+
+        private final boolean conflatable;
+
+        Type(boolean conflatable) {
+            this.conflatable = conflatable;
+        }
+
+        public boolean isConflatable() {
+            return conflatable;
+        }
+    }
+
+    private final Type type;
+    private final String rawType;
+    private final int msgId;
+    private final String param;
+    private final long timestamp;
+
+    /**
+     * @param type    事件类型
+     * @param rawType 消息中的type字段
+     * @param msgId   消息ID，连接状态事件为0
+     * @param param   消息中的param字段，连接状态事件为原因等附加信息
+     */
+    public DeviceEvent(Type type, String rawType, int msgId, String param) {
+        this.type = type;
+        this.rawType = rawType;
+        this.msgId = msgId;
+        this.param = param;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 连接状态事件
+     */
+    static DeviceEvent connection(Type type, String detail) {
+        return new DeviceEvent(type, null, 0, detail);
+    }
+
+    /**
+     * 是否是设备推送的事件消息
+     */
+    static boolean isEventMessage(int msgId) {
+        return msgId == MessageManager.MSG_NOTIFICATION
+            || msgId == MessageManager.MSG_FILE_TRANSFER_NOTIFICATION
+            || msgId == MessageManager.MSG_UPGRADE_NOTIFICATION;
+    }
+
+    /**
+     * 从设备推送的消息创建事件
+     */
+    static DeviceEvent fromMessage(DeviceMessage message) {
+        int msgId = message.getMsgId();
+        String rawType = message.getType();
+        Type type;
+        if (msgId == MessageManager.MSG_FILE_TRANSFER_NOTIFICATION) {
+            type = Type.FILE_TRANSFER;
+        } else if (msgId == MessageManager.MSG_UPGRADE_NOTIFICATION) {
+            type = "upgrade_progress".equals(rawType) ? Type.UPGRADE_PROGRESS : Type.UPGRADE_STATUS;
+        } else {
+            type = typeOfNotification(rawType);
+        }
+        Object param = message.body().get("param");
+        return new DeviceEvent(type, rawType, msgId, param != null ? param.toString() : null);
+    }
+
+    /**
+     * 按msg_id=7的type字段分类
+     */
+    static Type typeOfNotification(String rawType) {
+        if (rawType == null) {
+            return Type.UNKNOWN;
+        }
+        switch (rawType) {
+            case Protocol.NOTIFY_SD_FULL:
+                return Type.SD_FULL;
+            case Protocol.NOTIFY_SD_NO:
+                return Type.SD_NO;
+            case Protocol.NOTIFY_SD_RM:
+                return Type.SD_REMOVED;
+            case Protocol.NOTIFY_SD_INSERT:
+                return Type.SD_INSERTED;
+            case Protocol.NOTIFY_SD_ERR:
+                return Type.SD_ERROR;
+            case Protocol.NOTIFY_SD_ABNORMAL:
+                return Type.SD_ABNORMAL;
+            case Protocol.NOTIFY_SD_LITTLE:
+                return Type.SD_LOW_SPACE;
+            case Protocol.NOTIFY_SD_UNFORMAT:
+                return Type.SD_UNFORMATTED;
+            case Protocol.NOTIFY_APP_STATUS:
+                return Type.APP_STATUS;
+            case Protocol.NOTIFY_DATE_TIME:
+                return Type.DATE_TIME;
+            case Protocol.NOTIFY_UPGRADE_STATUS:
+                return Type.UPGRADE_STATUS;
+            case Protocol.NOTIFY_APP_UPGRADE:
+                return Type.APP_UPGRADE;
+            case Protocol.NOTIFY_SYSTEM_REBOOT:
+                return Type.SYSTEM_REBOOT;
+            case Protocol.NOTIFY_UPGRADE_FILE:
+                return Type.UPGRADE_FILE;
+            case Protocol.NOTIFY_DISCONNECT_SHUTDOWN:
+                return Type.DISCONNECT_SHUTDOWN;
+            case "auto_file_delete":
+                return Type.AUTO_FILE_DELETE;
+            default:
+                return Type.UNKNOWN;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 获取消息中的type字段，连接状态事件为null
+     */
+    public String getRawType() {
+        return rawType;
+    }
+
+    public int getMsgId() {
+        return msgId;
+    }
+
+    /**
+     * 获取消息中的param字段，连接状态事件为原因等附加信息
+     */
+    public String getParam() {
+        return param;
+    }
+
+    /**
+     * 获取事件产生的本地时间
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceEvent{" + type + (rawType != null ? ", type=" + rawType : "")
+            + (param != null ? ", param=" + param : "") + "}";
+    }
+}
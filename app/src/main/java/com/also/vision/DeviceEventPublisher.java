@@ -0,0 +1,285 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * 设备事件发布者
+ * 每个订阅者只收到自己关心的事件类型，按request(n)声明的数量接收，未被请求的事件暂存在有界缓冲区中：
+ * 缓冲区满时丢弃最早的事件；状态类事件（{@link DeviceEvent.Type#isConflatable()}）
+ * 在缓冲区中只保留每种类型最新的一个。
+ * <p>
+ * 发布在协议线程中进行，只做过滤和入队，订阅者的回调在各自选择的线程中串行执行。
+ */
+public class DeviceEventPublisher implements EventFlow.Publisher<DeviceEvent> {
+    private static final String TAG = "DeviceEventPublisher";
+
+    public static final int DEFAULT_BUFFER_SIZE = 32;
+
+    // 每次在投递线程中最多连续投递的事件数，之后让出线程
+    private static final int MAX_BATCH = 32;
+
+    private final CopyOnWriteArrayList<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * 订阅所有类型的事件，在主线程中接收
+     */
+    @Override
+    public void subscribe(EventFlow.Subscriber<? super DeviceEvent> subscriber) {
+        subscribe(subscriber, null, ListenerRegistry.Delivery.MAIN, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 订阅指定类型的事件，在主线程中接收
+     *
+     * @param subscriber 订阅者
+     * @param types      关心的事件类型
+     */
+    public void subscribe(EventFlow.Subscriber<? super DeviceEvent> subscriber, Set<DeviceEvent.Type> types) {
+        subscribe(subscriber, types, ListenerRegistry.Delivery.MAIN, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 订阅事件
+     *
+     * @param subscriber 订阅者
+     * @param types      关心的事件类型，为null时接收所有类型
+     * @param delivery   回调执行的线程
+     * @param bufferSize 未被请求的事件最多缓存的数量
+     */
+    public void subscribe(EventFlow.Subscriber<? super DeviceEvent> subscriber, Set<DeviceEvent.Type> types,
+                          ListenerRegistry.Delivery delivery, int bufferSize) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        Executor executor = ListenerRegistry.executorOf(delivery);
+        EventSubscription subscription = new EventSubscription(subscriber,
+            types != null ? EnumSet.copyOf(types) : null,
+            executor != null ? executor : Runnable::run,
+            Math.max(1, bufferSize));
+        subscriptions.add(subscription);
+        subscription.schedule();
+    }
+
+    /**
+     * 发布事件
+     */
+    public void publish(DeviceEvent event) {
+        for (EventSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * 是否有订阅者，没有订阅者时不需要创建事件
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * 获取订阅者数量
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * 获取因缓冲区满而丢弃的事件总数
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (EventSubscription subscription : subscriptions) {
+            dropped += subscription.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /**
+     * 结束所有订阅，订阅者收到onComplete
+     */
+    public void complete() {
+        for (EventSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * 订阅关系及其缓冲区
+     */
+    private class EventSubscription implements EventFlow.Subscription, Runnable {
+        private final EventFlow.Subscriber<? super DeviceEvent> subscriber;
+        private final Set<DeviceEvent.Type> types;
+        private final Executor executor;
+        private final int bufferSize;
+        private final ArrayDeque<DeviceEvent> buffer = new ArrayDeque<>();
+        private long demand = 0;
+        private boolean started = false;
+        private boolean scheduled = false;
+        private boolean cancelled = false;
+        private boolean completed = false;
+        private Throwable error;
+        private long droppedCount = 0;
+
+        EventSubscription(EventFlow.Subscriber<? super DeviceEvent> subscriber, Set<DeviceEvent.Type> types,
+                          Executor executor, int bufferSize) {
+            this.subscriber = subscriber;
+            this.types = types;
+            this.executor = executor;
+            this.bufferSize = bufferSize;
+        }
+
+        void offer(DeviceEvent event) {
+            if (types != null && !types.contains(event.getType())) {
+                return;
+            }
+            synchronized (this) {
+                if (cancelled || completed) {
+                    return;
+                }
+                if (!event.getType().isConflatable() || !conflate(event)) {
+                    if (buffer.size() >= bufferSize) {
+                        buffer.poll();
+                        droppedCount++;
+                    }
+                    buffer.offer(event);
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * 替换缓冲区中同类型的状态事件
+         */
+        private boolean conflate(DeviceEvent event) {
+            Iterator<DeviceEvent> iterator = buffer.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getType() == event.getType()) {
+                    iterator.remove();
+                    buffer.offer(event);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    error = new IllegalArgumentException("request数量必须大于0: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        /**
+         * 有事件可以投递时提交到投递线程
+         */
+        void schedule() {
+            synchronized (this) {
+                if (scheduled || cancelled) {
+                    return;
+                }
+                boolean ready = !started || error != null
+                    || (demand > 0 && !buffer.isEmpty()) || (completed && buffer.isEmpty());
+                if (!ready) {
+                    return;
+                }
+                scheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            if (!started) {
+                started = true;
+                subscriber.onSubscribe(this);
+            }
+
+            for (int i = 0; i < MAX_BATCH; i++) {
+                DeviceEvent event;
+                Throwable failure;
+                boolean done;
+                synchronized (this) {
+                    failure = error;
+                    done = completed && buffer.isEmpty();
+                    event = null;
+                    if (!cancelled && failure == null && !done && demand > 0) {
+                        event = buffer.poll();
+                        if (event != null) {
+                            demand--;
+                        }
+                    }
+                    if (cancelled || failure != null || done || event == null) {
+                        scheduled = false;
+                        if (failure != null || done) {
+                            cancelled = true;
+                        }
+                    }
+                }
+
+                if (failure != null) {
+                    subscriptions.remove(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (done) {
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                    return;
+                }
+                if (event == null) {
+                    return;
+                }
+
+                try {
+                    subscriber.onNext(event);
+                } catch (RuntimeException e) {
+                    // 订阅者处理失败时取消订阅
+                    Log.e(TAG, "订阅者处理事件失败，取消订阅: " + e.getMessage());
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                scheduled = false;
+            }
+            schedule();
+        }
+
+        synchronized long getDroppedCount() {
+            return droppedCount;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.also.vision;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 设备消息
+ * 构造时只从原始字节中扫描顶层的msg_id、rval、type和数字形式的param字段，不建立任何JSON对象。
+ * 完整内容在第一次需要时才解析，并且只解析一次：
+ * {@link #body()}解析为JSONObject，{@link #as(Class)}直接解析为模型类，
+ * 已经解析过JSONObject时模型类从JSONObject转换，不再重新解析文本。
+ * <p>
+ * 非线程安全，同一条消息只应在一个线程中处理。
+ */
+public final class DeviceMessage {
+    private static final byte[] KEY_MSG_ID = "msg_id".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_RVAL = "rval".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_TYPE = "type".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_PARAM = "param".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] frame;
+    private int msgId = 0;
+    private int result = 0;
+    private String type;
+    private String param;
+    private boolean hasMsgId = false;
+
+    private JSONObject body;
+    private String text;
+
+    /**
+     * @param frame 一条完整的JSON消息
+     */
+    public DeviceMessage(byte[] frame) {
+        this.frame = frame;
+        sniff();
+    }
+
+    public int getMsgId() {
+        return msgId;
+    }
+
+    /**
+     * 获取rval，消息中没有rval时为0
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * 获取type，消息中没有type或type不是字符串时为null
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 获取数字形式的param，如文件列表响应的起始位置；消息中没有param或param不是数字时为null
+     */
+    public String getParam() {
+        return param;
+    }
+
+    public boolean hasMsgId() {
+        return hasMsgId;
+    }
+
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    public int length() {
+        return frame.length;
+    }
+
+    /**
+     * 解析为JSONObject，结果会被缓存
+     */
+    public JSONObject body() {
+        if (body == null) {
+            body = JSON.parseObject(frame, JSONObject.class);
+        }
+        return body;
+    }
+
+    /**
+     * 解析为模型类
+     *
+     * @param modelClass 模型类
+     */
+    public <T> T as(Class<T> modelClass) {
+        if (body != null) {
+            return body.toJavaObject(modelClass);
+        }
+        if (modelClass == JSONObject.class) {
+            return modelClass.cast(body());
+        }
+        return JSON.parseObject(frame, modelClass);
+    }
+
+    /**
+     * 获取消息文本，结果会被缓存
+     */
+    public String text() {
+        if (text == null) {
+            text = new String(frame, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    /**
+     * 扫描顶层字段，跳过字符串和嵌套的对象、数组
+     */
+    private void sniff() {
+        int depth = 0;
+        boolean expectKey = false;
+        int i = 0;
+
+        while (i < frame.length) {
+            byte b = frame[i];
+            if (b == '"') {
+                int end = skipString(i);
+                if (depth == 1 && expectKey) {
+                    expectKey = false;
+                    i = readValue(i + 1, end - 1, end);
+                } else {
+                    i = end;
+                }
+                continue;
+            }
+
+            if (b == '{' || b == '[') {
+                depth++;
+                expectKey = depth == 1 && b == '{';
+            } else if (b == '}' || b == ']') {
+                depth--;
+            } else if (b == ',' && depth == 1) {
+                expectKey = true;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * 读取关心的字段的值
+     *
+     * @param keyStart 键的起始位置
+     * @param keyEnd   键的结束位置（不含）
+     * @param from     键之后的位置
+     * @return 继续扫描的位置
+     */
+    private int readValue(int keyStart, int keyEnd, int from) {
+        byte[] key;
+        if (matches(KEY_MSG_ID, keyStart, keyEnd)) {
+            key = KEY_MSG_ID;
+        } else if (matches(KEY_RVAL, keyStart, keyEnd)) {
+            key = KEY_RVAL;
+        } else if (matches(KEY_TYPE, keyStart, keyEnd)) {
+            key = KEY_TYPE;
+        } else if (matches(KEY_PARAM, keyStart, keyEnd)) {
+            key = KEY_PARAM;
+        } else {
+            return from;
+        }
+
+        int i = skipWhitespace(from);
+        if (i >= frame.length || frame[i] != ':') {
+            return i;
+        }
+        i = skipWhitespace(i + 1);
+        if (i >= frame.length) {
+            return i;
+        }
+
+        if (key == KEY_TYPE) {
+            if (frame[i] != '"') {
+                // 不是字符串，交给主循环跳过
+                return i;
+            }
+            int end = skipString(i);
+            type = decodeString(i + 1, end - 1);
+            return end;
+        }
+
+        // 数字，也兼容带引号的数字
+        int start = i;
+        int end = i;
+        if (frame[i] == '"') {
+            end = skipString(i);
+            start = i + 1;
+        }
+        long value = 0;
+        boolean negative = false;
+        boolean valid = false;
+        int j = start;
+        if (j < frame.length && frame[j] == '-') {
+            negative = true;
+            j++;
+        }
+        while (j < frame.length && frame[j] >= '0' && frame[j] <= '9') {
+            value = value * 10 + (frame[j] - '0');
+            valid = true;
+            j++;
+        }
+        if (valid) {
+            int intValue = (int) (negative ? -value : value);
+            if (key == KEY_MSG_ID) {
+                msgId = intValue;
+                hasMsgId = true;
+            } else if (key == KEY_PARAM) {
+                // 只接受整个值都是数字的param，如"2024-01-01 00:00:00"不算
+                boolean whole = start == i ? j >= frame.length || frame[j] != '.' : j == end - 1;
+                if (whole) {
+                    param = String.valueOf(intValue);
+                }
+            } else {
+                result = intValue;
+            }
+        }
+        return Math.max(end, j);
+    }
+
+    private boolean matches(byte[] key, int start, int end) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (frame[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 跳过字符串
+     *
+     * @param quote 开始引号的位置
+     * @return 结束引号之后的位置
+     */
+    private int skipString(int quote) {
+        int i = quote + 1;
+        while (i < frame.length) {
+            byte b = frame[i];
+            if (b == '\\') {
+                i += 2;
+            } else if (b == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return frame.length;
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < frame.length && (frame[i] == ' ' || frame[i] == '\t' || frame[i] == '\r' || frame[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 解码字符串内容，没有转义字符时直接按UTF-8构造
+     */
+    private String decodeString(int start, int end) {
+        boolean escaped = false;
+        for (int i = start; i < end; i++) {
+            if (frame[i] == '\\') {
+                escaped = true;
+                break;
+            }
+        }
+        if (!escaped) {
+            return new String(frame, start, end - start, StandardCharsets.UTF_8);
+        }
+        // 带转义的type很少见，交给JSON解析
+        return JSON.parseObject(new String(frame, start - 1, end - start + 2, StandardCharsets.UTF_8), String.class);
+    }
+}
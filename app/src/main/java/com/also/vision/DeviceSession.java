@@ -0,0 +1,86 @@
+package com.also.vision;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 设备会话
+ * 一台设备对应一个会话，拥有独立的连接、令牌、命令队列、请求关联和回调。
+ * 所有会话共用一个NIO事件循环线程、一个协议线程和一个命令调度线程，增加设备只增加对象，不增加线程。
+ * <p>
+ * 通过{@link DeviceSessionManager}创建和获取。
+ */
+public class DeviceSession {
+    private final String deviceId;
+    private final MessageManager messageManager;
+
+    DeviceSession(String deviceId, MessageManager messageManager) {
+        this.deviceId = deviceId;
+        this.messageManager = messageManager;
+    }
+
+    /**
+     * 获取设备标识
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * 获取设备地址
+     */
+    public InetSocketAddress getAddress() {
+        return messageManager.getConnection().getDeviceAddress();
+    }
+
+    /**
+     * 获取该设备的消息管理器，用于发送命令、发起请求和注册消息处理器
+     */
+    public MessageManager getMessageManager() {
+        return messageManager;
+    }
+
+    /**
+     * 获取该设备的连接
+     */
+    public DeviceConnection getConnection() {
+        return messageManager.getConnection();
+    }
+
+    /**
+     * 连接设备，回调在主线程中执行
+     *
+     * @param callback 该设备的消息回调
+     */
+    public void connect(MessageManager.MessageCallback callback) {
+        messageManager.init(callback);
+        messageManager.connect();
+    }
+
+    /**
+     * 是否已连接
+     */
+    public boolean isConnected() {
+        return messageManager.getConnection().isConnected();
+    }
+
+    /**
+     * 获取会话令牌
+     */
+    public int getTokenNumber() {
+        return messageManager.getTokenNumber();
+    }
+
+    /**
+     * 断开连接，之后可以重新连接
+     */
+    public void disconnect() {
+        messageManager.disconnect();
+    }
+
+    /**
+     * 释放资源
+     */
+    public void release() {
+        messageManager.release();
+    }
+}
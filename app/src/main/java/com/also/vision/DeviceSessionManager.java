@@ -0,0 +1,113 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 设备会话管理类
+ * 管理同时连接的多台设备，每台设备一个{@link DeviceSession}，按设备标识查找。
+ * 默认会话对应{@link MessageManager#getInstance()}，即默认地址的设备，由VisionClient使用。
+ */
+public class DeviceSessionManager {
+    private static final String TAG = "DeviceSessionManager";
+    private static DeviceSessionManager instance;
+
+    /**
+     * 默认会话的设备标识
+     */
+    public static final String DEFAULT_DEVICE_ID = "default";
+
+    private final Map<String, DeviceSession> sessions = new ConcurrentHashMap<>();
+
+    private DeviceSessionManager() {
+        sessions.put(DEFAULT_DEVICE_ID, new DeviceSession(DEFAULT_DEVICE_ID, MessageManager.getInstance()));
+    }
+
+    public static DeviceSessionManager getInstance() {
+        if (instance == null) {
+            synchronized (DeviceSessionManager.class) {
+                if (instance == null) {
+                    instance = new DeviceSessionManager();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 创建设备会话，设备标识已存在时返回已有的会话
+     * 新会话在连接建立后自动开始会话
+     *
+     * @param deviceId 设备标识，如序列号
+     * @param host     设备IP地址
+     * @param port     设备端口
+     */
+    public DeviceSession openSession(String deviceId, String host, int port) {
+        return sessions.computeIfAbsent(deviceId, id -> {
+            Log.d(TAG, "创建设备会话: " + id + " " + host + ":" + port);
+            DeviceConnection connection = new DeviceConnection(new InetSocketAddress(host, port));
+            MessageManager messageManager = new MessageManager(connection);
+            messageManager.setAutoStartSession(true);
+            return new DeviceSession(id, messageManager);
+        });
+    }
+
+    /**
+     * 获取设备会话
+     *
+     * @return 不存在时返回null
+     */
+    public DeviceSession getSession(String deviceId) {
+        return sessions.get(deviceId);
+    }
+
+    /**
+     * 获取默认会话
+     */
+    public DeviceSession getDefaultSession() {
+        return sessions.get(DEFAULT_DEVICE_ID);
+    }
+
+    /**
+     * 获取所有会话
+     */
+    public List<DeviceSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * 获取会话数
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 关闭并移除设备会话，默认会话只断开不移除
+     */
+    public void closeSession(String deviceId) {
+        if (DEFAULT_DEVICE_ID.equals(deviceId)) {
+            getDefaultSession().disconnect();
+            return;
+        }
+        DeviceSession session = sessions.remove(deviceId);
+        if (session != null) {
+            Log.d(TAG, "关闭设备会话: " + deviceId);
+            session.release();
+        }
+    }
+
+    /**
+     * 关闭所有会话
+     */
+    public void closeAll() {
+        for (String deviceId : new ArrayList<>(sessions.keySet())) {
+            closeSession(deviceId);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.also.vision;
+
+/**
+ * 响应式流接口
+ * 与java.util.concurrent.Flow的接口和语义相同（该类从Android 11才提供，minSdk为29），
+ * 以后可以直接适配为Flow。
+ * <p>
+ * 订阅者先收到onSubscribe，通过Subscription.request(n)声明还能处理多少个事件，
+ * 发布者不会发送超过请求数量的onNext。
+ */
+public final class EventFlow {
+
+    private EventFlow() {
+    }
+
+    /**
+     * 发布者
+     */
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * 订阅者，同一个订阅者的回调不会并发执行
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * 订阅关系
+     */
+    public interface Subscription {
+        /**
+         * 请求n个事件，n必须大于0
+         */
+        void request(long n);
+
+        /**
+         * 取消订阅，之后不再收到事件
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,326 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import com.also.vision.model.DeviceFile;
+import com.also.vision.model.DeviceFileTable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 设备文件索引
+ * 按设备序列号在本地保存各类型文件的列表（保持设备返回的顺序），界面直接从索引读取，
+ * 不必每次从设备分页获取；连接后由{@link FileIndexSync}增量同步。
+ * <p>
+ * 内存中每种类型是一个{@link DeviceFileTable}，构建后不再修改，更新时整体替换。
+ * 索引以紧凑的二进制格式保存在应用私有目录中，每个文件只记录文件名和大小，
+ * URL、缩略图和时间由文件名推出。读写文件在单独的IO线程中进行。线程安全。
+ */
+public class FileIndex {
+    private static final String TAG = "FileIndex";
+
+    // 文件类型，与MSG_GET_FILE_LIST的type字段一致
+    public static final String TYPE_VIDEO = "video";
+    public static final String TYPE_PHOTO = "photo";
+    public static final String TYPE_EVENT_VIDEO = "event_video";
+    public static final String TYPE_EVENT_PHOTO = "event_photo";
+
+    private static final int MAGIC = 0x56464958;  // "VFIX"
+    private static final int VERSION = 2;  // 2: 增加URL稀疏列
+
+    // 索引文件的读写在同一个线程中按顺序进行
+    private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Vision-FileIndex");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String serial;
+    private final File file;
+    private final Map<String, TypeList> lists = new HashMap<>();
+    private boolean dirty = false;
+
+    /**
+     * 某一类型的文件列表
+     */
+    private static class TypeList {
+        // 不再修改，更新时整体替换
+        DeviceFileTable files = new DeviceFileTable(DeviceFile.BASE_URL, 0);
+        long syncedAt = 0;
+        // 按时间排序的索引，第一次查询时构建，files替换时清除
+        FileTimeIndex timeIndex;
+    }
+
+    /**
+     * @param dir    索引文件所在目录
+     * @param serial 设备序列号
+     */
+    public FileIndex(File dir, String serial) {
+        this.serial = serial;
+        this.file = new File(dir, "files_" + serial.replaceAll("[^A-Za-z0-9_-]", "_") + ".idx");
+    }
+
+    /**
+     * 在IO线程中加载设备的索引，文件不存在或损坏时返回空索引
+     *
+     * @param dir    索引文件所在目录
+     * @param serial 设备序列号
+     */
+    public static CompletableFuture<FileIndex> loadAsync(File dir, String serial) {
+        return CompletableFuture.supplyAsync(() -> {
+            FileIndex index = new FileIndex(dir, serial);
+            index.load();
+            return index;
+        }, IO_EXECUTOR);
+    }
+
+    /**
+     * 文件类型对应的DeviceFile类型
+     */
+    public static int fileTypeOf(String type) {
+        return TYPE_PHOTO.equals(type) || TYPE_EVENT_PHOTO.equals(type) ? DeviceFile.TYPE_PHOTO : DeviceFile.TYPE_VIDEO;
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    /**
+     * 该类型是否至少同步过一次，同步过的类型可以直接从索引读取
+     */
+    public synchronized boolean isSynced(String type) {
+        TypeList list = lists.get(type);
+        return list != null && list.syncedAt > 0;
+    }
+
+    /**
+     * 获取该类型上次同步完成的时间，没有同步过时为0
+     */
+    public synchronized long getSyncedAt(String type) {
+        TypeList list = lists.get(type);
+        return list != null ? list.syncedAt : 0;
+    }
+
+    /**
+     * 获取该类型的文件总数
+     */
+    public synchronized int getTotal(String type) {
+        TypeList list = lists.get(type);
+        return list != null ? list.files.size() : 0;
+    }
+
+    /**
+     * 获取该类型的全部文件，按设备返回的顺序
+     *
+     * @return 文件表，只读
+     */
+    public synchronized DeviceFileTable getTable(String type) {
+        TypeList list = lists.get(type);
+        return list != null ? list.files : new DeviceFileTable(DeviceFile.BASE_URL, 0);
+    }
+
+    /**
+     * 获取该类型按时间排序的索引，用于时间范围、最接近某一时刻和最近N个文件的查询
+     */
+    public synchronized FileTimeIndex getTimeIndex(String type) {
+        TypeList list = lists.get(type);
+        if (list == null) {
+            return new FileTimeIndex(new DeviceFileTable(DeviceFile.BASE_URL, 0));
+        }
+        if (list.timeIndex == null) {
+            list.timeIndex = new FileTimeIndex(list.files);
+        }
+        return list.timeIndex;
+    }
+
+    /**
+     * 获取该类型的一页文件，整段复制为新的表，不创建DeviceFile
+     *
+     * @param type   文件类型
+     * @param offset 起始位置
+     * @param count  获取数量
+     */
+    public DeviceFileTable getRange(String type, int offset, int count) {
+        DeviceFileTable files = getTable(type);
+        int from = Math.max(0, Math.min(offset, files.size()));
+        int to = Math.min(files.size(), from + Math.max(0, count));
+        DeviceFileTable page = new DeviceFileTable(files.getBaseUrl(), to - from);
+        page.addRange(files, from, to);
+        return page;
+    }
+
+    /**
+     * 用同步结果替换该类型的文件列表
+     *
+     * @return 列表是否有变化
+     */
+    synchronized boolean update(String type, DeviceFileTable files) {
+        TypeList list = lists.get(type);
+        if (list == null) {
+            list = new TypeList();
+            lists.put(type, list);
+        }
+        boolean changed = list.syncedAt == 0 || !list.files.sameNames(files);
+        if (changed) {
+            list.files = files;
+            list.timeIndex = null;
+            dirty = true;
+        }
+        list.syncedAt = System.currentTimeMillis();
+        return changed;
+    }
+
+    /**
+     * 从索引中移除文件，用于应用自己删除设备文件后
+     *
+     * @return 索引中是否有该文件
+     */
+    public synchronized boolean remove(String fileName) {
+        for (TypeList list : lists.values()) {
+            int i = list.files.indexOfName(fileName, 0);
+            if (i >= 0) {
+                DeviceFileTable files = new DeviceFileTable(list.files.getBaseUrl(), list.files.size() - 1);
+                files.addRange(list.files, 0, i);
+                files.addRange(list.files, i + 1, list.files.size());
+                list.files = files;
+                list.timeIndex = null;
+                dirty = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 有修改时在IO线程中保存
+     */
+    public void saveAsync() {
+        IO_EXECUTOR.execute(this::save);
+    }
+
+    /**
+     * 保存到文件，先写临时文件再替换，写入中断不会损坏已有索引
+     */
+    public void save() {
+        Map<String, TypeList> snapshot = new HashMap<>();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            for (Map.Entry<String, TypeList> entry : lists.entrySet()) {
+                TypeList copy = new TypeList();
+                copy.files = entry.getValue().files;
+                copy.syncedAt = entry.getValue().syncedAt;
+                snapshot.put(entry.getKey(), copy);
+            }
+            dirty = false;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(serial);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, TypeList> entry : snapshot.entrySet()) {
+                DeviceFileTable files = entry.getValue().files;
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().syncedAt);
+                out.writeInt(files.size());
+                for (int i = 0; i < files.size(); i++) {
+                    out.writeUTF(files.getName(i));
+                    out.writeLong(files.getSize(i));
+                }
+                out.writeInt(files.getUrlOverrideCount());
+                for (int k = 0; k < files.getUrlOverrideCount(); k++) {
+                    int row = files.getUrlOverrideRow(k);
+                    out.writeInt(row);
+                    writeNullableUTF(out, files.getFileUrlOverride(row));
+                    writeNullableUTF(out, files.getThumbnailUrlOverride(row));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "保存文件索引失败: " + e.getMessage());
+            tmp.delete();
+            synchronized (this) {
+                dirty = true;
+            }
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "替换文件索引失败: " + file);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 从文件加载
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        Map<String, TypeList> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !serial.equals(in.readUTF())) {
+                Log.w(TAG, "文件索引格式不符，忽略: " + file);
+                return;
+            }
+            int typeCount = in.readInt();
+            for (int t = 0; t < typeCount; t++) {
+                String type = in.readUTF();
+                TypeList list = new TypeList();
+                list.syncedAt = in.readLong();
+                int count = in.readInt();
+                int fileType = fileTypeOf(type);
+                DeviceFileTable files = new DeviceFileTable(DeviceFile.BASE_URL, count);
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    files.add(name, in.readLong(), fileType);
+                }
+                int overrideCount = in.readInt();
+                for (int k = 0; k < overrideCount; k++) {
+                    int row = in.readInt();
+                    String fileUrl = readNullableUTF(in);
+                    String thumbnailUrl = readNullableUTF(in);
+                    if (row < 0 || row >= count) {
+                        throw new IOException("无效的行号: " + row);
+                    }
+                    files.setUrls(row, fileUrl, thumbnailUrl);
+                }
+                list.files = files;
+                loaded.put(type, list);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "加载文件索引失败: " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            lists.putAll(loaded);
+        }
+        Log.d(TAG, "已加载设备 " + serial + " 的文件索引: " + loaded.keySet());
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
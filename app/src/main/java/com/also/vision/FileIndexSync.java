@@ -0,0 +1,187 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import com.also.vision.model.DeviceFileTable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 文件索引增量同步
+ * 设备只能按位置分页列出文件，行车记录仪的变化通常是循环录像在一端删除最旧的文件、在另一端追加新文件。
+ * 同步时先只取第一个文件得到totalFileNum，在本地索引中找到设备列表与索引重合的部分，
+ * 只校验重合部分末尾的一个文件并取回其后的新文件：
+ * <pre>
+ * 设备列表 = 新文件(前端) + 索引中连续的一段 + 新文件(末端)
+ * </pre>
+ * 校验失败（中间有文件被删除、SD卡被更换等）时退回完整获取。
+ * 文件没有变化时只需要两次单个文件的请求；连续的多页由{@link FileListPager}流水线获取。
+ */
+public class FileIndexSync {
+    private static final String TAG = "FileIndexSync";
+
+    private final FileListPager pager;
+    private final FileIndex index;
+    // 每种类型同时只进行一次同步
+    private final Map<String, CompletableFuture<Boolean>> running = new HashMap<>();
+
+    public FileIndexSync(MessageManager messageManager, FileIndex index) {
+        this.pager = new FileListPager(messageManager);
+        this.index = index;
+    }
+
+    public FileIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * 获取分页器，用于查询流水线窗口和往返时间
+     */
+    public FileListPager getPager() {
+        return pager;
+    }
+
+    /**
+     * 同步一种类型的文件列表，正在同步时返回进行中的同步
+     *
+     * @param type 文件类型，见FileIndex.TYPE_*
+     * @return 索引是否有变化；获取失败时以异常结束，索引保持不变
+     */
+    public CompletableFuture<Boolean> sync(String type) {
+        CompletableFuture<Boolean> result;
+        synchronized (running) {
+            CompletableFuture<Boolean> current = running.get(type);
+            if (current != null) {
+                return current;
+            }
+            result = new CompletableFuture<>();
+            running.put(type, result);
+        }
+
+        DeviceFileTable local = index.getTable(type);
+        long startTime = System.currentTimeMillis();
+        long startRequests = pager.getRequestCount();
+        CompletableFuture<DeviceFileTable> listing;
+        if (!index.isSynced(type) || local.size() == 0) {
+            listing = fetchAll(type);
+        } else {
+            listing = pager.fetchPage(type, 0, 1).thenCompose(probe -> reconcile(type, local, probe));
+        }
+
+        listing.whenComplete((files, error) -> {
+            synchronized (running) {
+                running.remove(type);
+            }
+            if (error != null) {
+                Log.e(TAG, "同步文件列表失败: type=" + type + ", " + error.getMessage());
+                result.completeExceptionally(error);
+                return;
+            }
+            boolean changed = index.update(type, files);
+            Log.d(TAG, "同步文件列表完成: type=" + type + ", 共" + files.size() + "个, 请求"
+                + (pager.getRequestCount() - startRequests) + "次, 耗时" + (System.currentTimeMillis() - startTime)
+                + "ms, 窗口" + pager.getWindow() + (changed ? "" : ", 无变化"));
+            result.complete(changed);
+        });
+        return result;
+    }
+
+    /**
+     * 根据第一个文件判断设备列表与索引的重合方式
+     */
+    private CompletableFuture<DeviceFileTable> reconcile(String type, DeviceFileTable local,
+                                                         FileListPager.Page probe) {
+        if (probe.total == 0 || probe.files.size() == 0) {
+            return CompletableFuture.completedFuture(probe.files);
+        }
+
+        // 设备的第一个文件在索引中：前端的旧文件已被删除，新文件只可能在末端
+        int start = local.indexOfName(probe.files.getName(0), 0);
+        if (start >= 0) {
+            return merge(type, local, start, probe.files, 0, probe.total);
+        }
+
+        // 设备的第一个文件是新文件：从头获取，直到遇到索引中的第一个文件
+        DeviceFileTable scanned = new DeviceFileTable(local.getBaseUrl(), FileListPager.PAGE_SIZE);
+        return scanForAnchor(type, local, 0, scanned).thenCompose(scan -> {
+            if (scan.anchor < 0) {
+                // 索引中的文件都已不在设备上，获取到的就是完整列表
+                return CompletableFuture.completedFuture(scan.files);
+            }
+            return merge(type, local, 0, scan.files, scan.anchor, scan.total);
+        });
+    }
+
+    /**
+     * 设备列表 = prefix[0, prefixLength) + local[start, start + kept) + 末端新文件
+     * 获取重合部分最后一个文件所在位置之后的内容，第一个文件用于校验重合部分没有变化
+     */
+    private CompletableFuture<DeviceFileTable> merge(String type, DeviceFileTable local, int start,
+                                                     DeviceFileTable prefix, int prefixLength, int total) {
+        int kept = Math.min(local.size() - start, total - prefixLength);
+        if (kept <= 0) {
+            return fetchAll(type);
+        }
+        String last = local.getName(start + kept - 1);
+        return pager.fetchRange(type, prefixLength + kept - 1, total).thenCompose(tail -> {
+            if (tail.size() == 0 || !tail.nameEquals(0, last)) {
+                Log.d(TAG, "文件列表校验不一致，完整获取: type=" + type);
+                return fetchAll(type);
+            }
+            DeviceFileTable files = new DeviceFileTable(local.getBaseUrl(), prefixLength + kept + tail.size() - 1);
+            files.addRange(prefix, 0, prefixLength);
+            files.addRange(local, start, start + kept);
+            files.addRange(tail, 1, tail.size());
+            return CompletableFuture.completedFuture(files);
+        });
+    }
+
+    /**
+     * 从offset开始逐页获取，直到遇到索引中的第一个文件或到达末尾
+     */
+    private CompletableFuture<Scan> scanForAnchor(String type, DeviceFileTable local, int offset,
+                                                  DeviceFileTable files) {
+        String anchorName = local.getName(0);
+        return pager.fetchPage(type, offset, FileListPager.PAGE_SIZE).thenCompose(page -> {
+            files.addRange(page.files, 0, page.files.size());
+            int anchor = files.indexOfName(anchorName, offset);
+            if (anchor >= 0) {
+                // 同一页中锚点之后的文件应与索引一致
+                for (int i = anchor + 1, j = 1; i < files.size() && j < local.size(); i++, j++) {
+                    if (!files.nameEquals(i, local.getName(j))) {
+                        return fetchAll(type).thenApply(all -> new Scan(all, -1, all.size()));
+                    }
+                }
+                return CompletableFuture.completedFuture(new Scan(files, anchor, page.total));
+            }
+            if (page.files.size() == 0 || files.size() >= page.total) {
+                return CompletableFuture.completedFuture(new Scan(files, -1, page.total));
+            }
+            return scanForAnchor(type, local, files.size(), files);
+        });
+    }
+
+    /**
+     * 完整获取该类型的文件列表
+     */
+    private CompletableFuture<DeviceFileTable> fetchAll(String type) {
+        return pager.fetchRange(type, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 查找锚点的结果
+     */
+    private static class Scan {
+        final DeviceFileTable files;
+        final int anchor;
+        final int total;
+
+        Scan(DeviceFileTable files, int anchor, int total) {
+            this.files = files;
+            this.anchor = anchor;
+            this.total = total;
+        }
+    }
+}
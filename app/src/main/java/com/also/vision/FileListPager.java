@@ -0,0 +1,309 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import com.alibaba.fastjson.JSONObject;
+import com.also.vision.model.DeviceFileTable;
+import com.also.vision.model.GetFileListJson;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 文件列表流水线分页
+ * 第一页得到文件总数后，其余各页不再逐页等待响应，而是同时保持最多window个请求在途，
+ * 获取整个列表大约每个窗口一个往返时间，而不是每页一个。
+ * <p>
+ * 窗口按观测到的往返时间调整：往返时间不超过最小值的两倍时每收到一页增加1/window（约每个窗口加1），
+ * 超过说明请求已在设备端排队，每页减少1/window；设备返回系统忙或命令被队列丢弃时窗口减半并重发该页。
+ * 窗口在同一设备的多次获取之间保留。
+ * <p>
+ * 响应按起始位置匹配，并校验param与请求的起始位置一致，各页按位置放回，结果是完整有序的文件表。
+ * 设备每页返回的文件可能少于请求的数量，其余各页按第一页实际返回的数量请求；
+ * 中间某页不完整时从它之后继续获取，直到到达末尾或遇到空页。
+ */
+public class FileListPager {
+    private static final String TAG = "FileListPager";
+
+    public static final int PAGE_SIZE = 100;
+    public static final int MIN_WINDOW = 1;
+    // 命令队列最多保存MAX_QUEUE_SIZE个命令，留出余量给其他命令
+    public static final int MAX_WINDOW = 8;
+
+    private static final int INITIAL_WINDOW = 4;
+    private static final int LATENCY_FACTOR = 2;     // 往返时间超过最小值的倍数时缩小窗口
+    private static final int MAX_RETRIES = 3;        // 每页因设备忙重发的最多次数
+
+    private final MessageManager messageManager;
+    private double window = INITIAL_WINDOW;
+    private long minRtt = Long.MAX_VALUE;
+
+    // 统计
+    private long requestCount = 0;
+    private long congestionCount = 0;
+
+    public FileListPager(MessageManager messageManager) {
+        this.messageManager = messageManager;
+    }
+
+    /**
+     * 获取[from, to)范围内的文件，to超过文件总数时到末尾为止
+     * 先单独获取第一页得到文件总数，其余各页流水线获取
+     *
+     * @param type 文件类型，见FileIndex.TYPE_*
+     * @param from 起始位置
+     * @param to   结束位置(不含)
+     */
+    public CompletableFuture<DeviceFileTable> fetchRange(String type, int from, int to) {
+        return fetchRange(type, from, to, null);
+    }
+
+    /**
+     * @param head 已获取的部分，结果接在其后，没有时为null
+     */
+    private CompletableFuture<DeviceFileTable> fetchRange(String type, int from, int to, DeviceFileTable head) {
+        return fetchPage(type, from, Math.min(PAGE_SIZE, to - from)).thenCompose(first -> {
+            int end = Math.min(to, first.total);
+            int size = first.files.size();
+            DeviceFileTable files = first.files;
+            if (head != null) {
+                head.addRange(first.files, 0, size);
+                files = head;
+            }
+            int next = from + size;
+            if (size == 0 || next >= end) {
+                return CompletableFuture.completedFuture(files);
+            }
+            int before = files.size();
+            return new Pipeline(type, next, end, size, files).start().thenCompose(result -> {
+                // 某页不完整时拼接在它之后停止，从实际到达的位置继续
+                int reached = next + result.size() - before;
+                if (reached >= end || reached == next) {
+                    return CompletableFuture.completedFuture(result);
+                }
+                return fetchRange(type, reached, to, result);
+            });
+        });
+    }
+
+    /**
+     * 获取一页
+     * 设备忙时以BusyException结束，起始位置不符时以IOException结束
+     */
+    public CompletableFuture<Page> fetchPage(String type, int offset, int count) {
+        synchronized (this) {
+            requestCount++;
+        }
+        return messageManager.requestFileList(type, offset, count).thenCompose(json -> {
+            CompletableFuture<Page> future = new CompletableFuture<>();
+            int result = json.getIntValue("rval");
+            if (result == Protocol.STATUS_SYSTEM_BUSY) {
+                future.completeExceptionally(new BusyException());
+            } else if (result != 0) {
+                future.completeExceptionally(new IOException("获取文件列表失败，错误码: " + result));
+            } else if (json.containsKey("param") && json.getIntValue("param") != offset) {
+                // 响应按发送顺序匹配，起始位置不符说明对应关系已错乱
+                future.completeExceptionally(new IOException("文件列表响应与请求不符: offset=" + offset
+                    + ", param=" + json.getIntValue("param")));
+            } else {
+                future.complete(Page.parse(json, type));
+            }
+            return future;
+        });
+    }
+
+    /**
+     * 获取当前窗口大小
+     */
+    public synchronized int getWindow() {
+        return (int) window;
+    }
+
+    /**
+     * 获取观测到的最小往返时间(毫秒)，没有样本时为0
+     */
+    public synchronized long getMinRtt() {
+        return minRtt != Long.MAX_VALUE ? minRtt : 0;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getCongestionCount() {
+        return congestionCount;
+    }
+
+    private synchronized void onRtt(long rtt) {
+        minRtt = Math.min(minRtt, rtt);
+        if (rtt <= minRtt * LATENCY_FACTOR) {
+            window = Math.min(MAX_WINDOW, window + 1.0 / window);
+        } else {
+            window = Math.max(MIN_WINDOW, window - 1.0 / window);
+        }
+    }
+
+    private synchronized void onCongestion() {
+        congestionCount++;
+        window = Math.max(MIN_WINDOW, window / 2);
+        Log.w(TAG, "设备忙，文件列表窗口缩小为" + (int) window);
+    }
+
+    /**
+     * 一页响应
+     */
+    static class Page {
+        final int total;
+        final DeviceFileTable files;
+
+        Page(int total, DeviceFileTable files) {
+            this.total = total;
+            this.files = files;
+        }
+
+        static Page parse(JSONObject json, String type) {
+            return new Page(GetFileListJson.parseTotal(json),
+                GetFileListJson.parseTable(json, FileIndex.fileTypeOf(type)));
+        }
+    }
+
+    /**
+     * 设备返回系统忙
+     */
+    static class BusyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BusyException() {
+            super("设备忙");
+        }
+    }
+
+    /**
+     * 一次流水线获取
+     */
+    private class Pipeline {
+        private final String type;
+        private final int from;
+        private final int end;
+        private final int pageSize;
+        private final DeviceFileTable head;
+        private final DeviceFileTable[] pages;
+        private final int[] attempts;
+        private final ArrayDeque<Integer> retries = new ArrayDeque<>();
+        private final CompletableFuture<DeviceFileTable> result = new CompletableFuture<>();
+        private int next = 0;
+        private int inFlight = 0;
+        private int remaining;
+        private boolean done = false;
+
+        /**
+         * @param pageSize 每页请求的数量
+         * @param head     已获取的部分，结果接在其后
+         */
+        Pipeline(String type, int from, int end, int pageSize, DeviceFileTable head) {
+            this.type = type;
+            this.from = from;
+            this.end = end;
+            this.pageSize = pageSize;
+            this.head = head;
+            int pageCount = (end - from + pageSize - 1) / pageSize;
+            this.pages = new DeviceFileTable[pageCount];
+            this.attempts = new int[pageCount];
+            this.remaining = pageCount;
+        }
+
+        CompletableFuture<DeviceFileTable> start() {
+            pump();
+            return result;
+        }
+
+        /**
+         * 在窗口允许的范围内发出请求，重发的页优先
+         */
+        private void pump() {
+            List<Integer> toSend = new ArrayList<>();
+            synchronized (this) {
+                int limit = getWindow();
+                while (!done && inFlight < limit && (!retries.isEmpty() || next < pages.length)) {
+                    toSend.add(!retries.isEmpty() ? retries.poll() : next++);
+                    inFlight++;
+                }
+            }
+            for (int index : toSend) {
+                send(index);
+            }
+        }
+
+        private void send(int index) {
+            long sentAt = System.currentTimeMillis();
+            int offset = from + index * pageSize;
+            fetchPage(type, offset, expectedSize(index))
+                .whenComplete((page, error) -> onPage(index, sentAt, page, error));
+        }
+
+        private void onPage(int index, long sentAt, Page page, Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+            boolean congested = cause instanceof BusyException || cause instanceof RejectedExecutionException;
+            if (error == null) {
+                onRtt(System.currentTimeMillis() - sentAt);
+            } else if (congested) {
+                onCongestion();
+            }
+
+            Throwable failure = null;
+            DeviceFileTable files = null;
+            synchronized (this) {
+                inFlight--;
+                if (done) {
+                    return;
+                }
+                if (error == null) {
+                    pages[index] = page.files;
+                    remaining--;
+                } else if (congested && ++attempts[index] <= MAX_RETRIES) {
+                    retries.add(index);
+                } else {
+                    done = true;
+                    failure = cause;
+                }
+                if (!done && remaining == 0) {
+                    done = true;
+                    files = assemble();
+                }
+            }
+
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (files != null) {
+                result.complete(files);
+            } else {
+                pump();
+            }
+        }
+
+        /**
+         * 按位置拼接各页，拼接到第一个不完整的页为止，之后的内容由调用方从实际到达的位置重新获取
+         */
+        private DeviceFileTable assemble() {
+            DeviceFileTable files = new DeviceFileTable(head.getBaseUrl(), head.size() + end - from);
+            files.addRange(head, 0, head.size());
+            for (int i = 0; i < pages.length; i++) {
+                files.addRange(pages[i], 0, pages[i].size());
+                if (pages[i].size() < expectedSize(i)) {
+                    break;
+                }
+            }
+            return files;
+        }
+
+        private int expectedSize(int index) {
+            return Math.min(pageSize, end - from - index * pageSize);
+        }
+    }
+}
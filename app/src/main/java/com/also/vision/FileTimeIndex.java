@@ -0,0 +1,185 @@
+package com.also.vision;
+
+import com.also.vision.model.DeviceFileTable;
+
+/**
+ * 文件时间索引
+ * 把一种类型的文件表按文件时间排序，时间范围、最接近某一时刻和最近N个文件的查询都是二分查找，
+ * 不必遍历整个列表。文件名不是"YYYYMMDD_HHMMSS"格式(时间为0)的文件不在索引中。
+ * <p>
+ * 只保存排序后的位置和时间两个数组，文件内容仍在原来的表中。
+ * 索引基于不再修改的表构建，构建后只读，可以在任意线程中查询。
+ */
+public final class FileTimeIndex {
+    private final DeviceFileTable table;
+    // 第k早的文件在表中的位置和时间，时间相同时保持表中的顺序
+    private final int[] order;
+    private final long[] times;
+
+    /**
+     * @param table 文件表，构建后不能再修改
+     */
+    public FileTimeIndex(DeviceFileTable table) {
+        this.table = table;
+        int count = 0;
+        for (int i = 0; i < table.size(); i++) {
+            if (table.getTime(i) != 0) {
+                count++;
+            }
+        }
+        int[] positions = new int[count];
+        for (int i = 0, k = 0; i < table.size(); i++) {
+            if (table.getTime(i) != 0) {
+                positions[k++] = i;
+            }
+        }
+        this.order = sort(table, positions);
+        this.times = new long[count];
+        for (int k = 0; k < count; k++) {
+            times[k] = table.getTime(order[k]);
+        }
+    }
+
+    public DeviceFileTable getTable() {
+        return table;
+    }
+
+    /**
+     * 索引中的文件数，不含没有时间的文件
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * 获取最早的文件时间，索引为空时为0
+     */
+    public long getEarliestTime() {
+        return order.length > 0 ? times[0] : 0;
+    }
+
+    /**
+     * 获取最新的文件时间，索引为空时为0
+     */
+    public long getLatestTime() {
+        return order.length > 0 ? times[order.length - 1] : 0;
+    }
+
+    /**
+     * 查找时间在[from, to]范围内的文件
+     *
+     * @param from 开始时间(毫秒)，包含
+     * @param to   结束时间(毫秒)，包含
+     * @return 按时间从早到晚排列的文件
+     */
+    public DeviceFileTable range(long from, long to) {
+        int start = lowerBound(from);
+        int end = to < Long.MAX_VALUE ? lowerBound(to + 1) : times.length;
+        DeviceFileTable result = new DeviceFileTable(table.getBaseUrl(), Math.max(0, end - start));
+        for (int k = start; k < end; k++) {
+            result.addRange(table, order[k], order[k] + 1);
+        }
+        return result;
+    }
+
+    /**
+     * 查找时间最接近time的文件，距离相同时取较早的
+     *
+     * @return 文件在表中的位置，索引为空时返回-1
+     */
+    public int nearest(long time) {
+        if (order.length == 0) {
+            return -1;
+        }
+        int k = lowerBound(time);
+        if (k == times.length) {
+            return order[k - 1];
+        }
+        if (k > 0 && time - times[k - 1] <= times[k] - time) {
+            return order[k - 1];
+        }
+        return order[k];
+    }
+
+    /**
+     * 查找最新的count个文件
+     *
+     * @return 按时间从新到旧排列的文件
+     */
+    public DeviceFileTable latest(int count) {
+        int n = Math.max(0, Math.min(count, order.length));
+        DeviceFileTable result = new DeviceFileTable(table.getBaseUrl(), n);
+        for (int k = order.length - 1; k >= order.length - n; k--) {
+            result.addRange(table, order[k], order[k] + 1);
+        }
+        return result;
+    }
+
+    /**
+     * 第一个时间不早于time的位置
+     */
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 按时间稳定排序
+     * 设备列表通常已经按时间从旧到新或从新到旧排列，这两种情况直接返回或反转，不必排序
+     */
+    private static int[] sort(DeviceFileTable table, int[] positions) {
+        boolean ascending = true;
+        boolean descending = true;
+        for (int k = 1; k < positions.length && (ascending || descending); k++) {
+            long previous = table.getTime(positions[k - 1]);
+            long current = table.getTime(positions[k]);
+            ascending &= previous <= current;
+            descending &= previous > current;
+        }
+        if (ascending) {
+            return positions;
+        }
+        if (descending) {
+            for (int i = 0, j = positions.length - 1; i < j; i++, j--) {
+                int temp = positions[i];
+                positions[i] = positions[j];
+                positions[j] = temp;
+            }
+            return positions;
+        }
+        int[] buffer = new int[positions.length];
+        mergeSort(table, positions, buffer, 0, positions.length);
+        return positions;
+    }
+
+    private static void mergeSort(DeviceFileTable table, int[] positions, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(table, positions, buffer, from, mid);
+        mergeSort(table, positions, buffer, mid, to);
+        if (table.getTime(positions[mid - 1]) <= table.getTime(positions[mid])) {
+            return;
+        }
+        System.arraycopy(positions, from, buffer, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && table.getTime(buffer[i]) <= table.getTime(buffer[j]))) {
+                positions[k] = buffer[i++];
+            } else {
+                positions[k] = buffer[j++];
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * JSON消息帧解码器
+ * 设备的控制Socket上没有长度头，一次读取可能包含多条JSON消息，也可能只有半条。
+ * 本类按花括号深度切分消息，并正确跳过字符串中的括号和转义字符。
+ * <p>
+ * 解码状态在多次读取之间保留，已扫描过的字节不会被重复扫描。
+ * 单帧超过最大长度时丢弃该帧并继续跟踪括号深度，直到该帧结束后重新同步，连接不受影响。
+ * <p>
+ * 非线程安全，只能在I/O线程中使用。
+ */
+public class JsonFrameDecoder {
+    private static final String TAG = "JsonFrameDecoder";
+
+    // 默认初始缓冲区大小和最大帧长度
+    public static final int DEFAULT_INITIAL_CAPACITY = 4096;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024; // 1MB
+
+    private final int maxFrameSize;
+    private byte[] buffer;
+    private int writeIndex = 0;  // 已写入字节的结束位置
+    private int scanIndex = 0;   // 下一个待扫描的位置
+    private int frameStart = -1; // 当前帧起始位置，-1表示不在帧内
+
+    // 扫描状态
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean discarding = false;
+    private int discardedBytes = 0;
+
+    public JsonFrameDecoder() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public JsonFrameDecoder(int initialCapacity, int maxFrameSize) {
+        this.buffer = new byte[initialCapacity];
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * 解码一段接收到的数据
+     *
+     * @param src      读模式的接收缓冲区，调用后会被全部消费
+     * @param listener 完整帧回调
+     */
+    public void decode(ByteBuffer src, FrameListener listener) {
+        while (src.hasRemaining()) {
+            if (discarding) {
+                // 丢弃模式下只跟踪括号状态，不保存数据
+                while (src.hasRemaining() && discarding) {
+                    discard(src.get());
+                }
+                continue;
+            }
+
+            int length = Math.min(src.remaining(), maxFrameSize + 1);
+            ensureWritable(length);
+            src.get(buffer, writeIndex, length);
+            writeIndex += length;
+
+            scanFrames(listener);
+        }
+    }
+
+    /**
+     * 扫描新写入的字节，输出完整的帧
+     */
+    private void scanFrames(FrameListener listener) {
+        while (scanIndex < writeIndex) {
+            byte b = buffer[scanIndex];
+
+            if (frameStart < 0) {
+                // 帧之间的空白或无效字节直接跳过
+                if (b == '{') {
+                    frameStart = scanIndex;
+                    scan(b);
+                }
+                scanIndex++;
+                continue;
+            }
+
+            scan(b);
+            scanIndex++;
+
+            if (depth == 0) {
+                listener.onFrame(Arrays.copyOfRange(buffer, frameStart, scanIndex));
+                frameStart = -1;
+            } else if (scanIndex - frameStart > maxFrameSize) {
+                // 超长帧：丢弃已缓存的部分，进入丢弃模式直至该帧结束
+                discarding = true;
+                discardedBytes = scanIndex - frameStart;
+                frameStart = -1;
+                while (scanIndex < writeIndex && discarding) {
+                    discard(buffer[scanIndex++]);
+                }
+            }
+        }
+
+        compact();
+    }
+
+    /**
+     * 丢弃模式下处理一个字节，超长帧结束时退出丢弃模式
+     */
+    private void discard(byte b) {
+        scan(b);
+        discardedBytes++;
+        if (depth == 0) {
+            Log.w(TAG, "丢弃超长消息帧: " + discardedBytes + " 字节");
+            discarding = false;
+            discardedBytes = 0;
+        }
+    }
+
+    /**
+     * 更新括号深度和字符串状态
+     */
+    private void scan(byte b) {
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (b == '\\') {
+                escaped = true;
+            } else if (b == '"') {
+                inString = false;
+            }
+            return;
+        }
+
+        switch (b) {
+            case '"':
+                inString = true;
+                break;
+            case '{':
+            case '[':
+                depth++;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 将未完成的帧移动到缓冲区头部
+     */
+    private void compact() {
+        if (frameStart < 0) {
+            writeIndex = 0;
+            scanIndex = 0;
+        } else if (frameStart > 0) {
+            int remaining = writeIndex - frameStart;
+            System.arraycopy(buffer, frameStart, buffer, 0, remaining);
+            scanIndex -= frameStart;
+            writeIndex = remaining;
+            frameStart = 0;
+        }
+    }
+
+    /**
+     * 确保缓冲区有足够的可写空间，不足时按2倍扩容
+     */
+    private void ensureWritable(int length) {
+        int required = writeIndex + length;
+        if (required <= buffer.length) {
+            return;
+        }
+        int newCapacity = buffer.length;
+        while (newCapacity < required) {
+            newCapacity <<= 1;
+        }
+        buffer = Arrays.copyOf(buffer, newCapacity);
+    }
+
+    /**
+     * 重置解码状态，连接重建时调用
+     */
+    public void reset() {
+        writeIndex = 0;
+        scanIndex = 0;
+        frameStart = -1;
+        depth = 0;
+        inString = false;
+        escaped = false;
+        discarding = false;
+        discardedBytes = 0;
+    }
+
+    /**
+     * 完整帧回调接口
+     */
+    public interface FrameListener {
+        void onFrame(byte[] frame);
+    }
+}
@@ -0,0 +1,314 @@
+package com.also.vision;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 监听器注册表
+ * 监听器列表写时复制，分发时无锁遍历，注册和注销可以与分发并发进行。
+ * <p>
+ * 每个监听器有自己的投递线程（主线程、后台线程或直接在分发线程中执行）和有界的待投递队列，
+ * 同一个监听器的事件按顺序串行投递，慢的监听器只积压自己的队列，不会阻塞其他监听器和分发线程。
+ * 队列满时丢弃最早的事件；带合并键的事件会替换队列中尚未投递的同键事件，只投递最新状态。
+ *
+ * @param <L> 监听器类型
+ */
+public final class ListenerRegistry<L> {
+    private static final String TAG = "ListenerRegistry";
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // 每次在投递线程中最多连续投递的事件数，之后让出线程
+    private static final int MAX_BATCH = 32;
+
+    /**
+     * 投递方式
+     */
+    public enum Delivery {
+        /**
+         * 主线程
+         */
+        MAIN,
+        /**
+         * 后台线程
+         */
+        BACKGROUND,
+        /**
+         * 直接在分发线程中执行，只适合很快返回的监听器
+         */
+        DIRECT
+    }
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Executor MAIN_EXECUTOR = MAIN_HANDLER::post;
+
+    // 后台投递线程由所有注册表共用
+    private static final ExecutorService BACKGROUND_EXECUTOR = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Vision-Listener-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicReference<Entry<L>[]> entries = new AtomicReference<>(newEntries(0));
+
+    /**
+     * 注册监听器，在主线程中投递
+     */
+    public void add(L listener) {
+        add(listener, Delivery.MAIN, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 注册监听器
+     *
+     * @param listener 监听器，已注册时忽略
+     * @param delivery 投递方式
+     */
+    public void add(L listener, Delivery delivery) {
+        add(listener, delivery, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 注册监听器
+     *
+     * @param listener 监听器，已注册时忽略
+     * @param delivery 投递方式
+     * @param capacity 待投递队列容量，满时丢弃最早的事件
+     */
+    public void add(L listener, Delivery delivery, int capacity) {
+        add(listener, executorOf(delivery), capacity);
+    }
+
+    /**
+     * 获取投递方式对应的Executor，DIRECT返回null
+     */
+    static Executor executorOf(Delivery delivery) {
+        switch (delivery) {
+            case BACKGROUND:
+                return BACKGROUND_EXECUTOR;
+            case DIRECT:
+                return null;
+            default:
+                return MAIN_EXECUTOR;
+        }
+    }
+
+    /**
+     * 注册监听器，在指定的Executor中投递
+     *
+     * @param listener 监听器，已注册时忽略
+     * @param executor 投递线程，为null时直接在分发线程中执行
+     * @param capacity 待投递队列容量，满时丢弃最早的事件
+     */
+    public void add(L listener, Executor executor, int capacity) {
+        if (listener == null) {
+            return;
+        }
+        Entry<L> entry = new Entry<>(listener, executor, Math.max(1, capacity));
+        while (true) {
+            Entry<L>[] current = entries.get();
+            if (indexOf(current, listener) >= 0) {
+                return;
+            }
+            Entry<L>[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = entry;
+            if (entries.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 注销监听器，队列中尚未投递的事件不再投递
+     */
+    public void remove(L listener) {
+        if (listener == null) {
+            return;
+        }
+        while (true) {
+            Entry<L>[] current = entries.get();
+            int index = indexOf(current, listener);
+            if (index < 0) {
+                return;
+            }
+            Entry<L>[] updated = newEntries(current.length - 1);
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (entries.compareAndSet(current, updated)) {
+                current[index].removed = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 分发事件
+     *
+     * @param event 对每个监听器执行的操作
+     */
+    public void dispatch(Consumer<L> event) {
+        dispatch(null, event);
+    }
+
+    /**
+     * 分发事件
+     *
+     * @param key   合并键，队列中有同键的事件时替换为本事件；为null时不合并
+     * @param event 对每个监听器执行的操作
+     */
+    public void dispatch(String key, Consumer<L> event) {
+        for (Entry<L> entry : entries.get()) {
+            entry.offer(key, event);
+        }
+    }
+
+    /**
+     * 获取监听器数量
+     */
+    public int size() {
+        return entries.get().length;
+    }
+
+    /**
+     * 获取因队列满而丢弃的事件总数
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (Entry<L> entry : entries.get()) {
+            dropped += entry.droppedCount;
+        }
+        return dropped;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <L> Entry<L>[] newEntries(int length) {
+        return new Entry[length];
+    }
+
+    private static <L> int indexOf(Entry<L>[] entries, L listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 待投递事件
+     */
+    private static final class Pending<L> {
+        final String key;
+        Consumer<L> event;
+
+        Pending(String key, Consumer<L> event) {
+            this.key = key;
+            this.event = event;
+        }
+    }
+
+    /**
+     * 已注册的监听器及其待投递队列
+     */
+    private static final class Entry<L> implements Runnable {
+        final L listener;
+        final Executor executor;
+        final int capacity;
+        private final ArrayDeque<Pending<L>> queue = new ArrayDeque<>();
+        private boolean scheduled = false;
+        volatile boolean removed = false;
+        volatile long droppedCount = 0;
+
+        Entry(L listener, Executor executor, int capacity) {
+            this.listener = listener;
+            this.executor = executor;
+            this.capacity = capacity;
+        }
+
+        void offer(String key, Consumer<L> event) {
+            if (executor == null) {
+                deliver(event);
+                return;
+            }
+
+            synchronized (this) {
+                if (key != null && conflate(key, event)) {
+                    return;
+                }
+                if (queue.size() >= capacity) {
+                    queue.poll();
+                    droppedCount++;
+                }
+                queue.offer(new Pending<>(key, event));
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        /**
+         * 替换队列中同键的事件
+         */
+        private boolean conflate(String key, Consumer<L> event) {
+            Iterator<Pending<L>> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                Pending<L> pending = iterator.next();
+                if (key.equals(pending.key)) {
+                    pending.event = event;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 在投递线程中按顺序投递，每次最多投递MAX_BATCH个后让出线程
+         */
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                Pending<L> pending;
+                synchronized (this) {
+                    pending = queue.poll();
+                    if (pending == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                deliver(pending.event);
+            }
+            executor.execute(this);
+        }
+
+        private void deliver(Consumer<L> event) {
+            if (removed) {
+                return;
+            }
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "监听器处理事件失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.also.vision;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 连接存活检测
+ * 设备的任何一条消息都证明连接存活，只有链路空闲超过探测间隔时才发送date_time探测。
+ * <p>
+ * 探测间隔在[minProbeInterval, maxProbeInterval]之间自适应：按探测往返时间(RTT)的平滑值和偏差计算，
+ * RTT抖动越大间隔越短；连续没有收到任何消息超过deadPeerTimeout时判定设备失联。
+ * 默认值与Protocol中的心跳机制一致：每秒检测一次，空闲时最长每4秒探测一次，10秒没有响应触发重连。
+ * <p>
+ * 所有状态只在构造时传入的Handler线程中访问，其他线程调用的方法会切换到该线程。
+ */
+public class LivenessMonitor {
+    private static final String TAG = "LivenessMonitor";
+
+    public static final long DEFAULT_MIN_PROBE_INTERVAL = 1000;   // 最短探测间隔(毫秒)
+    public static final long DEFAULT_MAX_PROBE_INTERVAL = 4000;   // 最长探测间隔(毫秒)
+    public static final long DEFAULT_DEAD_PEER_TIMEOUT = 10000;   // 失联判定时间(毫秒)
+
+    // RTT平滑系数，与TCP的RTO估计相同
+    private static final double RTT_ALPHA = 0.125;
+    private static final double RTT_BETA = 0.25;
+
+    private final Handler handler;
+    private final Callback callback;
+    private final Runnable checkTask = this::check;
+
+    private long minProbeInterval = DEFAULT_MIN_PROBE_INTERVAL;
+    private long maxProbeInterval = DEFAULT_MAX_PROBE_INTERVAL;
+    private long deadPeerTimeout = DEFAULT_DEAD_PEER_TIMEOUT;
+
+    private boolean running = false;
+    private long lastInboundAt = 0;
+    private long lastProbeAt = 0;
+    private double smoothedRtt = 0;
+    private double rttVariance = 0;
+    private long probeInterval = DEFAULT_MAX_PROBE_INTERVAL;
+
+    // 统计
+    private volatile long probeCount = 0;
+    private volatile long inboundCount = 0;
+    private volatile long deadPeerCount = 0;
+
+    /**
+     * @param handler  执行检测的Handler，应与收到消息的线程相同
+     * @param callback 发送探测和失联通知
+     */
+    public LivenessMonitor(Handler handler, Callback callback) {
+        this.handler = handler;
+        this.callback = callback;
+    }
+
+    /**
+     * 设置检测参数
+     *
+     * @param minProbeInterval 最短探测间隔(毫秒)
+     * @param maxProbeInterval 最长探测间隔(毫秒)
+     * @param deadPeerTimeout  失联判定时间(毫秒)，应大于maxProbeInterval
+     */
+    public void configure(long minProbeInterval, long maxProbeInterval, long deadPeerTimeout) {
+        handler.post(() -> {
+            this.minProbeInterval = minProbeInterval;
+            this.maxProbeInterval = Math.max(minProbeInterval, maxProbeInterval);
+            this.deadPeerTimeout = deadPeerTimeout;
+            updateProbeInterval();
+        });
+    }
+
+    /**
+     * 开始检测，会话开始后调用
+     */
+    public void start() {
+        handler.post(() -> {
+            running = true;
+            lastInboundAt = SystemClock.elapsedRealtime();
+            lastProbeAt = 0;
+            reschedule();
+            Log.d(TAG, "开始存活检测，失联判定时间: " + deadPeerTimeout + "ms");
+        });
+    }
+
+    /**
+     * 停止检测，连接断开或主动断开时调用
+     */
+    public void stop() {
+        handler.post(() -> {
+            running = false;
+            handler.removeCallbacks(checkTask);
+        });
+    }
+
+    /**
+     * 收到设备消息，在Handler线程中调用
+     */
+    void onInbound() {
+        lastInboundAt = SystemClock.elapsedRealtime();
+        inboundCount++;
+    }
+
+    /**
+     * 获取当前探测间隔(毫秒)
+     */
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+
+    /**
+     * 获取平滑后的RTT(毫秒)，还没有样本时为0
+     */
+    public double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * 获取RTT偏差(毫秒)
+     */
+    public double getRttVariance() {
+        return rttVariance;
+    }
+
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    public long getInboundCount() {
+        return inboundCount;
+    }
+
+    public long getDeadPeerCount() {
+        return deadPeerCount;
+    }
+
+    private void check() {
+        if (!running) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long idle = now - lastInboundAt;
+
+        if (idle >= deadPeerTimeout) {
+            running = false;
+            deadPeerCount++;
+            Log.w(TAG, "设备 " + idle + "ms 没有任何消息，判定为失联");
+            callback.onPeerDead(idle);
+            return;
+        }
+
+        // 链路空闲且距上次探测已超过探测间隔时才探测，有消息往来时不发送任何探测
+        if (idle >= probeInterval && now - lastProbeAt >= probeInterval) {
+            sendProbe(now);
+        }
+        reschedule();
+    }
+
+    private void sendProbe(long now) {
+        lastProbeAt = now;
+        probeCount++;
+        CompletableFuture<?> future = callback.sendProbe();
+        if (future == null) {
+            return;
+        }
+        future.whenComplete((response, error) -> {
+            if (error == null) {
+                long rtt = SystemClock.elapsedRealtime() - now;
+                handler.post(() -> onRttSample(rtt));
+            }
+        });
+    }
+
+    /**
+     * 更新RTT估计：srtt += α(rtt - srtt)，rttvar += β(|rtt - srtt| - rttvar)
+     */
+    private void onRttSample(long rtt) {
+        if (smoothedRtt == 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2.0;
+        } else {
+            rttVariance += RTT_BETA * (Math.abs(rtt - smoothedRtt) - rttVariance);
+            smoothedRtt += RTT_ALPHA * (rtt - smoothedRtt);
+        }
+        updateProbeInterval();
+    }
+
+    /**
+     * 按RTT偏差与平滑值之比收缩探测间隔：链路稳定时为最长间隔，抖动越大越接近最短间隔
+     */
+    private void updateProbeInterval() {
+        double jitter = smoothedRtt > 0 ? rttVariance / smoothedRtt : 0;
+        long interval = (long) (maxProbeInterval / (1 + 4 * jitter));
+        // 失联前至少留出两次探测的机会
+        interval = Math.min(interval, deadPeerTimeout / 3);
+        probeInterval = Math.max(minProbeInterval, Math.min(maxProbeInterval, interval));
+    }
+
+    /**
+     * 在下一次需要探测或判定失联的时间点再检测
+     */
+    private void reschedule() {
+        handler.removeCallbacks(checkTask);
+        if (!running) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long nextProbe = Math.max(lastInboundAt, lastProbeAt) + probeInterval;
+        long dead = lastInboundAt + deadPeerTimeout;
+        long next = Math.min(nextProbe, dead);
+        handler.postDelayed(checkTask, Math.max(minProbeInterval / 4, next - now));
+    }
+
+    /**
+     * 探测和失联回调，在Handler线程中执行
+     */
+    public interface Callback {
+        /**
+         * 发送探测
+         *
+         * @return 探测响应，用于计算RTT；返回null时不计算
+         */
+        CompletableFuture<?> sendProbe();
+
+        /**
+         * 设备失联
+         *
+         * @param idleMs 没有收到任何消息的时间
+         */
+        void onPeerDead(long idleMs);
+    }
+}
@@ -0,0 +1,111 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 消息分发表
+ * 按msg_id把设备消息路由到注册的处理器，每个处理器声明自己需要的模型类，
+ * 分发时只做一次解析，直接得到模型对象。没有注册处理器的消息交给默认处理器，
+ * 不做任何解析。
+ * <p>
+ * 处理器在调用dispatch的线程中执行，需要更新界面时由处理器自行切换到主线程。
+ * 注册和注销是线程安全的。
+ */
+public class MessageDispatcher {
+    private static final String TAG = "MessageDispatcher";
+
+    private final Map<Integer, Registration<?>> handlers = new ConcurrentHashMap<>();
+    private volatile MessageHandler<DeviceMessage> defaultHandler;
+
+    /**
+     * 注册处理器，同一msg_id的处理器会被替换
+     *
+     * @param msgId      消息ID
+     * @param modelClass 模型类，为null时不解析消息内容，处理器收到的模型为null
+     * @param handler    处理器
+     */
+    public <T> void register(int msgId, Class<T> modelClass, MessageHandler<T> handler) {
+        handlers.put(msgId, new Registration<>(modelClass, handler));
+    }
+
+    /**
+     * 注销处理器
+     *
+     * @param msgId 消息ID
+     */
+    public void unregister(int msgId) {
+        handlers.remove(msgId);
+    }
+
+    /**
+     * 设置默认处理器，处理没有注册处理器的消息
+     */
+    public void setDefaultHandler(MessageHandler<DeviceMessage> handler) {
+        this.defaultHandler = handler;
+    }
+
+    /**
+     * 分发消息
+     *
+     * @param message 设备消息
+     * @return 是否有处理器处理了该消息
+     */
+    public boolean dispatch(DeviceMessage message) {
+        Registration<?> registration = handlers.get(message.getMsgId());
+        if (registration != null) {
+            registration.handle(message);
+            return true;
+        }
+
+        MessageHandler<DeviceMessage> handler = defaultHandler;
+        if (handler != null) {
+            handler.onMessage(message, message);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 消息处理器
+     */
+    public interface MessageHandler<T> {
+        /**
+         * @param message 设备消息，可从中获取msg_id、rval和type
+         * @param model   解析得到的模型对象
+         */
+        void onMessage(DeviceMessage message, T model);
+
+        /**
+         * 消息内容解析失败
+         */
+        default void onParseFailed(DeviceMessage message, Exception e) {
+            Log.e(TAG, "解析消息失败: msg_id=" + message.getMsgId() + ", " + e.getMessage());
+        }
+    }
+
+    private static class Registration<T> {
+        final Class<T> modelClass;
+        final MessageHandler<T> handler;
+
+        Registration(Class<T> modelClass, MessageHandler<T> handler) {
+            this.modelClass = modelClass;
+            this.handler = handler;
+        }
+
+        void handle(DeviceMessage message) {
+            T model = null;
+            if (modelClass != null) {
+                try {
+                    model = message.as(modelClass);
+                } catch (Exception e) {
+                    handler.onParseFailed(message, e);
+                    return;
+                }
+            }
+            handler.onMessage(message, model);
+        }
+    }
+}
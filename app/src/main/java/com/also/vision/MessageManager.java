@@ -1,18 +1,18 @@
 package com.also.vision;
 
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.Message;
+import android.os.Process;
 import android.util.Log;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONException;
 import com.alibaba.fastjson.JSONObject;
+import com.also.vision.model.GetTokenNumberJson;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 消息管理类
@@ -23,21 +23,71 @@ import java.util.concurrent.Executors;
  * 2. 每个消息都包含msg_id字段，用于标识消息类型
  * 3. 请求消息通常包含token字段(会话令牌)，由开始会话获得
  * 4. 响应消息通常包含rval字段，0表示成功，其他值表示错误
+ * <p>
+ * 线程模型：收到的消息在协议线程中解析、分发，会话状态也在协议线程中更新；
+ * MessageCallback的回调都在主线程中执行。协议线程由所有设备会话共用。
+ * <p>
+ * {@link #getInstance()}返回默认设备的消息管理器，其他设备通过{@link DeviceSessionManager}创建。
  */
 public class MessageManager {
     private static final String TAG = "MessageManager";
     private static MessageManager instance;
 
-    private DeviceConnection connection;
-    private Handler messageHandler;
+    private final DeviceConnection connection;
     private MessageCallback callback;
-    private int tokenNumber = 0; // 会话令牌
+    private volatile int tokenNumber = 0; // 会话令牌
     private int retryCount = 0;
     private static final int MAX_RETRY_COUNT = 5;
-    private ExecutorService executorService;
     private Handler mainHandler;
-    private boolean heartbeatRunning = false;
-    private static final long HEARTBEAT_INTERVAL = 30000; // 30秒
+
+    // 协议线程：负责消息解析、分发和会话状态，只把最终结果切换到主线程，所有会话共用
+    private static HandlerThread protocolThread;
+    private static Handler protocolHandler;
+
+    // 连接建立后自动开始会话
+    private volatile boolean autoStartSession = false;
+
+    // 协议线程处理统计
+    private volatile long processedMessageCount = 0;
+    private volatile long processingTimeNanos = 0;
+
+    // 存活检测：任何消息都视为心跳，只在链路空闲时发送date_time探测
+    private final LivenessMonitor livenessMonitor;
+
+    // 设备时钟同步，样本来自date_time查询
+    private final ClockSync clockSync = new ClockSync(this::setDateTime);
+    // date_time查询写入连接的时间，设备按顺序响应，按发送顺序与响应对应
+    private final ConcurrentLinkedQueue<Long> dateTimeSentAt = new ConcurrentLinkedQueue<>();
+
+    // 请求响应关联
+    private final RequestTracker requestTracker = new RequestTracker();
+    public static final long DEFAULT_REQUEST_TIMEOUT = 5000; // 5秒
+
+    // 命令队列，所有命令经过去重、限流和优先级调度后再发送
+    private final CommandQueue commandQueue;
+
+    // 会话状态，短暂断线后恢复会话
+    private final SessionState sessionState = new SessionState();
+
+    // 按msg_id分发设备消息
+    private final MessageDispatcher dispatcher = new MessageDispatcher();
+
+    // 设备事件流，订阅者按类型订阅通知和连接状态
+    private final DeviceEventPublisher events = new DeviceEventPublisher();
+
+    // 固定格式命令的预编码模板
+    private static final CommandEncoder.Template START_SESSION_TEMPLATE =
+        new CommandEncoder.Template(257, null, false);
+    private static final CommandEncoder.Template SD_INFO_TEMPLATE =
+        new CommandEncoder.Template(Protocol.MSG_GET_SD_INFO, null);
+    private static final CommandEncoder.Template TAKE_PHOTO_TEMPLATE =
+        new CommandEncoder.Template(Protocol.MSG_TAKE_PHOTO, null);
+    private static final CommandEncoder.Template EVENT_RECORD_TEMPLATE =
+        new CommandEncoder.Template(Protocol.MSG_START_RECORD, null);
+    private static final CommandEncoder.Template APP_STATUS_TEMPLATE =
+        new CommandEncoder.Template(Protocol.MSG_GET_APP_STATUS, "app_status");
+    private static final CommandEncoder.Template DATE_TIME_TEMPLATE =
+        new CommandEncoder.Template(Protocol.MSG_GET_DATE_TIME, "date_time");
 
     // 会话管理相关消息
     /**
@@ -61,6 +111,13 @@ public class MessageManager {
      */
     public static final int MSG_APP_STATUS = 1;
 
+    /**
+     * 设置日期时间消息ID，即type为date_time的设置参数命令
+     * 请求体: {"token":12345,"msg_id":2,"type":"date_time","param":"2023-05-01 12:00:00"}
+     * 响应体: {"msg_id":2,"rval":0,"type":"date_time"}
+     */
+    public static final int MSG_SET_DATE_TIME = Protocol.MSG_SET_PARAM;
+
     // 设备信息相关消息
     /**
      * 设备信息消息ID
@@ -193,37 +250,33 @@ public class MessageManager {
 
     // 文件管理相关消息
     /**
-     * 获取文件列表消息ID
-     * 请求体: {"token":12345,"msg_id":1281,"param":"all","offset":0,"count":20}
-     * 响应体: {"msg_id":1281,"rval":0,"total":100,"files":[{"name":"IMG_0001.JPG","path":"/DCIM/100MEDIA/","url":"http://192.168.42.1/DCIM/100MEDIA/IMG_0001.JPG","thumb":"http://192.168.42.1/DCIM/100MEDIA/IMG_0001_THUMB.JPG","size":1024000,"time":"2023-05-01 12:00:00","type":2}]}
+     * 获取文件列表消息ID，与Protocol.MSG_GET_FILE_LIST一致
+     * 请求体: {"token":12345,"msg_id":1280,"param":0,"type":"video","pageSize":100}
+     * 响应体: {"msg_id":1280,"rval":0,"totalFileNum":150,"param":0,"listing":[{"name":"20220101_120000.MP4"}]}
      * <p>
      * 参数说明:
-     * param: 文件类型，"all"=所有文件，"video"=视频文件，"photo"=图片文件
-     * offset: 起始位置，用于分页
-     * count: 获取数量，用于分页
+     * param: 起始位置，用于分页
+     * type: 文件类型，"video", "photo", "event_video", "event_photo"
+     * pageSize: 获取数量，用于分页
      * <p>
      * 响应说明:
-     * total: 文件总数
-     * files: 文件列表
-     * name: 文件名
-     * path: 文件路径
-     * url: 文件URL，可通过HTTP直接访问
-     * thumb: 缩略图URL，可通过HTTP直接访问
-     * size: 文件大小(字节)
-     * time: 文件创建时间
-     * type: 文件类型，1=视频文件，2=图片文件
-     */
-    public static final int MSG_GET_FILE_LIST = 1281;
-
-    /**
-     * 删除文件消息ID
-     * 请求体: {"token":12345,"msg_id":1282,"param":"IMG_0001.JPG"}
-     * 响应体: {"msg_id":1282,"rval":0}
+     * totalFileNum: 该类型文件总数
+     * param: 当前页起始位置
+     * listing: 文件列表，文件名格式为"YYYYMMDD_HHMMSS.EXT"
+     * <p>
+     * 旧固件使用total/offset/files字段，GetFileListJson同时兼容两种格式
+     */
+    public static final int MSG_GET_FILE_LIST = Protocol.MSG_GET_FILE_LIST;
+
+    /**
+     * 删除文件消息ID，与Protocol.MSG_DELETE_FILE一致
+     * 请求体: {"token":12345,"msg_id":1281,"param":"20220101_120000.MP4"}
+     * 响应体: {"msg_id":1281,"rval":0}
      * <p>
      * 参数说明:
      * param: 要删除的文件名
      */
-    public static final int MSG_DELETE_FILE = 1282;
+    public static final int MSG_DELETE_FILE = Protocol.MSG_DELETE_FILE;
 
     /**
      * 下载文件消息ID (未在Protocol中定义)
@@ -257,25 +310,69 @@ public class MessageManager {
      */
     public static final int MSG_NOTIFICATION = 7;
 
-    private MessageManager() {
-        this.connection = DeviceConnection.getInstance();
-        this.executorService = Executors.newSingleThreadExecutor();
+    /**
+     * @param connection 设备连接，每台设备一个
+     */
+    MessageManager(DeviceConnection connection) {
+        this.connection = connection;
+        this.commandQueue = new CommandQueue(
+            command -> {
+                if (command.getMsgId() == Protocol.MSG_GET_DATE_TIME && "date_time".equals(command.getType())) {
+                    // 时钟同步以写入连接的时间作为查询时间，不计入排队时间
+                    dateTimeSentAt.offer(System.currentTimeMillis());
+                }
+                connection.sendData(command.getData(), command.getMsgId());
+            },
+            new CommandQueue.Listener() {
+                @Override
+                public void onCoalesced(CommandQueue.Command replaced, CommandQueue.Command incoming) {
+                    // 两个异步请求共用合并后命令的响应
+                    if (replaced.isTracked() && incoming.isTracked()) {
+                        requestTracker.coalesce(incoming.getMsgId(), incoming.getType(), incoming.getParam());
+                    }
+                }
+
+                @Override
+                public void onDropped(CommandQueue.Command command) {
+                    if (command.isTracked()) {
+                        requestTracker.failNewest(command.getMsgId(), command.getType(), command.getParam(),
+                            new RejectedExecutionException("命令未发送: msg_id=" + command.getMsgId()));
+                    }
+                }
+            });
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.livenessMonitor = new LivenessMonitor(startProtocolThread(), new LivenessMonitor.Callback() {
+            @Override
+            public CompletableFuture<?> sendProbe() {
+                return probe();
+            }
 
-        // 创建消息处理Handler
-        this.messageHandler = new Handler(Looper.getMainLooper()) {
             @Override
-            public void handleMessage(Message msg) {
-                processMessage(msg);
+            public void onPeerDead(long idleMs) {
+                connection.reportDeadPeer("设备" + idleMs + "ms没有响应");
             }
-        };
+        });
+
+        registerHandlers();
+    }
+
+    /**
+     * 启动协议线程，已在运行时不重复启动
+     */
+    private static synchronized Handler startProtocolThread() {
+        if (protocolThread == null || !protocolThread.isAlive()) {
+            protocolThread = new HandlerThread("Vision-Protocol", Process.THREAD_PRIORITY_BACKGROUND);
+            protocolThread.start();
+            protocolHandler = new Handler(protocolThread.getLooper());
+        }
+        return protocolHandler;
     }
 
     public static MessageManager getInstance() {
         if (instance == null) {
             synchronized (MessageManager.class) {
                 if (instance == null) {
-                    instance = new MessageManager();
+                    instance = new MessageManager(DeviceConnection.getInstance());
                 }
             }
         }
@@ -288,161 +385,281 @@ public class MessageManager {
     public void init(MessageCallback callback) {
         this.callback = callback;
         this.mainHandler = new Handler(Looper.getMainLooper());
-        this.executorService = Executors.newSingleThreadExecutor();
-        this.messageHandler = new Handler(Looper.getMainLooper()) {
+        Handler protocolHandler = startProtocolThread();
+
+        // 连接回调在协议线程中执行，DeviceConnection保证每次onDataReceived都是一条完整的JSON
+        connection.init(new DeviceConnection.ConnectionCallback() {
+            @Override
+            public void onConnected() {
+                if (autoStartSession) {
+                    startSession();
+                }
+                events.publish(DeviceEvent.connection(DeviceEvent.Type.CONNECTED, null));
+                if (MessageManager.this.callback != null) {
+                    mainHandler.post(() -> MessageManager.this.callback.onConnected());
+                }
+            }
+
+            @Override
+            public void onConnectionFailed(String reason) {
+                livenessMonitor.stop();
+                commandQueue.clear();
+                requestTracker.failAll(new IOException(reason));
+                dateTimeSentAt.clear();
+                sessionState.onConnectionLost();
+                events.publish(DeviceEvent.connection(DeviceEvent.Type.CONNECTION_FAILED, reason));
+                if (MessageManager.this.callback != null) {
+                    mainHandler.post(() -> MessageManager.this.callback.onConnectionFailed(reason));
+                }
+            }
+
             @Override
-            public void handleMessage(Message msg) {
-                processMessage(msg);
+            public void onConnectionLost(String reason, long retryDelayMs) {
+                // 排队中的命令带有旧令牌，重连后重新开始会话
+                livenessMonitor.stop();
+                commandQueue.clear();
+                requestTracker.failAll(new IOException(reason));
+                dateTimeSentAt.clear();
+                sessionState.onConnectionLost();
+                events.publish(DeviceEvent.connection(DeviceEvent.Type.RECONNECTING, reason));
+                if (MessageManager.this.callback != null) {
+                    mainHandler.post(() -> MessageManager.this.callback.onReconnecting(reason, retryDelayMs));
+                }
             }
-        };
-    }
-
-    /**
-     * 处理接收到的消息
-     */
-    private void processMessage(Message msg) {
-        // 处理消息
-        if (msg.obj instanceof String) {
-            String jsonStr = (String) msg.obj;
-            try {
-                JSONObject jsonObject = JSON.parseObject(jsonStr);
-                int msgId = jsonObject.getIntValue("msg_id");
-                int result = jsonObject.containsKey("rval") ? jsonObject.getIntValue("rval") : 0;
-
-                Log.d(TAG, "收到消息: " + jsonStr);
-
-                // 根据消息ID处理不同类型的消息
-                switch (msgId) {
-                    case MSG_START_SESSION:
-                        // 处理开始会话响应
-                        if (result == 0) {
-                            int param = jsonObject.getIntValue("param");
-                            Log.d(TAG, "会话开始成功，令牌: " + param);
-                            this.tokenNumber = param;
-
-                            // 会话开始后，设置应用状态、获取所有参数、获取SD卡信息和设备信息
-                            setAppStatus();
-                            getAllParams();
-                            getSDCardInfo();
-                            getDeviceInfo();
-
-                            if (callback != null) {
-                                mainHandler.post(() -> callback.onConnected());
-                            }
-                        } else {
-                            Log.e(TAG, "会话开始失败，错误码: " + result);
-                            if (callback != null) {
-                                mainHandler.post(() -> callback.onConnectionFailed("会话开始失败，错误码: " + result));
-                            }
-                        }
-                        break;
-                    case MSG_END_SESSION:
-                        // 处理结束会话响应
-                        if (result == 0) {
-                            Log.d(TAG, "会话结束成功");
-                        } else {
-                            Log.e(TAG, "会话结束失败，错误码: " + result);
-                        }
-                        break;
-                    case MSG_APP_STATUS:
-                        // 处理应用状态或心跳响应
-                        if (jsonObject.containsKey("type")) {
-                            String type = jsonObject.getString("type");
-                            if ("date_time".equals(type) && jsonObject.containsKey("param")) {
-                                // 处理心跳响应中的时间同步
-                                String deviceTime = jsonObject.getString("param");
-                                try {
-                                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                                    Date deviceDate = sdf.parse(deviceTime);
-                                    long deviceTimestamp = deviceDate.getTime();
-                                    long currentTimestamp = System.currentTimeMillis();
-
-                                    // 如果设备时间与本地时间相差超过1分钟，则同步时间
-                                    if (Math.abs(deviceTimestamp - currentTimestamp) > 60000) {
-                                        Log.d(TAG, "设备时间与本地时间相差较大，同步时间");
-                                        String currentTime = sdf.format(new Date(currentTimestamp));
-                                        setDateTime(currentTime);
-                                    }
-                                } catch (Exception e) {
-                                    Log.e(TAG, "解析设备时间失败: " + e.getMessage());
-                                }
-                            }
-                        }
-                        break;
-                    case MSG_NOTIFICATION:
-                        // 处理通知消息
-                        if (jsonObject.containsKey("type")) {
-                            String type = jsonObject.getString("type");
-                            Log.d(TAG, "收到通知消息: " + type);
-
-                            if ("disconnect_shutdown".equals(type)) {
-                                // 设备断开连接或关机
-                                if (callback != null) {
-                                    mainHandler.post(() -> callback.onDeviceDisconnected("设备已断开连接或关机"));
-                                }
-                            } else if ("SD_rm".equals(type)) {
-                                // SD卡移除
-                                if (callback != null) {
-                                    mainHandler.post(() -> callback.onSDCardRemoved());
-                                }
-                            } else if ("SD_insert".equals(type)) {
-                                // SD卡插入
-                                if (callback != null) {
-                                    mainHandler.post(() -> callback.onSDCardInserted());
-                                }
-                            } else if ("SD_err".equals(type)) {
-                                // SD卡错误
-                                if (callback != null) {
-                                    mainHandler.post(() -> callback.onSDCardError());
-                                }
-                            }
-                        }
-                        break;
-                    case MSG_TAKE_PHOTO:
-                        // 处理拍照响应
-                        if (result == 0) {
-                            String url = jsonObject.containsKey("url") ? jsonObject.getString("url") : "";
-                            String thumbnailUrl =
-                                jsonObject.containsKey("thumbnailUrl") ? jsonObject.getString("thumbnailUrl") : "";
-                            int fileType = jsonObject.containsKey("fileType") ? jsonObject.getIntValue("fileType") : 0;
-
-                            Log.d(TAG, "拍照成功: URL=" + url + ", 缩略图URL=" + thumbnailUrl);
-
-                            if (callback != null) {
-                                mainHandler.post(() -> callback.onPhotoTaken(url, thumbnailUrl, fileType));
-                            }
-                        } else {
-                            Log.e(TAG, "拍照失败，错误码: " + result);
-                            if (callback != null) {
-                                mainHandler.post(() -> callback.onPhotoFailed(result));
-                            }
-                        }
-                        break;
-                    case MSG_EVENT_RECORD:
-                        // 处理事件记录响应
-                        if (result == 0) {
-                            Log.d(TAG, "事件记录成功");
-                            if (callback != null) {
-                                mainHandler.post(() -> callback.onEventRecordSuccess());
-                            }
-                        } else {
-                            Log.e(TAG, "事件记录失败，错误码: " + result);
-                            if (callback != null) {
-                                mainHandler.post(() -> callback.onEventRecordFailed(result));
-                            }
-                        }
-                        break;
-                    default:
-                        // 处理其他消息
-                        if (callback != null) {
-                            mainHandler.post(() -> callback.onMessageReceived(msgId, result, jsonStr));
-                        }
-                        break;
+
+            @Override
+            public void onDataReceived(byte[] data) {
+                processFrame(data);
+            }
+        }, protocolHandler);
+    }
+
+    /**
+     * 注册内部消息处理器
+     * 会话、心跳、通知、拍照、事件记录和文件列表由MessageManager自己处理，其余消息由上层注册处理器或交给默认处理器
+     */
+    private void registerHandlers() {
+        // 处理开始会话响应
+        dispatcher.register(MSG_START_SESSION, GetTokenNumberJson.class, (message, json) -> {
+            int result = message.getResult();
+            if (result == 0) {
+                int param = json.getTokenNumber();
+                boolean resumed = sessionState.canResume();
+                Log.d(TAG, "会话开始成功，令牌: " + param + (resumed ? "，恢复上一个会话" : ""));
+                this.tokenNumber = param;
+                sessionState.onSessionStarted();
+
+                // 会话开始后，设置应用状态、获取所有参数、获取SD卡信息和设备信息
+                // 恢复会话时沿用缓存的参数和设备信息，SD卡可能在断开期间被拔出，仍然重新获取
+                setAppStatus();
+                fetchSessionData(MSG_GET_ALL_PARAMS, resumed);
+                getSDCardInfo();
+                fetchSessionData(MSG_DEVICE_INFO, resumed);
+                queryDateTime();
+                startHeartbeat();
+                events.publish(DeviceEvent.connection(DeviceEvent.Type.SESSION_STARTED, resumed ? "resumed" : null));
+
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onSessionStarted(resumed));
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "解析消息失败: " + e.getMessage());
-                e.printStackTrace();
+            } else {
+                Log.e(TAG, "会话开始失败，错误码: " + result);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onConnectionFailed("会话开始失败，错误码: " + result));
+                }
+            }
+        });
+
+        // 处理结束会话响应
+        dispatcher.register(MSG_END_SESSION, null, (message, none) -> {
+            if (message.getResult() == 0) {
+                Log.d(TAG, "会话结束成功");
+            } else {
+                Log.e(TAG, "会话结束失败，错误码: " + message.getResult());
+            }
+        });
+
+        // 处理应用状态或心跳响应，只有date_time响应需要解析内容，交给时钟同步
+        dispatcher.register(MSG_APP_STATUS, null, (message, none) -> {
+            if (!"date_time".equals(message.getType())) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Long sentAt = pollDateTimeSentAt(now);
+            if (sentAt == null || message.getResult() != 0) {
+                return;
             }
+            String deviceTime = message.body().getString("param");
+            if (deviceTime != null) {
+                clockSync.onSample(sentAt, now, deviceTime);
+            }
+        });
+
+        // 处理通知消息，通知类型在type字段中，不需要解析内容
+        dispatcher.register(MSG_NOTIFICATION, null, (message, none) -> {
+            String type = message.getType();
+            if (type == null) {
+                return;
+            }
+            Log.d(TAG, "收到通知消息: " + type);
+
+            if (callback == null) {
+                return;
+            }
+            if ("disconnect_shutdown".equals(type)) {
+                // 设备断开连接或关机
+                mainHandler.post(() -> callback.onDeviceDisconnected("设备已断开连接或关机"));
+            } else if ("SD_rm".equals(type)) {
+                // SD卡移除
+                mainHandler.post(() -> callback.onSDCardRemoved());
+            } else if ("SD_insert".equals(type)) {
+                // SD卡插入
+                mainHandler.post(() -> callback.onSDCardInserted());
+            } else if ("SD_err".equals(type)) {
+                // SD卡错误
+                mainHandler.post(() -> callback.onSDCardError());
+            }
+        });
+
+        // 处理拍照响应
+        dispatcher.register(MSG_TAKE_PHOTO, JSONObject.class, (message, json) -> {
+            int result = message.getResult();
+            if (result == 0) {
+                String url = json.containsKey("url") ? json.getString("url") : "";
+                String thumbnailUrl = json.containsKey("thumbnailUrl") ? json.getString("thumbnailUrl") : "";
+                int fileType = json.containsKey("fileType") ? json.getIntValue("fileType") : 0;
+
+                Log.d(TAG, "拍照成功: URL=" + url + ", 缩略图URL=" + thumbnailUrl);
+
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onPhotoTaken(url, thumbnailUrl, fileType));
+                }
+            } else {
+                Log.e(TAG, "拍照失败，错误码: " + result);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onPhotoFailed(result));
+                }
+            }
+        });
+
+        // 处理事件记录响应
+        dispatcher.register(MSG_EVENT_RECORD, null, (message, none) -> {
+            int result = message.getResult();
+            if (result == 0) {
+                Log.d(TAG, "事件记录成功");
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onEventRecordSuccess());
+                }
+            } else {
+                Log.e(TAG, "事件记录失败，错误码: " + result);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onEventRecordFailed(result));
+                }
+            }
+        });
+
+        // 文件列表的每一页已经交给等待中的请求，不再交给回调；获取所有参数的响应不带数字param，照常交给回调
+        dispatcher.register(MSG_GET_FILE_LIST, null, (message, none) -> {
+            if (message.getParam() == null) {
+                deliverToCallback(message);
+            }
+        });
+
+        // 处理其他消息
+        dispatcher.setDefaultHandler((message, none) -> deliverToCallback(message));
+    }
+
+    /**
+     * 取出与date_time响应对应的查询时间，跳过超时没有得到响应的查询
+     *
+     * @return 没有等待响应的查询时为null
+     */
+    private Long pollDateTimeSentAt(long now) {
+        Long sentAt;
+        while ((sentAt = dateTimeSentAt.poll()) != null && now - sentAt > DEFAULT_REQUEST_TIMEOUT) {
+            Log.w(TAG, "date_time查询没有响应，跳过");
+        }
+        return sentAt;
+    }
+
+    /**
+     * 把消息原样交给回调的onMessageReceived
+     */
+    private void deliverToCallback(DeviceMessage message) {
+        if (callback != null) {
+            int msgId = message.getMsgId();
+            int result = message.getResult();
+            String content = message.text();
+            mainHandler.post(() -> callback.onMessageReceived(msgId, result, content));
+        }
+    }
+
+    /**
+     * 获取会话数据并缓存，恢复会话且已有缓存时不再获取
+     *
+     * @param msgId   消息ID
+     * @param resumed 是否恢复上一个会话
+     */
+    private void fetchSessionData(int msgId, boolean resumed) {
+        if (resumed && sessionState.getCached(msgId) != null) {
+            Log.d(TAG, "沿用缓存的会话数据: msg_id=" + msgId);
+            return;
+        }
+        request(msgId, null, null).whenComplete((response, error) -> {
+            if (error == null && response.getIntValue("rval") == 0) {
+                sessionState.cache(msgId, response);
+            }
+        });
+    }
+
+    /**
+     * 处理接收到的消息，在协议线程中执行
+     * 先只扫描msg_id、rval和type，消息内容只在有人需要时解析一次
+     */
+    void processFrame(byte[] frame) {
+        long start = System.nanoTime();
+        try {
+            handleFrame(frame);
+        } finally {
+            processingTimeNanos += System.nanoTime() - start;
+            processedMessageCount++;
+        }
+    }
+
+    private void handleFrame(byte[] frame) {
+        // 任何消息都说明设备仍然在线
+        livenessMonitor.onInbound();
+
+        DeviceMessage message = new DeviceMessage(frame);
+        if (!message.hasMsgId()) {
+            Log.w(TAG, "收到没有msg_id的消息，忽略: " + message.text());
+            return;
+        }
+
+        int msgId = message.getMsgId();
+        Log.d(TAG, "收到消息: msg_id=" + msgId + ", rval=" + message.getResult() + ", " + frame.length + "字节");
+
+        try {
+            // 设备忙时命令队列暂停发送
+            if (message.getResult() == Protocol.STATUS_SYSTEM_BUSY) {
+                commandQueue.onSystemBusy();
+            }
+
+            // 先完成等待该响应的异步请求，设备主动推送的通知不参与匹配
+            if (msgId != MSG_NOTIFICATION) {
+                requestTracker.complete(msgId, message.getResult(), message.getType(), message.getParam(),
+                    message::body);
+            }
+
+            dispatcher.dispatch(message);
+
+            // 设备推送的通知同时发布为事件，没有订阅者时不解析
+            if (DeviceEvent.isEventMessage(msgId) && events.hasSubscribers()) {
+                events.publish(DeviceEvent.fromMessage(message));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "处理消息失败: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
@@ -454,40 +671,243 @@ public class MessageManager {
      * @param type  类型
      */
     public void sendMessage(int msgId, String param, String type) {
-        JSONObject jsonObject = new JSONObject();
+        sendMessage(msgId, param, type, false);
+    }
 
+    private void sendMessage(int msgId, String param, String type, boolean tracked) {
         // 除了开始会话外，其他消息都需要令牌
-        if (msgId != MSG_START_SESSION) {
-            jsonObject.put("token", this.tokenNumber);
-        }
+        int token = msgId != MSG_START_SESSION ? this.tokenNumber : CommandEncoder.NO_TOKEN;
+        sendData(CommandEncoder.encode(token, msgId, param, type), msgId, param, type, tracked);
 
-        jsonObject.put("msg_id", msgId);
+        Log.d(TAG, "发送消息: msg_id=" + msgId + ", param=" + param + ", type=" + type);
+    }
 
-        if (param != null) {
-            jsonObject.put("param", param);
+    /**
+     * 通过命令队列发送已编码的消息
+     *
+     * @param data  编码后的消息
+     * @param msgId 消息ID
+     * @param param 消息中的param字段，用于区分同一msg_id的不同命令
+     * @param type  消息中的type字段
+     */
+    public void sendData(byte[] data, int msgId, String param, String type) {
+        sendData(data, msgId, param, type, false);
+    }
+
+    private void sendData(byte[] data, int msgId, String param, String type, boolean tracked) {
+        if ((msgId == MSG_SET_PARAM || msgId == Protocol.MSG_SET_PARAM) && !"date_time".equals(type)) {
+            // 参数被修改，下次开始会话时重新获取
+            sessionState.invalidate(MSG_GET_ALL_PARAMS);
+        }
+        String sendKey = msgId + ":" + type + ":" + param;
+        commandQueue.enqueue(new CommandQueue.Command(msgId, type, param, data, priorityOf(msgId),
+            coalesceKeyOf(msgId, type, sendKey), sendKey, tracked));
+    }
+
+    /**
+     * 命令优先级：用户操作优先，后台轮询最低
+     */
+    private static int priorityOf(int msgId) {
+        switch (msgId) {
+            case MSG_START_SESSION:
+            case MSG_END_SESSION:
+            case Protocol.MSG_SET_PARAM:
+            case MSG_SET_PARAM:
+            case Protocol.MSG_START_RECORD:
+            case Protocol.MSG_STOP_RECORD:
+            case Protocol.MSG_TAKE_PHOTO:
+            case Protocol.MSG_DELETE_FILE:
+            case Protocol.MSG_DELETE_ALL_FILES:
+            case Protocol.MSG_SET_WIFI:
+            case MSG_SD_FORMAT:
+            case MSG_DOWNLOAD_FILE:
+            case MSG_DEVICE_REBOOT:
+                return CommandQueue.PRIORITY_HIGH;
+            case Protocol.MSG_GET_APP_STATUS:
+            case Protocol.MSG_GET_DEVICE_INFO:
+            case Protocol.MSG_GET_SD_INFO:
+            case MSG_GET_DEVICE_STATUS:
+            case MSG_GET_GPS_INFO:
+                return CommandQueue.PRIORITY_LOW;
+            default:
+                return CommandQueue.PRIORITY_NORMAL;
         }
+    }
 
-        if (type != null) {
-            jsonObject.put("type", type);
+    /**
+     * 命令合并键：查询类命令相同参数只保留一条，设置参数按参数名只保留最新值，其他命令不合并
+     * 获取所有参数与获取文件列表共用msg_id=1280，不合并
+     */
+    private static String coalesceKeyOf(int msgId, String type, String sendKey) {
+        switch (msgId) {
+            case Protocol.MSG_SET_PARAM:
+            case MSG_SET_PARAM:
+                return msgId + ":" + type;
+            case Protocol.MSG_GET_APP_STATUS:
+            case Protocol.MSG_GET_DEVICE_INFO:
+            case Protocol.MSG_GET_SD_INFO:
+            case Protocol.MSG_GET_PARAM_OPTIONS:
+            case MSG_GET_DEVICE_STATUS:
+            case MSG_GET_GPS_INFO:
+            case MSG_GET_PARAM:
+                return sendKey;
+            default:
+                return null;
         }
+    }
+
+    /**
+     * 获取协议线程处理的消息数
+     */
+    public long getProcessedMessageCount() {
+        return processedMessageCount;
+    }
+
+    /**
+     * 获取协议线程处理每条消息的平均耗时(微秒)，包括解析、分发和处理器执行，不包括主线程中的回调
+     */
+    public double getAverageProcessingMicros() {
+        long count = processedMessageCount;
+        return count > 0 ? processingTimeNanos / 1000.0 / count : 0;
+    }
+
+    /**
+     * 查询设备时间，响应用于时钟同步
+     */
+    public void queryDateTime() {
+        sendData(DATE_TIME_TEMPLATE.encode(this.tokenNumber), Protocol.MSG_GET_DATE_TIME, null, "date_time");
+    }
+
+    /**
+     * 设置设备时间
+     *
+     * @param dateTime 格式为"yyyy-MM-dd HH:mm:ss"
+     */
+    public void setDateTime(String dateTime) {
+        byte[] data = CommandEncoder.encode(this.tokenNumber, MSG_SET_DATE_TIME, dateTime, "date_time");
+        sendData(data, MSG_SET_DATE_TIME, dateTime, "date_time");
+
+        Log.d(TAG, "发送设置时间命令: " + dateTime);
+    }
+
+    /**
+     * 获取时钟同步，可查询设备时钟偏差或调整阈值
+     */
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    /**
+     * 获取设备事件流，可按类型订阅通知和连接状态
+     */
+    public DeviceEventPublisher getEvents() {
+        return events;
+    }
+
+    /**
+     * 获取存活检测，用于调整探测间隔和失联判定时间或查询RTT
+     */
+    public LivenessMonitor getLivenessMonitor() {
+        return livenessMonitor;
+    }
+
+    /**
+     * 开始心跳，会话开始后自动调用
+     */
+    public void startHeartbeat() {
+        livenessMonitor.start();
+    }
+
+    /**
+     * 停止心跳
+     */
+    public void stopHeartbeat() {
+        livenessMonitor.stop();
+    }
+
+    /**
+     * 发送date_time探测，响应用于计算RTT
+     */
+    private CompletableFuture<JSONObject> probe() {
+        CompletableFuture<JSONObject> future =
+            requestTracker.register(Protocol.MSG_GET_DATE_TIME, "date_time", null, DEFAULT_REQUEST_TIMEOUT);
+        sendData(DATE_TIME_TEMPLATE.encode(this.tokenNumber), Protocol.MSG_GET_DATE_TIME, null, "date_time", true);
+        return future;
+    }
+
+    /**
+     * 获取会话状态，可从中读取缓存的设备信息和参数
+     */
+    public SessionState getSessionState() {
+        return sessionState;
+    }
+
+    /**
+     * 获取命令队列，用于查询合并、溢出等统计
+     */
+    public CommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    /**
+     * 发送请求并异步等待响应
+     * 按msg_id匹配响应，msg_id=1时还需匹配type；响应同时仍会走原有的回调流程。
+     * rval不为0时Future仍正常完成，由调用方检查rval。
+     * Future在协议线程中完成，后续操作需要更新界面时应切换到主线程。
+     *
+     * @param msgId     消息ID
+     * @param param     参数
+     * @param type      类型
+     * @param timeoutMs 超时时间(毫秒)
+     * @return 响应JSON，超时以TimeoutException结束，连接断开以IOException结束
+     */
+    public CompletableFuture<JSONObject> request(int msgId, String param, String type, long timeoutMs) {
+        CompletableFuture<JSONObject> future = requestTracker.register(msgId, type, param, timeoutMs);
+        sendMessage(msgId, param, type, true);
+        return future;
+    }
 
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), msgId);
+    /**
+     * 发送请求并异步等待响应，使用默认超时时间
+     */
+    public CompletableFuture<JSONObject> request(int msgId, String param, String type) {
+        return request(msgId, param, type, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * 注册消息处理器，处理器在协议线程中执行
+     *
+     * @param msgId      消息ID
+     * @param modelClass 模型类，为null时不解析消息内容
+     * @param handler    处理器
+     */
+    public <T> void registerHandler(int msgId, Class<T> modelClass, MessageDispatcher.MessageHandler<T> handler) {
+        dispatcher.register(msgId, modelClass, handler);
+    }
+
+    /**
+     * 注销消息处理器
+     *
+     * @param msgId 消息ID
+     */
+    public void unregisterHandler(int msgId) {
+        dispatcher.unregister(msgId);
+    }
 
-        Log.d(TAG, "发送消息: " + jsonStr);
+    /**
+     * 获取请求响应关联器，用于查询超时、迟到响应等统计
+     */
+    public RequestTracker getRequestTracker() {
+        return requestTracker;
     }
 
     /**
      * 开始会话
      */
     public void startSession() {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("msg_id", MSG_START_SESSION);
+        sendData(START_SESSION_TEMPLATE.encode(CommandEncoder.NO_TOKEN), MSG_START_SESSION, null, null);
 
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), MSG_START_SESSION);
-
-        Log.d(TAG, "发送开始会话命令: " + jsonStr);
+        Log.d(TAG, "发送开始会话命令");
     }
 
     /**
@@ -508,14 +928,9 @@ public class MessageManager {
      * 获取SD卡信息
      */
     public void getSDCardInfo() {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", Protocol.MSG_GET_SD_INFO);
-        
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), Protocol.MSG_GET_SD_INFO);
-        
-        Log.d(TAG, "发送获取SD卡信息命令: " + jsonStr);
+        sendData(SD_INFO_TEMPLATE.encode(this.tokenNumber), Protocol.MSG_GET_SD_INFO, null, null);
+
+        Log.d(TAG, "发送获取SD卡信息命令");
     }
 
     /**
@@ -525,44 +940,31 @@ public class MessageManager {
      * @param format   格式化标志
      */
     public void formatSDCard(String sdStatus, String format) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", MSG_SD_FORMAT);
-        jsonObject.put("sd_status", sdStatus);
-        jsonObject.put("format", format);
+        byte[] data = CommandEncoder.begin(this.tokenNumber, MSG_SD_FORMAT)
+            .putString("sd_status", sdStatus)
+            .putString("format", format)
+            .toBytes();
+        sendData(data, MSG_SD_FORMAT, null, null);
 
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), MSG_SD_FORMAT);
-
-        Log.d(TAG, "发送格式化SD卡命令: " + jsonStr);
+        Log.d(TAG, "发送格式化SD卡命令: sd_status=" + sdStatus + ", format=" + format);
     }
 
     /**
      * 拍照
      */
     public void takePhoto() {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", Protocol.MSG_TAKE_PHOTO);
-        
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), Protocol.MSG_TAKE_PHOTO);
-        
-        Log.d(TAG, "发送拍照命令: " + jsonStr);
+        sendData(TAKE_PHOTO_TEMPLATE.encode(this.tokenNumber), Protocol.MSG_TAKE_PHOTO, null, null);
+
+        Log.d(TAG, "发送拍照命令");
     }
 
     /**
      * 事件记录
      */
     public void eventRecord() {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", Protocol.MSG_START_RECORD);
-        
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), Protocol.MSG_START_RECORD);
-        
-        Log.d(TAG, "发送事件记录命令: " + jsonStr);
+        sendData(EVENT_RECORD_TEMPLATE.encode(this.tokenNumber), Protocol.MSG_START_RECORD, null, null);
+
+        Log.d(TAG, "发送事件记录命令");
     }
 
     /**
@@ -572,19 +974,29 @@ public class MessageManager {
         if (connection != null) {
             // 停止心跳
             stopHeartbeat();
-            // 先发送结束会话消息
-            endSession();
-            // 然后断开连接
-            connection.disconnect();
+            // 队列中的命令不再发送，结束会话消息绕过命令队列，在关闭通道前直接写出
+            commandQueue.clear();
+            connection.disconnect(CommandEncoder.encode(this.tokenNumber, MSG_END_SESSION, null, null));
+            requestTracker.failAll(new IOException("连接已断开"));
+            dateTimeSentAt.clear();
+            sessionState.reset();
         }
     }
 
     /**
      * 释放资源
+     * 协议线程由所有会话共用，不随单个会话释放
      */
     public void release() {
         disconnect();
-        executorService.shutdown();
+        connection.getReconnectEngine().detach();
+    }
+
+    /**
+     * 设置连接建立后是否自动开始会话，默认不开始，由上层在onConnected中调用startSession
+     */
+    public void setAutoStartSession(boolean autoStartSession) {
+        this.autoStartSession = autoStartSession;
     }
 
     /**
@@ -600,8 +1012,27 @@ public class MessageManager {
     public interface MessageCallback {
         void onConnected();
 
+        /**
+         * 连接失败且不再自动重连
+         */
         void onConnectionFailed(String reason);
 
+        /**
+         * 连接意外断开，正在自动重连
+         *
+         * @param retryDelayMs 下次重连的等待时间，为ReconnectEngine.RETRY_SUSPENDED时等待Wi-Fi恢复
+         */
+        default void onReconnecting(String reason, long retryDelayMs) {
+        }
+
+        /**
+         * 会话开始成功
+         *
+         * @param resumed 是否恢复了上一个会话，恢复时设备信息和参数沿用缓存
+         */
+        default void onSessionStarted(boolean resumed) {
+        }
+
         void onMessageReceived(int msgId, int result, String content);
 
         void onDeviceDisconnected(String reason);
@@ -634,15 +1065,9 @@ public class MessageManager {
      * 设置应用状态
      */
     public void setAppStatus() {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", Protocol.MSG_GET_APP_STATUS);
-        jsonObject.put("type", "app_status");
-        
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), Protocol.MSG_GET_APP_STATUS);
-        
-        Log.d(TAG, "发送获取应用状态命令: " + jsonStr);
+        sendData(APP_STATUS_TEMPLATE.encode(this.tokenNumber), Protocol.MSG_GET_APP_STATUS, null, "app_status");
+
+        Log.d(TAG, "发送获取应用状态命令");
     }
 
     /**
@@ -685,17 +1110,37 @@ public class MessageManager {
      * @param count    获取数量
      */
     public void getFileList(String fileType, int offset, int count) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", Protocol.MSG_GET_FILE_LIST);
-        jsonObject.put("param", offset);        // Protocol中使用param作为起始索引
-        jsonObject.put("type", fileType);       // Protocol中使用type指定文件类型
-        jsonObject.put("pageSize", count);      // Protocol中使用pageSize指定每页数量
-        
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), Protocol.MSG_GET_FILE_LIST);
-        
-        Log.d(TAG, "发送获取文件列表命令: " + jsonStr);
+        sendData(encodeFileList(fileType, offset, count), Protocol.MSG_GET_FILE_LIST,
+            String.valueOf(offset), fileType);
+
+        Log.d(TAG, "发送获取文件列表命令: type=" + fileType + ", offset=" + offset + ", count=" + count);
+    }
+
+    /**
+     * 获取一页文件列表并异步等待响应
+     * 按type和响应中的param(起始位置)匹配，响应不带type时按起始位置匹配，
+     * 不会取走获取所有参数的响应。调用方仍应检查响应中的param与请求的起始位置一致。
+     *
+     * @param fileType 文件类型，"video", "photo", "event_video", "event_photo"
+     * @param offset   起始位置
+     * @param count    获取数量
+     * @return 响应JSON
+     */
+    public CompletableFuture<JSONObject> requestFileList(String fileType, int offset, int count) {
+        CompletableFuture<JSONObject> future =
+            requestTracker.register(Protocol.MSG_GET_FILE_LIST, fileType, String.valueOf(offset),
+                DEFAULT_REQUEST_TIMEOUT);
+        sendData(encodeFileList(fileType, offset, count), Protocol.MSG_GET_FILE_LIST,
+            String.valueOf(offset), fileType, true);
+        return future;
+    }
+
+    private byte[] encodeFileList(String fileType, int offset, int count) {
+        return CommandEncoder.begin(this.tokenNumber, Protocol.MSG_GET_FILE_LIST)
+            .putInt("param", offset)            // Protocol中使用param作为起始索引
+            .putString("type", fileType)        // Protocol中使用type指定文件类型
+            .putInt("pageSize", count)          // Protocol中使用pageSize指定每页数量
+            .toBytes();
     }
 
     /**
@@ -704,15 +1149,10 @@ public class MessageManager {
      * @param fileName 文件名
      */
     public void deleteFile(String fileName) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", Protocol.MSG_DELETE_FILE);
-        jsonObject.put("param", fileName);
-
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), Protocol.MSG_DELETE_FILE);
+        byte[] data = CommandEncoder.encode(this.tokenNumber, Protocol.MSG_DELETE_FILE, fileName, null);
+        sendData(data, Protocol.MSG_DELETE_FILE, fileName, null);
 
-        Log.d(TAG, "发送删除文件命令: " + jsonStr);
+        Log.d(TAG, "发送删除文件命令: " + fileName);
     }
 
     /**
@@ -721,14 +1161,9 @@ public class MessageManager {
      * @param fileName 文件名
      */
     public void downloadFile(String fileName) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("token", this.tokenNumber);
-        jsonObject.put("msg_id", MSG_DOWNLOAD_FILE);
-        jsonObject.put("param", fileName);
-
-        String jsonStr = jsonObject.toJSONString();
-        connection.sendData(jsonStr.getBytes(), MSG_DOWNLOAD_FILE);
+        byte[] data = CommandEncoder.encode(this.tokenNumber, MSG_DOWNLOAD_FILE, fileName, null);
+        sendData(data, MSG_DOWNLOAD_FILE, fileName, null);
 
-        Log.d(TAG, "发送下载文件命令: " + jsonStr);
+        Log.d(TAG, "发送下载文件命令: " + fileName);
     }
 }
\ No newline at end of file
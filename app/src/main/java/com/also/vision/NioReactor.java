@@ -0,0 +1,278 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO事件循环
+ * 一个线程、一个Selector服务所有设备连接，连接的建立、读写和定时任务都在该线程中执行。
+ * 每增加一台设备只增加一个SelectionKey，不增加线程。
+ * <p>
+ * 其他线程通过{@link #execute(Runnable)}提交任务；{@link #register}和{@link #schedule}只能在事件循环线程中调用。
+ * 单个通道的处理器抛出异常不会影响其他通道。
+ */
+public class NioReactor {
+    private static final String TAG = "NioReactor";
+    private static NioReactor defaultReactor;
+
+    private final String name;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();  // 仅事件循环线程使用
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile Selector selector;
+    private volatile Thread thread;
+    private long timerSequence = 0;
+
+    // 统计
+    private volatile long loopCount = 0;
+    private volatile long taskCount = 0;
+
+    /**
+     * @param name 事件循环线程名
+     */
+    public NioReactor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 获取所有设备连接共用的事件循环
+     */
+    public static NioReactor getDefault() {
+        if (defaultReactor == null) {
+            synchronized (NioReactor.class) {
+                if (defaultReactor == null) {
+                    defaultReactor = new NioReactor("Vision-Reactor");
+                }
+            }
+        }
+        return defaultReactor;
+    }
+
+    /**
+     * 提交任务到事件循环线程，按提交顺序执行。首次提交时启动线程
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        ensureStarted();
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 当前是否在事件循环线程中
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 注册通道，仅在事件循环线程中调用
+     *
+     * @param channel 非阻塞通道
+     * @param ops     关注的事件
+     * @param handler 事件处理器，作为SelectionKey的附件
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler)
+        throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * 延迟执行任务，仅在事件循环线程中调用
+     *
+     * @param task    任务
+     * @param delayMs 延迟(毫秒)
+     * @return 定时器，可在事件循环线程中取消
+     */
+    public Timer schedule(Runnable task, long delayMs) {
+        Timer timer = new Timer(task, System.currentTimeMillis() + delayMs, ++timerSequence);
+        timers.offer(timer);
+        return timer;
+    }
+
+    /**
+     * 获取注册在事件循环上的通道数
+     */
+    public int getChannelCount() {
+        Selector current = selector;
+        return current != null ? current.keys().size() : 0;
+    }
+
+    /**
+     * 获取事件循环的轮数
+     */
+    public long getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * 获取已执行的任务数
+     */
+    public long getTaskCount() {
+        return taskCount;
+    }
+
+    private void ensureStarted() {
+        if (thread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (thread != null) {
+                return;
+            }
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                Log.e(TAG, "打开Selector失败: " + e.getMessage());
+                throw new IllegalStateException("打开Selector失败", e);
+            }
+            Thread loopThread = new Thread(this::run, name);
+            loopThread.setDaemon(true);
+            thread = loopThread;
+            loopThread.start();
+        }
+    }
+
+    private void run() {
+        Log.d(TAG, "事件循环启动: " + name);
+        while (true) {
+            try {
+                runTasks();
+                long timeout = runTimers();
+
+                if (tasks.isEmpty()) {
+                    // 其他线程提交任务后会调用wakeup；只有存在定时器时才设置超时
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+                loopCount++;
+
+                processSelectedKeys();
+            } catch (IOException e) {
+                Log.e(TAG, "事件循环异常: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            taskCount++;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "执行任务失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 执行到期的定时器
+     *
+     * @return 距下一个定时器的时间(毫秒)，没有定时器时为0
+     */
+    private long runTimers() {
+        while (true) {
+            Timer timer = timers.peek();
+            if (timer == null) {
+                return 0;
+            }
+            if (timer.cancelled) {
+                timers.poll();
+                continue;
+            }
+            long delay = timer.deadline - System.currentTimeMillis();
+            if (delay > 0) {
+                return delay;
+            }
+            timers.poll();
+            try {
+                timer.task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "执行定时任务失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
+
+            ChannelHandler handler = (ChannelHandler) key.attachment();
+            if (!key.isValid() || handler == null) {
+                continue;
+            }
+            try {
+                handler.onReady(key);
+            } catch (IOException e) {
+                handler.onError(e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "处理通道事件失败: " + e.getMessage());
+                e.printStackTrace();
+                handler.onError(new IOException(e));
+            }
+        }
+    }
+
+    /**
+     * 通道事件处理器，在事件循环线程中执行
+     */
+    public interface ChannelHandler {
+        /**
+         * 通道就绪
+         */
+        void onReady(SelectionKey key) throws IOException;
+
+        /**
+         * 处理通道事件时发生异常，处理器应关闭通道
+         */
+        void onError(IOException e);
+    }
+
+    /**
+     * 定时器
+     */
+    public static final class Timer implements Comparable<Timer> {
+        private final Runnable task;
+        private final long deadline;
+        private final long sequence;
+        private boolean cancelled = false;
+
+        private Timer(Runnable task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 取消定时器，仅在事件循环线程中调用
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            if (deadline != other.deadline) {
+                return deadline < other.deadline ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import android.widget.RelativeLayout;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.also.vision.utils.BandwidthGovernor;
+
 import org.MediaPlayer.PlayM4.Player;
 import org.MediaPlayer.PlayM4.PlayerCallBack;
 import org.hik.np.NPClient;
@@ -136,6 +138,8 @@ public class RealtimeVideoPlayActivity extends AppCompatActivity implements NPCl
         }
 
         mIsPlaying = true;
+        // 预览期间文件下载让出带宽
+        BandwidthGovernor.getDefault().onStreamStarted(this);
     }
 
     private void stopPlay() {
@@ -153,6 +157,7 @@ public class RealtimeVideoPlayActivity extends AppCompatActivity implements NPCl
         }
 
         mIsPlaying = false;
+        BandwidthGovernor.getDefault().onStreamStopped(this);
     }
 
     private void releaseResources() {
@@ -201,6 +206,7 @@ public class RealtimeVideoPlayActivity extends AppCompatActivity implements NPCl
 
             case 1: // 视频数据
             case 3: // 复合数据
+                BandwidthGovernor.getDefault().onStreamData(dataLen);
                 if (!mPlayer.inputData(mPort, data, dataLen)) {
                     Log.d(TAG, "输入数据失败: " + dataLen);
                 }
@@ -216,6 +222,7 @@ public class RealtimeVideoPlayActivity extends AppCompatActivity implements NPCl
     public void onNPCMsg(int port, int msgType, byte[] data, int dataLen, byte[] info) {
         if (msgType == 1) { // 流关闭消息
             Log.d(TAG, "流关闭");
+            BandwidthGovernor.getDefault().onStreamStopped(this);
             if (mPlayer != null && mPort != -1) {
                 mPlayer.inputData(mPort, null, -1);
             }
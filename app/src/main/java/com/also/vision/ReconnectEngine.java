@@ -0,0 +1,240 @@
+package com.also.vision;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * 重连引擎
+ * 连接断开后按带随机抖动的指数退避重连，退避时间有上限。
+ * <p>
+ * 状态转换：
+ * IDLE --start--> CONNECTING --onConnected--> CONNECTED --onConnectionLost--> WAITING --(退避结束)--> CONNECTING
+ * <p>
+ * Wi-Fi断开时取消等待中的重连并进入SUSPENDED，Wi-Fi恢复后重置退避立即重连；
+ * 主动断开(stop)或超过最大重试次数后回到IDLE。
+ * <p>
+ * 线程安全，重连动作在构造时传入的Handler线程中执行。
+ */
+public class ReconnectEngine {
+    private static final String TAG = "ReconnectEngine";
+
+    public static final long DEFAULT_INITIAL_DELAY = 250;  // 首次重连退避(毫秒)
+    public static final long DEFAULT_MAX_DELAY = 30000;    // 退避上限(毫秒)
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;     // 最大连续重试次数，0表示不限
+
+    /**
+     * onConnectionLost返回值：等待Wi-Fi恢复
+     */
+    public static final long RETRY_SUSPENDED = -1;
+
+    /**
+     * onConnectionLost返回值：不再重连
+     */
+    public static final long RETRY_STOPPED = -2;
+
+    public enum State {
+        IDLE,
+        CONNECTING,
+        CONNECTED,
+        WAITING,
+        SUSPENDED
+    }
+
+    private final Handler handler;
+    private final Runnable connectAction;
+    private final Runnable scheduledConnect = this::onBackoffElapsed;
+    private final Random random = new Random();
+
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private State state = State.IDLE;
+    private int attempt = 0;
+    private boolean wifiAvailable = true;
+
+    private ConnectivityManager connectivityManager;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    /**
+     * @param handler       执行重连的Handler
+     * @param connectAction 发起一次连接
+     */
+    public ReconnectEngine(Handler handler, Runnable connectAction) {
+        this.handler = handler;
+        this.connectAction = connectAction;
+    }
+
+    /**
+     * 设置退避参数
+     *
+     * @param initialDelay 首次重连退避(毫秒)
+     * @param maxDelay     退避上限(毫秒)
+     * @param maxAttempts  最大连续重试次数，0表示不限
+     */
+    public synchronized void setBackoff(long initialDelay, long maxDelay, int maxAttempts) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 监听Wi-Fi状态，Wi-Fi断开时暂停重连
+     */
+    public synchronized void attach(Context context) {
+        if (networkCallback != null) {
+            return;
+        }
+        connectivityManager =
+            (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+
+        // 注册后系统会立即回调当前可用的Wi-Fi
+        wifiAvailable = false;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                onWifiAvailable();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                onWifiLost();
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+            .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+            .build();
+        connectivityManager.registerNetworkCallback(request, networkCallback);
+    }
+
+    /**
+     * 停止监听Wi-Fi状态
+     */
+    public synchronized void detach() {
+        if (connectivityManager != null && networkCallback != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        }
+        networkCallback = null;
+        connectivityManager = null;
+        wifiAvailable = true;
+    }
+
+    /**
+     * 开始连接，由主动连接调用
+     */
+    public synchronized void start() {
+        handler.removeCallbacks(scheduledConnect);
+        attempt = 0;
+        state = State.CONNECTING;
+    }
+
+    /**
+     * 停止重连，由主动断开调用
+     */
+    public synchronized void stop() {
+        handler.removeCallbacks(scheduledConnect);
+        attempt = 0;
+        state = State.IDLE;
+    }
+
+    /**
+     * 连接建立，重置退避
+     */
+    public synchronized void onConnected() {
+        if (state == State.IDLE) {
+            return;
+        }
+        attempt = 0;
+        state = State.CONNECTED;
+    }
+
+    /**
+     * 连接断开或连接失败
+     *
+     * @return 下次重连的等待时间(毫秒)，或RETRY_SUSPENDED、RETRY_STOPPED
+     */
+    public synchronized long onConnectionLost() {
+        if (state == State.IDLE) {
+            return RETRY_STOPPED;
+        }
+        if (!wifiAvailable) {
+            state = State.SUSPENDED;
+            Log.d(TAG, "Wi-Fi不可用，等待Wi-Fi恢复后重连");
+            return RETRY_SUSPENDED;
+        }
+        if (maxAttempts > 0 && attempt >= maxAttempts) {
+            Log.e(TAG, "已达到最大重试次数: " + maxAttempts);
+            stop();
+            return RETRY_STOPPED;
+        }
+
+        long delay = nextDelay(attempt++);
+        state = State.WAITING;
+        handler.postDelayed(scheduledConnect, delay);
+        Log.d(TAG, "第 " + attempt + " 次重连，等待 " + delay + "ms");
+        return delay;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * Wi-Fi恢复，暂停中的重连重置退避后立即开始
+     */
+    synchronized void onWifiAvailable() {
+        wifiAvailable = true;
+        if (state == State.SUSPENDED) {
+            Log.d(TAG, "Wi-Fi已恢复，开始重连");
+            attempt = 0;
+            state = State.WAITING;
+            handler.postDelayed(scheduledConnect, nextDelay(0));
+        }
+    }
+
+    /**
+     * Wi-Fi断开，取消等待中的重连
+     */
+    synchronized void onWifiLost() {
+        wifiAvailable = false;
+        if (state == State.WAITING) {
+            Log.d(TAG, "Wi-Fi已断开，取消重连");
+            handler.removeCallbacks(scheduledConnect);
+            state = State.SUSPENDED;
+        }
+    }
+
+    private void onBackoffElapsed() {
+        synchronized (this) {
+            if (state != State.WAITING) {
+                return;
+            }
+            state = State.CONNECTING;
+        }
+        connectAction.run();
+    }
+
+    /**
+     * 计算退避时间：指数增长并限制上限，在[一半, 全部]之间随机取值，避免多个客户端同时重连
+     */
+    private long nextDelay(int attempt) {
+        long delay = initialDelay << Math.min(attempt, 16);
+        delay = Math.min(delay, maxDelay);
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+}
@@ -0,0 +1,319 @@
+package com.also.vision;
+
+import android.util.Log;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 请求响应关联器
+ * 按msg_id（msg_id=1时再加上type，msg_id=1280的文件列表再加上type和起始位置）把设备响应匹配到等待中的请求，
+ * 同一类请求按发送顺序依次匹配。
+ * msg_id=1280同时用于获取所有参数和获取文件列表，文件列表请求带数字param(起始位置)，获取所有参数不带，
+ * 两者分开匹配，不会互相取走对方的响应。设备对文件列表返回的错误(如系统忙)不带param，
+ * 这类不带param的错误响应交给最早发送的文件列表请求，没有文件列表请求时才交给获取所有参数。
+ * <p>
+ * 超时由共享的调度线程处理，不阻塞任何线程。超时后才到达的响应记为迟到响应，
+ * 没有对应请求的响应记为未匹配响应。
+ * <p>
+ * 线程安全。
+ */
+public class RequestTracker {
+    private static final String TAG = "RequestTracker";
+
+    // 所有实例共享一个超时调度线程
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "RequestTracker-Timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final Map<String, ConcurrentLinkedQueue<PendingRequest>> pendingRequests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> timedOutRequests = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong lateResponseCount = new AtomicLong();
+    private final AtomicLong unmatchedResponseCount = new AtomicLong();
+
+    /**
+     * 登记一个请求，必须在发送之前调用，避免响应先于登记到达
+     *
+     * @param msgId     消息ID
+     * @param type      类型，仅msg_id=1和文件列表参与匹配
+     * @param param     参数，仅文件列表的起始位置参与匹配
+     * @param timeoutMs 超时时间(毫秒)
+     * @return 收到响应时完成的Future，超时以TimeoutException结束
+     */
+    public CompletableFuture<JSONObject> register(int msgId, String type, String param, long timeoutMs) {
+        String key = keyOf(msgId, type, param);
+        PendingRequest request = new PendingRequest(key);
+        pendingRequests.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).offer(request);
+
+        request.timeoutTask = TIMEOUT_SCHEDULER.schedule(() -> onTimeout(request, timeoutMs),
+            timeoutMs, TimeUnit.MILLISECONDS);
+        return request.future;
+    }
+
+    /**
+     * 处理成功的设备响应
+     *
+     * @see #complete(int, int, String, String, Supplier)
+     */
+    public boolean complete(int msgId, String type, String param, Supplier<JSONObject> body) {
+        return complete(msgId, 0, type, param, body);
+    }
+
+    /**
+     * 处理设备响应
+     *
+     * @param msgId  消息ID
+     * @param result 响应中的rval，用于区分不带param的文件列表错误响应
+     * @param type   响应中的type字段，可为null
+     * @param param  响应中数字形式的param字段，可为null
+     * @param body   响应内容，只在匹配到等待中的请求时才获取
+     * @return 是否匹配到了等待中的请求
+     */
+    public boolean complete(int msgId, int result, String type, String param, Supplier<JSONObject> body) {
+        String key = keyOf(msgId, type, param);
+        PendingRequest request = null;
+
+        // 文件列表的错误响应不带param，按发送顺序交给最早的文件列表请求，不能取走获取所有参数的请求
+        if (msgId == Protocol.MSG_GET_FILE_LIST && param == null && result != 0) {
+            request = pollAny(msgId + ":", "");
+        }
+        if (request == null) {
+            request = poll(key);
+        }
+
+        // 响应未带type时，按发送顺序匹配任意一个同msg_id(文件列表还要同起始位置)的请求
+        if (request == null && type == null) {
+            if (msgId == Protocol.MSG_GET_APP_STATUS) {
+                request = pollAny(msgId + ":", "");
+            } else if (msgId == Protocol.MSG_GET_FILE_LIST && param != null) {
+                request = pollAny(msgId + ":", ":" + param);
+            }
+        }
+
+        if (request != null) {
+            cancelTimeout(request);
+            completedCount.incrementAndGet();
+            try {
+                request.future.complete(body.get());
+            } catch (RuntimeException e) {
+                request.future.completeExceptionally(e);
+            }
+            return true;
+        }
+
+        AtomicInteger timedOut = timedOutRequests.get(key);
+        if (timedOut != null && timedOut.getAndUpdate(v -> v > 0 ? v - 1 : 0) > 0) {
+            lateResponseCount.incrementAndGet();
+            Log.w(TAG, "收到迟到的响应: " + key);
+        } else {
+            unmatchedResponseCount.incrementAndGet();
+        }
+        return false;
+    }
+
+    /**
+     * 最新登记的请求与前一个同类请求共用一个响应
+     * 用于命令在发送前被命令队列合并的情况
+     *
+     * @param msgId 消息ID
+     * @param type  类型
+     * @param param 参数
+     */
+    public void coalesce(int msgId, String type, String param) {
+        ConcurrentLinkedQueue<PendingRequest> queue = pendingRequests.get(keyOf(msgId, type, param));
+        if (queue == null) {
+            return;
+        }
+
+        PendingRequest previous = null;
+        PendingRequest newest = null;
+        for (PendingRequest request : queue) {
+            previous = newest;
+            newest = request;
+        }
+        if (previous == null || !queue.remove(newest)) {
+            return;
+        }
+
+        cancelTimeout(newest);
+        CompletableFuture<JSONObject> future = newest.future;
+        previous.future.whenComplete((result, error) -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        });
+    }
+
+    /**
+     * 让最新登记的同类请求失败，用于命令在发送前被丢弃的情况
+     *
+     * @param msgId 消息ID
+     * @param type  类型
+     * @param param 参数
+     * @param cause 失败原因
+     */
+    public void failNewest(int msgId, String type, String param, Throwable cause) {
+        ConcurrentLinkedQueue<PendingRequest> queue = pendingRequests.get(keyOf(msgId, type, param));
+        if (queue == null) {
+            return;
+        }
+
+        PendingRequest newest = null;
+        for (PendingRequest request : queue) {
+            newest = request;
+        }
+        if (newest != null && queue.remove(newest)) {
+            cancelTimeout(newest);
+            newest.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 让所有等待中的请求失败，连接断开时调用
+     *
+     * @param cause 失败原因
+     */
+    public void failAll(Throwable cause) {
+        for (ConcurrentLinkedQueue<PendingRequest> queue : pendingRequests.values()) {
+            PendingRequest request;
+            while ((request = queue.poll()) != null) {
+                cancelTimeout(request);
+                request.future.completeExceptionally(cause);
+            }
+        }
+        timedOutRequests.clear();
+    }
+
+    /**
+     * 获取等待中的请求数
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (ConcurrentLinkedQueue<PendingRequest> queue : pendingRequests.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getLateResponseCount() {
+        return lateResponseCount.get();
+    }
+
+    public long getUnmatchedResponseCount() {
+        return unmatchedResponseCount.get();
+    }
+
+    /**
+     * 请求超时处理
+     */
+    private void onTimeout(PendingRequest request, long timeoutMs) {
+        ConcurrentLinkedQueue<PendingRequest> queue = pendingRequests.get(request.key);
+        if (queue == null || !queue.remove(request)) {
+            // 已经被响应或失败处理
+            return;
+        }
+
+        timeoutCount.incrementAndGet();
+        timedOutRequests.computeIfAbsent(request.key, k -> new AtomicInteger()).incrementAndGet();
+        Log.w(TAG, "请求超时: " + request.key + ", " + timeoutMs + "ms");
+        request.future.completeExceptionally(new TimeoutException("请求超时: " + request.key));
+    }
+
+    private static void cancelTimeout(PendingRequest request) {
+        // 响应可能在超时任务登记之前到达
+        ScheduledFuture<?> timeoutTask = request.timeoutTask;
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+        }
+    }
+
+    private PendingRequest poll(String key) {
+        ConcurrentLinkedQueue<PendingRequest> queue = pendingRequests.get(key);
+        return queue != null ? queue.poll() : null;
+    }
+
+    /**
+     * 取出键以prefix开头、以suffix结尾的请求中最早登记的一个
+     */
+    private PendingRequest pollAny(String prefix, String suffix) {
+        PendingRequest oldest = null;
+        ConcurrentLinkedQueue<PendingRequest> oldestQueue = null;
+
+        Iterator<Map.Entry<String, ConcurrentLinkedQueue<PendingRequest>>> iterator =
+            pendingRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ConcurrentLinkedQueue<PendingRequest>> entry = iterator.next();
+            String key = entry.getKey();
+            if (!key.startsWith(prefix) || !key.endsWith(suffix)) {
+                continue;
+            }
+            PendingRequest head = entry.getValue().peek();
+            if (head != null && (oldest == null || head.sequence < oldest.sequence)) {
+                oldest = head;
+                oldestQueue = entry.getValue();
+            }
+        }
+
+        return oldestQueue != null && oldestQueue.remove(oldest) ? oldest : null;
+    }
+
+    /**
+     * 生成匹配键
+     * msg_id=1按type区分；msg_id=1280带param时是文件列表，按type和起始位置区分，不带param时是获取所有参数
+     */
+    private static String keyOf(int msgId, String type, String param) {
+        if (msgId == Protocol.MSG_GET_APP_STATUS) {
+            return msgId + ":" + (type != null ? type : "");
+        }
+        if (msgId == Protocol.MSG_GET_FILE_LIST && param != null) {
+            return msgId + ":" + (type != null ? type : "") + ":" + param;
+        }
+        return String.valueOf(msgId);
+    }
+
+    /**
+     * 等待中的请求
+     */
+    private static class PendingRequest {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final String key;
+        final long sequence = SEQUENCE.incrementAndGet();
+        final CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeoutTask;
+
+        PendingRequest(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.also.vision;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 会话状态
+ * 缓存会话开始时获取的设备信息和参数。连接短暂断开后重新开始会话时，
+ * 如果断开时间在恢复窗口内，直接沿用缓存，不再重新获取这些没有变化的数据。
+ * <p>
+ * 设备每次开始会话都会分配新的令牌，令牌本身不能沿用。
+ * <p>
+ * 线程安全。
+ */
+public class SessionState {
+    /**
+     * 恢复窗口(毫秒)，断开超过该时间后重新获取全部数据
+     */
+    public static final long RESUME_WINDOW = 60000;
+
+    private final Map<Integer, JSONObject> cachedResponses = new ConcurrentHashMap<>();
+    private volatile long lostAt = 0;
+    private volatile boolean active = false;
+
+    /**
+     * 会话开始
+     */
+    public void onSessionStarted() {
+        active = true;
+        lostAt = 0;
+    }
+
+    /**
+     * 连接意外断开，开始计算恢复窗口
+     */
+    public void onConnectionLost() {
+        if (active) {
+            active = false;
+            lostAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 是否可以恢复上一个会话
+     */
+    public boolean canResume() {
+        long lost = lostAt;
+        return lost > 0 && System.currentTimeMillis() - lost <= RESUME_WINDOW;
+    }
+
+    /**
+     * 缓存响应
+     *
+     * @param msgId    消息ID
+     * @param response 响应内容
+     */
+    public void cache(int msgId, JSONObject response) {
+        cachedResponses.put(msgId, response);
+    }
+
+    /**
+     * 获取缓存的响应，没有缓存时返回null
+     *
+     * @param msgId 消息ID
+     */
+    public JSONObject getCached(int msgId) {
+        return cachedResponses.get(msgId);
+    }
+
+    /**
+     * 使缓存失效，下次开始会话时重新获取
+     *
+     * @param msgId 消息ID
+     */
+    public void invalidate(int msgId) {
+        cachedResponses.remove(msgId);
+    }
+
+    /**
+     * 清除会话状态，主动断开时调用
+     */
+    public void reset() {
+        active = false;
+        lostAt = 0;
+        cachedResponses.clear();
+    }
+}
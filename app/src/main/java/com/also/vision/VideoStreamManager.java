@@ -12,10 +12,14 @@ import android.view.TextureView;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
+import com.also.vision.utils.BandwidthGovernor;
 import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.PlaybackException;
 import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.decoder.DecoderReuseEvaluation;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.rtsp.RtspMediaSource;
 
@@ -36,6 +40,8 @@ public class VideoStreamManager {
     
     // RTSP地址
     private static final String RTSP_URL = "rtsp://192.168.42.1/ch1/sub/av_stream";
+    // 向带宽调节报告缓冲时长的间隔
+    private static final long BUFFER_REPORT_INTERVAL = 500;
     
     private boolean isPlaying = false;
     private SurfaceView surfaceView;
@@ -48,6 +54,20 @@ public class VideoStreamManager {
     
     private boolean pendingPlay = false;
     
+    // 预览期间让文件下载让出带宽
+    private final BandwidthGovernor governor = BandwidthGovernor.getDefault();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable bufferReporter = new Runnable() {
+        @Override
+        public void run() {
+            if (player == null || !isPlaying) {
+                return;
+            }
+            governor.onStreamBuffer(player.getTotalBufferedDuration());
+            handler.postDelayed(this, BUFFER_REPORT_INTERVAL);
+        }
+    };
+    
     private VideoStreamManager() {
         // 初始化视频播放相关组件
     }
@@ -134,11 +154,16 @@ public class VideoStreamManager {
                 public void onPlaybackStateChanged(int state) {
                     if (state == Player.STATE_READY) {
                         isPlaying = true;
+                        onStreamStarted();
                         if (callback != null) {
                             callback.onPlayStarted();
                         }
+                    } else if (state == Player.STATE_BUFFERING && isPlaying) {
+                        // 播放中重新缓冲即为卡顿
+                        governor.onStreamStall();
                     } else if (state == Player.STATE_ENDED) {
                         isPlaying = false;
+                        onStreamStopped();
                         if (callback != null) {
                             callback.onPlayStopped();
                         }
@@ -148,6 +173,7 @@ public class VideoStreamManager {
                 @Override
                 public void onPlayerError(PlaybackException error) {
                     isPlaying = false;
+                    onStreamStopped();
                     Log.e(TAG, "播放错误: " + error.getMessage());
                     
                     if (callback != null) {
@@ -156,6 +182,24 @@ public class VideoStreamManager {
                 }
             });
             
+            // RTSP数据不经过handleVideoData：播放器加载的字节数计入预览数据量，
+            // bitrateEstimate是链路带宽估计而不是预览码率，不使用；实测之前先用视频格式声明的码率
+            player.addAnalyticsListener(new AnalyticsListener() {
+                @Override
+                public void onBandwidthEstimate(EventTime eventTime, int totalLoadTimeMs,
+                                                long totalBytesLoaded, long bitrateEstimate) {
+                    governor.onStreamData((int) Math.min(totalBytesLoaded, Integer.MAX_VALUE));
+                }
+
+                @Override
+                public void onVideoInputFormatChanged(EventTime eventTime, Format format,
+                                                      DecoderReuseEvaluation decoderReuseEvaluation) {
+                    if (format.bitrate != Format.NO_VALUE) {
+                        governor.onStreamBitrate(format.bitrate);
+                    }
+                }
+            });
+            
             Log.d(TAG, "播放器初始化成功");
         } catch (Exception e) {
             Log.e(TAG, "播放器初始化失败: " + e.getMessage());
@@ -183,6 +227,7 @@ public class VideoStreamManager {
         
         isPlaying = true;
         pendingPlay = false;
+        onStreamStarted();
         
         if (callback != null) {
             callback.onPlayStarted();
@@ -200,6 +245,7 @@ public class VideoStreamManager {
         try {
             player.stop();
             isPlaying = false;
+            onStreamStopped();
             Log.d(TAG, "停止播放视频流");
             
             if (callback != null) {
@@ -269,6 +315,7 @@ public class VideoStreamManager {
     public void handleVideoData(int dataType, byte[] data, int dataLen) {
         // 使用ExoPlayer时，不需要手动处理视频数据
         Log.d(TAG, "收到视频数据，类型: " + dataType + "，长度: " + dataLen);
+        governor.onStreamData(dataLen);
     }
     
     /**
@@ -280,6 +327,21 @@ public class VideoStreamManager {
             player = null;
         }
         isPlaying = false;
+        onStreamStopped();
+    }
+    
+    /**
+     * 通知带宽调节预览开始，并定期报告缓冲时长
+     */
+    private void onStreamStarted() {
+        governor.onStreamStarted(this);
+        handler.removeCallbacks(bufferReporter);
+        handler.post(bufferReporter);
+    }
+    
+    private void onStreamStopped() {
+        handler.removeCallbacks(bufferReporter);
+        governor.onStreamStopped(this);
     }
     
     /**
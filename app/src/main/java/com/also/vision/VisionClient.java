@@ -1,23 +1,28 @@
 package com.also.vision;
 
 import android.content.Context;
+import android.util.Log;
 import android.view.SurfaceView;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.also.vision.model.DeviceInfo;
 import com.also.vision.model.GetDeviceInfoJson;
 import com.also.vision.model.GetSDInfoJson;
 import com.also.vision.model.GetTokenNumberJson;
 import com.also.vision.model.SDCardInfo;
-import com.also.vision.model.TakePhotoJson;
 import com.also.vision.model.DeviceFile;
+import com.also.vision.model.DeviceFileTable;
 import com.also.vision.model.GetFileListJson;
+import com.also.vision.utils.BandwidthGovernor;
+import com.also.vision.utils.DownloadQueue;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * 行车记录仪客户端
@@ -26,11 +31,16 @@ import java.util.List;
 public class VisionClient {
     private static final String TAG = "VisionClient";
     private static VisionClient instance;
+    // 文件索引在同步后这段时间内视为最新，查询直接使用索引(毫秒)
+    private static final long FILE_INDEX_MAX_AGE = 60 * 1000;
 
     private Context context;
     private MessageManager messageManager;
     private VideoStreamManager videoManager;
-    private List<VisionCallback> callbacks = new ArrayList<>();
+    // 回调注册表，每个回调在自己选择的线程中按顺序收到事件
+    private final ListenerRegistry<VisionCallback> callbacks = new ListenerRegistry<>();
+    // 当前设备的文件索引，识别出设备序列号后加载
+    private volatile FileIndexSync fileIndexSync;
 
     private VisionClient() {
         messageManager = MessageManager.getInstance();
@@ -49,14 +59,23 @@ public class VisionClient {
     }
 
     /**
-     * 添加回调
+     * 添加回调，在主线程中执行
      *
      * @param callback 回调接口
      */
     public void addCallback(VisionCallback callback) {
-        if (callback != null && !callbacks.contains(callback)) {
-            callbacks.add(callback);
-        }
+        callbacks.add(callback);
+    }
+
+    /**
+     * 添加回调
+     *
+     * @param callback 回调接口
+     * @param delivery 回调执行的线程
+     * @param capacity 尚未执行的事件上限，超过时丢弃最早的事件
+     */
+    public void addCallback(VisionCallback callback, ListenerRegistry.Delivery delivery, int capacity) {
+        callbacks.add(callback, delivery, capacity);
     }
 
     /**
@@ -65,9 +84,15 @@ public class VisionClient {
      * @param callback 回调接口
      */
     public void removeCallback(VisionCallback callback) {
-        if (callback != null) {
-            callbacks.remove(callback);
-        }
+        callbacks.remove(callback);
+    }
+
+    /**
+     * 获取设备事件流
+     * 只关心部分事件的界面可以按类型订阅，不必实现完整的VisionCallback
+     */
+    public DeviceEventPublisher events() {
+        return messageManager.getEvents();
     }
 
     /**
@@ -75,6 +100,9 @@ public class VisionClient {
      */
     public void init(Context context) {
         this.context = context;
+
+        // 恢复上次没有完成的下载
+        DownloadQueue.getInstance().init(context);
         
         // 初始化消息管理器
         messageManager.init(new MessageManager.MessageCallback() {
@@ -84,122 +112,112 @@ public class VisionClient {
                 messageManager.startSession();
                 
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onConnected();
-                }
+                callbacks.dispatch(cb -> cb.onConnected());
             }
             
             @Override
             public void onConnectionFailed(String reason) {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onConnectionFailed(reason);
+                callbacks.dispatch(cb -> cb.onConnectionFailed(reason));
+            }
+
+            @Override
+            public void onSessionStarted(boolean resumed) {
+                // 恢复会话时设备信息来自缓存，不会再收到响应，直接打开文件索引；
+                // 新会话可能连接的是另一台设备，等设备信息响应到达后再打开
+                JSONObject deviceInfo = resumed
+                    ? messageManager.getSessionState().getCached(MessageManager.MSG_DEVICE_INFO) : null;
+                if (deviceInfo != null) {
+                    openFileIndex(deviceInfo.getString("serial_num"));
                 }
+
+                // 通知所有回调
+                callbacks.dispatch(cb -> cb.onSessionStarted());
             }
 
             @Override
             public void onMessageReceived(int msgId, int result, String content) {
-                // 处理接收到的消息
-                handleMessage(msgId, result, content);
+                // 没有注册处理器的消息，原样通知所有回调
+                callbacks.dispatch(cb -> cb.onMessageReceived(msgId, result, content));
             }
 
             @Override
             public void onDeviceDisconnected(String reason) {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onDeviceDisconnected(reason);
-                }
+                callbacks.dispatch(cb -> cb.onDeviceDisconnected(reason));
             }
 
             @Override
             public void onSDCardRemoved() {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onSDCardRemoved();
-                }
+                callbacks.dispatch(cb -> cb.onSDCardRemoved());
             }
 
             @Override
             public void onSDCardInserted() {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onSDCardInserted();
-                }
+                callbacks.dispatch(cb -> cb.onSDCardInserted());
             }
 
             @Override
             public void onSDCardError() {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onSDCardError();
-                }
+                callbacks.dispatch(cb -> cb.onSDCardError());
             }
 
             @Override
             public void onPhotoTaken(String url, String thumbnailUrl, int fileType) {
                 // 通知所有回调 - 注意这里我们只调用无参数的onPhotoTaken()
-                for (VisionCallback cb : callbacks) {
-                    cb.onPhotoTaken();
-                }
+                callbacks.dispatch(cb -> cb.onPhotoTaken());
             }
 
             @Override
             public void onPhotoFailed(int errorCode) {
                 // 通知所有回调 - 将错误码转换为字符串
-                for (VisionCallback cb : callbacks) {
-                    cb.onPhotoFailed("拍照失败，错误码: " + errorCode);
-                }
+                callbacks.dispatch(cb -> cb.onPhotoFailed("拍照失败，错误码: " + errorCode));
             }
 
             @Override
             public void onEventRecordSuccess() {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onEventRecorded();
-                }
+                callbacks.dispatch(cb -> cb.onEventRecorded());
             }
 
             @Override
             public void onEventRecordFailed(int errorCode) {
                 // 通知所有回调 - 将错误码转换为字符串
-                for (VisionCallback cb : callbacks) {
-                    cb.onEventRecordFailed("事件录制失败，错误码: " + errorCode);
-                }
+                callbacks.dispatch(cb -> cb.onEventRecordFailed("事件录制失败，错误码: " + errorCode));
             }
         });
+        registerMessageHandlers();
+
+        // Wi-Fi断开时暂停自动重连
+        messageManager.getConnection().attachNetworkMonitor(context);
         
         // 初始化视频管理器，但不设置SurfaceView
         videoManager.init(new VideoStreamManager.VideoCallback() {
             @Override
             public void onPlayStarted() {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onVideoPlayStarted();
-                }
+                callbacks.dispatch(cb -> cb.onVideoPlayStarted());
             }
             
             @Override
             public void onPlayStopped() {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onVideoPlayStopped();
-                }
+                callbacks.dispatch(cb -> cb.onVideoPlayStopped());
             }
 
             @Override
             public void onPlayError(String error) {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onVideoPlayError(error);
-                }
+                callbacks.dispatch(cb -> cb.onVideoPlayError(error));
             }
 
             @Override
             public void onSnapshotTaken(String path) {
                 // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onSnapshotTaken(path);
-                }
+                callbacks.dispatch(cb -> cb.onSnapshotTaken(path));
             }
         });
     }
@@ -224,235 +242,229 @@ public class VisionClient {
     }
 
     /**
-     * 处理接收到的消息
-     */
-    private void handleMessage(int msgId, int result, String content) {
-        switch (msgId) {
-            case MessageManager.MSG_DEVICE_INFO:
-                // 获取设备信息响应
-                if (result == 0) {
-                    try {
-                        GetDeviceInfoJson json = JSON.parseObject(content, GetDeviceInfoJson.class);
-                        DeviceInfo deviceInfo = new DeviceInfo();
-                        deviceInfo.setDeviceName(json.getDeviceName());
-                        deviceInfo.setChipId(json.getChipId());
-                        deviceInfo.setFirmwareVersion(json.getFirmwareVersion());
-                        deviceInfo.setHardwareVersion(json.getHardwareVersion());
-                        deviceInfo.setApiVersion(json.getApiVersion());
-                        deviceInfo.setSerialNumber(json.getSerialNumber());
-                        deviceInfo.setVendorName(json.getVendorName());
-
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onDeviceInfoReceived(deviceInfo);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-                break;
-
-            case MessageManager.MSG_SD_INFO:
-                // 获取SD卡信息响应
-                if (result == 0) {
-                    try {
-                        GetSDInfoJson json = JSON.parseObject(content, GetSDInfoJson.class);
-                        SDCardInfo sdInfo = new SDCardInfo();
-                        sdInfo.setTotalSpace(json.getTotalSpace());
-                        sdInfo.setFreeSpace(json.getFreeSpace());
-                        sdInfo.setStatus(json.getStatus());
-
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onSDCardInfoReceived(sdInfo);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-                break;
-
-            case MessageManager.MSG_TAKE_PHOTO:
-                // 拍照响应
-                if (result == 0) {
-                    try {
-                        TakePhotoJson json = JSON.parseObject(content, TakePhotoJson.class);
-                        // 拍照成功，获取URL和缩略图URL
-                        String url = json.getUrl();
-                        String thumbnailUrl = json.getThumbnailUrl();
-                        int fileType = json.getFileType();
-
-                        // 这里我们不需要再次调用onPhotoTaken，因为MessageManager.MessageCallback已经处理了
-                        // 但为了保持一致性，我们仍然调用一次
-                        for (VisionCallback cb : callbacks) {
-                            cb.onPhotoTaken();
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onPhotoFailed("解析拍照响应失败: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onPhotoFailed("拍照失败，错误码: " + result);
-                    }
-                }
-                break;
+     * 注册消息处理器
+     * 每种响应在消息处理线程中直接解析为对应的模型类，只把转换好的结果交给回调注册表，
+     * 由其投递到各回调选择的线程，消息处理线程不等待任何回调
+     */
+    private void registerMessageHandlers() {
+        // 获取设备信息响应
+        messageManager.registerHandler(MessageManager.MSG_DEVICE_INFO, GetDeviceInfoJson.class, (message, json) -> {
+            if (message.getResult() != 0) {
+                return;
+            }
+            DeviceInfo deviceInfo = new DeviceInfo();
+            deviceInfo.setDeviceName(json.getDeviceName());
+            deviceInfo.setChipId(json.getChipId());
+            deviceInfo.setFirmwareVersion(json.getFirmwareVersion());
+            deviceInfo.setHardwareVersion(json.getHardwareVersion());
+            deviceInfo.setApiVersion(json.getApiVersion());
+            deviceInfo.setSerialNumber(json.getSerialNumber());
+            deviceInfo.setVendorName(json.getVendorName());
+            openFileIndex(json.getSerialNumber());
+
+            // 通知所有回调
+            callbacks.dispatch("device_info", cb -> cb.onDeviceInfoReceived(deviceInfo));
+        });
 
-            case MessageManager.MSG_SD_FORMAT:
-                // 格式化SD卡响应
-                if (result == 0) {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onSDCardFormatted();
-                    }
-                } else {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onSDCardFormatFailed("格式化SD卡失败，错误码: " + result);
-                    }
-                }
-                break;
-
-            case MessageManager.MSG_GET_FILE_LIST:
-                // 获取文件列表响应
-                if (result == 0) {
-                    try {
-                        GetFileListJson json = JSON.parseObject(content, GetFileListJson.class);
-                        List<DeviceFile> fileList = new ArrayList<>();
-
-                        // 从JSON中提取文件列表
-                        if (json.getFiles() != null) {
-                            for (GetFileListJson.FileJson fileJson : json.getFiles()) {
-                                DeviceFile file = new DeviceFile();
-                                file.setFileName(fileJson.getName());
-                                file.setFilePath(fileJson.getPath());
-                                file.setFileUrl(fileJson.getUrl());
-                                file.setThumbnailUrl(fileJson.getThumbnailUrl());
-                                file.setFileSize(fileJson.getSize());
-                                file.setCreateTime(fileJson.getTime());
-                                file.setFileType(fileJson.getType());
-                                fileList.add(file);
-                            }
-                        }
-
-                        int total = json.getTotal();
-
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onFileListReceived(fileList, total);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onFileListFailed("解析文件列表失败: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onFileListFailed("获取文件列表失败，错误码: " + result);
-                    }
-                }
-                break;
+        // 获取SD卡信息响应
+        messageManager.registerHandler(MessageManager.MSG_SD_INFO, GetSDInfoJson.class, (message, json) -> {
+            if (message.getResult() != 0) {
+                return;
+            }
+            SDCardInfo sdInfo = new SDCardInfo();
+            sdInfo.setTotalSpace(json.getTotalSpace());
+            sdInfo.setFreeSpace(json.getFreeSpace());
+            sdInfo.setStatus(json.getStatus());
 
-            case MessageManager.MSG_DELETE_FILE:
-                // 删除文件响应
-                if (result == 0) {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onFileDeleted();
-                    }
-                } else {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onFileDeleteFailed("删除文件失败，错误码: " + result);
-                    }
-                }
-                break;
-
-            case MessageManager.MSG_DOWNLOAD_FILE:
-                // 下载文件响应: {"msg_id":1283,"rval":0,"url":"http://192.168.42.1/DCIM/100MEDIA/IMG_0001.JPG"}
-                if (result == 0) {
-                    try {
-                        JSONObject jsonObject = JSON.parseObject(content);
-                        String url = jsonObject.getString("url");
-
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onFileDownloadUrl(url);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        // 通知所有回调
-                        for (VisionCallback cb : callbacks) {
-                            cb.onFileDownloadFailed("解析下载URL失败: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onFileDownloadFailed("获取下载URL失败，错误码: " + result);
-                    }
-                }
-                break;
+            // 通知所有回调
+            callbacks.dispatch("sd_info", cb -> cb.onSDCardInfoReceived(sdInfo));
+        });
 
-            case MessageManager.MSG_EVENT_RECORD:
-                // 事件记录响应
-                if (result == 0) {
-                    // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onEventRecorded();
+        // 格式化SD卡响应，只需要rval
+        messageManager.registerHandler(MessageManager.MSG_SD_FORMAT, null, (message, none) -> {
+            int result = message.getResult();
+            if (result == 0) {
+                callbacks.dispatch(cb -> cb.onSDCardFormatted());
+            } else {
+                callbacks.dispatch(cb -> cb.onSDCardFormatFailed("格式化SD卡失败，错误码: " + result));
+            }
+        });
+
+        // 删除文件响应，只需要rval
+        messageManager.registerHandler(MessageManager.MSG_DELETE_FILE, null, (message, none) -> {
+            int result = message.getResult();
+            if (result == 0) {
+                callbacks.dispatch(cb -> cb.onFileDeleted());
+            } else {
+                callbacks.dispatch(cb -> cb.onFileDeleteFailed("删除文件失败，错误码: " + result));
+            }
+        });
+
+        // 下载文件响应: {"msg_id":1283,"rval":0,"url":"http://192.168.42.1/DCIM/100MEDIA/IMG_0001.JPG"}
+        messageManager.registerHandler(MessageManager.MSG_DOWNLOAD_FILE, JSONObject.class,
+            new MessageDispatcher.MessageHandler<JSONObject>() {
+                @Override
+                public void onMessage(DeviceMessage message, JSONObject json) {
+                    int result = message.getResult();
+                    if (result != 0) {
+                        notifyFileDownloadFailed("获取下载URL失败，错误码: " + result);
+                        return;
                     }
-                } else {
+
+                    String url = json.getString("url");
+
                     // 通知所有回调
-                    for (VisionCallback cb : callbacks) {
-                        cb.onEventRecordFailed("事件记录失败，错误码: " + result);
-                    }
+                    callbacks.dispatch(cb -> cb.onFileDownloadUrl(url));
                 }
-                break;
-
-            case MessageManager.MSG_NOTIFICATION:
-                // 处理通知消息
-                try {
-                    JSONObject jsonObject = JSON.parseObject(content);
-                    if (jsonObject.containsKey("type")) {
-                        String type = jsonObject.getString("type");
-
-                        if ("SD_rm".equals(type)) {
-                            // SD卡移除通知
-                            for (VisionCallback cb : callbacks) {
-                                cb.onSDCardRemoved();
-                            }
-                        } else if ("SD_insert".equals(type)) {
-                            // SD卡插入通知
-                            for (VisionCallback cb : callbacks) {
-                                cb.onSDCardInserted();
-                            }
-                        } else if ("SD_err".equals(type)) {
-                            // SD卡错误通知
-                            for (VisionCallback cb : callbacks) {
-                                cb.onSDCardError();
-                            }
-                        }
-                    }
-                } catch (Exception e) {
+
+                @Override
+                public void onParseFailed(DeviceMessage message, Exception e) {
                     e.printStackTrace();
+                    notifyFileDownloadFailed("解析下载URL失败: " + e.getMessage());
                 }
-                break;
+            });
+    }
 
-            default:
-                // 其他消息
-                // 通知所有回调
-                for (VisionCallback cb : callbacks) {
-                    cb.onMessageReceived(msgId, result, content);
-                }
-                break;
+    /**
+     * 打开设备的文件索引并开始同步，同一设备重复调用时只同步
+     * 文件列表不再经过消息处理器，而是作为请求等待各自的响应，与同步的分页请求按顺序对应。
+     * 识别出设备后继续该设备上次没有完成的下载。
+     *
+     * @param serial 设备序列号
+     */
+    private void openFileIndex(String serial) {
+        if (context == null || serial == null || serial.isEmpty()) {
+            return;
         }
+        DownloadQueue.getInstance().onDeviceConnected(serial);
+        FileIndexSync current = fileIndexSync;
+        if (current != null && current.getIndex().getSerial().equals(serial)) {
+            syncFileIndex();
+            return;
+        }
+        File dir = new File(context.getFilesDir(), "file_index");
+        dir.mkdirs();
+        FileIndex.loadAsync(dir, serial).thenAccept(index -> {
+            fileIndexSync = new FileIndexSync(messageManager, index);
+            syncFileIndex();
+        });
+    }
+
+    /**
+     * 同步界面使用的视频和图片列表
+     */
+    private void syncFileIndex() {
+        syncFileIndex(FileIndex.TYPE_VIDEO);
+        syncFileIndex(FileIndex.TYPE_PHOTO);
+    }
+
+    /**
+     * 同步一种类型的文件索引，有变化时保存并通知回调
+     *
+     * @param type 文件类型，见FileIndex.TYPE_*
+     * @return 索引是否有变化；还没有识别出设备时以异常结束
+     */
+    public CompletableFuture<Boolean> syncFileIndex(String type) {
+        FileIndexSync sync = fileIndexSync;
+        if (sync == null) {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("文件索引尚未打开"));
+            return future;
+        }
+        CompletableFuture<Boolean> future = sync.sync(type);
+        future.thenAccept(changed -> {
+            if (changed) {
+                FileIndex index = sync.getIndex();
+                index.saveAsync();
+                int total = index.getTotal(type);
+                callbacks.dispatch("file_index_" + type, cb -> cb.onFileIndexUpdated(type, total));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 获取当前设备的文件索引，还没有识别出设备时为null
+     */
+    public FileIndex getFileIndex() {
+        FileIndexSync sync = fileIndexSync;
+        return sync != null ? sync.getIndex() : null;
+    }
+
+    /**
+     * 查找时间在[from, to]范围内的文件
+     * 索引在FILE_INDEX_MAX_AGE内同步过时直接从索引查询，否则先同步该类型
+     *
+     * @param type 文件类型，见FileIndex.TYPE_*
+     * @param from 开始时间(毫秒)，包含
+     * @param to   结束时间(毫秒)，包含
+     * @return 按时间从早到晚排列的文件
+     */
+    public CompletableFuture<List<DeviceFile>> findFiles(String type, long from, long to) {
+        return timeIndex(type).thenApply(timeIndex -> {
+            DeviceFileTable files = timeIndex.range(from, to);
+            return files.toDeviceFiles(0, files.size());
+        });
+    }
+
+    /**
+     * 查找时间最接近time的文件
+     *
+     * @param type 文件类型，见FileIndex.TYPE_*
+     * @param time 时间(毫秒)
+     * @return 文件，没有带时间的文件时为null
+     */
+    public CompletableFuture<DeviceFile> findNearestFile(String type, long time) {
+        return timeIndex(type).thenApply(timeIndex -> {
+            int position = timeIndex.nearest(time);
+            return position >= 0 ? timeIndex.getTable().toDeviceFile(position) : null;
+        });
+    }
+
+    /**
+     * 查找最新的count个文件
+     *
+     * @param type  文件类型，见FileIndex.TYPE_*
+     * @param count 文件数
+     * @return 按时间从新到旧排列的文件
+     */
+    public CompletableFuture<List<DeviceFile>> findRecentFiles(String type, int count) {
+        return timeIndex(type).thenApply(timeIndex -> {
+            DeviceFileTable files = timeIndex.latest(count);
+            return files.toDeviceFiles(0, files.size());
+        });
+    }
+
+    /**
+     * 获取该类型的时间索引，索引过期时先同步；同步失败但有旧索引时使用旧索引
+     */
+    private CompletableFuture<FileTimeIndex> timeIndex(String type) {
+        FileIndex index = getFileIndex();
+        if (index == null) {
+            CompletableFuture<FileTimeIndex> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("文件索引尚未打开"));
+            return future;
+        }
+        if (index.isSynced(type) && System.currentTimeMillis() - index.getSyncedAt(type) < FILE_INDEX_MAX_AGE) {
+            return CompletableFuture.completedFuture(index.getTimeIndex(type));
+        }
+        return syncFileIndex(type).handle((changed, error) -> {
+            if (error != null) {
+                if (!index.isSynced(type)) {
+                    throw new CompletionException(error);
+                }
+                Log.w(TAG, "同步文件索引失败，使用上次同步的结果: type=" + type);
+            }
+            return index.getTimeIndex(type);
+        });
+    }
+
+    private void notifyFileListFailed(String reason) {
+        callbacks.dispatch(cb -> cb.onFileListFailed(reason));
+    }
+
+    private void notifyFileDownloadFailed(String reason) {
+        callbacks.dispatch(cb -> cb.onFileDownloadFailed(reason));
     }
 
     /**
@@ -534,7 +546,41 @@ public class VisionClient {
      * @param count    获取数量
      */
     public void getFileList(int fileType, int offset, int count) {
-        messageManager.getFileList(fileType == DeviceFile.TYPE_VIDEO ? "video" : "photo", offset, count);
+        String type = fileType == DeviceFile.TYPE_VIDEO ? FileIndex.TYPE_VIDEO : FileIndex.TYPE_PHOTO;
+
+        // 同步过的类型直接从索引读取，索引有变化时另行通过onFileIndexUpdated通知
+        FileIndex index = getFileIndex();
+        if (index != null && index.isSynced(type)) {
+            DeviceFileTable files = index.getRange(type, offset, count);
+            int total = index.getTotal(type);
+            callbacks.dispatch(cb -> cb.onFileListReceived(files, total));
+            return;
+        }
+
+        messageManager.requestFileList(type, offset, count).whenComplete((json, error) -> {
+            if (error != null) {
+                notifyFileListFailed("获取文件列表失败: " + error.getMessage());
+                return;
+            }
+            int result = json.getIntValue("rval");
+            if (result != 0) {
+                notifyFileListFailed("获取文件列表失败，错误码: " + result);
+                return;
+            }
+            DeviceFileTable files;
+            int total;
+            try {
+                files = GetFileListJson.parseTable(json, fileType);
+                total = GetFileListJson.parseTotal(json);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                notifyFileListFailed("解析文件列表失败: " + e.getMessage());
+                return;
+            }
+
+            // 通知所有回调
+            callbacks.dispatch(cb -> cb.onFileListReceived(files, total));
+        });
     }
 
     /**
@@ -543,16 +589,85 @@ public class VisionClient {
      * @param fileName 文件名
      */
     public void deleteFile(String fileName) {
-        messageManager.deleteFile(fileName);
+        // 删除成功后同时从索引中移除，不必重新同步
+        messageManager.request(MessageManager.MSG_DELETE_FILE, fileName, null).thenAccept(json -> {
+            FileIndex index = getFileIndex();
+            if (json.getIntValue("rval") == 0 && index != null && index.remove(fileName)) {
+                index.saveAsync();
+            }
+        });
     }
 
     /**
      * 下载文件
+     * 文件URL由当前会话的设备地址和文件名得到，不再经过MSG_DOWNLOAD_FILE获取；下载经过DownloadQueue，
+     * 优先于后台下载，同一设备的同一文件已在下载时共享该下载，各设备的文件保存在各自的目录中
      *
      * @param fileName 文件名
+     * @return 下载完成时得到本地文件
      */
-    public void downloadFile(String fileName) {
-        messageManager.downloadFile(fileName);
+    public CompletableFuture<File> downloadFile(String fileName) {
+        return download(fileName, DownloadQueue.PRIORITY_USER).whenComplete((file, error) -> {
+            if (error == null) {
+                callbacks.dispatch(cb -> cb.onFileDownloaded(fileName, file));
+            } else if (!(error instanceof CancellationException)) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                notifyFileDownloadFailed("下载文件失败: " + fileName + ", " + cause.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 在后台下载索引中某一类型的全部文件，例如全部事件视频
+     * 批量下载以后台优先级加入队列，不会占满下载并发，也不会阻塞用户发起的下载；每个文件完成时通知onFileDownloaded
+     *
+     * @param type 文件类型，见FileIndex.TYPE_*
+     * @return 加入队列的文件数，还没有识别出设备时为0
+     */
+    public int downloadAll(String type) {
+        FileIndex index = getFileIndex();
+        if (index == null) {
+            return 0;
+        }
+        DeviceFileTable files = index.getTable(type);
+        for (int i = 0; i < files.size(); i++) {
+            String fileName = files.getName(i);
+            download(fileName, DownloadQueue.PRIORITY_BACKGROUND).thenAccept(file ->
+                callbacks.dispatch(cb -> cb.onFileDownloaded(fileName, file)));
+        }
+        return files.size();
+    }
+
+    /**
+     * 获取下载带宽统计，包括预览期间的下载限速和预览码率
+     */
+    public BandwidthGovernor.Stats getBandwidthStats() {
+        return BandwidthGovernor.getDefault().getStats();
+    }
+
+    /**
+     * 获取当前设备的序列号，还没有识别出设备时为null
+     */
+    public String getDeviceSerial() {
+        FileIndex index = getFileIndex();
+        return index != null ? index.getSerial() : null;
+    }
+
+    /**
+     * 按当前会话的设备地址得到文件URL
+     */
+    private String fileUrlOf(String fileName) {
+        String host = messageManager.getConnection().getDeviceAddress().getHostString();
+        return "http://" + host + DeviceFile.BASE_PATH + fileName;
+    }
+
+    private CompletableFuture<File> download(String fileName, int priority) {
+        String serial = getDeviceSerial();
+        File dir = DownloadQueue.downloadDir(context, serial);
+        return DownloadQueue.getInstance()
+            .enqueue(fileUrlOf(fileName), new File(dir, DownloadQueue.safeName(fileName)), serial, priority, null)
+            .getFuture();
     }
 
     /**
@@ -608,10 +723,13 @@ public class VisionClient {
         void onSDCardFormatFailed(String reason);
 
         // 文件列表相关
-        void onFileListReceived(List<DeviceFile> fileList, int total);
+        void onFileListReceived(DeviceFileTable files, int total);
 
         void onFileListFailed(String reason);
 
+        // 文件索引同步后有变化，界面应从头重新读取该类型的列表
+        void onFileIndexUpdated(String fileType, int total);
+
         // 文件删除相关
         void onFileDeleted();
 
@@ -622,6 +740,8 @@ public class VisionClient {
 
         void onFileDownloadFailed(String reason);
 
+        void onFileDownloaded(String fileName, File file);
+
         // 通用消息回调
         void onMessageReceived(int msgId, int result, String content);
     }
@@ -10,19 +10,48 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.also.vision.FileIndex;
 import com.also.vision.R;
+import com.also.vision.VisionClient;
 import com.also.vision.model.DeviceFile;
-import com.bumptech.glide.Glide;
-
-import java.util.List;
+import com.also.vision.model.DeviceFileTable;
+import com.also.vision.utils.ThumbnailLoader;
 
+/**
+ * 文件列表适配器
+ * 数据是列式的DeviceFileTable，每个ViewHolder保留一个Row，绑定时只改变行号，不为每一行创建DeviceFile
+ * <p>
+ * 缩略图由ThumbnailLoader按设备序列号和文件名缓存；绑定的行每移动半个预取范围，
+ * 就预取滚动方向上之后THUMBNAIL_PREFETCH行的缩略图
+ */
 public class FileListAdapter extends BaseAdapter {
+    private static final int THUMBNAIL_PREFETCH = 20;
+
     private Context context;
-    private List<DeviceFile> fileList;
+    private DeviceFileTable fileList;
+    private PrefetchListener prefetchListener;
+    private int prefetchDistance;
+    private int prefetchRequestedAt = -1;
+    private int lastPosition = -1;
+    private int thumbnailPrefetchAt = -1;
+    private boolean scrollingDown = true;
     
-    public FileListAdapter(Context context, List<DeviceFile> fileList) {
+    public FileListAdapter(Context context, DeviceFileTable fileList) {
         this.context = context;
         this.fileList = fileList;
+        ThumbnailLoader.getInstance().init(context);
+    }
+    
+    /**
+     * 设置预取监听，列表显示到距末尾prefetchDistance项以内时请求下一页，
+     * 同一个列表长度只请求一次
+     *
+     * @param prefetchDistance 距末尾的项数
+     * @param listener         预取监听
+     */
+    public void setPrefetchListener(int prefetchDistance, PrefetchListener listener) {
+        this.prefetchDistance = prefetchDistance;
+        this.prefetchListener = listener;
     }
     
     @Override
@@ -30,9 +59,12 @@ public class FileListAdapter extends BaseAdapter {
         return fileList.size();
     }
     
+    /**
+     * 创建该位置文件的DeviceFile，只在点击等需要完整对象时使用
+     */
     @Override
     public Object getItem(int position) {
-        return fileList.get(position);
+        return fileList.toDeviceFile(position);
     }
     
     @Override
@@ -56,44 +88,87 @@ public class FileListAdapter extends BaseAdapter {
             holder = (ViewHolder) convertView.getTag();
         }
         
-        DeviceFile file = fileList.get(position);
+        // 在用户滚动到末尾之前请求下一页
+        int count = getCount();
+        if (prefetchListener != null && position >= count - prefetchDistance && prefetchRequestedAt != count) {
+            prefetchRequestedAt = count;
+            prefetchListener.onPrefetch(count);
+        }
+        
+        DeviceFileTable.Row file = fileList.row(position, holder.row);
+        holder.row = file;
         
         // 设置文件名
-        holder.tvFileName.setText(file.getFileName());
-        
-        // 设置文件信息（大小和日期）
-        String fileSize = Formatter.formatFileSize(context, file.getFileSize());
-        String fileDate = DateFormat.format("yyyy-MM-dd HH:mm", file.getCreateTime()).toString();
+        holder.tvFileName.setText(file.getName());
         
-        if (file.getFileType() == DeviceFile.TYPE_VIDEO && file.getDuration() > 0) {
-            int minutes = file.getDuration() / 60;
-            int seconds = file.getDuration() % 60;
-            holder.tvFileInfo.setText(String.format("%s • %s • %02d:%02d", fileSize, fileDate, minutes, seconds));
-        } else {
+        // 设置文件信息（大小和日期），设备列表只有文件名时大小未知
+        String fileDate = DateFormat.format("yyyy-MM-dd HH:mm", file.getTime()).toString();
+        if (file.getSize() > 0) {
+            String fileSize = Formatter.formatFileSize(context, file.getSize());
             holder.tvFileInfo.setText(String.format("%s • %s", fileSize, fileDate));
+        } else {
+            holder.tvFileInfo.setText(fileDate);
         }
         
         // 设置文件类型图标
-        if (file.getFileType() == DeviceFile.TYPE_VIDEO) {
+        if (file.getType() == DeviceFile.TYPE_VIDEO) {
             holder.ivFileType.setImageResource(R.drawable.ic_video);
         } else {
             holder.ivFileType.setImageResource(R.drawable.ic_photo);
         }
         
         // 加载缩略图
-        Glide.with(context)
-                .load(file.getThumbnailUrl())
-                .placeholder(R.drawable.ic_placeholder)
-                .error(R.drawable.ic_error)
-                .into(holder.ivThumbnail);
+        String serial = getSerial();
+        ThumbnailLoader.getInstance().load(serial, file.getName(), file.getThumbnailUrl(), holder.ivThumbnail,
+                R.drawable.ic_placeholder, R.drawable.ic_error);
+        prefetchThumbnails(serial, position);
         
         return convertView;
     }
     
+    /**
+     * 按绑定位置的变化判断滚动方向，移动超过半个预取范围或改变方向时预取前方的缩略图
+     */
+    private void prefetchThumbnails(String serial, int position) {
+        if (lastPosition >= 0 && position != lastPosition) {
+            boolean down = position > lastPosition;
+            if (down != scrollingDown) {
+                scrollingDown = down;
+                thumbnailPrefetchAt = -1;
+            }
+        }
+        lastPosition = position;
+        if (thumbnailPrefetchAt >= 0 && Math.abs(position - thumbnailPrefetchAt) < THUMBNAIL_PREFETCH / 2) {
+            return;
+        }
+        thumbnailPrefetchAt = position;
+        if (scrollingDown) {
+            ThumbnailLoader.getInstance().prefetch(serial, fileList, position + 1, position + 1 + THUMBNAIL_PREFETCH);
+        } else {
+            ThumbnailLoader.getInstance().prefetch(serial, fileList, position - THUMBNAIL_PREFETCH, position);
+        }
+    }
+    
+    private static String getSerial() {
+        FileIndex index = VisionClient.getInstance().getFileIndex();
+        return index != null ? index.getSerial() : null;
+    }
+    
+    /**
+     * 预取监听
+     */
+    public interface PrefetchListener {
+        /**
+         * @param loadedCount 已加载的项数，即下一页的起始位置
+         */
+        void onPrefetch(int loadedCount);
+    }
+    
     private static class ViewHolder {
         ImageView ivThumbnail;
         TextView tvFileName;
         TextView tvFileInfo;
         ImageView ivFileType;
+        DeviceFileTable.Row row;
     }
 } 
\ No newline at end of file
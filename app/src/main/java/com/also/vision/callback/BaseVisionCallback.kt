@@ -1,9 +1,10 @@
 package com.also.vision.callback
 
 import com.also.vision.VisionClient
-import com.also.vision.model.DeviceFile
+import com.also.vision.model.DeviceFileTable
 import com.also.vision.model.DeviceInfo
 import com.also.vision.model.SDCardInfo
+import java.io.File
 
 /**
  * VisionCallback 的基础实现，提供所有方法的默认空实现
@@ -50,10 +51,12 @@ abstract class BaseVisionCallback : VisionClient.VisionCallback {
 
     override fun onSDCardFormatFailed(reason: String) {}
 
-    override fun onFileListReceived(files: List<DeviceFile>, total: Int) {}
+    override fun onFileListReceived(files: DeviceFileTable, total: Int) {}
 
     override fun onFileListFailed(reason: String) {}
 
+    override fun onFileIndexUpdated(fileType: String, total: Int) {}
+
     override fun onFileDeleted() {}
 
     override fun onFileDeleteFailed(reason: String) {}
@@ -62,5 +65,7 @@ abstract class BaseVisionCallback : VisionClient.VisionCallback {
 
     override fun onFileDownloadFailed(reason: String) {}
 
+    override fun onFileDownloaded(fileName: String, file: File) {}
+
     override fun onMessageReceived(msgId: Int, result: Int, content: String) {}
 } 
\ No newline at end of file
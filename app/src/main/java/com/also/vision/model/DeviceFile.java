@@ -11,6 +11,10 @@ public class DeviceFile {
     public static final int TYPE_VIDEO = 1;
     public static final int TYPE_PHOTO = 2;
     
+    // 设备文件所在目录和HTTP访问地址前缀
+    public static final String BASE_PATH = "/DCIM/100MEDIA/";
+    public static final String BASE_URL = "http://192.168.42.1" + BASE_PATH;
+    
     private String fileName;      // 文件名
     private String filePath;      // 文件路径
     private String thumbnailUrl;  // 缩略图URL
@@ -34,6 +38,42 @@ public class DeviceFile {
         this.fileType = fileType;
     }
     
+    /**
+     * 根据设备列表中的文件名创建文件，URL、缩略图和创建时间由文件名推出
+     * 文件名格式为"YYYYMMDD_HHMMSS.EXT"，视频的缩略图与视频同名但扩展名为.thm
+     *
+     * @param fileName 文件名
+     * @param fileSize 文件大小(字节)，未知时为0
+     * @param fileType 文件类型(1=视频, 2=图片)
+     */
+    public static DeviceFile fromName(String fileName, long fileSize, int fileType) {
+        String fileUrl = BASE_URL + fileName;
+        String thumbnailUrl = fileUrl;
+        int dot = fileName.lastIndexOf('.');
+        if (fileType == TYPE_VIDEO && dot > 0) {
+            thumbnailUrl = BASE_URL + fileName.substring(0, dot) + ".thm";
+        }
+        return new DeviceFile(fileName, BASE_PATH, thumbnailUrl, fileUrl, fileSize, timeOfName(fileName), fileType);
+    }
+    
+    /**
+     * 从"YYYYMMDD_HHMMSS.EXT"格式的文件名中取出时间
+     *
+     * @return "yyyy-MM-dd HH:mm:ss"格式的时间，文件名不是该格式时返回null
+     */
+    public static String timeOfName(String fileName) {
+        if (fileName == null || fileName.length() < 15 || fileName.charAt(8) != '_') {
+            return null;
+        }
+        for (int i = 0; i < 15; i++) {
+            if (i != 8 && !Character.isDigit(fileName.charAt(i))) {
+                return null;
+            }
+        }
+        return fileName.substring(0, 4) + "-" + fileName.substring(4, 6) + "-" + fileName.substring(6, 8)
+            + " " + fileName.substring(9, 11) + ":" + fileName.substring(11, 13) + ":" + fileName.substring(13, 15);
+    }
+    
     // Getters and Setters
     public String getFileName() {
         return fileName;
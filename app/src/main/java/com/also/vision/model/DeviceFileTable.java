@@ -0,0 +1,531 @@
+package com.also.vision.model;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 设备文件表
+ * 按列保存大量文件：文件名依次存放在一个共用的char数组中，大小、类型和由文件名解析出的时间存放在基本类型数组中，
+ * URL只保存一个共用的前缀，文件URL和缩略图URL在需要时由前缀和文件名拼出；
+ * 设备给出了与此不同的URL(如其他目录的文件、图片的缩略图)时保存在按行号排序的稀疏列中。
+ * 上万个文件时不再为每个文件创建DeviceFile及其多个String字段；列表界面通过可复用的{@link Row}逐行读取。
+ * <p>
+ * 追加不是线程安全的。文件索引中的表构建完成后不再修改，可以在任意线程中读取。
+ */
+public final class DeviceFileTable {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int AVERAGE_NAME_LENGTH = 20;
+
+    private final String baseUrl;
+    private char[] chars;
+    private int charCount = 0;
+    // 第i个文件名为chars[nameEnds[i - 1], nameEnds[i])
+    private int[] nameEnds;
+    private long[] times;
+    private long[] sizes;
+    private byte[] types;
+    private int count = 0;
+
+    // URL稀疏列：overrideRows[k]行的文件URL和缩略图URL，为null时使用默认URL
+    private int[] overrideRows = new int[0];
+    private String[] fileUrls = new String[0];
+    private String[] thumbnailUrls = new String[0];
+    private int overrideCount = 0;
+
+    public DeviceFileTable() {
+        this(DeviceFile.BASE_URL, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param baseUrl  文件URL前缀
+     * @param capacity 预计的文件数
+     */
+    public DeviceFileTable(String baseUrl, int capacity) {
+        this.baseUrl = baseUrl.intern();
+        int initial = Math.max(1, capacity);
+        this.chars = new char[initial * AVERAGE_NAME_LENGTH];
+        this.nameEnds = new int[initial];
+        this.times = new long[initial];
+        this.sizes = new long[initial];
+        this.types = new byte[initial];
+    }
+
+    /**
+     * 追加文件，时间由文件名解析
+     *
+     * @param name     文件名
+     * @param size     文件大小(字节)，未知时为0
+     * @param fileType 文件类型(1=视频, 2=图片)
+     */
+    public void add(CharSequence name, long size, int fileType) {
+        add(name, size, fileType, 0);
+    }
+
+    /**
+     * 追加文件
+     *
+     * @param name     文件名
+     * @param size     文件大小(字节)，未知时为0
+     * @param fileType 文件类型(1=视频, 2=图片)
+     * @param time     文件时间(毫秒)，为0时由文件名解析
+     */
+    public void add(CharSequence name, long size, int fileType, long time) {
+        add(name, size, fileType, time, null, null);
+    }
+
+    /**
+     * 追加文件，URL与默认URL不同时记入稀疏列
+     *
+     * @param name         文件名
+     * @param size         文件大小(字节)，未知时为0
+     * @param fileType     文件类型(1=视频, 2=图片)
+     * @param time         文件时间(毫秒)，为0时由文件名解析
+     * @param fileUrl      文件URL，为null时使用默认URL
+     * @param thumbnailUrl 缩略图URL，为null时由文件URL推出
+     */
+    public void add(CharSequence name, long size, int fileType, long time, String fileUrl, String thumbnailUrl) {
+        ensureCapacity(count + 1, charCount + name.length());
+        int start = charCount;
+        for (int i = 0; i < name.length(); i++) {
+            chars[charCount++] = name.charAt(i);
+        }
+        nameEnds[count] = charCount;
+        times[count] = time != 0 ? time : parseNameTime(chars, start, charCount - start);
+        sizes[count] = size;
+        types[count] = (byte) fileType;
+        count++;
+        if (fileUrl != null || thumbnailUrl != null) {
+            setUrls(count - 1, fileUrl, thumbnailUrl);
+        }
+    }
+
+    /**
+     * 追加DeviceFile，保留文件名、大小、类型、时间和与默认不同的URL
+     */
+    public void add(DeviceFile file) {
+        long time = 0;
+        String createTime = file.getCreateTime();
+        if (createTime != null && DeviceFile.timeOfName(file.getFileName()) == null) {
+            time = parseDateTime(createTime);
+        }
+        add(file.getFileName(), file.getFileSize(), file.getFileType(), time,
+            file.getFileUrl(), file.getThumbnailUrl());
+    }
+
+    /**
+     * 设置第index行的URL，与默认URL相同的部分不保存
+     *
+     * @param fileUrl      文件URL，为null时使用默认URL
+     * @param thumbnailUrl 缩略图URL，为null时由文件URL推出
+     */
+    public void setUrls(int index, String fileUrl, String thumbnailUrl) {
+        String defaultFileUrl = baseUrl + getName(index);
+        if (defaultFileUrl.equals(fileUrl)) {
+            fileUrl = null;
+        }
+        if (thumbnailUrl != null
+            && thumbnailUrl.equals(thumbnailOf(fileUrl != null ? fileUrl : defaultFileUrl, types[index]))) {
+            thumbnailUrl = null;
+        }
+        int k = Arrays.binarySearch(overrideRows, 0, overrideCount, index);
+        if (fileUrl == null && thumbnailUrl == null) {
+            if (k >= 0) {
+                System.arraycopy(overrideRows, k + 1, overrideRows, k, overrideCount - k - 1);
+                System.arraycopy(fileUrls, k + 1, fileUrls, k, overrideCount - k - 1);
+                System.arraycopy(thumbnailUrls, k + 1, thumbnailUrls, k, overrideCount - k - 1);
+                overrideCount--;
+            }
+            return;
+        }
+        if (k < 0) {
+            k = -k - 1;
+            ensureOverrideCapacity(overrideCount + 1);
+            System.arraycopy(overrideRows, k, overrideRows, k + 1, overrideCount - k);
+            System.arraycopy(fileUrls, k, fileUrls, k + 1, overrideCount - k);
+            System.arraycopy(thumbnailUrls, k, thumbnailUrls, k + 1, overrideCount - k);
+            overrideRows[k] = index;
+            overrideCount++;
+        }
+        fileUrls[k] = fileUrl;
+        thumbnailUrls[k] = thumbnailUrl;
+    }
+
+    public void addAll(List<DeviceFile> files) {
+        for (DeviceFile file : files) {
+            add(file);
+        }
+    }
+
+    /**
+     * 追加另一个表中[from, to)范围内的文件，整段复制各列
+     * 两个表的URL前缀不同时，复制的行记入URL稀疏列，URL保持不变
+     */
+    public void addRange(DeviceFileTable other, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int firstRow = count;
+        int charStart = other.nameStart(from);
+        int charLength = other.nameEnds[to - 1] - charStart;
+        int n = to - from;
+        ensureCapacity(count + n, charCount + charLength);
+        System.arraycopy(other.chars, charStart, chars, charCount, charLength);
+        for (int i = 0; i < n; i++) {
+            nameEnds[count + i] = other.nameEnds[from + i] - charStart + charCount;
+        }
+        System.arraycopy(other.times, from, times, count, n);
+        System.arraycopy(other.sizes, from, sizes, count, n);
+        System.arraycopy(other.types, from, types, count, n);
+        charCount += charLength;
+        count += n;
+
+        if (!baseUrl.equals(other.baseUrl)) {
+            for (int i = 0; i < n; i++) {
+                setUrls(firstRow + i, other.getFileUrl(from + i), other.getThumbnailUrlOverride(from + i));
+            }
+            return;
+        }
+        int k = Arrays.binarySearch(other.overrideRows, 0, other.overrideCount, from);
+        for (k = k >= 0 ? k : -k - 1; k < other.overrideCount && other.overrideRows[k] < to; k++) {
+            // 行号递增，直接追加到稀疏列末尾
+            ensureOverrideCapacity(overrideCount + 1);
+            overrideRows[overrideCount] = other.overrideRows[k] - from + firstRow;
+            fileUrls[overrideCount] = other.fileUrls[k];
+            thumbnailUrls[overrideCount] = other.thumbnailUrls[k];
+            overrideCount++;
+        }
+    }
+
+    /**
+     * 清空，保留已分配的空间
+     */
+    public void clear() {
+        count = 0;
+        charCount = 0;
+        Arrays.fill(fileUrls, 0, overrideCount, null);
+        Arrays.fill(thumbnailUrls, 0, overrideCount, null);
+        overrideCount = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public String getName(int index) {
+        int start = nameStart(index);
+        return new String(chars, start, nameEnds[index] - start);
+    }
+
+    /**
+     * 文件名是否等于name，不创建String
+     */
+    public boolean nameEquals(int index, String name) {
+        int start = nameStart(index);
+        int length = nameEnds[index] - start;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从from开始查找文件名
+     *
+     * @return 位置，找不到时返回-1
+     */
+    public int indexOfName(String name, int from) {
+        for (int i = Math.max(0, from); i < count; i++) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取文件时间(毫秒)，文件名不是"YYYYMMDD_HHMMSS"格式时为0
+     */
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    public String getFileUrl(int index) {
+        String override = getFileUrlOverride(index);
+        return override != null ? override : baseUrl + getName(index);
+    }
+
+    /**
+     * 获取缩略图URL，设备没有给出时视频的缩略图与视频同名但扩展名为.thm，图片使用原图
+     */
+    public String getThumbnailUrl(int index) {
+        String override = getThumbnailUrlOverride(index);
+        return override != null ? override : thumbnailOf(getFileUrl(index), types[index]);
+    }
+
+    /**
+     * 获取与默认URL不同的文件URL，没有时为null
+     */
+    public String getFileUrlOverride(int index) {
+        int k = Arrays.binarySearch(overrideRows, 0, overrideCount, index);
+        return k >= 0 ? fileUrls[k] : null;
+    }
+
+    /**
+     * 获取设备给出的缩略图URL，没有时为null
+     */
+    public String getThumbnailUrlOverride(int index) {
+        int k = Arrays.binarySearch(overrideRows, 0, overrideCount, index);
+        return k >= 0 ? thumbnailUrls[k] : null;
+    }
+
+    /**
+     * 获取URL与默认不同的行数
+     */
+    public int getUrlOverrideCount() {
+        return overrideCount;
+    }
+
+    /**
+     * 获取第k个URL与默认不同的行的行号，按行号递增
+     */
+    public int getUrlOverrideRow(int k) {
+        return overrideRows[k];
+    }
+
+    /**
+     * 创建第index个文件的DeviceFile
+     */
+    public DeviceFile toDeviceFile(int index) {
+        DeviceFile file = DeviceFile.fromName(getName(index), sizes[index], types[index]);
+        file.setFileUrl(getFileUrl(index));
+        file.setThumbnailUrl(getThumbnailUrl(index));
+        if (file.getCreateTime() == null && times[index] != 0) {
+            file.setCreateTime(formatDateTime(times[index]));
+        }
+        return file;
+    }
+
+    /**
+     * 创建[from, to)范围内文件的DeviceFile，用于按页交给回调
+     */
+    public List<DeviceFile> toDeviceFiles(int from, int to) {
+        int start = Math.max(0, from);
+        int end = Math.min(count, to);
+        List<DeviceFile> files = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            files.add(toDeviceFile(i));
+        }
+        return files;
+    }
+
+    /**
+     * 两个表的文件名及顺序是否相同
+     */
+    public boolean sameNames(DeviceFileTable other) {
+        if (count != other.count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int start = nameStart(i);
+            int otherStart = other.nameStart(i);
+            int length = nameEnds[i] - start;
+            if (length != other.nameEnds[i] - otherStart) {
+                return false;
+            }
+            for (int j = 0; j < length; j++) {
+                if (chars[start + j] != other.chars[otherStart + j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把reuse定位到第index行，reuse为null时创建新的Row
+     * 列表界面每个ViewHolder保留一个Row，绑定时只改变位置
+     */
+    public Row row(int index, Row reuse) {
+        Row row = reuse != null ? reuse : new Row();
+        row.table = this;
+        row.index = index;
+        return row;
+    }
+
+    /**
+     * 估计各列占用的内存(字节)，不含对象头
+     */
+    public long estimateBytes() {
+        long bytes = chars.length * 2L + nameEnds.length * 4L + times.length * 8L + sizes.length * 8L + types.length;
+        bytes += overrideRows.length * 4L + (fileUrls.length + thumbnailUrls.length) * 4L;
+        for (int k = 0; k < overrideCount; k++) {
+            bytes += (fileUrls[k] != null ? fileUrls[k].length() * 2L : 0)
+                + (thumbnailUrls[k] != null ? thumbnailUrls[k].length() * 2L : 0);
+        }
+        return bytes;
+    }
+
+    private int nameStart(int index) {
+        return index > 0 ? nameEnds[index - 1] : 0;
+    }
+
+    private void ensureCapacity(int rows, int totalChars) {
+        if (rows > nameEnds.length) {
+            int capacity = Math.max(rows, nameEnds.length * 2);
+            nameEnds = Arrays.copyOf(nameEnds, capacity);
+            times = Arrays.copyOf(times, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        if (totalChars > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(totalChars, chars.length * 2));
+        }
+    }
+
+    private void ensureOverrideCapacity(int rows) {
+        if (rows > overrideRows.length) {
+            int capacity = Math.max(rows, Math.max(4, overrideRows.length * 2));
+            overrideRows = Arrays.copyOf(overrideRows, capacity);
+            fileUrls = Arrays.copyOf(fileUrls, capacity);
+            thumbnailUrls = Arrays.copyOf(thumbnailUrls, capacity);
+        }
+    }
+
+    /**
+     * 由文件URL推出缩略图URL，视频的缩略图与视频同名但扩展名为.thm，图片使用原图
+     */
+    private static String thumbnailOf(String fileUrl, int fileType) {
+        int dot = fileUrl.lastIndexOf('.');
+        if (fileType == DeviceFile.TYPE_VIDEO && dot > fileUrl.lastIndexOf('/') + 1) {
+            return fileUrl.substring(0, dot) + ".thm";
+        }
+        return fileUrl;
+    }
+
+    /**
+     * 从"YYYYMMDD_HHMMSS"开头的文件名解析时间(毫秒)，不是该格式时返回0
+     */
+    public static long timeOfName(CharSequence name) {
+        char[] buffer = new char[Math.min(15, name.length())];
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = name.charAt(i);
+        }
+        return parseNameTime(buffer, 0, buffer.length);
+    }
+
+    private static long parseNameTime(char[] chars, int start, int length) {
+        if (length < 15 || chars[start + 8] != '_') {
+            return 0;
+        }
+        int year = digits(chars, start, 4);
+        int month = digits(chars, start + 4, 2);
+        int day = digits(chars, start + 6, 2);
+        int hour = digits(chars, start + 9, 2);
+        int minute = digits(chars, start + 11, 2);
+        int second = digits(chars, start + 13, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return 0;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 解析"yyyy-MM-dd HH:mm:ss"格式的时间，格式不符时返回0
+     */
+    private static long parseDateTime(String time) {
+        if (time.length() < 19) {
+            return 0;
+        }
+        char[] compact = {
+            time.charAt(0), time.charAt(1), time.charAt(2), time.charAt(3), time.charAt(5), time.charAt(6),
+            time.charAt(8), time.charAt(9), '_', time.charAt(11), time.charAt(12), time.charAt(14),
+            time.charAt(15), time.charAt(17), time.charAt(18)
+        };
+        return parseNameTime(compact, 0, compact.length);
+    }
+
+    private static String formatDateTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        return String.format("%04d-%02d-%02d %02d:%02d:%02d", time.getYear(), time.getMonthValue(),
+            time.getDayOfMonth(), time.getHour(), time.getMinute(), time.getSecond());
+    }
+
+    private static int digits(char[] chars, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 表中一行的轻量视图，不复制数据
+     */
+    public static final class Row {
+        private DeviceFileTable table;
+        private int index;
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return table.getName(index);
+        }
+
+        public long getTime() {
+            return table.times[index];
+        }
+
+        public long getSize() {
+            return table.sizes[index];
+        }
+
+        public int getType() {
+            return table.types[index];
+        }
+
+        public String getFileUrl() {
+            return table.getFileUrl(index);
+        }
+
+        public String getThumbnailUrl() {
+            return table.getThumbnailUrl(index);
+        }
+
+        public DeviceFile toDeviceFile() {
+            return table.toDeviceFile(index);
+        }
+    }
+}
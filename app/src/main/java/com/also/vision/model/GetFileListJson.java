@@ -1,5 +1,7 @@
 package com.also.vision.model;
 
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.annotation.JSONField;
 
 import java.util.ArrayList;
@@ -7,6 +9,7 @@ import java.util.List;
 
 /**
  * 获取文件列表响应JSON
+ * 兼容Protocol中的totalFileNum/param/listing格式和旧固件的total/offset/files格式
  */
 public class GetFileListJson {
     @JSONField(name = "msg_id")
@@ -15,16 +18,16 @@ public class GetFileListJson {
     @JSONField(name = "rval")
     private int result;
     
-    @JSONField(name = "total")
+    @JSONField(name = "totalFileNum", alternateNames = {"total"})
     private int total;
     
-    @JSONField(name = "offset")
+    @JSONField(name = "param", alternateNames = {"offset"})
     private int offset;
     
     @JSONField(name = "count")
     private int count;
     
-    @JSONField(name = "files")
+    @JSONField(name = "listing", alternateNames = {"files"})
     private List<FileJson> files;
     
     /**
@@ -32,22 +35,81 @@ public class GetFileListJson {
      * @return DeviceFile列表
      */
     public List<DeviceFile> getFileList() {
+        return getFileList(0);
+    }
+    
+    /**
+     * 将JSON数据转换为DeviceFile列表
+     * @param defaultType 响应中没有type字段时使用的文件类型(1=视频, 2=图片)，为0时按扩展名判断
+     * @return DeviceFile列表
+     */
+    public List<DeviceFile> getFileList(int defaultType) {
         List<DeviceFile> fileList = new ArrayList<>();
         if (files != null) {
             for (FileJson fileJson : files) {
-                DeviceFile file = new DeviceFile();
-                file.setFileName(fileJson.getName());
-                file.setFileSize(fileJson.getSize());
-                file.setFileTime(fileJson.getTime());
-                file.setFileType(fileJson.getType());
-                file.setFileUrl(fileJson.getUrl());
-                file.setThumbnailUrl(fileJson.getThumbnailUrl());
-                fileList.add(file);
+                if (fileJson.getName() != null) {
+                    fileList.add(fileJson.toDeviceFile(defaultType));
+                }
             }
         }
         return fileList;
     }
     
+    /**
+     * 从响应直接构建文件表，不经过FileJson和DeviceFile
+     * @param json        响应JSON
+     * @param defaultType 条目中没有type字段时使用的文件类型(1=视频, 2=图片)，为0时按扩展名判断
+     * @return 文件表，URL前缀为DeviceFile.BASE_URL
+     */
+    public static DeviceFileTable parseTable(JSONObject json, int defaultType) {
+        return parseTable(json, defaultType, DeviceFile.BASE_URL);
+    }
+
+    /**
+     * 从响应直接构建文件表
+     * 条目中的url、thumb_url和不在默认目录的path记入表的URL稀疏列，其余文件的URL由前缀和文件名拼出
+     * @param json        响应JSON
+     * @param defaultType 条目中没有type字段时使用的文件类型(1=视频, 2=图片)，为0时按扩展名判断
+     * @param baseUrl     文件URL前缀，以DeviceFile.BASE_PATH结尾
+     * @return 文件表
+     */
+    public static DeviceFileTable parseTable(JSONObject json, int defaultType, String baseUrl) {
+        JSONArray listing = json.getJSONArray("listing");
+        if (listing == null) {
+            listing = json.getJSONArray("files");
+        }
+        int size = listing != null ? listing.size() : 0;
+        DeviceFileTable table = new DeviceFileTable(baseUrl, size);
+        String origin = baseUrl.endsWith(DeviceFile.BASE_PATH)
+            ? baseUrl.substring(0, baseUrl.length() - DeviceFile.BASE_PATH.length()) : null;
+        for (int i = 0; i < size; i++) {
+            JSONObject item = listing.getJSONObject(i);
+            String name = item != null ? item.getString("name") : null;
+            if (name == null) {
+                continue;
+            }
+            int type = item.getIntValue("type");
+            if (type == 0) {
+                type = defaultType != 0 ? defaultType : FileJson.typeOfName(name);
+            }
+            String url = item.getString("url");
+            String path = item.getString("path");
+            if (url == null && path != null && origin != null && !path.isEmpty()) {
+                // 不在默认目录的文件由path拼出URL
+                url = origin + (path.startsWith("/") ? "" : "/") + path + (path.endsWith("/") ? "" : "/") + name;
+            }
+            table.add(name, item.getLongValue("size"), type, 0, url, item.getString("thumb_url"));
+        }
+        return table;
+    }
+    
+    /**
+     * 从响应中取出文件总数
+     */
+    public static int parseTotal(JSONObject json) {
+        return json.containsKey("totalFileNum") ? json.getIntValue("totalFileNum") : json.getIntValue("total");
+    }
+    
     // Getters and Setters
     public int getMsgId() {
         return msgId;
@@ -122,6 +184,32 @@ public class GetFileListJson {
         @JSONField(name = "thumb_url")
         private String thumbnailUrl;
         
+        /**
+         * 转换为DeviceFile，响应中没有的字段由文件名推出
+         */
+        DeviceFile toDeviceFile(int defaultType) {
+            int fileType = type != 0 ? type : defaultType != 0 ? defaultType : typeOfName(name);
+            DeviceFile file = DeviceFile.fromName(name, size, fileType);
+            if (path != null) {
+                file.setFilePath(path);
+            }
+            if (url != null) {
+                file.setFileUrl(url);
+            }
+            if (thumbnailUrl != null) {
+                file.setThumbnailUrl(thumbnailUrl);
+            }
+            if (time != null) {
+                file.setCreateTime(time);
+            }
+            return file;
+        }
+        
+        static int typeOfName(String name) {
+            String upper = name.toUpperCase();
+            return upper.endsWith(".JPG") || upper.endsWith(".JPEG") ? DeviceFile.TYPE_PHOTO : DeviceFile.TYPE_VIDEO;
+        }
+        
         // Getters and Setters
         public String getName() {
             return name;
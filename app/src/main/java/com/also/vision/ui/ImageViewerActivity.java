@@ -10,6 +10,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.also.vision.R;
+import com.also.vision.VisionClient;
 import com.also.vision.utils.FileDownloader;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
@@ -93,7 +94,7 @@ public class ImageViewerActivity extends AppCompatActivity {
     
     private void downloadImage() {
         FileDownloader downloader = new FileDownloader(this);
-        downloader.downloadFile(imageUrl, imageName, new FileDownloader.DownloadCallback() {
+        downloader.downloadFile(VisionClient.getInstance().getDeviceSerial(), imageUrl, imageName, new FileDownloader.DownloadCallback() {
             @Override
             public void onDownloadStart(String fileName) {
                 Toast.makeText(ImageViewerActivity.this, "开始下载: " + fileName, Toast.LENGTH_SHORT).show();
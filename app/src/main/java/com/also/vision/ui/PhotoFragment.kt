@@ -11,12 +11,14 @@ import android.widget.ProgressBar
 import android.widget.TextView
 import android.widget.Toast
 import androidx.fragment.app.Fragment
+import com.also.vision.FileIndex
 import com.also.vision.MainActivity
 import com.also.vision.R
 import com.also.vision.VisionClient
 import com.also.vision.adapter.FileListAdapter
 import com.also.vision.callback.BaseVisionCallback
 import com.also.vision.model.DeviceFile
+import com.also.vision.model.DeviceFileTable
 import com.also.vision.ui.ImageViewerActivity
 
 class PhotoFragment : Fragment() {
@@ -25,7 +27,7 @@ class PhotoFragment : Fragment() {
     private lateinit var progressBar: ProgressBar
     private lateinit var tvEmpty: TextView
 
-    private var fileList = ArrayList<DeviceFile>()
+    private var fileList = DeviceFileTable()
     private var adapter: FileListAdapter? = null
     private var isLoading = false
     private var currentOffset = 0
@@ -33,19 +35,24 @@ class PhotoFragment : Fragment() {
     private val pageSize = 20
 
     private val callback = object : BaseVisionCallback() {
-        override fun onFileListReceived(files: List<DeviceFile>, total: Int) {
+        override fun onFileListReceived(files: DeviceFileTable, total: Int) {
             isLoading = false
             progressBar.visibility = View.GONE
 
             totalFiles = total
-            currentOffset += files.size
+            currentOffset += files.size()
 
-            if (currentOffset == 0 && files.isEmpty()) {
+            if (currentOffset == 0 && files.size() == 0) {
                 tvEmpty.visibility = View.VISIBLE
                 tvEmpty.text = "没有找到图片文件"
             } else {
                 tvEmpty.visibility = View.GONE
-                fileList.addAll(files.filter { it.fileType == DeviceFile.TYPE_PHOTO })
+                // 逐行复制该类型的文件，不经过DeviceFile
+                for (i in 0 until files.size()) {
+                    if (files.getType(i) == DeviceFile.TYPE_PHOTO) {
+                        fileList.addRange(files, i, i + 1)
+                    }
+                }
                 adapter?.notifyDataSetChanged()
             }
         }
@@ -64,6 +71,13 @@ class PhotoFragment : Fragment() {
             loadPhotoList()
         }
 
+        override fun onFileIndexUpdated(fileType: String, total: Int) {
+            // 文件索引同步后有变化，重新加载
+            if (fileType == FileIndex.TYPE_PHOTO) {
+                loadPhotoList()
+            }
+        }
+
         override fun onFileDeleteFailed(reason: String) {
             progressBar.visibility = View.GONE
             Toast.makeText(context, "删除图片失败: $reason", Toast.LENGTH_SHORT).show()
@@ -126,9 +140,12 @@ class PhotoFragment : Fragment() {
         adapter = FileListAdapter(requireContext(), fileList)
         listView.adapter = adapter
 
+        // 滚动到距末尾半页时预取下一页
+        adapter?.setPrefetchListener(pageSize / 2) { loadMorePhotos() }
+
         // 设置点击事件
         listView.onItemClickListener = AdapterView.OnItemClickListener { _, _, position, _ ->
-            val file = fileList[position]
+            val file = fileList.toDeviceFile(position)
             // 打开图片查看界面
             val intent = Intent(activity, ImageViewerActivity::class.java)
             intent.putExtra("imageUrl", file.fileUrl)
@@ -138,7 +155,7 @@ class PhotoFragment : Fragment() {
 
         // 设置长按事件（删除文件）
         listView.onItemLongClickListener = AdapterView.OnItemLongClickListener { _, _, position, _ ->
-            val file = fileList[position]
+            val file = fileList.toDeviceFile(position)
             deleteFile(file)
             true
         }
@@ -162,6 +179,16 @@ class PhotoFragment : Fragment() {
         client?.getFileList(DeviceFile.TYPE_PHOTO, currentOffset, pageSize)
     }
 
+    // 加载下一页图片
+    private fun loadMorePhotos() {
+        if (isLoading || currentOffset >= totalFiles) {
+            return
+        }
+
+        isLoading = true
+        client?.getFileList(DeviceFile.TYPE_PHOTO, currentOffset, pageSize)
+    }
+
     // 删除文件
     private fun deleteFile(file: DeviceFile) {
         android.app.AlertDialog.Builder(requireContext())
@@ -12,12 +12,14 @@ import android.widget.ProgressBar
 import android.widget.TextView
 import android.widget.Toast
 import androidx.fragment.app.Fragment
+import com.also.vision.FileIndex
 import com.also.vision.MainActivity
 import com.also.vision.R
 import com.also.vision.VisionClient
 import com.also.vision.adapter.FileListAdapter
 import com.also.vision.callback.BaseVisionCallback
 import com.also.vision.model.DeviceFile
+import com.also.vision.model.DeviceFileTable
 import com.also.vision.ui.VideoPlayerActivity
 
 class VideoFragment : Fragment() {
@@ -27,7 +29,7 @@ class VideoFragment : Fragment() {
     private lateinit var tvEmpty: TextView
     private lateinit var surfaceView: SurfaceView
 
-    private var fileList = ArrayList<DeviceFile>()
+    private var fileList = DeviceFileTable()
     private var adapter: FileListAdapter? = null
     private var isLoading = false
     private var currentOffset = 0
@@ -35,19 +37,24 @@ class VideoFragment : Fragment() {
     private val pageSize = 20
 
     private val callback = object : BaseVisionCallback() {
-        override fun onFileListReceived(files: List<DeviceFile>, total: Int) {
+        override fun onFileListReceived(files: DeviceFileTable, total: Int) {
             isLoading = false
             progressBar.visibility = View.GONE
 
             totalFiles = total
-            currentOffset += files.size
+            currentOffset += files.size()
 
-            if (currentOffset == 0 && files.isEmpty()) {
+            if (currentOffset == 0 && files.size() == 0) {
                 tvEmpty.visibility = View.VISIBLE
                 tvEmpty.text = "没有找到视频文件"
             } else {
                 tvEmpty.visibility = View.GONE
-                fileList.addAll(files.filter { it.fileType == DeviceFile.TYPE_VIDEO })
+                // 逐行复制该类型的文件，不经过DeviceFile
+                for (i in 0 until files.size()) {
+                    if (files.getType(i) == DeviceFile.TYPE_VIDEO) {
+                        fileList.addRange(files, i, i + 1)
+                    }
+                }
                 adapter?.notifyDataSetChanged()
             }
         }
@@ -66,6 +73,13 @@ class VideoFragment : Fragment() {
             loadVideoList()
         }
 
+        override fun onFileIndexUpdated(fileType: String, total: Int) {
+            // 文件索引同步后有变化，重新加载
+            if (fileType == FileIndex.TYPE_VIDEO) {
+                loadVideoList()
+            }
+        }
+
         override fun onFileDeleteFailed(reason: String) {
             progressBar.visibility = View.GONE
             Toast.makeText(context, "删除视频失败: $reason", Toast.LENGTH_SHORT).show()
@@ -115,9 +129,12 @@ class VideoFragment : Fragment() {
         adapter = FileListAdapter(requireContext(), fileList)
         listView.adapter = adapter
 
+        // 滚动到距末尾半页时预取下一页
+        adapter?.setPrefetchListener(pageSize / 2) { loadMoreVideos() }
+
         // 设置点击事件
         listView.onItemClickListener = AdapterView.OnItemClickListener { _, _, position, _ ->
-            val file = fileList[position]
+            val file = fileList.toDeviceFile(position)
             // 打开视频播放界面
             val intent = Intent(activity, VideoPlayerActivity::class.java)
             intent.putExtra("videoUrl", file.fileUrl)
@@ -127,7 +144,7 @@ class VideoFragment : Fragment() {
 
         // 设置长按事件（删除文件）
         listView.onItemLongClickListener = AdapterView.OnItemLongClickListener { _, _, position, _ ->
-            val file = fileList[position]
+            val file = fileList.toDeviceFile(position)
             deleteFile(file)
             true
         }
@@ -151,6 +168,16 @@ class VideoFragment : Fragment() {
         client?.getFileList(DeviceFile.TYPE_VIDEO, currentOffset, pageSize)
     }
 
+    // 加载下一页视频
+    private fun loadMoreVideos() {
+        if (isLoading || currentOffset >= totalFiles) {
+            return
+        }
+
+        isLoading = true
+        client?.getFileList(DeviceFile.TYPE_VIDEO, currentOffset, pageSize)
+    }
+
     // 删除文件
     private fun deleteFile(file: DeviceFile) {
         android.app.AlertDialog.Builder(requireContext())
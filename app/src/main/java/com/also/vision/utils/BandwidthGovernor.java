@@ -0,0 +1,276 @@
+package com.also.vision.utils;
+
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 带宽调节
+ * 设备只有一条Wi-Fi链路，实时预览和文件下载同时进行时会互相抢占带宽，预览出现卡顿。
+ * 下载每读到一段数据就从令牌桶中扣除相应的字节，令牌不足时等待；预览每收到数据或缓冲变化时通知这里。
+ * <p>
+ * 没有预览时不限速。预览开始后下载限速为(观测到的链路峰值 - 预览码率 × HEADROOM) / 2，
+ * 之后每个调整周期根据预览的缓冲情况调整：缓冲不足、卡顿或数据中断时减半，正常时增加峰值的5%，
+ * 但不超过峰值减去预览所需。预览正常并且下载跑满了限速时，不受峰值限制继续按当前限速的25%试探，
+ * 这样预览先于下载开始(峰值还没有测到)时限速也能逐步提高。所有预览停止后恢复不限速。
+ * <p>
+ * 界面等待的小文件(如缩略图)只计入流量统计，不限速。线程安全。
+ */
+public class BandwidthGovernor {
+    private static final String TAG = "BandwidthGovernor";
+
+    public static final long UNLIMITED = -1;
+
+    private static final long MIN_RATE = 64 * 1024;           // 限速下限(字节/秒)
+    private static final long MIN_STEP = 32 * 1024;           // 每个周期至少增加的速度
+    private static final double STEP_RATIO = 0.05;            // 每个周期增加链路峰值的比例
+    private static final double PROBE_RATIO = 0.25;           // 越过峰值试探时每个周期增加当前限速的比例
+    private static final double HEADROOM = 1.5;               // 为预览保留码率的倍数
+    private static final long MIN_BURST = 64 * 1024;
+    private static final long BURST_MILLIS = 200;             // 令牌桶容量为这段时间的流量
+    private static final long WINDOW = 500;                   // 测速和调整周期
+    private static final double PEAK_DECAY = 0.98;            // 不限速时每个周期链路峰值的衰减
+    private static final long LOW_BUFFER_MS = 500;            // 预览缓冲低于此值视为不足
+    private static final long STALL_GAP = 1000;               // 预览数据中断超过此时间视为卡顿
+    private static final long STREAM_TIMEOUT = 5000;          // 预览没有任何通知超过此时间视为已停止
+
+    private static final BandwidthGovernor DEFAULT = new BandwidthGovernor();
+
+    // 正在进行的预览
+    private final Set<Object> streams = new HashSet<>();
+    private long rate = UNLIMITED;
+    private double tokens = 0;
+    private long refillTime = 0;
+
+    // 测速
+    private long windowStart = 0;
+    private long windowTransferBytes = 0;
+    private long windowStreamBytes = 0;
+    private long transferThroughput = 0;
+    private long streamBitrate = 0;
+    private long peakThroughput = 0;
+
+    // 预览状态
+    private long lastStreamData = 0;
+    private long lastStreamEvent = 0;
+    private long bufferedMs = -1;
+    private boolean stalled = false;
+
+    // 统计
+    private long throttledMillis = 0;
+    private long stalls = 0;
+
+    public static BandwidthGovernor getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 受限传输读到count字节后调用，返回需要等待的时间
+     * 调用方应在等待期间检查是否已取消，而不是无条件睡眠
+     *
+     * @return 等待时间(毫秒)，不需要等待时为0
+     */
+    public synchronized long reserve(int count) {
+        long now = System.currentTimeMillis();
+        update(now);
+        windowTransferBytes += count;
+        if (rate == UNLIMITED) {
+            return 0;
+        }
+        long burst = Math.max(MIN_BURST, rate * BURST_MILLIS / 1000);
+        tokens = Math.min(burst, tokens + (now - refillTime) * rate / 1000.0);
+        refillTime = now;
+        tokens -= count;
+        if (tokens >= 0) {
+            return 0;
+        }
+        long wait = (long) Math.ceil(-tokens * 1000 / rate);
+        throttledMillis += wait;
+        return wait;
+    }
+
+    /**
+     * 不限速的传输读到count字节后调用，只计入流量统计
+     */
+    public synchronized void record(int count) {
+        update(System.currentTimeMillis());
+        windowTransferBytes += count;
+    }
+
+    /**
+     * 预览开始，同一source重复调用只计一次
+     *
+     * @param source 预览的标识，如播放器
+     */
+    public synchronized void onStreamStarted(Object source) {
+        long now = System.currentTimeMillis();
+        update(now);
+        if (streams.add(source) && streams.size() == 1) {
+            lastStreamData = now;
+            lastStreamEvent = now;
+            bufferedMs = -1;
+            stalled = false;
+            long available = peakThroughput - (long) (streamBitrate * HEADROOM);
+            setRate(Math.max(MIN_RATE, available / 2));
+        }
+    }
+
+    /**
+     * 预览停止，所有预览都停止后恢复不限速
+     */
+    public synchronized void onStreamStopped(Object source) {
+        if (streams.remove(source) && streams.isEmpty()) {
+            setRate(UNLIMITED);
+        }
+    }
+
+    /**
+     * 收到预览数据，用于测量预览码率和发现数据中断
+     */
+    public synchronized void onStreamData(int count) {
+        long now = System.currentTimeMillis();
+        update(now);
+        windowStreamBytes += count;
+        lastStreamData = now;
+        lastStreamEvent = now;
+    }
+
+    /**
+     * 播放器报告的缓冲时长
+     */
+    public synchronized void onStreamBuffer(long bufferedMs) {
+        long now = System.currentTimeMillis();
+        update(now);
+        this.bufferedMs = bufferedMs;
+        lastStreamEvent = now;
+    }
+
+    /**
+     * 视频格式声明的码率(比特/秒)，在onStreamData测得预览数据量之前使用，测得后以实测值为准
+     */
+    public synchronized void onStreamBitrate(long bitsPerSecond) {
+        streamBitrate = bitsPerSecond / 8;
+        lastStreamEvent = System.currentTimeMillis();
+    }
+
+    /**
+     * 播放器因缓冲不足而暂停
+     */
+    public synchronized void onStreamStall() {
+        stalled = true;
+        stalls++;
+        lastStreamEvent = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取当前的下载限速(字节/秒)，不限速时为UNLIMITED
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized Stats getStats() {
+        update(System.currentTimeMillis());
+        return new Stats(rate, !streams.isEmpty(), streamBitrate, bufferedMs, transferThroughput,
+            peakThroughput, throttledMillis, stalls);
+    }
+
+    /**
+     * 每个周期结束时测速并调整限速
+     */
+    private void update(long now) {
+        if (windowStart == 0) {
+            windowStart = now;
+            refillTime = now;
+            return;
+        }
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW) {
+            return;
+        }
+        transferThroughput = windowTransferBytes * 1000 / elapsed;
+        long streamThroughput = windowStreamBytes * 1000 / elapsed;
+        if (windowStreamBytes > 0) {
+            streamBitrate = streamThroughput;
+        }
+        // 限速期间下载跑不满链路，峰值不衰减
+        long decayed = rate == UNLIMITED ? (long) (peakThroughput * PEAK_DECAY) : peakThroughput;
+        peakThroughput = Math.max(decayed, transferThroughput + streamThroughput);
+        windowStart = now;
+        windowTransferBytes = 0;
+        windowStreamBytes = 0;
+
+        if (streams.isEmpty()) {
+            return;
+        }
+        if (now - lastStreamEvent > STREAM_TIMEOUT) {
+            // 预览没有正常结束(如界面被销毁)，不再为其保留带宽
+            Log.w(TAG, "预览超过" + STREAM_TIMEOUT + "ms没有通知，恢复不限速");
+            streams.clear();
+            setRate(UNLIMITED);
+            return;
+        }
+
+        boolean gap = lastStreamData > 0 && now - lastStreamData > STALL_GAP && bufferedMs < 0;
+        boolean lowBuffer = bufferedMs >= 0 && bufferedMs < LOW_BUFFER_MS;
+        long ceiling = Math.max(MIN_RATE, peakThroughput - (long) (streamBitrate * HEADROOM));
+        if (stalled || gap || lowBuffer) {
+            setRate(Math.max(MIN_RATE, rate / 2));
+        } else if (transferThroughput * 10 >= rate * 9) {
+            // 缓冲正常且下载跑满了限速，说明链路可能还有余量，越过峰值试探；预览受影响时上面会减半
+            setRate(rate + Math.max(MIN_STEP, (long) (rate * PROBE_RATIO)));
+        } else {
+            // 预览正常时不降低限速，试探得到的限速只在预览受影响时减半
+            long step = Math.max(MIN_STEP, (long) (peakThroughput * STEP_RATIO));
+            setRate(Math.max(rate, Math.min(ceiling, rate + step)));
+        }
+        stalled = false;
+    }
+
+    private void setRate(long newRate) {
+        if (newRate == rate) {
+            return;
+        }
+        if (rate == UNLIMITED || newRate == UNLIMITED || Math.abs(newRate - rate) * 4 >= rate) {
+            Log.d(TAG, "下载限速: " + (newRate == UNLIMITED ? "不限" : newRate / 1024 + "KB/s")
+                + ", 预览码率" + streamBitrate * 8 / 1000 + "kbps, 链路峰值" + peakThroughput / 1024 + "KB/s");
+        }
+        rate = newRate;
+        tokens = 0;
+    }
+
+    /**
+     * 带宽统计
+     */
+    public static class Stats {
+        public final long rateLimit;            // 下载限速(字节/秒)，不限速时为UNLIMITED
+        public final boolean streamActive;      // 是否有预览
+        public final long streamBitrate;        // 预览码率(字节/秒)
+        public final long streamBufferedMs;     // 预览缓冲时长，未知时为-1
+        public final long transferThroughput;   // 最近一个周期的下载速度(字节/秒)
+        public final long peakThroughput;       // 观测到的链路峰值(字节/秒)
+        public final long throttledMillis;      // 下载因限速累计等待的时间
+        public final long stalls;               // 预览卡顿次数
+
+        Stats(long rateLimit, boolean streamActive, long streamBitrate, long streamBufferedMs,
+              long transferThroughput, long peakThroughput, long throttledMillis, long stalls) {
+            this.rateLimit = rateLimit;
+            this.streamActive = streamActive;
+            this.streamBitrate = streamBitrate;
+            this.streamBufferedMs = streamBufferedMs;
+            this.transferThroughput = transferThroughput;
+            this.peakThroughput = peakThroughput;
+            this.throttledMillis = throttledMillis;
+            this.stalls = stalls;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{rateLimit=" + rateLimit + ", streamActive=" + streamActive
+                + ", streamBitrate=" + streamBitrate + ", streamBufferedMs=" + streamBufferedMs
+                + ", transferThroughput=" + transferThroughput + ", peakThroughput=" + peakThroughput
+                + ", throttledMillis=" + throttledMillis + ", stalls=" + stalls + '}';
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.also.vision.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 直接缓冲区池
+ * 按2的幂分级缓存DirectByteBuffer，避免每次读写Socket时在Java堆和本地内存之间复制，
+ * 也避免频繁分配直接内存。
+ * <p>
+ * 线程安全。
+ */
+public class BufferPool {
+    // 最小和最大分级容量
+    public static final int MIN_CAPACITY = 4 * 1024;       // 4KB
+    public static final int MAX_CAPACITY = 4 * 1024 * 1024; // 4MB
+
+    // 每个分级最多缓存的字节数，小分级可缓存更多个缓冲区（至少2个）
+    private static final int MAX_POOLED_BYTES_PER_CLASS = 256 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool();
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] pools;
+    private final AtomicInteger[] counts;
+
+    public BufferPool() {
+        int classes = indexFor(MAX_CAPACITY) + 1;
+        pools = newQueues(classes);
+        counts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+            counts[i] = new AtomicInteger();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> ConcurrentLinkedQueue<T>[] newQueues(int length) {
+        return new ConcurrentLinkedQueue[length];
+    }
+
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取容量不小于minCapacity的直接缓冲区，返回时已clear
+     *
+     * @param minCapacity 最小容量
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > MAX_CAPACITY) {
+            // 超过最大分级的缓冲区不入池
+            return ByteBuffer.allocateDirect(minCapacity);
+        }
+
+        int index = indexFor(minCapacity);
+        ByteBuffer buffer = pools[index].poll();
+        if (buffer != null) {
+            counts[index].decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(MIN_CAPACITY << index);
+    }
+
+    /**
+     * 归还缓冲区，非本池分配的缓冲区或池已满时直接丢弃
+     *
+     * @param buffer 缓冲区
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+
+        int index = indexFor(capacity);
+        int maxBuffers = Math.max(2, MAX_POOLED_BYTES_PER_CLASS / capacity);
+        if (counts[index].incrementAndGet() > maxBuffers) {
+            counts[index].decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        pools[index].offer(buffer);
+    }
+
+    /**
+     * 计算容量对应的分级
+     */
+    private static int indexFor(int capacity) {
+        if (capacity <= MIN_CAPACITY) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+    }
+}
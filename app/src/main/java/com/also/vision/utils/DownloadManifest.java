@@ -0,0 +1,309 @@
+package com.also.vision.utils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * 下载文件的校验清单
+ * 与目标文件放在一起(&lt;文件名&gt;.manifest)，记录URL、文件长度和每个块(BLOCK_SIZE)的CRC32，
+ * 文件校验和为所有块CRC32的CRC32。块的校验和在下载时由{@link RangeDownloader}对收到的数据计算，不需要再读一遍文件。
+ * <p>
+ * 再次使用已下载的文件时：长度和修改时间与上次校验时相同则直接使用({@link #isIntact(File)})，
+ * 否则逐块校验，只重新下载校验不符的块。线程安全。
+ */
+public class DownloadManifest {
+    private static final String TAG = "DownloadManifest";
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x56444D46;  // "VDMF"
+    private static final int VERSION = 1;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final String url;
+    private long length;
+    private int[] crcs;
+    private final BitSet done = new BitSet();
+    // 上次校验通过时目标文件的修改时间，未校验时为0
+    private long verifiedModified = 0;
+
+    /**
+     * @param url    文件URL
+     * @param length 文件长度，未知时为-1，完成时由{@link #setLength(long)}设置
+     */
+    public DownloadManifest(String url, long length) {
+        this.url = url;
+        this.length = length;
+        this.crcs = new int[length > 0 ? blockCount(length) : 16];
+    }
+
+    public static File fileOf(File target) {
+        return new File(target.getPath() + ".manifest");
+    }
+
+    /**
+     * 读取目标文件的清单
+     *
+     * @return 不存在、格式不符或内容损坏时返回null
+     */
+    public static DownloadManifest load(File target) {
+        File file = fileOf(target);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "清单格式不符，忽略: " + file);
+                return null;
+            }
+            DownloadManifest manifest = new DownloadManifest(in.readUTF(), in.readLong());
+            if (in.readInt() != BLOCK_SIZE) {
+                return null;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                boolean blockDone = in.readBoolean();
+                int crc = in.readInt();
+                if (blockDone) {
+                    manifest.setBlock(i, crc);
+                }
+            }
+            long checksum = in.readLong();
+            manifest.verifiedModified = in.readLong();
+            if (manifest.isComplete() && checksum != manifest.getChecksum()) {
+                Log.w(TAG, "清单校验和不符，忽略: " + file);
+                return null;
+            }
+            return manifest;
+        } catch (IOException e) {
+            Log.w(TAG, "读取清单失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 不读取文件内容，判断目标文件是否为完整的下载
+     * 清单完整，并且文件的长度和修改时间与上次校验时相同
+     */
+    public static boolean isIntact(File target) {
+        if (!target.exists()) {
+            return false;
+        }
+        DownloadManifest manifest = load(target);
+        return manifest != null && manifest.isVerified(target);
+    }
+
+    /**
+     * 删除目标文件的清单
+     */
+    public static void delete(File target) {
+        fileOf(target).delete();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * 设置文件长度，用于下载前不知道长度的文件
+     */
+    public synchronized void setLength(long length) {
+        this.length = length;
+        int count = blockCount(length);
+        if (crcs.length < count) {
+            crcs = Arrays.copyOf(crcs, count);
+        }
+        done.clear(count, Math.max(count, done.length()));
+    }
+
+    /**
+     * 获取块数，文件长度未知时为0
+     */
+    public synchronized int getBlockCount() {
+        return length >= 0 ? blockCount(length) : 0;
+    }
+
+    public synchronized boolean isBlockDone(int index) {
+        return done.get(index);
+    }
+
+    /**
+     * 记录块的校验和
+     */
+    public synchronized void setBlock(int index, int crc) {
+        if (index >= crcs.length) {
+            crcs = Arrays.copyOf(crcs, Math.max(index + 1, crcs.length * 2));
+        }
+        crcs[index] = crc;
+        done.set(index);
+    }
+
+    public synchronized boolean isComplete() {
+        int count = getBlockCount();
+        return length >= 0 && done.nextClearBit(0) >= count;
+    }
+
+    /**
+     * 获取文件校验和，即所有块CRC32的CRC32
+     */
+    public synchronized long getChecksum() {
+        CRC32 crc = new CRC32();
+        int count = getBlockCount();
+        for (int i = 0; i < count; i++) {
+            int value = crcs[i];
+            crc.update(value >>> 24);
+            crc.update(value >>> 16);
+            crc.update(value >>> 8);
+            crc.update(value);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 长度和修改时间与上次校验通过时相同
+     */
+    public synchronized boolean isVerified(File file) {
+        return isComplete() && verifiedModified != 0
+            && file.length() == length && file.lastModified() == verifiedModified;
+    }
+
+    /**
+     * 记录文件已校验通过，之后长度和修改时间不变时不再逐块校验
+     */
+    public synchronized void markVerified(File file) {
+        verifiedModified = file.lastModified();
+    }
+
+    /**
+     * 逐块校验文件，校验不符和超出文件长度的块标记为未完成
+     *
+     * @return 校验不符的块，没有记录校验和的块不校验也不包含在内
+     */
+    public BitSet verify(File file) throws IOException {
+        BitSet bad = new BitSet();
+        try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+            FileChannel channel = access.getChannel();
+            long available = channel.size();
+            int count = getBlockCount();
+            for (int i = 0; i < count; i++) {
+                int expected;
+                synchronized (this) {
+                    if (!done.get(i)) {
+                        continue;
+                    }
+                    expected = crcs[i];
+                }
+                long start = (long) i * BLOCK_SIZE;
+                long end = Math.min(getLength(), start + BLOCK_SIZE);
+                if (end > available || crc(channel, start, end) != expected) {
+                    bad.set(i);
+                }
+            }
+        }
+        synchronized (this) {
+            done.andNot(bad);
+            verifiedModified = 0;
+        }
+        return bad;
+    }
+
+    /**
+     * 从文件读取计算还没有校验和的块，用于续传时从块中间开始的块和没有清单的旧文件
+     *
+     * @return 计算的块数
+     */
+    public int hashMissing(FileChannel channel) throws IOException {
+        int hashed = 0;
+        int count = getBlockCount();
+        for (int i = 0; i < count; i++) {
+            if (isBlockDone(i)) {
+                continue;
+            }
+            long start = (long) i * BLOCK_SIZE;
+            setBlock(i, crc(channel, start, Math.min(getLength(), start + BLOCK_SIZE)));
+            hashed++;
+        }
+        return hashed;
+    }
+
+    /**
+     * 保存到目标文件旁，先写临时文件再替换
+     */
+    public void save(File target) throws IOException {
+        File file = fileOf(target);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            synchronized (this) {
+                int count = getBlockCount();
+                int written = length >= 0 ? count : done.length();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(url);
+                    out.writeLong(length);
+                    out.writeInt(BLOCK_SIZE);
+                    out.writeInt(written);
+                    for (int i = 0; i < written; i++) {
+                        out.writeBoolean(done.get(i));
+                        out.writeInt(i < crcs.length ? crcs[i] : 0);
+                    }
+                    out.writeLong(getChecksum());
+                    out.writeLong(verifiedModified);
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("无法替换清单: " + file);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    private static int blockCount(long length) {
+        return (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    /**
+     * 读取[start, end)并计算CRC32
+     */
+    private static int crc(FileChannel channel, long start, long end) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = BufferPool.getDefault().acquire(READ_BUFFER_SIZE);
+        try {
+            long position = start;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("文件长度不足: " + position + "/" + end);
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += n;
+            }
+        } finally {
+            BufferPool.getDefault().release(buffer);
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,584 @@
+package com.also.vision.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 下载队列
+ * 所有下载都经过这个队列：同一设备的同一URL只下载一次，多个调用方共享结果；
+ * 各设备的IP地址通常相同，所以以设备序列号和URL一起去重，下载目录也按设备分开({@link #downloadDir(Context, String)})；同时进行的下载数有上限；
+ * 按优先级开始，同一优先级内在各设备之间轮流，避免一台设备的批量下载占满队列。
+ * <p>
+ * 后台下载最多占用maxConcurrent - 1个位置，留出一个给界面和用户发起的下载；
+ * 用户发起的下载没有空位时暂停最后开始的后台下载，后台下载之后从中断处继续({@link RangeDownloader}保留已下载的部分)。
+ * <p>
+ * 未完成的下载保存在应用私有目录中，进程被杀死后调用{@link #init(Context)}时恢复，
+ * 恢复的下载等到其设备的会话建立({@link #onDeviceConnected(String)})后才继续；
+ * 需要保存的下载失败时同样留在队列中，等设备下次连接时重试，最多失败MAX_FAILURES次。线程安全。
+ */
+public class DownloadQueue {
+    private static final String TAG = "DownloadQueue";
+    private static volatile DownloadQueue instance;
+
+    // 优先级，数值小的先开始
+    public static final int PRIORITY_INTERACTIVE = 0;  // 界面正在等待的小文件，如缩略图
+    public static final int PRIORITY_USER = 1;         // 用户发起的下载
+    public static final int PRIORITY_BACKGROUND = 2;   // 后台同步和批量下载
+
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+    // 需要保存的下载最多失败的次数，超过后不再重试
+    private static final int MAX_FAILURES = 3;
+
+    private static final int MAGIC = 0x5644514C;  // "VDQL"
+    private static final int VERSION = 1;
+
+    // 队列文件的读写在同一个线程中按顺序进行
+    private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Vision-DownloadQueue");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 按设备和URL去重，保持加入的顺序
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    // 每台设备上次开始下载的序号，用于轮流
+    private final Map<String, Long> lastServed = new HashMap<>();
+    private File queueFile;
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int running = 0;
+    private long sequence = 0;
+    private long startCount = 0;
+
+    /**
+     * 一个下载
+     */
+    private static class Job {
+        final String key;
+        final String url;
+        final File target;
+        final String device;
+        final long sequence;
+        int priority;
+        // 是否需要在进程重启后继续，只有界面等待的下载不保存
+        boolean persistent;
+        // 等待设备连接后再开始，恢复的和失败后等待重试的下载
+        boolean parked;
+        int failures;
+        RangeDownloader downloader;
+        // 暂停的下载关闭临时文件后才能继续
+        CompletableFuture<Void> released = CompletableFuture.completedFuture(null);
+        final CompletableFuture<File> future = new CompletableFuture<>();
+        final List<Ticket> tickets = new CopyOnWriteArrayList<>();
+
+        Job(String url, File target, String device, int priority, long sequence) {
+            this.key = keyOf(device, url);
+            this.url = url;
+            this.target = target;
+            this.device = device;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.persistent = priority != PRIORITY_INTERACTIVE;
+        }
+    }
+
+    /**
+     * 调用方对一个下载的订阅，多个调用方加入同一下载时各自得到一个Ticket
+     */
+    public class Ticket {
+        private final Job job;
+        private final RangeDownloader.ProgressListener listener;
+        private final CompletableFuture<File> future = new CompletableFuture<>();
+
+        private Ticket(Job job, RangeDownloader.ProgressListener listener) {
+            this.job = job;
+            this.listener = listener;
+        }
+
+        /**
+         * 下载完成时得到文件；失败时以异常结束，取消时以CancellationException结束
+         */
+        public CompletableFuture<File> getFuture() {
+            return future;
+        }
+
+        /**
+         * 取消这个订阅，没有其他订阅时取消下载，已下载的部分保留
+         */
+        public void cancel() {
+            if (future.cancel(false)) {
+                detach(this);
+            }
+        }
+    }
+
+    DownloadQueue() {
+    }
+
+    public static DownloadQueue getInstance() {
+        if (instance == null) {
+            synchronized (DownloadQueue.class) {
+                if (instance == null) {
+                    instance = new DownloadQueue();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 初始化，恢复上次没有完成的下载
+     */
+    public void init(Context context) {
+        init(new File(context.getFilesDir(), "download_queue.dat"));
+    }
+
+    /**
+     * @param file 保存未完成下载的文件
+     */
+    void init(File file) {
+        synchronized (this) {
+            if (queueFile != null) {
+                return;
+            }
+            queueFile = file;
+        }
+        IO_EXECUTOR.execute(() -> {
+            List<Job> restored = load();
+            synchronized (this) {
+                for (Job job : restored) {
+                    if (!jobs.containsKey(job.key)) {
+                        jobs.put(job.key, job);
+                    }
+                }
+            }
+            if (!restored.isEmpty()) {
+                Log.d(TAG, "恢复" + restored.size() + "个未完成的下载，等待设备连接");
+            }
+            schedule();
+        });
+    }
+
+    /**
+     * 设备的会话已建立，开始该设备等待中的下载
+     *
+     * @param device 设备序列号
+     */
+    public void onDeviceConnected(String device) {
+        int resumed = 0;
+        synchronized (this) {
+            for (Job job : jobs.values()) {
+                if (job.parked && job.device.equals(device)) {
+                    job.parked = false;
+                    resumed++;
+                }
+            }
+        }
+        if (resumed > 0) {
+            Log.d(TAG, "设备已连接，继续" + resumed + "个下载: " + device);
+            schedule();
+        }
+    }
+
+    /**
+     * 设置同时进行的下载数
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (this) {
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+        }
+        schedule();
+    }
+
+    public synchronized int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public synchronized int getQueuedCount() {
+        return jobs.size() - running;
+    }
+
+    /**
+     * 获取等待设备连接的下载数
+     */
+    public synchronized int getParkedCount() {
+        int count = 0;
+        for (Job job : jobs.values()) {
+            if (job.parked) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 加入下载，同一设备的同一URL已在队列中时共享该下载，并在优先级更高时提升其优先级
+     * 目标文件按清单是完整的下载时直接完成
+     *
+     * @param url      文件URL
+     * @param target   目标文件，已在队列中时使用已有下载的目标文件
+     * @param device   设备序列号，用于去重和在设备之间轮流，未知时为空字符串
+     * @param priority 优先级，见PRIORITY_*
+     * @param listener 进度监听，在下载线程中调用，可以为null
+     */
+    public Ticket enqueue(String url, File target, String device, int priority,
+                          RangeDownloader.ProgressListener listener) {
+        if (device == null) {
+            device = "";
+        }
+        Ticket ticket;
+        synchronized (this) {
+            Job job = jobs.get(keyOf(device, url));
+            if (job == null) {
+                if (DownloadManifest.isIntact(target)) {
+                    Ticket done = new Ticket(new Job(url, target, device, priority, 0), listener);
+                    done.future.complete(target);
+                    return done;
+                }
+                job = new Job(url, target, device, priority, sequence++);
+                jobs.put(job.key, job);
+            } else if (priority < job.priority) {
+                job.priority = priority;
+            }
+            // 调用方在设备连接时才会加入下载，等待中的下载可以开始
+            job.parked = false;
+            job.persistent |= priority != PRIORITY_INTERACTIVE;
+            ticket = new Ticket(job, listener);
+            job.tickets.add(ticket);
+        }
+        Job job = ticket.job;
+        job.future.whenComplete((file, error) -> {
+            if (error != null) {
+                ticket.future.completeExceptionally(error);
+            } else {
+                ticket.future.complete(file);
+            }
+        });
+        saveAsync();
+        schedule();
+        return ticket;
+    }
+
+    /**
+     * 取消设备上URL的下载，通知所有订阅
+     */
+    public void cancel(String device, String url) {
+        Job job;
+        synchronized (this) {
+            job = jobs.get(keyOf(device, url));
+        }
+        if (job != null) {
+            for (Ticket ticket : job.tickets) {
+                ticket.cancel();
+            }
+        }
+    }
+
+    /**
+     * 获取设备上URL的下载进度(字节)，不在队列中或还没有开始时返回0
+     */
+    public synchronized long getDownloaded(String device, String url) {
+        Job job = jobs.get(keyOf(device, url));
+        return job != null && job.downloader != null ? job.downloader.getDownloaded() : 0;
+    }
+
+    /**
+     * 获取设备的下载目录，各设备的同名文件不会互相覆盖
+     *
+     * @param device 设备序列号，未知时使用公共目录
+     */
+    public static File downloadDir(Context context, String device) {
+        File dir = new File(context.getExternalFilesDir(null), "downloads");
+        if (device != null && !device.isEmpty()) {
+            dir = new File(dir, safeName(device));
+        }
+        dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * 把设备序列号或文件名转换为可以作为单级路径的名称，不含路径分隔符，也不会是"."或".."
+     */
+    public static String safeName(String name) {
+        String safe = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return safe.isEmpty() || safe.equals(".") || safe.equals("..") ? "_" + safe : safe;
+    }
+
+    private static String keyOf(String device, String url) {
+        return (device != null ? device : "") + "|" + url;
+    }
+
+    private void detach(Ticket ticket) {
+        Job job = ticket.job;
+        RangeDownloader downloader = null;
+        synchronized (this) {
+            job.tickets.remove(ticket);
+            if (!job.tickets.isEmpty() || jobs.get(job.key) != job) {
+                return;
+            }
+            jobs.remove(job.key);
+            if (job.downloader != null) {
+                downloader = job.downloader;
+                job.downloader = null;
+                running--;
+            }
+        }
+        Log.d(TAG, "取消下载: " + job.url);
+        if (downloader != null) {
+            downloader.cancel();
+        }
+        job.future.completeExceptionally(new CancellationException("下载已取消"));
+        saveAsync();
+        schedule();
+    }
+
+    /**
+     * 在并发上限内开始等待中的下载，必要时暂停后台下载
+     */
+    private void schedule() {
+        List<Job> toStart = new ArrayList<>();
+        List<RangeDownloader> toPause = new ArrayList<>();
+        synchronized (this) {
+            if (queueFile == null) {
+                return;
+            }
+            while (true) {
+                int backgroundLimit = Math.max(1, maxConcurrent - 1);
+                Job next = pick(countRunning(PRIORITY_BACKGROUND) < backgroundLimit);
+                if (next == null) {
+                    break;
+                }
+                if (running >= maxConcurrent) {
+                    // 没有空位时只为非后台下载暂停一个后台下载
+                    Job victim = next.priority < PRIORITY_BACKGROUND ? latestBackground() : null;
+                    if (victim == null) {
+                        break;
+                    }
+                    victim.released = victim.downloader.whenReleased();
+                    toPause.add(victim.downloader);
+                    victim.downloader = null;
+                    running--;
+                    Log.d(TAG, "暂停后台下载: " + victim.url);
+                }
+                next.downloader = new RangeDownloader(next.url, next.target, (downloaded, total) -> {
+                    for (Ticket ticket : next.tickets) {
+                        if (ticket.listener != null) {
+                            ticket.listener.onProgress(downloaded, total);
+                        }
+                    }
+                });
+                // 界面正在等待的文件不因预览而限速
+                next.downloader.setThrottled(next.priority != PRIORITY_INTERACTIVE);
+                running++;
+                lastServed.put(next.device, startCount++);
+                toStart.add(next);
+            }
+        }
+        for (RangeDownloader downloader : toPause) {
+            downloader.cancel();
+        }
+        for (Job job : toStart) {
+            start(job);
+        }
+    }
+
+    private void start(Job job) {
+        RangeDownloader downloader = job.downloader;
+        job.released.thenCompose(none -> downloader.start()).whenComplete((file, error) -> {
+            boolean kept = false;
+            synchronized (this) {
+                if (job.downloader != downloader) {
+                    // 已被暂停或取消，暂停的下载留在队列中
+                    return;
+                }
+                job.downloader = null;
+                running--;
+                jobs.remove(job.key);
+                if (error != null && job.persistent && job.failures + 1 < MAX_FAILURES) {
+                    // 订阅以失败结束，下载本身以新的Job留在队列中，等设备下次连接时重试
+                    Job retry = new Job(job.url, job.target, job.device, job.priority, job.sequence);
+                    retry.failures = job.failures + 1;
+                    retry.parked = true;
+                    jobs.put(retry.key, retry);
+                    kept = true;
+                }
+            }
+            // 先保存队列再通知订阅，订阅得到结果时队列文件的更新已经提交
+            saveAsync();
+            if (error != null) {
+                Log.e(TAG, "下载失败" + (kept ? "，设备下次连接时重试" : "") + ": " + job.url + ", " + error.getMessage());
+                job.future.completeExceptionally(error);
+            } else {
+                job.future.complete(file);
+            }
+            schedule();
+        });
+    }
+
+    /**
+     * 选择下一个开始的下载：优先级最高的；同一优先级中选择最久没有开始过下载的设备；同一设备中先加入的先开始
+     *
+     * @param allowBackground 是否可以选择后台下载
+     */
+    private Job pick(boolean allowBackground) {
+        Job best = null;
+        for (Job job : jobs.values()) {
+            if (job.downloader != null || job.parked
+                || (!allowBackground && job.priority >= PRIORITY_BACKGROUND)) {
+                continue;
+            }
+            if (best == null || compare(job, best) < 0) {
+                best = job;
+            }
+        }
+        return best;
+    }
+
+    private int compare(Job a, Job b) {
+        if (a.priority != b.priority) {
+            return Integer.compare(a.priority, b.priority);
+        }
+        if (!a.device.equals(b.device)) {
+            Long servedA = lastServed.get(a.device);
+            Long servedB = lastServed.get(b.device);
+            return Long.compare(servedA != null ? servedA : -1, servedB != null ? servedB : -1);
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+
+    private int countRunning(int priority) {
+        int count = 0;
+        for (Job job : jobs.values()) {
+            if (job.downloader != null && job.priority >= priority) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 最后加入的正在进行的后台下载
+     */
+    private Job latestBackground() {
+        Job latest = null;
+        for (Job job : jobs.values()) {
+            if (job.downloader != null && job.priority >= PRIORITY_BACKGROUND
+                && (latest == null || job.sequence > latest.sequence)) {
+                latest = job;
+            }
+        }
+        return latest;
+    }
+
+    private void saveAsync() {
+        IO_EXECUTOR.execute(this::save);
+    }
+
+    /**
+     * 等待已提交的队列文件读写完成
+     */
+    void awaitIo() throws InterruptedException, ExecutionException {
+        CompletableFuture.runAsync(() -> { }, IO_EXECUTOR).get();
+    }
+
+    /**
+     * 保存需要继续的下载，先写临时文件再替换
+     */
+    private void save() {
+        List<Job> snapshot = new ArrayList<>();
+        File file;
+        synchronized (this) {
+            file = queueFile;
+            if (file == null) {
+                return;
+            }
+            for (Job job : jobs.values()) {
+                if (job.persistent) {
+                    snapshot.add(job);
+                }
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Job job : snapshot) {
+                out.writeUTF(job.url);
+                out.writeUTF(job.target.getPath());
+                out.writeUTF(job.device);
+                out.writeInt(job.priority);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "保存下载队列失败: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "替换下载队列失败: " + file);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 读取保存的下载，文件不存在或损坏时返回空列表
+     */
+    private List<Job> load() {
+        List<Job> loaded = new ArrayList<>();
+        File file;
+        synchronized (this) {
+            file = queueFile;
+        }
+        if (!file.exists()) {
+            return loaded;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "下载队列格式不符，忽略: " + file);
+                return loaded;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                File target = new File(in.readUTF());
+                String device = in.readUTF();
+                int priority = in.readInt();
+                if (!DownloadManifest.isIntact(target)) {
+                    synchronized (this) {
+                        Job job = new Job(url, target, device, priority, sequence++);
+                        job.parked = true;
+                        loaded.add(job);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "加载下载队列失败: " + e.getMessage());
+        }
+        return loaded;
+    }
+}
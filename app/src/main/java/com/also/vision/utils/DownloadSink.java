@@ -0,0 +1,96 @@
+package com.also.vision.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载数据写入
+ * 多个连接把各自读到的数据交给同一个Sink，按位置写入目标文件的FileChannel并统计已写入的字节数。
+ * 数据来自直接缓冲区时由FileChannel直接写出，不再复制到Java堆。
+ * <p>
+ * 进度按时间和百分比节流：距上次通知至少PROGRESS_INTERVAL，并且至少增加了文件大小的1/PROGRESS_STEPS时才通知，
+ * 多GB的文件整个下载过程也只通知几百次。线程安全。
+ */
+public class DownloadSink {
+    public static final long PROGRESS_INTERVAL = 200;   // 毫秒
+    public static final int PROGRESS_STEPS = 200;       // 0.5%
+
+    private final FileChannel channel;
+    private final long total;
+    private final RangeDownloader.ProgressListener listener;
+    private final AtomicLong written;
+    private long reportedAt = 0;
+    private long reportedBytes = -1;
+
+    /**
+     * @param channel  目标文件
+     * @param total    文件大小，未知时为-1
+     * @param written  已写入的字节数，续传时不为0
+     * @param listener 进度监听，可以为null
+     */
+    public DownloadSink(FileChannel channel, long total, long written, RangeDownloader.ProgressListener listener) {
+        this.channel = channel;
+        this.total = total;
+        this.written = new AtomicLong(written);
+        this.listener = listener;
+    }
+
+    /**
+     * 把buffer中剩余的数据写入position处，buffer为直接缓冲区时不经过Java堆
+     *
+     * @return 写入的字节数
+     */
+    public int write(ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        onWritten(length);
+        return length;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * 重新计数，用于不能续传的下载从头开始
+     */
+    public void reset(long value) {
+        written.set(value);
+    }
+
+    /**
+     * 立即通知当前进度，用于开始和结束时
+     */
+    public void reportProgress() {
+        long current = written.get();
+        synchronized (this) {
+            reportedAt = System.currentTimeMillis();
+            reportedBytes = current;
+        }
+        if (listener != null) {
+            listener.onProgress(current, total);
+        }
+    }
+
+    private void onWritten(int length) {
+        long current = written.addAndGet(length);
+        if (listener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - reportedAt < PROGRESS_INTERVAL
+                || (total > 0 && current - reportedBytes < total / PROGRESS_STEPS && current < total)) {
+                return;
+            }
+            reportedAt = now;
+            reportedBytes = current;
+        }
+        listener.onProgress(current, total);
+    }
+}
@@ -1,46 +1,46 @@
 package com.also.vision.utils;
 
 import android.content.Context;
-import android.os.AsyncTask;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 /**
  * 文件下载工具类
+ * 下载经过{@link DownloadQueue}，与其他下载共享并发上限；同一文件已在下载时共享该下载，不再取消正在进行的下载。
+ * 由{@link RangeDownloader}分段并行下载，失败或取消后再次下载同一文件时从中断处继续。回调在主线程中执行。
+ * 已存在的文件按{@link DownloadManifest}校验，不完整时只重新下载损坏的部分。
  */
 public class FileDownloader {
     private static final String TAG = "FileDownloader";
     private Context context;
-    private DownloadTask currentTask;
+    private DownloadQueue.Ticket currentDownload;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     
     public FileDownloader(Context context) {
         this.context = context;
+        DownloadQueue.getInstance().init(context);
     }
     
     /**
      * 下载文件
+     * @param serial 设备序列号，用于区分各设备的同名文件，未知时为null
      * @param url 文件URL
      * @param fileName 文件名
      * @param callback 下载回调
      */
-    public void downloadFile(String url, String fileName, DownloadCallback callback) {
-        // 创建下载目录
-        File downloadDir = new File(context.getExternalFilesDir(null), "downloads");
-        if (!downloadDir.exists()) {
-            downloadDir.mkdirs();
-        }
+    public void downloadFile(String serial, String url, String fileName, DownloadCallback callback) {
+        // 创建下载目录，每台设备一个
+        File downloadDir = DownloadQueue.downloadDir(context, serial);
         
         // 创建输出文件
-        File outputFile = new File(downloadDir, fileName);
+        File outputFile = new File(downloadDir, DownloadQueue.safeName(fileName));
         
-        // 如果文件已存在，直接返回成功
-        if (outputFile.exists()) {
+        // 文件已存在并且与上次校验时相同才直接返回成功，否则由下载校验并只重新下载损坏的部分
+        if (DownloadManifest.isIntact(outputFile)) {
             if (callback != null) {
                 callback.onDownloadComplete(outputFile);
             }
@@ -52,144 +52,51 @@ public class FileDownloader {
             callback.onDownloadStart(fileName);
         }
         
-        // 取消当前任务
-        if (currentTask != null && currentTask.getStatus() != AsyncTask.Status.FINISHED) {
-            currentTask.cancel(true);
-        }
-        
-        // 创建新任务
-        currentTask = new DownloadTask(url, outputFile, callback);
-        currentTask.execute();
-    }
-    
-    /**
-     * 取消下载
-     */
-    public void cancelDownload() {
-        if (currentTask != null && currentTask.getStatus() != AsyncTask.Status.FINISHED) {
-            currentTask.cancel(true);
-            currentTask = null;
-        }
-    }
-    
-    /**
-     * 下载任务
-     */
-    private class DownloadTask extends AsyncTask<Void, Integer, File> {
-        private String url;
-        private File outputFile;
-        private DownloadCallback callback;
-        private Exception exception;
-        
-        public DownloadTask(String url, File outputFile, DownloadCallback callback) {
-            this.url = url;
-            this.outputFile = outputFile;
-            this.callback = callback;
-        }
-        
-        @Override
-        protected File doInBackground(Void... voids) {
-            InputStream input = null;
-            FileOutputStream output = null;
-            HttpURLConnection connection = null;
-            
-            try {
-                URL downloadUrl = new URL(url);
-                connection = (HttpURLConnection) downloadUrl.openConnection();
-                connection.connect();
-                
-                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    throw new IOException("服务器返回错误: " + connection.getResponseCode() + " " + connection.getResponseMessage());
+        // 加入下载队列，用户发起的下载优先于后台下载
+        int[] lastProgress = {-1};
+        DownloadQueue.Ticket download = DownloadQueue.getInstance().enqueue(url, outputFile, serial,
+            DownloadQueue.PRIORITY_USER, (downloaded, total) -> {
+                if (total <= 0) {
+                    return;
                 }
-                
-                // 获取文件大小
-                int fileLength = connection.getContentLength();
-                
-                // 下载文件
-                input = connection.getInputStream();
-                output = new FileOutputStream(outputFile);
-                
-                byte[] buffer = new byte[4096];
-                long total = 0;
-                int count;
-                
-                while ((count = input.read(buffer)) != -1) {
-                    // 检查是否取消
-                    if (isCancelled()) {
-                        input.close();
-                        output.close();
-                        return null;
+                int progress = (int) (downloaded * 100 / total);
+                synchronized (lastProgress) {
+                    if (progress == lastProgress[0]) {
+                        return;
                     }
-                    
-                    total += count;
-                    output.write(buffer, 0, count);
-                    
-                    // 更新进度
-                    if (fileLength > 0) {
-                        publishProgress((int) (total * 100 / fileLength));
-                    }
-                }
-                
-                return outputFile;
-            } catch (Exception e) {
-                this.exception = e;
-                Log.e(TAG, "下载失败: " + e.getMessage());
-                e.printStackTrace();
-                return null;
-            } finally {
-                try {
-                    if (output != null) {
-                        output.close();
-                    }
-                    if (input != null) {
-                        input.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                
-                if (connection != null) {
-                    connection.disconnect();
+                    lastProgress[0] = progress;
                 }
-            }
-        }
-        
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            if (callback != null) {
-                callback.onDownloadProgress(values[0]);
-            }
-        }
-        
-        @Override
-        protected void onPostExecute(File file) {
-            if (file != null && file.exists()) {
-                if (callback != null) {
-                    callback.onDownloadComplete(file);
-                }
-            } else {
                 if (callback != null) {
-                    String error = (exception != null) ? exception.getMessage() : "未知错误";
-                    callback.onDownloadFailed(error);
-                }
-                
-                // 删除不完整的文件
-                if (outputFile.exists()) {
-                    outputFile.delete();
+                    mainHandler.post(() -> callback.onDownloadProgress(progress));
                 }
+            });
+        currentDownload = download;
+        download.getFuture().whenComplete((file, error) -> mainHandler.post(() -> {
+            if (currentDownload == download) {
+                currentDownload = null;
             }
-        }
-        
-        @Override
-        protected void onCancelled() {
-            // 删除不完整的文件
-            if (outputFile.exists()) {
-                outputFile.delete();
+            if (callback == null) {
+                return;
             }
-            
-            if (callback != null) {
+            if (error == null) {
+                callback.onDownloadComplete(file);
+            } else if (error instanceof CancellationException) {
                 callback.onDownloadFailed("下载已取消");
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                callback.onDownloadFailed(cause.getMessage() != null ? cause.getMessage() : "未知错误");
             }
+        }));
+    }
+    
+    /**
+     * 取消最近一次下载，其他调用方也在等待同一文件时下载继续
+     */
+    public void cancelDownload() {
+        if (currentDownload != null) {
+            currentDownload.cancel();
+            currentDownload = null;
         }
     }
     
@@ -0,0 +1,288 @@
+package com.also.vision.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 基于SocketChannel的HTTP Range请求
+ * 响应体从SocketChannel直接读入调用方的直接缓冲区，再由FileChannel写入文件，不经过Java堆中的byte[]。
+ * 只支持http和非分块传输的响应，设备的Web服务器满足这两点；其他情况以{@link UnsupportedResponseException}结束，
+ * 由调用方改用HttpURLConnection。
+ * <p>
+ * 读操作阻塞直到至少读到一个字节，然后读取Socket中已有的全部数据，超时以SocketTimeoutException结束。
+ * {@link #abort()}可以在其他线程中调用，{@link #close()}只能由读取的线程调用。
+ */
+class HttpRangeConnection implements ReadableByteChannel {
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final int readTimeout;
+    private ByteBuffer header;
+    private int responseCode;
+    private long contentLength = -1;
+    private String contentRange;
+    private long remaining;
+
+    private HttpRangeConnection(SocketChannel channel, Selector selector, int readTimeout) {
+        this.channel = channel;
+        this.selector = selector;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * 建立连接，发送请求并读取响应头
+     *
+     * @param url            文件URL，只支持http
+     * @param from           起始位置
+     * @param to             结束位置(含)
+     * @param connectTimeout 连接超时(毫秒)
+     * @param readTimeout    读取超时(毫秒)
+     */
+    static HttpRangeConnection open(URL url, long from, long to, int connectTimeout, int readTimeout)
+            throws IOException {
+        if (!"http".equals(url.getProtocol())) {
+            throw new UnsupportedResponseException("不支持的协议: " + url.getProtocol());
+        }
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        SocketChannel channel = SocketChannel.open();
+        Selector selector = null;
+        HttpRangeConnection connection = null;
+        try {
+            channel.socket().connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            connection = new HttpRangeConnection(channel, selector, readTimeout);
+            String path = url.getFile().isEmpty() ? "/" : url.getFile();
+            String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + (url.getPort() > 0 ? ":" + url.getPort() : "") + "\r\n"
+                + "Range: bytes=" + from + "-" + to + "\r\n"
+                + "Connection: close\r\n\r\n";
+            connection.send(ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1)));
+            connection.readHeader();
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.close();
+            } else {
+                channel.close();
+                if (selector != null) {
+                    selector.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * 获取响应体长度，未知时为-1
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+    String getContentRange() {
+        return contentRange;
+    }
+
+    /**
+     * 读取响应体，阻塞直到至少读到一个字节
+     *
+     * @return 读取的字节数，响应体结束时返回-1
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (remaining == 0 || !dst.hasRemaining()) {
+            return remaining == 0 ? -1 : 0;
+        }
+        int limit = dst.limit();
+        if (remaining > 0 && dst.remaining() > remaining) {
+            dst.limit(dst.position() + (int) remaining);
+        }
+        try {
+            int count = 0;
+            // 先交出随响应头一起读到的数据
+            if (header != null && header.hasRemaining()) {
+                int length = Math.min(header.remaining(), dst.remaining());
+                ByteBuffer slice = header.duplicate();
+                slice.limit(slice.position() + length);
+                dst.put(slice);
+                header.position(header.position() + length);
+                count = length;
+            }
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst);
+                if (n < 0) {
+                    if (count > 0) {
+                        break;
+                    }
+                    if (remaining > 0) {
+                        throw new EOFException("连接提前结束，还差" + remaining + "字节");
+                    }
+                    remaining = 0;
+                    return -1;
+                }
+                if (n == 0) {
+                    if (count > 0) {
+                        break;
+                    }
+                    waitFor(SelectionKey.OP_READ);
+                }
+                count += n;
+            }
+            if (remaining > 0) {
+                remaining -= count;
+            }
+            return count;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * 中断连接，正在读取的线程以AsynchronousCloseException结束，可以在任意线程中调用
+     */
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            selector.close();
+        }
+    }
+
+    private void send(ByteBuffer request) throws IOException {
+        while (request.hasRemaining()) {
+            if (channel.write(request) == 0) {
+                waitFor(SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * 读取并解析响应头，同时读到的响应体留在header中
+     */
+    private void readHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        int end = -1;
+        int scanned = 0;
+        while (end < 0) {
+            if (!buffer.hasRemaining()) {
+                throw new UnsupportedResponseException("响应头过长");
+            }
+            int n = channel.read(buffer);
+            if (n < 0) {
+                throw new EOFException("读取响应头时连接结束");
+            }
+            if (n == 0) {
+                waitFor(SelectionKey.OP_READ);
+                continue;
+            }
+            for (int i = Math.max(3, scanned); i < buffer.position(); i++) {
+                if (buffer.get(i - 3) == '\r' && buffer.get(i - 2) == '\n'
+                    && buffer.get(i - 1) == '\r' && buffer.get(i) == '\n') {
+                    end = i + 1;
+                    break;
+                }
+            }
+            scanned = buffer.position();
+        }
+
+        String[] lines = new String(buffer.array(), 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] status = lines[0].split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new UnsupportedResponseException("无效的响应: " + lines[0]);
+        }
+        try {
+            responseCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new UnsupportedResponseException("无效的响应: " + lines[0]);
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = lines[i].substring(colon + 1).trim();
+            if ("content-length".equals(name)) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedResponseException("无效的Content-Length: " + value);
+                }
+            } else if ("content-range".equals(name)) {
+                contentRange = value;
+            } else if ("transfer-encoding".equals(name) && !"identity".equalsIgnoreCase(value)) {
+                throw new UnsupportedResponseException("不支持的Transfer-Encoding: " + value);
+            }
+        }
+        remaining = contentLength;
+
+        buffer.flip();
+        buffer.position(end);
+        header = buffer;
+    }
+
+    private void waitFor(int ops) throws IOException {
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            if (key == null || !channel.isOpen()) {
+                throw new AsynchronousCloseException();
+            }
+            key.interestOps(ops);
+            if (selector.select(readTimeout) == 0) {
+                if (!channel.isOpen()) {
+                    throw new AsynchronousCloseException();
+                }
+                throw new SocketTimeoutException("读取超时");
+            }
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException | CancelledKeyException e) {
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    /**
+     * 请求或响应超出了这里支持的范围，如https、分块传输或无法解析的响应头，网络本身没有问题
+     */
+    static class UnsupportedResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedResponseException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,955 @@
+package com.also.vision.utils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * 分段并行下载
+ * 服务器支持Range时把文件分成多个分段，用多个连接同时下载，按位置直接写入预先分配好大小的临时文件。
+ * 下载进度(每个分段已写到的位置)定期保存到状态文件，连接中断、取消或进程退出后再次下载同一文件时从中断处继续。
+ * <p>
+ * 并发连接数按测得的速度调整：每个采样周期尝试增加一个连接，增加后速度没有明显提高时退回并保持一段时间；
+ * 分段出错时减少一个连接。空闲的连接会拆分剩余最多的分段，避免最后只剩一个连接在下载。
+ * 服务器不支持Range时退回单个连接顺序下载，不能续传。
+ * <p>
+ * 分段的响应体通过{@link HttpRangeConnection}从SocketChannel读入池化的直接缓冲区，再由{@link DownloadSink}
+ * 按位置写入FileChannel，数据不经过Java堆；进度由DownloadSink按时间和百分比节流后通知。
+ * HttpRangeConnection不支持的情况(https、分块传输、无法解析的响应头)改用带Range头的HttpURLConnection。
+ * <p>
+ * 临时文件为"目标文件.part"，状态文件为"目标文件.dl"，下载完成后临时文件重命名为目标文件。
+ * <p>
+ * 写入的同时按{@link DownloadManifest#BLOCK_SIZE}计算每块的CRC32，保存在"目标文件.manifest"中，完成后保留。
+ * 目标文件已存在时先按清单逐块校验，完整则直接使用，否则把它作为临时文件，只重新下载校验不符或缺少的块。
+ */
+public class RangeDownloader {
+    private static final String TAG = "RangeDownloader";
+
+    public static final int MAX_CONNECTIONS = 4;
+    public static final long SEGMENT_SIZE = 4 * 1024 * 1024;     // 4MB
+
+    private static final int INITIAL_CONNECTIONS = 2;
+    private static final long MIN_SPLIT_SIZE = 1024 * 1024;      // 剩余超过两倍时才拆分正在下载的分段
+    private static final int BUFFER_SIZE = 256 * 1024;          // 直接缓冲区，小于MIN_SPLIT_SIZE
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+    private static final int MAX_RETRIES = 3;                    // 每个分段连续出错的最多重试次数
+    private static final long RETRY_DELAY = 500;
+    private static final long SAMPLE_INTERVAL = 2000;            // 测速周期
+    private static final double MIN_GAIN = 1.1;                  // 增加连接后速度至少提高10%才保留
+    private static final int HOLD_SAMPLES = 5;                   // 退回后保持的采样周期数
+    private static final long PERSIST_INTERVAL = 1000;           // 保存进度的间隔
+    private static final long THROTTLE_SLICE = 100;              // 限速等待时检查停止的间隔
+
+    private static final int MAGIC = 0x56444C53;  // "VDLS"
+    private static final int VERSION = 1;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Vision-Download");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 下载进度监听，在下载线程中调用，已按时间和百分比节流
+     */
+    public interface ProgressListener {
+        /**
+         * @param downloaded 已下载的字节数
+         * @param total      文件大小，未知时为-1
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    private final String url;
+    private final File target;
+    private final File partFile;
+    private final File stateFile;
+    private final ProgressListener listener;
+    private final CompletableFuture<File> future = new CompletableFuture<>();
+    private final List<Segment> segments = new ArrayList<>();
+    // 正在进行的连接，停止时逐个中断
+    private final Set<Runnable> aborts = new HashSet<>();
+    private final Object persistLock = new Object();
+
+    private volatile long total = -1;
+    private boolean ranged = false;
+    // HttpRangeConnection不支持服务器的响应时为true
+    private volatile boolean urlConnectionOnly = false;
+    private FileChannel channel;
+    private volatile DownloadSink sink;
+    private DownloadManifest manifest;
+    private int active = 0;
+    private boolean stopped = false;
+    private boolean closed = false;
+    private boolean preparing = true;
+    private volatile boolean throttled = true;
+    // 临时文件关闭后完成
+    private final CompletableFuture<Void> released = new CompletableFuture<>();
+
+    // 并发调整
+    private int targetConnections = INITIAL_CONNECTIONS;
+    private int lastTarget = INITIAL_CONNECTIONS;
+    private long lastThroughput = 0;
+    private long throughput = 0;
+    private int hold = 0;
+    private long sampleTime;
+    private long sampleBytes;
+    private long persistedAt;
+
+    /**
+     * 下载中的一段[start, end)，position之前的内容已写入
+     */
+    private static class Segment {
+        final long start;
+        long end;
+        long position;
+        boolean assigned = false;
+        int retries = 0;
+        // 当前块已计算校验和的位置，从块中间开始(续传)时为-1，这个块在完成时从文件读取计算
+        final CRC32 crc = new CRC32();
+        long hashed = -1;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+
+    /**
+     * @param url      文件URL
+     * @param target   目标文件
+     * @param listener 进度监听，可以为null
+     */
+    public RangeDownloader(String url, File target, ProgressListener listener) {
+        this.url = url;
+        this.target = target;
+        this.partFile = new File(target.getPath() + ".part");
+        this.stateFile = new File(target.getPath() + ".dl");
+        this.listener = listener;
+    }
+
+    /**
+     * 开始下载
+     *
+     * @return 下载完成时得到目标文件；失败时以异常结束，已下载的部分保留用于续传
+     */
+    public CompletableFuture<File> start() {
+        EXECUTOR.execute(this::prepare);
+        return future;
+    }
+
+    /**
+     * 取消下载，已下载的部分保留用于续传
+     */
+    public void cancel() {
+        if (stop()) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 停止或完成后临时文件关闭时完成，之后才可以由新的RangeDownloader继续同一文件
+     */
+    public CompletableFuture<Void> whenReleased() {
+        return released;
+    }
+
+    /**
+     * 设置是否受带宽调节限速，默认受限；界面正在等待的小文件应设为false
+     */
+    public void setThrottled(boolean throttled) {
+        this.throttled = throttled;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getDownloaded() {
+        DownloadSink current = sink;
+        return current != null ? current.getWritten() : 0;
+    }
+
+    /**
+     * 获取当前的目标连接数
+     */
+    public synchronized int getConnections() {
+        return targetConnections;
+    }
+
+    /**
+     * 获取最近一个采样周期的下载速度(字节/秒)
+     */
+    public synchronized long getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * 获取文件大小并准备临时文件和分段
+     */
+    private void prepare() {
+        try {
+            if (verifyExisting()) {
+                synchronized (this) {
+                    preparing = false;
+                    stopped = true;
+                    closed = true;
+                }
+                released.complete(null);
+                Log.d(TAG, "文件校验通过，不需要下载: " + target.getName());
+                future.complete(target);
+                return;
+            }
+            probe();
+            repairExisting();
+            openPartFile();
+        } catch (IOException e) {
+            fail(e);
+            synchronized (this) {
+                preparing = false;
+            }
+            closeIfStopped();
+            return;
+        }
+        sink.reportProgress();
+        synchronized (this) {
+            preparing = false;
+            sampleTime = System.currentTimeMillis();
+            sampleBytes = sink.getWritten();
+            persistedAt = sampleTime;
+        }
+        if (isComplete()) {
+            finish();
+        } else {
+            schedule();
+            closeIfStopped();
+        }
+    }
+
+    /**
+     * 请求第一个字节，判断服务器是否支持Range并得到文件大小
+     */
+    private void probe() throws IOException {
+        HttpURLConnection connection = open();
+        connection.setRequestProperty("Range", "bytes=0-0");
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                total = parseTotal(connection.getHeaderField("Content-Range"));
+                ranged = total > 0;
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                total = connection.getContentLengthLong();
+            } else {
+                throw new IOException("服务器返回错误: " + code + " " + connection.getResponseMessage());
+            }
+        } finally {
+            connection.disconnect();
+        }
+        if (!ranged) {
+            Log.d(TAG, "服务器不支持分段下载: " + url);
+        }
+    }
+
+    /**
+     * 按清单逐块校验已存在的目标文件，校验不符的块标记为未完成
+     * 清单属于其他URL时删除文件和清单，按新文件下载
+     *
+     * @return 目标文件完整
+     */
+    private boolean verifyExisting() throws IOException {
+        if (!target.exists()) {
+            return false;
+        }
+        DownloadManifest existing = DownloadManifest.load(target);
+        if (existing == null) {
+            return false;
+        }
+        if (!url.equals(existing.getUrl())) {
+            // 清单属于另一个URL，文件内容不能沿用，不能当作没有清单的旧文件
+            Log.w(TAG, "已存在的文件来自其他URL，重新下载: " + target.getName());
+            target.delete();
+            DownloadManifest.delete(target);
+            return false;
+        }
+        BitSet bad = existing.verify(target);
+        if (bad.isEmpty() && existing.isComplete() && target.length() == existing.getLength()) {
+            existing.markVerified(target);
+            existing.save(target);
+            return true;
+        }
+        Log.w(TAG, "文件校验不符: " + target.getName() + ", " + bad.cardinality() + "个块损坏");
+        manifest = existing;
+        return false;
+    }
+
+    /**
+     * 目标文件不完整时把它作为临时文件，写入只包含缺少的块的下载进度，由restore()继续
+     * 没有清单的旧文件在长度以内的块视为已下载，完成时从文件读取计算校验和
+     */
+    private void repairExisting() throws IOException {
+        if (!target.exists()) {
+            return;
+        }
+        long valid = target.length();
+        boolean matches = manifest != null && manifest.getLength() == total;
+        if (!ranged || (!matches && (manifest != null || valid > total))) {
+            // 不能分段下载，或已存在的文件与URL不符
+            target.delete();
+            DownloadManifest.delete(target);
+            manifest = null;
+            return;
+        }
+        if (!matches) {
+            manifest = new DownloadManifest(url, total);
+        }
+
+        // 相邻且状态相同的块合并为一个分段
+        List<long[]> plan = new ArrayList<>();
+        int missing = 0;
+        for (int i = 0; i < manifest.getBlockCount(); i++) {
+            long start = (long) i * DownloadManifest.BLOCK_SIZE;
+            long end = Math.min(total, start + DownloadManifest.BLOCK_SIZE);
+            boolean done = matches ? manifest.isBlockDone(i) : end <= valid;
+            if (!done) {
+                missing++;
+            }
+            long[] last = plan.isEmpty() ? null : plan.get(plan.size() - 1);
+            if (last != null && (last[2] == last[1]) == done && last[1] == start) {
+                last[1] = end;
+                if (done) {
+                    last[2] = end;
+                }
+            } else {
+                plan.add(new long[]{start, end, done ? end : start});
+            }
+        }
+        manifest.save(target);
+        writeState(plan);
+        partFile.delete();
+        if (!target.renameTo(partFile)) {
+            throw new IOException("无法重命名文件: " + target);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(total);
+        }
+        Log.d(TAG, "重新下载" + target.getName() + "中的" + missing + "个块");
+    }
+
+    /**
+     * 打开临时文件，有可用的进度时继续，否则预先分配大小并重新分段
+     */
+    private void openPartFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+        channel = file.getChannel();
+        if (!ranged) {
+            channel.truncate(0);
+            stateFile.delete();
+            segments.add(new Segment(0, total > 0 ? total : Long.MAX_VALUE, 0));
+            targetConnections = 1;
+            manifest = new DownloadManifest(url, total);
+            sink = new DownloadSink(channel, total, 0, listener);
+            return;
+        }
+
+        if (restore()) {
+            if (manifest == null) {
+                manifest = DownloadManifest.load(target);
+            }
+            if (manifest == null || !url.equals(manifest.getUrl()) || manifest.getLength() != total) {
+                // 已下载的块在完成时从文件读取计算校验和
+                manifest = new DownloadManifest(url, total);
+            }
+        } else {
+            file.setLength(total);
+            for (long start = 0; start < total; start += SEGMENT_SIZE) {
+                segments.add(new Segment(start, Math.min(total, start + SEGMENT_SIZE), start));
+            }
+            manifest = new DownloadManifest(url, total);
+        }
+        long done = 0;
+        for (Segment segment : segments) {
+            done += segment.position - segment.start;
+        }
+        sink = new DownloadSink(channel, total, done, listener);
+    }
+
+    /**
+     * 在连接数允许的范围内开始下载分段
+     */
+    private void schedule() {
+        List<Segment> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (!stopped && active < targetConnections) {
+                Segment segment = nextSegment();
+                if (segment == null) {
+                    break;
+                }
+                segment.assigned = true;
+                active++;
+                toStart.add(segment);
+            }
+        }
+        for (Segment segment : toStart) {
+            EXECUTOR.execute(() -> run(segment));
+        }
+    }
+
+    /**
+     * 取下一个未完成的分段，都已在下载时拆分剩余最多的分段
+     */
+    private Segment nextSegment() {
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (segment.position >= segment.end) {
+                continue;
+            }
+            if (!segment.assigned) {
+                return segment;
+            }
+            if (largest == null || segment.end - segment.position > largest.end - largest.position) {
+                largest = segment;
+            }
+        }
+        if (!ranged || largest == null || largest.end - largest.position < MIN_SPLIT_SIZE * 2) {
+            return null;
+        }
+        // 拆分点与正在写入的位置至少相距MIN_SPLIT_SIZE，大于一次写入的长度；
+        // 并对齐到校验块，新分段从块起点开始才能在下载时计算校验和
+        long middle = largest.position + (largest.end - largest.position) / 2;
+        middle = (middle + DownloadManifest.BLOCK_SIZE - 1) / DownloadManifest.BLOCK_SIZE * DownloadManifest.BLOCK_SIZE;
+        if (largest.end - middle < MIN_SPLIT_SIZE) {
+            return null;
+        }
+        Segment tail = new Segment(middle, largest.end, middle);
+        largest.end = middle;
+        segments.add(segments.indexOf(largest) + 1, tail);
+        return tail;
+    }
+
+    /**
+     * 在下载线程中下载一个分段
+     */
+    private void run(Segment segment) {
+        long before;
+        synchronized (this) {
+            before = segment.position;
+        }
+        IOException error = null;
+        try {
+            fetch(segment);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        boolean retry = false;
+        int retries = 0;
+        synchronized (this) {
+            active--;
+            segment.assigned = false;
+            if (segment.position > before) {
+                segment.retries = 0;
+            }
+            if (error != null && !stopped && ++segment.retries <= MAX_RETRIES) {
+                // 出错多半是设备的连接数或带宽不足，减少一个连接
+                retry = true;
+                retries = segment.retries;
+                targetConnections = Math.max(1, targetConnections - 1);
+                hold = HOLD_SAMPLES;
+                if (!ranged) {
+                    segment.position = 0;
+                    sink.reset(0);
+                }
+            }
+        }
+
+        if (error != null && !retry) {
+            fail(error);
+        } else if (retry) {
+            Log.w(TAG, "分段下载出错，第" + retries + "次重试: " + error.getMessage());
+            try {
+                Thread.sleep(RETRY_DELAY * retries);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (isComplete()) {
+            finish();
+        } else {
+            schedule();
+            closeIfStopped();
+        }
+    }
+
+    /**
+     * 从分段当前位置下载到分段结束，分段可能在下载过程中被拆分而提前结束
+     */
+    private void fetch(Segment segment) throws IOException {
+        long from;
+        long to;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            from = segment.position;
+            to = segment.end - 1;
+        }
+
+        HttpRangeConnection rangeConnection = null;
+        HttpURLConnection urlConnection = null;
+        ReadableByteChannel source;
+        Runnable abort;
+        if (ranged && !urlConnectionOnly) {
+            try {
+                rangeConnection = HttpRangeConnection.open(new URL(url), from, to, CONNECT_TIMEOUT, READ_TIMEOUT);
+            } catch (HttpRangeConnection.UnsupportedResponseException e) {
+                // 之后的分段都直接使用HttpURLConnection
+                Log.w(TAG, "改用HttpURLConnection下载分段: " + e.getMessage());
+                urlConnectionOnly = true;
+            }
+        }
+        if (rangeConnection != null) {
+            abort = rangeConnection::abort;
+        } else {
+            urlConnection = open();
+            if (ranged) {
+                urlConnection.setRequestProperty("Range", "bytes=" + from + "-" + to);
+            }
+            abort = urlConnection::disconnect;
+        }
+        synchronized (this) {
+            aborts.add(abort);
+        }
+
+        ByteBuffer buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+        try {
+            if (rangeConnection != null) {
+                if (rangeConnection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("服务器返回错误: " + rangeConnection.getResponseCode());
+                }
+                source = rangeConnection;
+            } else {
+                int code = urlConnection.getResponseCode();
+                if (code != (ranged ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK)) {
+                    throw new IOException("服务器返回错误: " + code + " " + urlConnection.getResponseMessage());
+                }
+                source = Channels.newChannel(urlConnection.getInputStream());
+            }
+            while (true) {
+                long position;
+                long remaining;
+                synchronized (this) {
+                    if (stopped) {
+                        return;
+                    }
+                    position = segment.position;
+                    remaining = segment.end - position;
+                }
+                if (remaining <= 0) {
+                    break;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                if (source.read(buffer) < 0) {
+                    if (!ranged && total < 0) {
+                        // 服务器没有给出长度，读到结束即完成
+                        synchronized (this) {
+                            segment.end = segment.position;
+                        }
+                        break;
+                    }
+                    throw new EOFException("连接提前结束: " + position + "/" + segment.end);
+                }
+                buffer.flip();
+                synchronized (this) {
+                    buffer.limit((int) Math.min(buffer.limit(), segment.end - segment.position));
+                }
+                ByteBuffer data = buffer.duplicate();
+                int length = sink.write(buffer, position);
+                hash(segment, data, position);
+                synchronized (this) {
+                    segment.position += length;
+                }
+                onBytes();
+                if (!throttle(length)) {
+                    return;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                aborts.remove(abort);
+            }
+            BufferPool.getDefault().release(buffer);
+            if (rangeConnection != null) {
+                rangeConnection.close();
+            } else {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 把写入position处的数据计入所在块的CRC32，块完成时记入清单
+     * 只有同一个分段的线程连续写入，不需要同步
+     */
+    private void hash(Segment segment, ByteBuffer data, long position) {
+        long offset = position;
+        if (segment.hashed != offset) {
+            segment.crc.reset();
+            segment.hashed = offset % DownloadManifest.BLOCK_SIZE == 0 ? offset : -1;
+        }
+        int limit = data.limit();
+        while (data.hasRemaining()) {
+            long blockEnd = (offset / DownloadManifest.BLOCK_SIZE + 1) * DownloadManifest.BLOCK_SIZE;
+            int length = (int) Math.min(data.remaining(), blockEnd - offset);
+            data.limit(data.position() + length);
+            if (segment.hashed >= 0) {
+                segment.crc.update(data);
+            }
+            data.position(data.limit());
+            data.limit(limit);
+            offset += length;
+            if (offset == blockEnd || offset == total) {
+                if (segment.hashed >= 0) {
+                    manifest.setBlock((int) ((offset - 1) / DownloadManifest.BLOCK_SIZE), (int) segment.crc.getValue());
+                }
+                segment.crc.reset();
+                segment.hashed = offset;
+            } else if (segment.hashed >= 0) {
+                segment.hashed = offset;
+            }
+        }
+    }
+
+    /**
+     * 向带宽调节申请length字节，需要时分段等待以便及时响应停止
+     *
+     * @return 下载已停止时返回false
+     */
+    private boolean throttle(int length) throws InterruptedIOException {
+        BandwidthGovernor governor = BandwidthGovernor.getDefault();
+        if (!throttled) {
+            governor.record(length);
+            return true;
+        }
+        long delay = governor.reserve(length);
+        while (delay > 0) {
+            synchronized (this) {
+                if (stopped) {
+                    return false;
+                }
+            }
+            long step = Math.min(delay, THROTTLE_SLICE);
+            try {
+                Thread.sleep(step);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("限速等待被中断");
+            }
+            delay -= step;
+        }
+        return true;
+    }
+
+    /**
+     * 写入数据后定期调整连接数和保存进度
+     */
+    private void onBytes() {
+        long current = sink.getWritten();
+        long now = System.currentTimeMillis();
+        boolean raised = false;
+        boolean persist = false;
+        synchronized (this) {
+            if (now - sampleTime >= SAMPLE_INTERVAL) {
+                raised = adapt(now, current);
+            }
+            if (now - persistedAt >= PERSIST_INTERVAL) {
+                persistedAt = now;
+                persist = true;
+            }
+        }
+        if (persist) {
+            persist();
+        }
+        if (raised) {
+            schedule();
+        }
+    }
+
+    /**
+     * 根据这个采样周期的速度调整目标连接数
+     *
+     * @return 是否增加了连接
+     */
+    private boolean adapt(long now, long current) {
+        throughput = (current - sampleBytes) * 1000 / Math.max(1, now - sampleTime);
+        sampleTime = now;
+        sampleBytes = current;
+        if (!ranged) {
+            return false;
+        }
+
+        int next = targetConnections;
+        if (hold > 0) {
+            hold--;
+        } else if (targetConnections > lastTarget && throughput < lastThroughput * MIN_GAIN) {
+            // 上次增加的连接没有提高速度，退回并保持一段时间
+            next = lastTarget;
+            hold = HOLD_SAMPLES;
+        } else if (targetConnections < MAX_CONNECTIONS) {
+            next = targetConnections + 1;
+        }
+        lastTarget = targetConnections;
+        lastThroughput = throughput;
+        if (next != targetConnections) {
+            Log.d(TAG, "下载速度" + throughput / 1024 + "KB/s，连接数" + targetConnections + " -> " + next);
+            targetConnections = next;
+        }
+        return next > lastTarget;
+    }
+
+    private synchronized boolean isComplete() {
+        if (active > 0 || stopped) {
+            return false;
+        }
+        for (Segment segment : segments) {
+            if (segment.position < segment.end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 所有分段完成，重命名临时文件
+     */
+    private void finish() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            closed = true;
+        }
+        try {
+            try {
+                if (manifest.getLength() < 0) {
+                    manifest.setLength(sink.getWritten());
+                }
+                int hashed = manifest.hashMissing(channel);
+                if (hashed > 0) {
+                    Log.d(TAG, "从文件计算" + hashed + "个块的校验和");
+                }
+                channel.force(true);
+            } finally {
+                channel.close();
+                released.complete(null);
+            }
+            if (!partFile.renameTo(target) && !(target.delete() && partFile.renameTo(target))) {
+                throw new IOException("无法重命名临时文件: " + partFile);
+            }
+            manifest.markVerified(target);
+            try {
+                manifest.save(target);
+            } catch (IOException e) {
+                // 文件本身完整，下次使用时没有清单会重新校验
+                Log.w(TAG, "保存清单失败: " + e.getMessage());
+            }
+            stateFile.delete();
+        } catch (IOException e) {
+            Log.e(TAG, "完成下载失败: " + e.getMessage());
+            future.completeExceptionally(e);
+            return;
+        }
+        sink.reportProgress();
+        Log.d(TAG, "下载完成: " + target.getName() + ", " + sink.getWritten() + "字节");
+        future.complete(target);
+    }
+
+    private void fail(Throwable error) {
+        Log.e(TAG, "下载失败: " + error.getMessage());
+        if (stop()) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 停止所有连接，没有在下载的分段时立即保存进度并关闭文件
+     *
+     * @return 是否由这次调用停止
+     */
+    private boolean stop() {
+        List<Runnable> open;
+        synchronized (this) {
+            if (stopped) {
+                return false;
+            }
+            stopped = true;
+            open = new ArrayList<>(aborts);
+        }
+        for (Runnable abort : open) {
+            abort.run();
+        }
+        closeIfStopped();
+        return true;
+    }
+
+    /**
+     * 停止后最后一个分段退出时保存进度并关闭文件
+     */
+    private void closeIfStopped() {
+        synchronized (this) {
+            if (!stopped || closed || active > 0 || preparing) {
+                return;
+            }
+            closed = true;
+        }
+        if (channel != null) {
+            persist();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭临时文件失败: " + e.getMessage());
+            }
+        }
+        released.complete(null);
+    }
+
+    /**
+     * 保存各分段的进度，先把已写入的内容刷到存储，再写清单和状态文件
+     */
+    private void persist() {
+        if (!ranged || manifest == null) {
+            return;
+        }
+        synchronized (persistLock) {
+            List<long[]> snapshot = new ArrayList<>();
+            synchronized (this) {
+                for (Segment segment : segments) {
+                    snapshot.add(new long[]{segment.start, segment.end, segment.position});
+                }
+            }
+            try {
+                channel.force(false);
+                manifest.save(target);
+                writeState(snapshot);
+            } catch (IOException e) {
+                Log.w(TAG, "保存下载进度失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 写入状态文件，每个分段为{start, end, position}
+     */
+    private void writeState(List<long[]> snapshot) throws IOException {
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(url);
+                out.writeLong(total);
+                out.writeInt(snapshot.size());
+                for (long[] segment : snapshot) {
+                    out.writeLong(segment[0]);
+                    out.writeLong(segment[1]);
+                    out.writeLong(segment[2]);
+                }
+            }
+            if (!tmp.renameTo(stateFile)) {
+                throw new IOException("无法替换状态文件: " + stateFile);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取上次保存的进度，URL、文件大小不符或分段不能完整覆盖文件时不使用
+     */
+    private boolean restore() {
+        if (!stateFile.exists() || partFile.length() != total) {
+            return false;
+        }
+        List<Segment> loaded = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !url.equals(in.readUTF()) || in.readLong() != total) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                loaded.add(new Segment(in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "读取下载进度失败: " + e.getMessage());
+            return false;
+        }
+
+        loaded.sort(Comparator.comparingLong(segment -> segment.start));
+        long expected = 0;
+        for (Segment segment : loaded) {
+            if (segment.start != expected || segment.position < segment.start || segment.position > segment.end) {
+                return false;
+            }
+            expected = segment.end;
+        }
+        if (expected != total) {
+            return false;
+        }
+        segments.addAll(loaded);
+        Log.d(TAG, "继续下载: " + target.getName());
+        return true;
+    }
+
+    private HttpURLConnection open() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    /**
+     * 从"bytes 0-0/12345"中取出文件大小，未知时返回-1
+     */
+    private static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return slash >= 0 ? Long.parseLong(contentRange.substring(slash + 1).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.also.vision.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.also.vision.model.DeviceFileTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 缩略图加载
+ * 以"设备序列号/文件名"为键，依次查找内存缓存(按字节数限制的LRU，保存缩小后的Bitmap)、
+ * 磁盘缓存(应用缓存目录下缩小后的JPEG，超过上限时删除最久未用的)，都没有时才向设备请求.thm文件(图片请求原图)。
+ * 磁盘缓存按设备分目录，序列号和文件名各自转换为单级的名称；还没有识别出设备时只使用内存缓存。
+ * <p>
+ * 向设备的请求最多MAX_FETCHES个同时进行：显示中的请求优先，最后请求的先处理；视图已经显示其他文件时丢弃；
+ * 其次是列表滚动方向上的预取，每次滚动后替换为新的范围。同一文件只请求一次，请求失败的文件在FAILURE_TTL内不再请求。
+ * <p>
+ * load和prefetch在主线程中调用，结果在主线程中设置到ImageView。
+ */
+public class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";
+
+    public static final int THUMBNAIL_SIZE = 256;                 // 缩小后长边的最大像素数
+    public static final int MAX_FETCHES = 2;                      // 同时向设备请求的最大数量
+
+    private static final int MAX_MEMORY_CACHE = 32 * 1024 * 1024;
+    private static final long MAX_DISK_CACHE = 64L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+    private static final long FAILURE_TTL = 60 * 1000;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+
+    private static volatile ThumbnailLoader instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> memory;
+    // 读取磁盘缓存和维护磁盘缓存大小
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Vision-Thumbnail-Disk");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService fetchExecutor = Executors.newFixedThreadPool(MAX_FETCHES, r -> {
+        Thread thread = new Thread(r, "Vision-Thumbnail");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private File cacheDir;
+    private long diskBytes = -1;
+
+    // 正在查找或请求的文件，用于合并同一文件的请求
+    private final Map<String, Request> requests = new HashMap<>();
+    // 等待请求设备的显示请求，最后加入的在队首
+    private final ArrayDeque<Request> visible = new ArrayDeque<>();
+    // 等待请求设备的预取
+    private final ArrayDeque<Request> prefetching = new ArrayDeque<>();
+    private final Map<String, Long> failures = new HashMap<>();
+    private int fetching = 0;
+
+    /**
+     * 等待缩略图的视图，用弱引用保存
+     */
+    private static class Target {
+        final WeakReference<ImageView> view;
+        final int error;
+
+        Target(ImageView view, int error) {
+            this.view = new WeakReference<>(view);
+            this.error = error;
+        }
+    }
+
+    /**
+     * 一个文件的加载
+     */
+    private static class Request {
+        final String key;
+        // 磁盘缓存文件，不使用磁盘缓存时为null
+        final File disk;
+        final String url;
+        final List<Target> targets = new ArrayList<>();
+        boolean prefetch;
+        boolean queued = false;
+
+        Request(String key, File disk, String url, boolean prefetch) {
+            this.key = key;
+            this.disk = disk;
+            this.url = url;
+            this.prefetch = prefetch;
+        }
+    }
+
+    private ThumbnailLoader() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        int size = (int) Math.min(MAX_MEMORY_CACHE, maxMemory / 8);
+        memory = new LruCache<String, Bitmap>(size) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    public static ThumbnailLoader getInstance() {
+        if (instance == null) {
+            synchronized (ThumbnailLoader.class) {
+                if (instance == null) {
+                    instance = new ThumbnailLoader();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 设置磁盘缓存目录，重复调用时只有第一次有效
+     */
+    public synchronized void init(Context context) {
+        if (cacheDir != null) {
+            return;
+        }
+        cacheDir = new File(context.getCacheDir(), "thumbnails");
+        diskExecutor.execute(this::trimDisk);
+    }
+
+    /**
+     * 为视图加载缩略图，内存中有时立即设置，否则先显示占位图
+     *
+     * @param serial      设备序列号
+     * @param fileName    设备上的文件名
+     * @param url         缩略图URL
+     * @param view        显示的视图，之后用于其他文件时不再设置
+     * @param placeholder 加载中显示的图片资源
+     * @param error       加载失败时显示的图片资源
+     */
+    public void load(String serial, String fileName, String url, ImageView view, int placeholder, int error) {
+        String key = keyOf(serial, fileName);
+        view.setTag(key);
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        boolean failed;
+        Request request;
+        synchronized (this) {
+            failed = hasFailed(key);
+            request = failed ? null : obtain(key, diskFile(serial, fileName), url, false);
+            if (request != null) {
+                request.targets.add(new Target(view, error));
+                if (request.queued && visible.peekFirst() != request) {
+                    // 重新显示的文件移到队首
+                    visible.remove(request);
+                    prefetching.remove(request);
+                    visible.addFirst(request);
+                }
+            }
+        }
+        view.setImageResource(failed ? error : placeholder);
+    }
+
+    /**
+     * 预取表中[from, to)的缩略图，替换上一次预取中还没有开始的部分
+     *
+     * @param serial 设备序列号
+     * @param table  文件列表
+     */
+    public synchronized void prefetch(String serial, DeviceFileTable table, int from, int to) {
+        for (Request request : prefetching) {
+            request.queued = false;
+            requests.remove(request.key);
+        }
+        prefetching.clear();
+        for (int i = Math.max(0, from); i < Math.min(to, table.size()); i++) {
+            String fileName = table.getName(i);
+            String key = keyOf(serial, fileName);
+            if (memory.get(key) == null && !hasFailed(key) && !requests.containsKey(key)) {
+                obtain(key, diskFile(serial, fileName), table.getThumbnailUrl(i), true);
+            }
+        }
+    }
+
+    /**
+     * 获取或创建文件的加载，新建时先在磁盘缓存中查找
+     */
+    private Request obtain(String key, File disk, String url, boolean prefetch) {
+        Request request = requests.get(key);
+        if (request != null) {
+            request.prefetch &= prefetch;
+            return request;
+        }
+        Request created = new Request(key, disk, url, prefetch);
+        requests.put(key, created);
+        diskExecutor.execute(() -> loadFromDisk(created));
+        return created;
+    }
+
+    private void loadFromDisk(Request request) {
+        File file = request.disk;
+        Bitmap bitmap = file != null && file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+        if (bitmap != null) {
+            // 用修改时间记录最近使用，清理时先删除最久未用的
+            file.setLastModified(System.currentTimeMillis());
+            deliver(request, bitmap);
+            return;
+        }
+        synchronized (this) {
+            if (requests.get(request.key) != request) {
+                return;
+            }
+            request.queued = true;
+            if (request.prefetch) {
+                prefetching.addLast(request);
+            } else {
+                visible.addFirst(request);
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * 在并发上限内开始请求设备
+     */
+    private void schedule() {
+        List<Request> toFetch = new ArrayList<>();
+        synchronized (this) {
+            while (fetching < MAX_FETCHES) {
+                Request request = next();
+                if (request == null) {
+                    break;
+                }
+                request.queued = false;
+                fetching++;
+                toFetch.add(request);
+            }
+        }
+        for (Request request : toFetch) {
+            fetchExecutor.execute(() -> fetch(request));
+        }
+    }
+
+    /**
+     * 取下一个请求，丢弃视图已经显示其他文件的显示请求
+     */
+    private Request next() {
+        while (!visible.isEmpty()) {
+            Request request = visible.pollFirst();
+            if (isWanted(request)) {
+                return request;
+            }
+            request.queued = false;
+            requests.remove(request.key);
+        }
+        return prefetching.pollFirst();
+    }
+
+    private boolean isWanted(Request request) {
+        for (Target target : request.targets) {
+            ImageView view = target.view.get();
+            if (view != null && request.key.equals(view.getTag())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void fetch(Request request) {
+        Bitmap bitmap = null;
+        try {
+            byte[] data = download(request.url);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                options.inSampleSize = sampleSize(options.outWidth, options.outHeight);
+                options.inJustDecodeBounds = false;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+            if (bitmap == null) {
+                throw new IOException("无法解码缩略图");
+            }
+            saveToDisk(request.disk, options.inSampleSize > 1 ? null : data, bitmap);
+        } catch (IOException e) {
+            Log.w(TAG, "加载缩略图失败: " + request.url + ", " + e.getMessage());
+            synchronized (this) {
+                failures.put(request.key, System.currentTimeMillis());
+            }
+        }
+        synchronized (this) {
+            fetching--;
+        }
+        deliver(request, bitmap);
+        schedule();
+    }
+
+    private byte[] download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("服务器返回错误: " + code);
+            }
+            long length = connection.getContentLengthLong();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 16 * 1024);
+            byte[] buffer = new byte[16 * 1024];
+            try (InputStream in = connection.getInputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            // 缩略图是界面正在等待的小文件，只计入带宽统计
+            BandwidthGovernor.getDefault().record(out.size());
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 长边缩小到不小于THUMBNAIL_SIZE的最大2的幂倍数
+     */
+    private static int sampleSize(int width, int height) {
+        int sample = 1;
+        while (Math.max(width, height) / (sample * 2) >= THUMBNAIL_SIZE) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * 写入磁盘缓存，没有缩小的文件(如.thm)直接保存原数据，否则保存缩小后的JPEG
+     *
+     * @param file 磁盘缓存文件，为null时不保存
+     * @param data 原数据，缩小过时为null
+     */
+    private void saveToDisk(File file, byte[] data, Bitmap bitmap) {
+        if (file == null) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                if (data != null) {
+                    out.write(data);
+                } else {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("无法替换缓存文件: " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "保存缩略图失败: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        long length = file.length();
+        diskExecutor.execute(() -> onDiskWritten(length));
+    }
+
+    /**
+     * 保存到内存缓存并设置到仍在等待这个文件的视图
+     */
+    private void deliver(Request request, Bitmap bitmap) {
+        if (bitmap != null) {
+            memory.put(request.key, bitmap);
+        }
+        List<Target> targets;
+        synchronized (this) {
+            if (requests.get(request.key) == request) {
+                requests.remove(request.key);
+            }
+            targets = new ArrayList<>(request.targets);
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            for (Target target : targets) {
+                ImageView view = target.view.get();
+                if (view == null || !request.key.equals(view.getTag())) {
+                    continue;
+                }
+                if (bitmap != null) {
+                    view.setImageBitmap(bitmap);
+                } else {
+                    view.setImageResource(target.error);
+                }
+            }
+        });
+    }
+
+    private boolean hasFailed(String key) {
+        Long failedAt = failures.get(key);
+        if (failedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - failedAt > FAILURE_TTL) {
+            failures.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    private static String keyOf(String serial, String fileName) {
+        return (serial != null && !serial.isEmpty() ? serial : "unknown") + "/" + fileName;
+    }
+
+    /**
+     * 获取磁盘缓存文件，还没有初始化或不知道设备序列号时返回null
+     */
+    private synchronized File diskFile(String serial, String fileName) {
+        if (cacheDir == null || serial == null || serial.isEmpty()) {
+            return null;
+        }
+        File dir = new File(cacheDir, DownloadQueue.safeName(serial));
+        return new File(dir, DownloadQueue.safeName(fileName) + ".jpg");
+    }
+
+    /**
+     * 在磁盘线程中累计缓存大小，超过上限时清理
+     */
+    private void onDiskWritten(long length) {
+        if (diskBytes < 0) {
+            trimDisk();
+            return;
+        }
+        diskBytes += length;
+        if (diskBytes > MAX_DISK_CACHE) {
+            trimDisk();
+        }
+    }
+
+    /**
+     * 统计磁盘缓存大小，超过上限时删除最久未用的文件直到上限的3/4
+     */
+    private void trimDisk() {
+        File dir;
+        synchronized (this) {
+            dir = cacheDir;
+        }
+        if (dir == null) {
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        File[] devices = dir.listFiles();
+        if (devices != null) {
+            for (File device : devices) {
+                File[] thumbnails = device.listFiles();
+                if (thumbnails != null) {
+                    files.addAll(Arrays.asList(thumbnails));
+                }
+            }
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total > MAX_DISK_CACHE) {
+            files.sort(Comparator.comparingLong(File::lastModified));
+            Iterator<File> iterator = files.iterator();
+            int deleted = 0;
+            while (total > MAX_DISK_CACHE * 3 / 4 && iterator.hasNext()) {
+                File file = iterator.next();
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                    deleted++;
+                }
+            }
+            Log.d(TAG, "清理缩略图缓存: 删除" + deleted + "个文件");
+        }
+        diskBytes = total;
+    }
+}
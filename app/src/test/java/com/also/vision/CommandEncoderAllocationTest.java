@@ -0,0 +1,87 @@
+package com.also.vision;
+
+import com.alibaba.fastjson.JSONObject;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandEncoder与JSONObject.toJSONString的每条命令分配字节数和耗时比较
+ * 分配字节数由HotSpot的线程分配计数得到，其他虚拟机上跳过。
+ */
+public class CommandEncoderAllocationTest {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    // 防止编码结果被优化掉
+    private static int sink;
+
+    /**
+     * 一种编码方式每条命令的分配字节数和耗时
+     */
+    private static class Cost {
+        final double bytes;
+        final double nanos;
+
+        Cost(double bytes, double nanos) {
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    private static Cost measure(String name, IntFunction<byte[]> encoder) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink += encoder.apply(i & 7).length;
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // token只在少数几个值之间变化，与实际会话中token长期不变相比更不利于模板
+            sink += encoder.apply(i / 1000 & 7).length;
+        }
+        long elapsed = System.nanoTime() - start;
+        Cost cost = new Cost((threads.getThreadAllocatedBytes(thread) - allocated) / (double) ITERATIONS,
+            elapsed / (double) ITERATIONS);
+        System.out.println(String.format(Locale.US, "%s: 每条%.1f字节, %.0fns", name, cost.bytes, cost.nanos));
+        return cost;
+    }
+
+    private static byte[] json(int token) {
+        JSONObject json = new JSONObject();
+        json.put("token", token);
+        json.put("msg_id", 1280);
+        json.put("param", "100");
+        json.put("type", "video");
+        return json.toJSONString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void encoderAllocatesOnlyTheResult() {
+        Cost json = measure("JSONObject.toJSONString", CommandEncoderAllocationTest::json);
+        Cost encoder = measure("CommandEncoder.encode",
+            token -> CommandEncoder.encode(token, 1280, "100", "video"));
+        CommandEncoder.Template template = new CommandEncoder.Template(Protocol.MSG_GET_APP_STATUS, "app_status");
+        Cost reused = measure("CommandEncoder.Template", template::encode);
+
+        // 结果{"token":3,"msg_id":1280,"param":"100","type":"video"}共50字节，加上数组头和对齐为72字节，
+        // 读取分配计数本身的少量分配摊到每条命令上不到1字节
+        assertTrue(encoder.bytes < 73);
+        assertTrue(encoder.bytes * 4 < json.bytes);
+        // token不变时复用上一次的结果，token每1000次才变化一次
+        assertTrue(reused.bytes < 1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.also.vision;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * CommandEncoder的编码结果测试
+ */
+public class CommandEncoderTest {
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void encodesTokenMsgIdAndFields() {
+        assertEquals("{\"token\":3,\"msg_id\":1280,\"param\":\"100\",\"type\":\"video\"}",
+            text(CommandEncoder.encode(3, 1280, "100", "video")));
+        assertEquals("{\"token\":3,\"msg_id\":769}", text(CommandEncoder.encode(3, 769, null, null)));
+    }
+
+    @Test
+    public void omitsTokenWhenNotSet() {
+        assertEquals("{\"msg_id\":257}", text(CommandEncoder.encode(CommandEncoder.NO_TOKEN, 257, null, null)));
+    }
+
+    @Test
+    public void writesIntegerFields() {
+        byte[] bytes = CommandEncoder.begin(0, 2)
+            .putInt("offset", -42)
+            .putInt("min", Integer.MIN_VALUE)
+            .putInt("max", Integer.MAX_VALUE)
+            .toBytes();
+        assertEquals("{\"token\":0,\"msg_id\":2,\"offset\":-42,\"min\":-2147483648,\"max\":2147483647}",
+            text(bytes));
+    }
+
+    @Test
+    public void escapesAndEncodesStrings() {
+        String value = "a\"b\\c\n日本😀";
+        byte[] bytes = CommandEncoder.encode(1, 2, value, null);
+        assertEquals("{\"token\":1,\"msg_id\":2,\"param\":\"a\\\"b\\\\c\\u000a日本😀\"}", text(bytes));
+    }
+
+    @Test
+    public void growsBufferForLongValues() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append('x');
+        }
+        String expected = "{\"token\":1,\"msg_id\":2,\"param\":\"" + value + "\"}";
+        assertEquals(expected, text(CommandEncoder.encode(1, 2, value.toString(), null)));
+        // 扩容后的编码器继续可用
+        assertEquals("{\"token\":1,\"msg_id\":2}", text(CommandEncoder.encode(1, 2, null, null)));
+    }
+
+    @Test
+    public void templateReusesBytesWhileTokenIsUnchanged() {
+        CommandEncoder.Template template = new CommandEncoder.Template(1, "app_status");
+        byte[] first = template.encode(5);
+        assertEquals("{\"token\":5,\"msg_id\":1,\"type\":\"app_status\"}", text(first));
+        assertSame(first, template.encode(5));
+
+        byte[] next = template.encode(12);
+        assertNotSame(first, next);
+        assertEquals("{\"token\":12,\"msg_id\":1,\"type\":\"app_status\"}", text(next));
+    }
+
+    @Test
+    public void templateWithoutToken() {
+        CommandEncoder.Template template = new CommandEncoder.Template(257, null, false);
+        assertEquals("{\"msg_id\":257}", text(template.encode(7)));
+    }
+
+    @Test
+    public void templateMatchesGeneralEncoder() {
+        CommandEncoder.Template template = new CommandEncoder.Template(1, "date_time");
+        assertEquals(text(CommandEncoder.encode(99, 1, null, "date_time")), text(template.encode(99)));
+    }
+}
@@ -0,0 +1,160 @@
+package com.also.vision;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandQueue的优先级、合并、容量和限流测试
+ * 第一个命令在发送时阻塞调度线程，其余命令在它之后入队，释放后按队列顺序发出。
+ */
+public class CommandQueueTest {
+    private static final long TIMEOUT = 5000;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch blocking = new CountDownLatch(1);
+    private final LinkedBlockingQueue<CommandQueue.Command> sent = new LinkedBlockingQueue<>();
+    private final List<Long> sentAt = new ArrayList<>();
+    private final List<CommandQueue.Command> dropped = new ArrayList<>();
+    private final List<CommandQueue.Command> coalesced = new ArrayList<>();
+
+    private final CommandQueue queue = new CommandQueue(command -> {
+        if (command.getMsgId() == 0) {
+            blocking.countDown();
+            try {
+                release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (sentAt) {
+            sentAt.add(System.currentTimeMillis());
+        }
+        sent.add(command);
+    }, new CommandQueue.Listener() {
+        @Override
+        public void onCoalesced(CommandQueue.Command replaced, CommandQueue.Command incoming) {
+            coalesced.add(replaced);
+        }
+
+        @Override
+        public void onDropped(CommandQueue.Command command) {
+            dropped.add(command);
+        }
+    });
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        queue.clear();
+    }
+
+    private static CommandQueue.Command command(int msgId, int priority, String coalesceKey) {
+        return new CommandQueue.Command(msgId, null, null, new byte[0], priority, coalesceKey,
+            String.valueOf(msgId) + "#" + System.nanoTime(), false);
+    }
+
+    /**
+     * 发送一个阻塞调度线程的命令，之后入队的命令都留在队列中
+     */
+    private void block() throws InterruptedException {
+        queue.enqueue(command(0, CommandQueue.PRIORITY_HIGH, null));
+        assertTrue(blocking.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    private List<Integer> drain(int count) throws InterruptedException {
+        release.countDown();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CommandQueue.Command command = sent.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull("命令没有发送", command);
+            if (command.getMsgId() != 0) {
+                ids.add(command.getMsgId());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void sendsHigherPriorityFirstThenInOrder() throws Exception {
+        block();
+        queue.enqueue(command(1, CommandQueue.PRIORITY_LOW, null));
+        queue.enqueue(command(2, CommandQueue.PRIORITY_NORMAL, null));
+        queue.enqueue(command(3, CommandQueue.PRIORITY_HIGH, null));
+        queue.enqueue(command(4, CommandQueue.PRIORITY_NORMAL, null));
+
+        assertEquals(List.of(3, 2, 4, 1), drain(5));
+    }
+
+    @Test
+    public void replacesQueuedCommandWithSameCoalesceKey() throws Exception {
+        block();
+        CommandQueue.Command first = command(1, CommandQueue.PRIORITY_HIGH, "sd_info");
+        CommandQueue.Command second = command(2, CommandQueue.PRIORITY_LOW, "sd_info");
+        queue.enqueue(command(3, CommandQueue.PRIORITY_NORMAL, null));
+        queue.enqueue(first);
+        queue.enqueue(second);
+
+        assertEquals(1, queue.getCoalescedCount());
+        assertSame(first, coalesced.get(0));
+        // 新命令继承原命令的优先级和位置
+        assertEquals(List.of(2, 3), drain(3));
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void dropsLowestAndOldestWhenFull() throws Exception {
+        block();
+        queue.enqueue(command(1, CommandQueue.PRIORITY_NORMAL, null));
+        queue.enqueue(command(2, CommandQueue.PRIORITY_LOW, null));
+        queue.enqueue(command(3, CommandQueue.PRIORITY_LOW, null));
+        for (int i = 4; i <= CommandQueue.MAX_QUEUE_SIZE + 1; i++) {
+            queue.enqueue(command(i, CommandQueue.PRIORITY_HIGH, null));
+        }
+
+        assertEquals(1, queue.getOverflowCount());
+        assertEquals(1, dropped.size());
+        assertEquals(2, dropped.get(0).getMsgId());
+        assertEquals(CommandQueue.MAX_QUEUE_SIZE, queue.size());
+    }
+
+    @Test
+    public void throttlesSameSendKey() throws Exception {
+        CommandQueue.Command first = new CommandQueue.Command(1, null, null, new byte[0],
+            CommandQueue.PRIORITY_NORMAL, null, "poll", false);
+        CommandQueue.Command second = new CommandQueue.Command(1, null, null, new byte[0],
+            CommandQueue.PRIORITY_NORMAL, null, "poll", false);
+        queue.enqueue(first);
+        queue.enqueue(second);
+
+        assertSame(first, sent.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertSame(second, sent.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        synchronized (sentAt) {
+            // 调度线程的计时精度留出少量余量
+            assertTrue(sentAt.get(1) - sentAt.get(0) >= CommandQueue.MIN_SEND_INTERVAL - 20);
+        }
+    }
+
+    @Test
+    public void clearDropsPendingCommands() throws Exception {
+        block();
+        queue.enqueue(command(1, CommandQueue.PRIORITY_NORMAL, null));
+        queue.enqueue(command(2, CommandQueue.PRIORITY_NORMAL, null));
+        queue.clear();
+
+        assertEquals(0, queue.size());
+        assertEquals(2, dropped.size());
+        assertEquals(List.of(), drain(1));
+    }
+}
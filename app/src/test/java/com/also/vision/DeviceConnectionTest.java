@@ -0,0 +1,86 @@
+package com.also.vision;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeviceConnection对本机TCP服务器的连接和断开测试
+ */
+public class DeviceConnectionTest {
+    private ServerSocket server;
+    private DeviceConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(5000);
+        connection = new DeviceConnection(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.disconnect();
+        server.close();
+    }
+
+    /**
+     * 读取对端发送的全部数据，直到连接关闭
+     */
+    private static String readAll(Socket socket) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Socket accept() throws Exception {
+        connection.connect();
+        Socket socket = server.accept();
+        socket.setSoTimeout(5000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!connection.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(connection.isConnected());
+        return socket;
+    }
+
+    @Test
+    public void endSessionIsWrittenBeforeClose() throws Exception {
+        MessageManager manager = new MessageManager(connection);
+        try (Socket socket = accept()) {
+            manager.disconnect();
+            String received = readAll(socket);
+            assertTrue(received, received.contains("\"msg_id\":" + MessageManager.MSG_END_SESSION));
+        }
+    }
+
+    @Test
+    public void lastMessageFollowsEarlierMessages() throws Exception {
+        try (Socket socket = accept()) {
+            connection.sendData("{\"msg_id\":1}".getBytes(StandardCharsets.UTF_8), 1);
+            // 等待聚合窗口写出前一条消息
+            Thread.sleep(50);
+            connection.disconnect("{\"msg_id\":258}".getBytes(StandardCharsets.UTF_8));
+            String received = readAll(socket);
+            assertTrue(received, received.startsWith("{\"msg_id\":1}"));
+            assertTrue(received, received.endsWith("{\"msg_id\":258}"));
+        }
+    }
+}
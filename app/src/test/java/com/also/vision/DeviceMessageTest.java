@@ -0,0 +1,91 @@
+package com.also.vision;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeviceMessage的顶层字段扫描测试
+ */
+public class DeviceMessageTest {
+
+    private static DeviceMessage message(String json) {
+        return new DeviceMessage(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsTopLevelFields() {
+        DeviceMessage message = message("{\"rval\":-21,\"msg_id\":1,\"type\":\"date_time\",\"param\":\"x\"}");
+        assertTrue(message.hasMsgId());
+        assertEquals(1, message.getMsgId());
+        assertEquals(-21, message.getResult());
+        assertEquals("date_time", message.getType());
+    }
+
+    @Test
+    public void missingFieldsHaveDefaults() {
+        DeviceMessage message = message("{\"listing\":[]}");
+        assertFalse(message.hasMsgId());
+        assertEquals(0, message.getMsgId());
+        assertEquals(0, message.getResult());
+        assertNull(message.getType());
+    }
+
+    @Test
+    public void ignoresNestedFields() {
+        DeviceMessage message = message("{\"listing\":[{\"msg_id\":9,\"type\":\"inner\",\"rval\":5}],"
+            + "\"msg_id\":1280,\"rval\":0}");
+        assertEquals(1280, message.getMsgId());
+        assertEquals(0, message.getResult());
+        assertNull(message.getType());
+    }
+
+    @Test
+    public void ignoresKeysInsideStringValues() {
+        DeviceMessage message = message("{\"name\":\"\\\"msg_id\\\":5,\\\"type\\\":\\\"x\",\"msg_id\":7,"
+            + "\"type\":\"SD_rm\"}");
+        assertEquals(7, message.getMsgId());
+        assertEquals("SD_rm", message.getType());
+    }
+
+    @Test
+    public void acceptsQuotedNumbersAndWhitespace() {
+        DeviceMessage message = message("{ \"msg_id\" : \"257\" ,\n\t\"rval\" :\r\n 0 }");
+        assertEquals(257, message.getMsgId());
+        assertEquals(0, message.getResult());
+    }
+
+    @Test
+    public void nonStringTypeIsIgnored() {
+        DeviceMessage message = message("{\"msg_id\":1,\"type\":3}");
+        assertEquals(1, message.getMsgId());
+        assertNull(message.getType());
+    }
+
+    @Test
+    public void readsUtf8Type() {
+        assertEquals("类型", message("{\"type\":\"类型\"}").getType());
+    }
+
+    @Test
+    public void paramOnlyWhenWholeNumber() {
+        assertEquals("100", message("{\"msg_id\":1280,\"param\":100}").getParam());
+        assertEquals("200", message("{\"msg_id\":1280,\"param\":\"200\"}").getParam());
+        assertNull(message("{\"msg_id\":2,\"param\":\"2024-01-01 00:00:00\"}").getParam());
+        assertNull(message("{\"msg_id\":2,\"param\":1.5}").getParam());
+        assertNull(message("{\"msg_id\":2,\"param\":\"on\"}").getParam());
+    }
+
+    @Test
+    public void textDecodesFrame() {
+        String json = "{\"msg_id\":7,\"type\":\"SD_insert\"}";
+        DeviceMessage message = message(json);
+        assertEquals(json, message.text());
+        assertEquals(json.length(), message.length());
+    }
+}
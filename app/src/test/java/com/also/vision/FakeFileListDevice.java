@@ -0,0 +1,117 @@
+package com.also.vision;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 只响应文件列表请求的模拟设备，不建立任何连接
+ * 响应在其他线程中完成，与真实设备一样异步到达。
+ */
+class FakeFileListDevice extends MessageManager {
+    private final List<String> names = new ArrayList<>();
+    // 每页最多返回的文件数
+    private volatile int pageCap = Integer.MAX_VALUE;
+    // 指定起始位置的页最多返回的文件数
+    private final Map<Integer, Integer> shortPages = new HashMap<>();
+    // 指定起始位置的页返回系统忙的剩余次数
+    private final Map<Integer, Integer> busyPages = new HashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    // 每个响应的延迟(毫秒)，模拟设备的往返时间
+    private volatile long latency = 0;
+
+    FakeFileListDevice() {
+        super(new DeviceConnection(new InetSocketAddress("127.0.0.1", 1)));
+    }
+
+    /**
+     * 生成count个按时间递增的视频文件名，从第start个开始
+     */
+    static List<String> videoNames(int start, int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            names.add(String.format("2024_0101_%02d%02d%02d_%04d.MP4", i / 3600 % 24, i / 60 % 60, i % 60, i));
+        }
+        return names;
+    }
+
+    synchronized void setFiles(List<String> files) {
+        names.clear();
+        names.addAll(files);
+    }
+
+    synchronized List<String> getFiles() {
+        return new ArrayList<>(names);
+    }
+
+    void setPageCap(int pageCap) {
+        this.pageCap = pageCap;
+    }
+
+    synchronized void setShortPage(int offset, int count) {
+        shortPages.put(offset, count);
+    }
+
+    synchronized void setBusy(int offset, int times) {
+        busyPages.put(offset, times);
+    }
+
+    void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * 完成响应的线程，有延迟时在延迟之后完成
+     */
+    private Executor replyExecutor() {
+        long delay = latency;
+        return delay > 0 ? CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS) : ForkJoinPool.commonPool();
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public CompletableFuture<JSONObject> requestFileList(String fileType, int offset, int count) {
+        requests.incrementAndGet();
+        JSONObject json = new JSONObject();
+        synchronized (this) {
+            Integer busy = busyPages.get(offset);
+            if (busy != null && busy > 0) {
+                busyPages.put(offset, busy - 1);
+                json.put("rval", Protocol.STATUS_SYSTEM_BUSY);
+                json.put("msg_id", Protocol.MSG_GET_FILE_LIST);
+                return CompletableFuture.supplyAsync(() -> json, replyExecutor());
+            }
+            int n = Math.min(Math.min(count, pageCap), Math.max(0, names.size() - offset));
+            Integer limit = shortPages.get(offset);
+            if (limit != null) {
+                n = Math.min(n, limit);
+            }
+            JSONArray listing = new JSONArray();
+            for (int i = offset; i < offset + n; i++) {
+                JSONObject item = new JSONObject();
+                item.put("name", names.get(i));
+                item.put("size", 1024L * (i + 1));
+                listing.add(item);
+            }
+            json.put("rval", 0);
+            json.put("msg_id", Protocol.MSG_GET_FILE_LIST);
+            json.put("totalFileNum", names.size());
+            json.put("param", offset);
+            json.put("listing", listing);
+        }
+        return CompletableFuture.supplyAsync(() -> json, replyExecutor());
+    }
+}
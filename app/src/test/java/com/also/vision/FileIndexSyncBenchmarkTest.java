@@ -0,0 +1,109 @@
+package com.also.vision;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 10000个文件时首次同步与增量同步的请求数和耗时比较
+ * 模拟设备每个响应延迟LATENCY毫秒，耗时主要由往返次数决定。
+ */
+public class FileIndexSyncBenchmarkTest {
+    private static final long TIMEOUT = 60_000;
+    private static final long LATENCY = 20;
+    private static final int FILES = 10_000;
+    private static final String TYPE = FileIndex.TYPE_VIDEO;
+
+    private File dir;
+    private FakeFileListDevice device;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("file-index-benchmark").toFile();
+        device = new FakeFileListDevice();
+        device.setLatency(LATENCY);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 一次同步的请求数和耗时
+     */
+    private static class Run {
+        final String name;
+        final int requests;
+        final long elapsedMs;
+
+        Run(String name, int requests, long elapsedMs) {
+            this.name = name;
+            this.requests = requests;
+            this.elapsedMs = elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d个请求, %dms", name, requests, elapsedMs);
+        }
+    }
+
+    /**
+     * 从保存的文件加载索引并同步，与应用重新启动后一样
+     */
+    private Run syncFromDisk(String name) throws Exception {
+        FileIndex index = FileIndex.loadAsync(dir, "SN0001").get(TIMEOUT, TimeUnit.MILLISECONDS);
+        FileIndexSync sync = new FileIndexSync(device, index);
+        int before = device.getRequests();
+        long start = System.nanoTime();
+        sync.sync(TYPE).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        index.save();
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < index.getTable(TYPE).size(); i++) {
+            names.add(index.getTable(TYPE).getName(i));
+        }
+        assertEquals(device.getFiles(), names);
+        Run run = new Run(name, device.getRequests() - before, elapsed);
+        System.out.println(run);
+        return run;
+    }
+
+    @Test
+    public void incrementalSyncOfTenThousandFiles() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, FILES));
+        Run cold = syncFromDisk("首次同步");
+
+        Run unchanged = syncFromDisk("没有变化");
+
+        // 循环录像删除最旧的10个文件，追加10个新文件
+        device.setFiles(FakeFileListDevice.videoNames(10, FILES));
+        Run loop = syncFromDisk("循环录像");
+
+        // 首次同步每页一个请求，第一页同时得到文件总数
+        assertEquals(FILES / FileListPager.PAGE_SIZE, cold.requests);
+        assertEquals(2, unchanged.requests);
+        assertEquals(2, loop.requests);
+        // 增量同步的耗时是两次往返，远少于首次同步
+        assertTrue(unchanged.elapsedMs * 5 < cold.elapsedMs);
+        assertTrue(loop.elapsedMs * 5 < cold.elapsedMs);
+    }
+}
@@ -0,0 +1,152 @@
+package com.also.vision;
+
+import com.also.vision.model.DeviceFileTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FileIndexSync的增量同步测试
+ * 每次同步后索引都应与设备列表完全一致，变化只在两端时只获取变化的部分。
+ */
+public class FileIndexSyncTest {
+    private static final long TIMEOUT = 10000;
+    private static final String TYPE = FileIndex.TYPE_VIDEO;
+
+    private File dir;
+    private FakeFileListDevice device;
+    private FileIndex index;
+    private FileIndexSync sync;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("file-index").toFile();
+        device = new FakeFileListDevice();
+        index = new FileIndex(dir, "SN0001");
+        sync = new FileIndexSync(device, index);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private boolean syncNow() throws Exception {
+        return sync.sync(TYPE).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<String> namesOf(DeviceFileTable table) {
+        List<String> names = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            names.add(table.getName(i));
+        }
+        return names;
+    }
+
+    private void assertIndexMatchesDevice() {
+        assertEquals(device.getFiles(), namesOf(index.getTable(TYPE)));
+        assertEquals(device.getFiles().size(), index.getTotal(TYPE));
+    }
+
+    @Test
+    public void firstSyncFetchesWholeListing() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+
+        assertTrue(syncNow());
+        assertTrue(index.isSynced(TYPE));
+        assertIndexMatchesDevice();
+    }
+
+    @Test
+    public void unchangedListingNeedsTwoRequests() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+        syncNow();
+        int before = device.getRequests();
+
+        assertFalse(syncNow());
+        assertIndexMatchesDevice();
+        assertEquals(2, device.getRequests() - before);
+    }
+
+    @Test
+    public void loopRecordingFetchesOnlyNewTail() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+        syncNow();
+        int before = device.getRequests();
+
+        // 循环录像删除最旧的3个文件，追加5个新文件
+        device.setFiles(FakeFileListDevice.videoNames(3, 539));
+
+        assertTrue(syncNow());
+        assertIndexMatchesDevice();
+        // 探测第一个文件，再从重合部分的最后一个文件起获取一页
+        assertEquals(2, device.getRequests() - before);
+    }
+
+    @Test
+    public void newFilesAtFrontAreMerged() throws Exception {
+        List<String> old = FakeFileListDevice.videoNames(0, 300);
+        device.setFiles(old);
+        syncNow();
+
+        // 新文件在前的列表
+        List<String> files = new ArrayList<>(FakeFileListDevice.videoNames(1000, 120));
+        files.addAll(old);
+        device.setFiles(files);
+
+        assertTrue(syncNow());
+        assertIndexMatchesDevice();
+    }
+
+    @Test
+    public void deletionInMiddleFallsBackToFullFetch() throws Exception {
+        List<String> files = FakeFileListDevice.videoNames(0, 250);
+        device.setFiles(files);
+        syncNow();
+
+        files.remove(120);
+        device.setFiles(files);
+
+        assertTrue(syncNow());
+        assertIndexMatchesDevice();
+    }
+
+    @Test
+    public void replacedCardIsFetchedAgain() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 150));
+        syncNow();
+
+        device.setFiles(FakeFileListDevice.videoNames(5000, 80));
+
+        assertTrue(syncNow());
+        assertIndexMatchesDevice();
+    }
+
+    @Test
+    public void emptiedCardClearsIndex() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 150));
+        syncNow();
+
+        device.setFiles(new ArrayList<>());
+
+        assertTrue(syncNow());
+        assertEquals(0, index.getTable(TYPE).size());
+    }
+}
@@ -0,0 +1,148 @@
+package com.also.vision;
+
+import com.also.vision.model.DeviceFile;
+import com.also.vision.model.DeviceFileTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FileIndex的保存和加载测试
+ */
+public class FileIndexTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("file-index").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static DeviceFileTable table(int type, String... names) {
+        DeviceFileTable table = new DeviceFileTable(DeviceFile.BASE_URL, names.length);
+        for (int i = 0; i < names.length; i++) {
+            table.add(names[i], 1000L * (i + 1), type);
+        }
+        return table;
+    }
+
+    private FileIndex load(String serial) throws Exception {
+        return FileIndex.loadAsync(dir, serial).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void savedIndexLoadsBack() throws Exception {
+        FileIndex index = new FileIndex(dir, "SN0001");
+        index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4", "b.MP4", "c.MP4"));
+        index.update(FileIndex.TYPE_PHOTO, table(DeviceFile.TYPE_PHOTO, "a.JPG"));
+        index.save();
+
+        FileIndex loaded = load("SN0001");
+        assertTrue(loaded.isSynced(FileIndex.TYPE_VIDEO));
+        assertEquals(index.getSyncedAt(FileIndex.TYPE_VIDEO), loaded.getSyncedAt(FileIndex.TYPE_VIDEO));
+        DeviceFileTable videos = loaded.getTable(FileIndex.TYPE_VIDEO);
+        assertEquals(3, videos.size());
+        assertEquals("b.MP4", videos.getName(1));
+        assertEquals(2000, videos.getSize(1));
+        assertEquals(DeviceFile.TYPE_VIDEO, videos.getType(1));
+        assertEquals(DeviceFile.TYPE_PHOTO, loaded.getTable(FileIndex.TYPE_PHOTO).getType(0));
+        assertFalse(loaded.isSynced(FileIndex.TYPE_EVENT_VIDEO));
+    }
+
+    @Test
+    public void updateReportsChangesOnly() {
+        FileIndex index = new FileIndex(dir, "SN0001");
+        assertTrue(index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4")));
+        assertFalse(index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4")));
+        assertTrue(index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4", "b.MP4")));
+    }
+
+    @Test
+    public void removeDeletesFileFromItsType() throws Exception {
+        FileIndex index = new FileIndex(dir, "SN0001");
+        index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4", "b.MP4", "c.MP4"));
+
+        assertTrue(index.remove("b.MP4"));
+        assertFalse(index.remove("b.MP4"));
+        DeviceFileTable videos = index.getTable(FileIndex.TYPE_VIDEO);
+        assertEquals(2, videos.size());
+        assertEquals("c.MP4", videos.getName(1));
+
+        index.save();
+        assertEquals(2, load("SN0001").getTotal(FileIndex.TYPE_VIDEO));
+    }
+
+    @Test
+    public void rangeIsCopiedAndClamped() {
+        FileIndex index = new FileIndex(dir, "SN0001");
+        index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4", "b.MP4", "c.MP4"));
+
+        DeviceFileTable page = index.getRange(FileIndex.TYPE_VIDEO, 1, 10);
+        assertEquals(2, page.size());
+        assertEquals("b.MP4", page.getName(0));
+        assertEquals(0, index.getRange(FileIndex.TYPE_VIDEO, 5, 10).size());
+    }
+
+    @Test
+    public void urlOverridesAreSaved() throws Exception {
+        DeviceFileTable files = new DeviceFileTable(DeviceFile.BASE_URL, 3);
+        files.add("a.JPG", 1, DeviceFile.TYPE_PHOTO);
+        files.add("b.JPG", 1, DeviceFile.TYPE_PHOTO, 0, null, "http://192.168.42.1/thumb/b.jpg");
+        files.add("c.JPG", 1, DeviceFile.TYPE_PHOTO, 0, "http://192.168.42.1/DCIM/EVENT/c.JPG", null);
+        FileIndex index = new FileIndex(dir, "SN0001");
+        index.update(FileIndex.TYPE_PHOTO, files);
+        index.save();
+
+        DeviceFileTable loaded = load("SN0001").getRange(FileIndex.TYPE_PHOTO, 1, 2);
+        assertEquals(2, loaded.getUrlOverrideCount());
+        assertEquals("http://192.168.42.1/thumb/b.jpg", loaded.getThumbnailUrl(0));
+        assertEquals("http://192.168.42.1/DCIM/EVENT/c.JPG", loaded.getFileUrl(1));
+        assertEquals("http://192.168.42.1/DCIM/EVENT/c.JPG", loaded.getThumbnailUrl(1));
+    }
+
+    @Test
+    public void corruptFileGivesEmptyIndex() throws Exception {
+        FileIndex index = new FileIndex(dir, "SN0001");
+        index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4", "b.MP4"));
+        index.save();
+
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        long length = files[0].length();
+        try (FileOutputStream out = new FileOutputStream(files[0], false)) {
+            out.write(new byte[(int) length / 2]);
+        }
+
+        assertFalse(load("SN0001").isSynced(FileIndex.TYPE_VIDEO));
+    }
+
+    @Test
+    public void serialsUseSeparateFiles() throws Exception {
+        FileIndex index = new FileIndex(dir, "SN0001");
+        index.update(FileIndex.TYPE_VIDEO, table(DeviceFile.TYPE_VIDEO, "a.MP4"));
+        index.save();
+
+        assertFalse(load("SN0002").isSynced(FileIndex.TYPE_VIDEO));
+        assertTrue(load("SN0001").isSynced(FileIndex.TYPE_VIDEO));
+    }
+}
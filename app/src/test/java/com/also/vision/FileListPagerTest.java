@@ -0,0 +1,102 @@
+package com.also.vision;
+
+import com.also.vision.model.DeviceFileTable;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FileListPager的流水线分页测试
+ */
+public class FileListPagerTest {
+    private static final long TIMEOUT = 10000;
+    private static final String TYPE = FileIndex.TYPE_VIDEO;
+
+    private final FakeFileListDevice device = new FakeFileListDevice();
+    private final FileListPager pager = new FileListPager(device);
+
+    private DeviceFileTable fetch(int from, int to) throws Exception {
+        return pager.fetchRange(TYPE, from, to).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<String> namesOf(DeviceFileTable table) {
+        List<String> names = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            names.add(table.getName(i));
+        }
+        return names;
+    }
+
+    @Test
+    public void fetchesWholeListingInOrder() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+
+        DeviceFileTable files = fetch(0, Integer.MAX_VALUE);
+        assertEquals(device.getFiles(), namesOf(files));
+        assertEquals(6, device.getRequests());
+    }
+
+    @Test
+    public void fetchesSubRange() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+
+        assertEquals(device.getFiles().subList(150, 420), namesOf(fetch(150, 420)));
+    }
+
+    @Test
+    public void emptyListing() throws Exception {
+        assertEquals(0, fetch(0, Integer.MAX_VALUE).size());
+        assertEquals(1, device.getRequests());
+    }
+
+    @Test
+    public void keepsPagingWhenDeviceCapsPageSize() throws Exception {
+        // 设备每页最多返回40个，中间还有一页只返回7个
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+        device.setPageCap(40);
+        device.setShortPage(200, 7);
+
+        assertEquals(device.getFiles(), namesOf(fetch(0, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void stopsAtEmptyPage() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 300));
+        device.setShortPage(100, 0);
+
+        assertEquals(device.getFiles().subList(0, 100), namesOf(fetch(0, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void retriesBusyPageAndShrinksWindow() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+        device.setBusy(300, 2);
+        int window = pager.getWindow();
+
+        assertEquals(device.getFiles(), namesOf(fetch(0, Integer.MAX_VALUE)));
+        assertEquals(2, pager.getCongestionCount());
+        assertTrue(pager.getWindow() < window);
+    }
+
+    @Test
+    public void failsWhenBusyTooOften() throws Exception {
+        device.setFiles(FakeFileListDevice.videoNames(0, 537));
+        device.setBusy(300, 100);
+
+        try {
+            fetch(0, Integer.MAX_VALUE);
+            fail("设备一直忙时应失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.also.vision;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.also.vision.model.DeviceFileTable;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 文件列表响应经过MessageManager的消息处理和RequestTracker匹配的测试
+ * 设备的响应以原始JSON帧交给processFrame，与从连接收到的消息走同一条路径。
+ */
+public class FileListReplyRoutingTest {
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * 不建立连接的设备：按发出的命令生成响应帧，在其他线程中交给MessageManager
+     */
+    private static class ScriptedConnection extends DeviceConnection {
+        private final ExecutorService replies = Executors.newSingleThreadExecutor();
+        private final List<String> names = FakeFileListDevice.videoNames(0, 537);
+        // 返回系统忙的页的起始位置和剩余次数
+        private final int busyOffset;
+        private final AtomicInteger busyTimes;
+        private volatile MessageManager manager;
+
+        ScriptedConnection(int busyOffset, int busyTimes) {
+            super(new InetSocketAddress("127.0.0.1", 1));
+            this.busyOffset = busyOffset;
+            this.busyTimes = new AtomicInteger(busyTimes);
+        }
+
+        @Override
+        public void sendData(byte[] data, int msgId) {
+            JSONObject command = JSON.parseObject(new String(data, StandardCharsets.UTF_8));
+            // 获取所有参数不带param，这里不响应，留给测试检查它没有被其他响应取走
+            if (msgId != Protocol.MSG_GET_FILE_LIST || !command.containsKey("param")) {
+                return;
+            }
+            int offset = command.getIntValue("param");
+            JSONObject reply = new JSONObject();
+            reply.put("msg_id", Protocol.MSG_GET_FILE_LIST);
+            if (offset == busyOffset && busyTimes.getAndDecrement() > 0) {
+                // 设备忙时的响应既不带param也不带type
+                reply.put("rval", Protocol.STATUS_SYSTEM_BUSY);
+            } else {
+                int count = Math.max(0, Math.min(command.getIntValue("pageSize"), names.size() - offset));
+                JSONArray listing = new JSONArray();
+                for (int i = offset; i < offset + count; i++) {
+                    JSONObject item = new JSONObject();
+                    item.put("name", names.get(i));
+                    item.put("size", 1024L * (i + 1));
+                    listing.add(item);
+                }
+                reply.put("rval", 0);
+                reply.put("totalFileNum", names.size());
+                reply.put("param", offset);
+                reply.put("listing", listing);
+            }
+            byte[] frame = reply.toJSONString().getBytes(StandardCharsets.UTF_8);
+            replies.execute(() -> manager.processFrame(frame));
+        }
+    }
+
+    @Test
+    public void busyReplyWithoutParamGoesToFileListPage() throws Exception {
+        ScriptedConnection connection = new ScriptedConnection(200, 1);
+        MessageManager manager = new MessageManager(connection);
+        connection.manager = manager;
+        FileListPager pager = new FileListPager(manager);
+
+        // 获取所有参数与文件列表共用msg_id，等待中的请求不能被文件列表的错误响应取走
+        CompletableFuture<JSONObject> allParams =
+            manager.request(MessageManager.MSG_GET_ALL_PARAMS, null, null, TIMEOUT);
+        DeviceFileTable files = pager.fetchRange(FileIndex.TYPE_VIDEO, 0, Integer.MAX_VALUE)
+            .get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertEquals(537, files.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(connection.names.get(i), files.getName(i));
+        }
+        assertEquals(1, pager.getCongestionCount());
+        assertFalse(allParams.isDone());
+
+        JSONObject params = new JSONObject();
+        params.put("msg_id", MessageManager.MSG_GET_ALL_PARAMS);
+        params.put("rval", 0);
+        manager.processFrame(params.toJSONString().getBytes(StandardCharsets.UTF_8));
+        assertTrue(allParams.isDone());
+        assertEquals(0, allParams.get().getIntValue("rval"));
+    }
+}
@@ -0,0 +1,135 @@
+package com.also.vision;
+
+import com.also.vision.model.DeviceFile;
+import com.also.vision.model.DeviceFileTable;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FileTimeIndex的排序和查询测试，随机顺序的结果与逐个比较的结果对照
+ */
+public class FileTimeIndexTest {
+    private static final long MINUTE = 60_000;
+
+    /**
+     * 按给定的时间(分钟)建表，时间为0的文件没有时间
+     */
+    private static DeviceFileTable table(long... minutes) {
+        DeviceFileTable table = new DeviceFileTable(DeviceFile.BASE_URL, minutes.length);
+        for (int i = 0; i < minutes.length; i++) {
+            table.add("FILE" + i + ".MP4", i, DeviceFile.TYPE_VIDEO, minutes[i] * MINUTE);
+        }
+        return table;
+    }
+
+    private static List<String> names(DeviceFileTable table) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < table.size(); i++) {
+            names.add(table.getName(i));
+        }
+        return names;
+    }
+
+    @Test
+    public void ascendingListing() {
+        FileTimeIndex index = new FileTimeIndex(table(1, 2, 3, 4));
+        assertEquals(4, index.size());
+        assertEquals(MINUTE, index.getEarliestTime());
+        assertEquals(4 * MINUTE, index.getLatestTime());
+        assertEquals(List.of("FILE1.MP4", "FILE2.MP4"), names(index.range(2 * MINUTE, 3 * MINUTE)));
+    }
+
+    @Test
+    public void descendingListing() {
+        FileTimeIndex index = new FileTimeIndex(table(4, 3, 2, 1));
+        assertEquals(List.of("FILE3.MP4", "FILE2.MP4", "FILE1.MP4", "FILE0.MP4"),
+            names(index.range(0, Long.MAX_VALUE)));
+        assertEquals(List.of("FILE0.MP4", "FILE1.MP4"), names(index.latest(2)));
+    }
+
+    @Test
+    public void filesWithoutTimeAreLeftOut() {
+        FileTimeIndex index = new FileTimeIndex(table(5, 0, 3, 0));
+        assertEquals(2, index.size());
+        assertEquals(List.of("FILE2.MP4", "FILE0.MP4"), names(index.range(0, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void equalTimesKeepTableOrder() {
+        FileTimeIndex index = new FileTimeIndex(table(2, 1, 2, 1));
+        assertEquals(List.of("FILE1.MP4", "FILE3.MP4", "FILE0.MP4", "FILE2.MP4"),
+            names(index.range(0, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void nearestPrefersEarlierOnTie() {
+        FileTimeIndex index = new FileTimeIndex(table(10, 20, 30));
+        assertEquals(0, index.nearest(0));
+        assertEquals(0, index.nearest(15 * MINUTE));
+        assertEquals(1, index.nearest(15 * MINUTE + 1));
+        assertEquals(2, index.nearest(100 * MINUTE));
+    }
+
+    @Test
+    public void emptyIndex() {
+        FileTimeIndex index = new FileTimeIndex(table(0, 0));
+        assertEquals(0, index.size());
+        assertEquals(0, index.getEarliestTime());
+        assertEquals(-1, index.nearest(MINUTE));
+        assertEquals(0, index.range(0, Long.MAX_VALUE).size());
+        assertEquals(0, index.latest(5).size());
+    }
+
+    @Test
+    public void shuffledListingMatchesLinearScan() {
+        Random random = new Random(42);
+        long[] minutes = new long[2000];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(500);
+        }
+        DeviceFileTable table = table(minutes);
+        FileTimeIndex index = new FileTimeIndex(table);
+
+        for (int query = 0; query < 200; query++) {
+            long from = random.nextInt(520) * MINUTE;
+            long to = from + random.nextInt(100) * MINUTE;
+
+            // 逐个比较得到的结果：按时间排序，时间相同时按表中的顺序
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < minutes.length; i++) {
+                if (minutes[i] != 0 && minutes[i] * MINUTE >= from && minutes[i] * MINUTE <= to) {
+                    expected.add(i);
+                }
+            }
+            expected.sort((a, b) -> Long.compare(minutes[a], minutes[b]));
+            List<String> expectedNames = new ArrayList<>();
+            for (int i : expected) {
+                expectedNames.add(table.getName(i));
+            }
+            assertEquals(expectedNames, names(index.range(from, to)));
+
+            int nearest = index.nearest(from);
+            long best = Long.MAX_VALUE;
+            for (long m : minutes) {
+                if (m != 0) {
+                    best = Math.min(best, Math.abs(m * MINUTE - from));
+                }
+            }
+            assertEquals(best, Math.abs(table.getTime(nearest) - from));
+        }
+
+        DeviceFileTable latest = index.latest(10);
+        assertEquals(10, latest.size());
+        for (int i = 1; i < latest.size(); i++) {
+            assertTrue(latest.getTime(i - 1) >= latest.getTime(i));
+        }
+        assertEquals(index.getLatestTime(), latest.getTime(0));
+    }
+}
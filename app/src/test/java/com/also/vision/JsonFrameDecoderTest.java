@@ -0,0 +1,109 @@
+package com.also.vision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JsonFrameDecoder的切分测试
+ */
+public class JsonFrameDecoderTest {
+
+    private final List<String> frames = new ArrayList<>();
+    private final JsonFrameDecoder.FrameListener listener =
+        frame -> frames.add(new String(frame, StandardCharsets.UTF_8));
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void splitsSeveralFramesInOneRead() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder();
+        decoder.decode(bytes("{\"msg_id\":257,\"rval\":0}{\"msg_id\":7,\"type\":\"SD_rm\"}\n"), listener);
+
+        assertEquals(2, frames.size());
+        assertEquals("{\"msg_id\":257,\"rval\":0}", frames.get(0));
+        assertEquals("{\"msg_id\":7,\"type\":\"SD_rm\"}", frames.get(1));
+    }
+
+    @Test
+    public void joinsFrameSplitAcrossReads() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder();
+        String message = "{\"msg_id\":1280,\"listing\":[{\"name\":\"a.MP4\"},{\"name\":\"b.MP4\"}]}";
+        // 逐字节送入，每次都可能停在帧的中间
+        for (int i = 0; i < message.length(); i++) {
+            decoder.decode(bytes(message.substring(i, i + 1)), listener);
+            assertEquals(i == message.length() - 1 ? 1 : 0, frames.size());
+        }
+        assertEquals(message, frames.get(0));
+    }
+
+    @Test
+    public void ignoresBracesInsideStrings() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder();
+        String message = "{\"param\":\"}{[\\\"}\",\"rval\":0}";
+        decoder.decode(bytes(message + "{\"rval\":1}"), listener);
+
+        assertEquals(2, frames.size());
+        assertEquals(message, frames.get(0));
+        assertEquals("{\"rval\":1}", frames.get(1));
+    }
+
+    @Test
+    public void skipsBytesBetweenFrames() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder();
+        decoder.decode(bytes(" \r\n garbage {\"rval\":0} \n{\"rval\":1}"), listener);
+
+        assertEquals(2, frames.size());
+        assertEquals("{\"rval\":0}", frames.get(0));
+    }
+
+    @Test
+    public void growsBufferForLargeFrame() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder(16, JsonFrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+        StringBuilder message = new StringBuilder("{\"listing\":[");
+        for (int i = 0; i < 500; i++) {
+            message.append(i > 0 ? "," : "").append("{\"name\":\"2024_0101_120000_").append(i).append(".MP4\"}");
+        }
+        message.append("]}");
+        decoder.decode(bytes(message.toString()), listener);
+
+        assertEquals(1, frames.size());
+        assertEquals(message.toString(), frames.get(0));
+    }
+
+    @Test
+    public void dropsOversizedFrameAndResynchronizes() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder(16, 32);
+        StringBuilder oversized = new StringBuilder("{\"data\":\"");
+        for (int i = 0; i < 100; i++) {
+            oversized.append("{x}");
+        }
+        oversized.append("\"}");
+
+        // 超长帧分两次到达，结束后的帧正常输出
+        String text = oversized + "{\"rval\":0}";
+        decoder.decode(bytes(text.substring(0, 50)), listener);
+        decoder.decode(bytes(text.substring(50)), listener);
+
+        assertEquals(1, frames.size());
+        assertEquals("{\"rval\":0}", frames.get(0));
+    }
+
+    @Test
+    public void resetDiscardsPartialFrame() {
+        JsonFrameDecoder decoder = new JsonFrameDecoder();
+        decoder.decode(bytes("{\"msg_id\":257,\"param\":\"{"), listener);
+        decoder.reset();
+        decoder.decode(bytes("{\"rval\":0}"), listener);
+
+        assertEquals(1, frames.size());
+        assertEquals("{\"rval\":0}", frames.get(0));
+    }
+}
@@ -0,0 +1,213 @@
+package com.also.vision;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * NioReactor的任务、定时器和多通道测试，通道用Pipe代替设备连接
+ */
+public class NioReactorTest {
+    private NioReactor reactor;
+    private final List<Pipe> pipes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        reactor = new NioReactor("Test-Reactor");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Pipe pipe : pipes) {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    /**
+     * 在事件循环线程中执行并等待完成
+     */
+    private void runInLoop(Runnable task) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        reactor.execute(() -> {
+            task.run();
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 打开一个Pipe，读端注册到事件循环
+     */
+    private Pipe openPipe(NioReactor.ChannelHandler handler) throws Exception {
+        Pipe pipe = Pipe.open();
+        pipes.add(pipe);
+        pipe.source().configureBlocking(false);
+        runInLoop(() -> {
+            try {
+                reactor.register(pipe.source(), SelectionKey.OP_READ, handler);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return pipe;
+    }
+
+    private static void write(Pipe pipe, String text) throws IOException {
+        pipe.sink().write(ByteBuffer.wrap(text.getBytes()));
+    }
+
+    /**
+     * 把读到的内容按通道记录的处理器
+     */
+    private static class Recorder implements NioReactor.ChannelHandler {
+        final StringBuilder received = new StringBuilder();
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        final CountDownLatch ready;
+
+        Recorder(int expected) {
+            ready = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            threads.add(Thread.currentThread());
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            int n = ((Pipe.SourceChannel) key.channel()).read(buffer);
+            synchronized (received) {
+                received.append(new String(buffer.array(), 0, Math.max(0, n)));
+            }
+            for (int i = 0; i < n; i++) {
+                ready.countDown();
+            }
+        }
+
+        @Override
+        public void onError(IOException e) {
+        }
+
+        String get() {
+            synchronized (received) {
+                return received.toString();
+            }
+        }
+    }
+
+    @Test
+    public void tasksRunInOrderOnLoopThread() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        Set<Boolean> inLoop = Collections.synchronizedSet(new HashSet<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            reactor.execute(() -> {
+                order.add(value);
+                threads.add(Thread.currentThread());
+                inLoop.add(reactor.inEventLoop());
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Set.of(true), inLoop);
+        assertFalse(reactor.inEventLoop());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(1, threads.size());
+        assertEquals("Test-Reactor", threads.iterator().next().getName());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopLoop() throws Exception {
+        reactor.execute(() -> {
+            throw new IllegalStateException("测试异常");
+        });
+        runInLoop(() -> { });
+    }
+
+    @Test
+    public void timersRunByDeadlineAndCanBeCancelled() throws Exception {
+        List<String> fired = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+        runInLoop(() -> {
+            reactor.schedule(() -> {
+                fired.add("late");
+                done.countDown();
+            }, 80);
+            reactor.schedule(() -> fired.add("cancelled"), 40).cancel();
+            reactor.schedule(() -> {
+                fired.add("early");
+                done.countDown();
+            }, 20);
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(List.of("early", "late"), fired);
+    }
+
+    @Test
+    public void oneThreadServesManyChannels() throws Exception {
+        List<Recorder> recorders = new ArrayList<>();
+        List<Pipe> opened = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Recorder recorder = new Recorder(2);
+            recorders.add(recorder);
+            opened.add(openPipe(recorder));
+        }
+        assertEquals(8, reactor.getChannelCount());
+
+        for (int i = 0; i < 8; i++) {
+            write(opened.get(i), "d" + i);
+        }
+        Set<Thread> threads = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            Recorder recorder = recorders.get(i);
+            assertTrue(recorder.ready.await(5, TimeUnit.SECONDS));
+            assertEquals("d" + i, recorder.get());
+            threads.addAll(recorder.threads);
+        }
+        assertEquals(1, threads.size());
+    }
+
+    @Test
+    public void failingHandlerDoesNotAffectOthers() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        Pipe broken = openPipe(new NioReactor.ChannelHandler() {
+            @Override
+            public void onReady(SelectionKey key) {
+                key.cancel();
+                throw new IllegalStateException("测试异常");
+            }
+
+            @Override
+            public void onError(IOException e) {
+                failed.countDown();
+            }
+        });
+        Recorder recorder = new Recorder(2);
+        Pipe healthy = openPipe(recorder);
+
+        write(broken, "xx");
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        write(healthy, "ok");
+        assertTrue(recorder.ready.await(5, TimeUnit.SECONDS));
+        assertEquals("ok", recorder.get());
+    }
+}
@@ -0,0 +1,207 @@
+package com.also.vision;
+
+import com.alibaba.fastjson.JSONObject;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * RequestTracker的请求响应匹配测试
+ */
+public class RequestTrackerTest {
+    private static final long TIMEOUT = 5000;
+
+    private final RequestTracker tracker = new RequestTracker();
+
+    private static JSONObject reply(int rval) {
+        JSONObject json = new JSONObject();
+        json.put("rval", rval);
+        return json;
+    }
+
+    private static Throwable causeOf(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            fail("请求没有结束");
+        }
+        fail("请求没有失败");
+        return null;
+    }
+
+    @Test
+    public void matchesRepliesInSendOrder() throws Exception {
+        CompletableFuture<JSONObject> first = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, TIMEOUT);
+        CompletableFuture<JSONObject> second = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, TIMEOUT);
+        JSONObject a = reply(0);
+        JSONObject b = reply(1);
+
+        assertTrue(tracker.complete(Protocol.MSG_TAKE_PHOTO, null, null, () -> a));
+        assertTrue(tracker.complete(Protocol.MSG_TAKE_PHOTO, null, null, () -> b));
+
+        assertSame(a, first.get());
+        assertSame(b, second.get());
+        assertEquals(0, tracker.getPendingCount());
+        assertEquals(2, tracker.getCompletedCount());
+    }
+
+    @Test
+    public void appStatusIsMatchedByType() throws Exception {
+        int msgId = Protocol.MSG_GET_APP_STATUS;
+        CompletableFuture<JSONObject> record = tracker.register(msgId, "app_status", null, TIMEOUT);
+        CompletableFuture<JSONObject> dateTime = tracker.register(msgId, "date_time", null, TIMEOUT);
+        JSONObject time = reply(0);
+
+        // 后发送的请求先响应，按type匹配到对应的请求
+        assertTrue(tracker.complete(msgId, "date_time", null, () -> time));
+        assertSame(time, dateTime.get());
+        assertFalse(record.isDone());
+
+        // 没有type的响应匹配最早的一个
+        JSONObject status = reply(0);
+        assertTrue(tracker.complete(msgId, null, null, () -> status));
+        assertSame(status, record.get());
+    }
+
+    @Test
+    public void unmatchedReplyIsCounted() {
+        assertFalse(tracker.complete(Protocol.MSG_TAKE_PHOTO, null, null, () -> reply(0)));
+        assertEquals(1, tracker.getUnmatchedResponseCount());
+        assertEquals(0, tracker.getLateResponseCount());
+    }
+
+    @Test
+    public void timeoutFailsRequestAndCountsLateReply() throws Exception {
+        CompletableFuture<JSONObject> future = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, 50);
+
+        assertTrue(causeOf(future) instanceof TimeoutException);
+        assertEquals(1, tracker.getTimeoutCount());
+        assertEquals(0, tracker.getPendingCount());
+
+        assertFalse(tracker.complete(Protocol.MSG_TAKE_PHOTO, null, null, () -> reply(0)));
+        assertEquals(1, tracker.getLateResponseCount());
+        assertEquals(0, tracker.getUnmatchedResponseCount());
+    }
+
+    @Test
+    public void coalescedRequestsShareOneReply() throws Exception {
+        CompletableFuture<JSONObject> first = tracker.register(Protocol.MSG_GET_SD_INFO, null, null, TIMEOUT);
+        CompletableFuture<JSONObject> second = tracker.register(Protocol.MSG_GET_SD_INFO, null, null, TIMEOUT);
+        tracker.coalesce(Protocol.MSG_GET_SD_INFO, null, null);
+        assertEquals(1, tracker.getPendingCount());
+
+        JSONObject json = reply(0);
+        assertTrue(tracker.complete(Protocol.MSG_GET_SD_INFO, null, null, () -> json));
+        assertSame(json, first.get());
+        assertSame(json, second.get());
+    }
+
+    @Test
+    public void failNewestLeavesOlderRequestWaiting() throws Exception {
+        CompletableFuture<JSONObject> first = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, TIMEOUT);
+        CompletableFuture<JSONObject> second = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, TIMEOUT);
+        tracker.failNewest(Protocol.MSG_TAKE_PHOTO, null, null, new RejectedExecutionException());
+
+        assertTrue(causeOf(second) instanceof RejectedExecutionException);
+        assertFalse(first.isDone());
+        assertEquals(1, tracker.getPendingCount());
+    }
+
+    @Test
+    public void failAllFailsEveryPendingRequest() throws Exception {
+        CompletableFuture<JSONObject> photo = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, TIMEOUT);
+        CompletableFuture<JSONObject> status = tracker.register(Protocol.MSG_GET_APP_STATUS, "app_status", null, TIMEOUT);
+        IllegalStateException cause = new IllegalStateException("连接断开");
+        tracker.failAll(cause);
+
+        assertSame(cause, causeOf(photo));
+        assertSame(cause, causeOf(status));
+        assertEquals(0, tracker.getPendingCount());
+    }
+
+    @Test
+    public void bodyFailureFailsRequest() throws Exception {
+        CompletableFuture<JSONObject> future = tracker.register(Protocol.MSG_TAKE_PHOTO, null, null, TIMEOUT);
+        assertTrue(tracker.complete(Protocol.MSG_TAKE_PHOTO, null, null, () -> {
+            throw new IllegalArgumentException("无法解析");
+        }));
+        assertTrue(causeOf(future) instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void allParamsAndFileListDoNotTakeEachOthersReplies() throws Exception {
+        int msgId = Protocol.MSG_GET_FILE_LIST;
+        CompletableFuture<JSONObject> params = tracker.register(msgId, null, null, TIMEOUT);
+        CompletableFuture<JSONObject> page = tracker.register(msgId, "video", "0", TIMEOUT);
+
+        // 文件列表的响应先到达，不会完成获取所有参数的请求
+        JSONObject listing = reply(0);
+        assertTrue(tracker.complete(msgId, "video", "0", () -> listing));
+        assertSame(listing, page.get());
+        assertFalse(params.isDone());
+
+        JSONObject all = reply(0);
+        assertTrue(tracker.complete(msgId, null, null, () -> all));
+        assertSame(all, params.get());
+    }
+
+    @Test
+    public void fileListPagesAreMatchedByOffset() throws Exception {
+        int msgId = Protocol.MSG_GET_FILE_LIST;
+        CompletableFuture<JSONObject> first = tracker.register(msgId, "video", "0", TIMEOUT);
+        CompletableFuture<JSONObject> second = tracker.register(msgId, "video", "100", TIMEOUT);
+        CompletableFuture<JSONObject> photo = tracker.register(msgId, "photo", "100", TIMEOUT);
+
+        // 没有type的响应按起始位置匹配最早的请求
+        JSONObject json = reply(0);
+        assertTrue(tracker.complete(msgId, null, "100", () -> json));
+        assertSame(json, second.get());
+        assertFalse(first.isDone());
+        assertFalse(photo.isDone());
+
+        // 起始位置不符的响应不匹配
+        assertFalse(tracker.complete(msgId, "video", "200", () -> reply(0)));
+        assertEquals(2, tracker.getPendingCount());
+    }
+
+    @Test
+    public void fileListErrorWithoutParamGoesToOldestPage() throws Exception {
+        int msgId = Protocol.MSG_GET_FILE_LIST;
+        CompletableFuture<JSONObject> params = tracker.register(msgId, null, null, TIMEOUT);
+        CompletableFuture<JSONObject> first = tracker.register(msgId, "video", "0", TIMEOUT);
+        CompletableFuture<JSONObject> second = tracker.register(msgId, "video", "100", TIMEOUT);
+
+        // 系统忙的响应不带param，交给最早的文件列表请求而不是获取所有参数
+        JSONObject busy = reply(Protocol.STATUS_SYSTEM_BUSY);
+        assertTrue(tracker.complete(msgId, Protocol.STATUS_SYSTEM_BUSY, null, null, () -> busy));
+        assertSame(busy, first.get());
+        assertFalse(second.isDone());
+        assertFalse(params.isDone());
+
+        // 成功的响应不带param时仍是获取所有参数的响应
+        JSONObject all = reply(0);
+        assertTrue(tracker.complete(msgId, 0, null, null, () -> all));
+        assertSame(all, params.get());
+        assertFalse(second.isDone());
+
+        // 没有文件列表请求时错误响应交给获取所有参数
+        CompletableFuture<JSONObject> retry = tracker.register(msgId, null, null, TIMEOUT);
+        assertTrue(tracker.complete(msgId, 0, "video", "100", () -> reply(0)));
+        JSONObject failed = reply(Protocol.STATUS_SYSTEM_BUSY);
+        assertTrue(tracker.complete(msgId, Protocol.STATUS_SYSTEM_BUSY, null, null, () -> failed));
+        assertSame(failed, retry.get());
+    }
+}
@@ -0,0 +1,231 @@
+package com.also.vision;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多个设备会话共用一个事件循环的负载测试
+ * 每个会话是一个DeviceConnection，连接到各自的本机回显服务器，收到响应后立即发送下一条消息，
+ * 分别用1、8、64个会话测量每个会话的往返时间和每秒往返次数。
+ */
+public class SessionLoadTest {
+    private static final int ROUNDS = 100;
+    private static final long TIMEOUT = 60_000;
+
+    private final NioReactor reactor = new NioReactor("Load-Reactor");
+    private final List<EchoServer> servers = new ArrayList<>();
+    private final List<Session> sessions = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (Session session : sessions) {
+            session.disconnect();
+        }
+        for (EchoServer server : servers) {
+            server.close();
+        }
+    }
+
+    /**
+     * 把收到的字节原样发回的服务器，每个连接一个线程
+     */
+    private static class EchoServer implements AutoCloseable {
+        private final ServerSocket server;
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+
+        EchoServer() throws IOException {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this::accept, "Echo-" + server.getLocalPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    sockets.add(socket);
+                    Thread thread = new Thread(() -> echo(socket), "Echo-Connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // 服务器已关闭
+            }
+        }
+
+        private static void echo(Socket socket) {
+            byte[] buffer = new byte[4096];
+            try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                // 连接已关闭
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                server.close();
+                synchronized (sockets) {
+                    for (Socket socket : sockets) {
+                        socket.close();
+                    }
+                }
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * 收到上一条消息的回显后发送下一条，记录每次往返的时间
+     */
+    private static class Session extends DeviceConnection {
+        private final long[] rtts = new long[ROUNDS];
+        private final CountDownLatch done;
+        private final Set<Thread> threads;
+        private int round = 0;
+        private long sentAt;
+        private long startedAt;
+        private long finishedAt;
+
+        Session(InetSocketAddress address, NioReactor reactor, CountDownLatch done, Set<Thread> threads) {
+            super(address, reactor);
+            this.done = done;
+            this.threads = threads;
+        }
+
+        void sendNext() {
+            sentAt = System.nanoTime();
+            byte[] data = ("{\"msg_id\":" + Protocol.MSG_GET_APP_STATUS + ",\"param\":" + round + "}")
+                .getBytes(StandardCharsets.UTF_8);
+            sendData(data, Protocol.MSG_GET_APP_STATUS);
+        }
+
+        @Override
+        void onFrameReceived(byte[] frame) {
+            threads.add(Thread.currentThread());
+            rtts[round++] = System.nanoTime() - sentAt;
+            if (round < ROUNDS) {
+                sendNext();
+            } else {
+                finishedAt = System.nanoTime();
+                done.countDown();
+            }
+        }
+
+        /**
+         * 每秒往返次数
+         */
+        double getRate() {
+            return ROUNDS * 1e9 / (finishedAt - startedAt);
+        }
+    }
+
+    /**
+     * 一轮测试的结果，时间单位为毫秒
+     */
+    private static class Result {
+        double medianRtt;
+        double p99Rtt;
+        double minRate;
+        double meanRate;
+        int threads;
+    }
+
+    private Result run(int count) throws Exception {
+        CountDownLatch done = new CountDownLatch(count);
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        List<Session> round = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            EchoServer server = new EchoServer();
+            servers.add(server);
+            Session session = new Session(server.getAddress(), reactor, done, threads);
+            sessions.add(session);
+            round.add(session);
+            session.connect();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Session session : round) {
+            while (!session.isConnected() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(session.isConnected());
+        }
+
+        for (Session session : round) {
+            session.startedAt = System.nanoTime();
+            session.sendNext();
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        long[] all = new long[count * ROUNDS];
+        Result result = new Result();
+        result.minRate = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Session session = round.get(i);
+            System.arraycopy(session.rtts, 0, all, i * ROUNDS, ROUNDS);
+            result.minRate = Math.min(result.minRate, session.getRate());
+            result.meanRate += session.getRate() / count;
+        }
+        Arrays.sort(all);
+        result.medianRtt = all[all.length / 2] / 1e6;
+        result.p99Rtt = all[all.length * 99 / 100] / 1e6;
+        result.threads = threads.size();
+        return result;
+    }
+
+    @Test
+    public void sessionsShareOneReactor() throws Exception {
+        int[] counts = {1, 8, 64};
+        Result[] results = new Result[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            results[i] = run(counts[i]);
+            System.out.println(String.format(Locale.US,
+                "%2d个会话: 往返时间中位数%.2fms, P99 %.2fms, 每个会话平均%.0f次/秒, 最低%.0f次/秒",
+                counts[i], results[i].medianRtt, results[i].p99Rtt, results[i].meanRate, results[i].minRate));
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            // 所有会话的消息都由同一个事件循环线程处理
+            assertEquals(1, results[i].threads);
+            // 各会话轮流得到处理，没有会话被饿死
+            assertTrue(results[i].minRate > results[i].meanRate / 4);
+        }
+        assertEquals(1 + 8 + 64, reactor.getChannelCount());
+        // 往返时间主要是发送聚合窗口，64个会话时每个会话的往返时间仍在同一数量级
+        Result single = results[0];
+        Result most = results[counts.length - 1];
+        assertTrue("64个会话的往返时间中位数" + most.medianRtt + "ms",
+            most.medianRtt < Math.max(10 * single.medianRtt, 50));
+    }
+}
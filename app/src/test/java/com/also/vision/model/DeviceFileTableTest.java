@@ -0,0 +1,225 @@
+package com.also.vision.model;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeviceFileTable的列存储和URL稀疏列测试
+ */
+public class DeviceFileTableTest {
+    private static final String BASE = DeviceFile.BASE_URL;
+    private static final String OTHER_BASE = "http://192.168.1.10" + DeviceFile.BASE_PATH;
+
+    private static long millis(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void storesColumnsAndParsesTime() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 1);
+        table.add("20240131_235959.MP4", 1234, DeviceFile.TYPE_VIDEO);
+        table.add("IMG_0001.JPG", 99, DeviceFile.TYPE_PHOTO);
+        table.add("20241399_000000.MP4", 1, DeviceFile.TYPE_VIDEO);
+
+        assertEquals(3, table.size());
+        assertEquals("20240131_235959.MP4", table.getName(0));
+        assertEquals(1234, table.getSize(0));
+        assertEquals(DeviceFile.TYPE_VIDEO, table.getType(0));
+        assertEquals(millis(2024, 1, 31, 23, 59, 59), table.getTime(0));
+        assertEquals("IMG_0001.JPG", table.getName(1));
+        assertEquals(DeviceFile.TYPE_PHOTO, table.getType(1));
+        // 不是时间格式或日期无效时为0
+        assertEquals(0, table.getTime(1));
+        assertEquals(0, table.getTime(2));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 1);
+        for (int i = 0; i < 1000; i++) {
+            table.add("20240101_000000_" + i + ".MP4", i, DeviceFile.TYPE_VIDEO);
+        }
+        assertEquals(1000, table.size());
+        assertEquals("20240101_000000_999.MP4", table.getName(999));
+        assertEquals(999, table.getSize(999));
+    }
+
+    @Test
+    public void defaultUrlsComeFromBaseAndName() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 2);
+        table.add("20240101_120000.MP4", 1, DeviceFile.TYPE_VIDEO);
+        table.add("20240101_120000.JPG", 1, DeviceFile.TYPE_PHOTO);
+
+        assertEquals(BASE + "20240101_120000.MP4", table.getFileUrl(0));
+        assertEquals(BASE + "20240101_120000.thm", table.getThumbnailUrl(0));
+        assertEquals(BASE + "20240101_120000.JPG", table.getFileUrl(1));
+        assertEquals(BASE + "20240101_120000.JPG", table.getThumbnailUrl(1));
+        assertEquals(0, table.getUrlOverrideCount());
+    }
+
+    @Test
+    public void keepsOnlyNonDefaultUrls() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 4);
+        String eventUrl = "http://192.168.42.1/DCIM/EVENT/20240101_120100.MP4";
+        String thumb = "http://192.168.42.1/thumb/20240101_120200.jpg";
+        table.add("20240101_120000.MP4", 1, DeviceFile.TYPE_VIDEO, 0,
+            BASE + "20240101_120000.MP4", BASE + "20240101_120000.thm");
+        table.add("20240101_120100.MP4", 1, DeviceFile.TYPE_VIDEO, 0, eventUrl, null);
+        table.add("20240101_120200.JPG", 1, DeviceFile.TYPE_PHOTO, 0, null, thumb);
+
+        assertEquals(2, table.getUrlOverrideCount());
+        assertEquals(1, table.getUrlOverrideRow(0));
+        assertEquals(2, table.getUrlOverrideRow(1));
+        assertNull(table.getFileUrlOverride(0));
+        assertEquals(eventUrl, table.getFileUrl(1));
+        // 缩略图由覆盖后的文件URL推出
+        assertEquals("http://192.168.42.1/DCIM/EVENT/20240101_120100.thm", table.getThumbnailUrl(1));
+        assertEquals(BASE + "20240101_120200.JPG", table.getFileUrl(2));
+        assertEquals(thumb, table.getThumbnailUrl(2));
+    }
+
+    @Test
+    public void setUrlsReplacesAndRemovesOverride() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 3);
+        table.add("a.JPG", 1, DeviceFile.TYPE_PHOTO);
+        table.add("b.JPG", 1, DeviceFile.TYPE_PHOTO);
+        table.add("c.JPG", 1, DeviceFile.TYPE_PHOTO);
+
+        table.setUrls(2, null, "http://x/c.jpg");
+        table.setUrls(0, null, "http://x/a.jpg");
+        assertEquals(2, table.getUrlOverrideCount());
+        assertEquals(0, table.getUrlOverrideRow(0));
+        assertEquals(2, table.getUrlOverrideRow(1));
+
+        table.setUrls(0, BASE + "a.JPG", BASE + "a.JPG");
+        assertEquals(1, table.getUrlOverrideCount());
+        assertEquals(BASE + "a.JPG", table.getThumbnailUrl(0));
+        assertEquals("http://x/c.jpg", table.getThumbnailUrl(2));
+    }
+
+    @Test
+    public void addRangeCopiesRowsAndShiftsOverrides() {
+        DeviceFileTable source = new DeviceFileTable(BASE, 4);
+        for (int i = 0; i < 4; i++) {
+            source.add("2024010" + (i + 1) + "_120000.JPG", i, DeviceFile.TYPE_PHOTO);
+        }
+        source.setUrls(1, null, "http://x/1.jpg");
+        source.setUrls(3, null, "http://x/3.jpg");
+
+        DeviceFileTable target = new DeviceFileTable(BASE, 0);
+        target.add("first.JPG", 0, DeviceFile.TYPE_PHOTO);
+        target.addRange(source, 1, 4);
+        target.addRange(source, 0, 0);
+
+        assertEquals(4, target.size());
+        assertEquals("20240102_120000.JPG", target.getName(1));
+        assertEquals(source.getTime(3), target.getTime(3));
+        assertEquals(3, target.getSize(3));
+        assertEquals(2, target.getUrlOverrideCount());
+        assertEquals("http://x/1.jpg", target.getThumbnailUrl(1));
+        assertEquals(BASE + "20240103_120000.JPG", target.getThumbnailUrl(2));
+        assertEquals("http://x/3.jpg", target.getThumbnailUrl(3));
+    }
+
+    @Test
+    public void addRangeFromOtherBaseKeepsUrls() {
+        DeviceFileTable source = new DeviceFileTable(OTHER_BASE, 2);
+        source.add("20240101_120000.MP4", 1, DeviceFile.TYPE_VIDEO);
+        source.add("20240101_120000.JPG", 1, DeviceFile.TYPE_PHOTO, 0, null, "http://x/t.jpg");
+
+        DeviceFileTable target = new DeviceFileTable(BASE, 2);
+        target.addRange(source, 0, 2);
+
+        assertEquals(OTHER_BASE + "20240101_120000.MP4", target.getFileUrl(0));
+        assertEquals(OTHER_BASE + "20240101_120000.thm", target.getThumbnailUrl(0));
+        assertEquals(OTHER_BASE + "20240101_120000.JPG", target.getFileUrl(1));
+        assertEquals("http://x/t.jpg", target.getThumbnailUrl(1));
+    }
+
+    @Test
+    public void clearKeepsNothing() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 2);
+        table.add("a.JPG", 1, DeviceFile.TYPE_PHOTO, 0, null, "http://x/a.jpg");
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.getUrlOverrideCount());
+
+        table.add("b.JPG", 1, DeviceFile.TYPE_PHOTO);
+        assertEquals("b.JPG", table.getName(0));
+        assertEquals(BASE + "b.JPG", table.getThumbnailUrl(0));
+    }
+
+    @Test
+    public void findsAndComparesNames() {
+        DeviceFileTable a = new DeviceFileTable(BASE, 3);
+        DeviceFileTable b = new DeviceFileTable(BASE, 3);
+        for (String name : new String[]{"x.MP4", "y.MP4", "x.MP4"}) {
+            a.add(name, 1, DeviceFile.TYPE_VIDEO);
+            b.add(name, 2, DeviceFile.TYPE_VIDEO);
+        }
+
+        assertTrue(a.nameEquals(1, "y.MP4"));
+        assertFalse(a.nameEquals(1, "y.MP"));
+        assertEquals(0, a.indexOfName("x.MP4", 0));
+        assertEquals(2, a.indexOfName("x.MP4", 1));
+        assertEquals(-1, a.indexOfName("z.MP4", 0));
+        assertTrue(a.sameNames(b));
+
+        b.add("z.MP4", 1, DeviceFile.TYPE_VIDEO);
+        assertFalse(a.sameNames(b));
+    }
+
+    @Test
+    public void rowIsReusedView() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 2);
+        table.add("20240101_120000.MP4", 10, DeviceFile.TYPE_VIDEO);
+        table.add("20240101_120001.JPG", 20, DeviceFile.TYPE_PHOTO);
+
+        DeviceFileTable.Row row = table.row(0, null);
+        assertEquals("20240101_120000.MP4", row.getName());
+        DeviceFileTable.Row same = table.row(1, row);
+        assertSame(row, same);
+        assertEquals(1, row.getIndex());
+        assertEquals(20, row.getSize());
+        assertEquals(DeviceFile.TYPE_PHOTO, row.getType());
+        assertEquals(table.getTime(1), row.getTime());
+    }
+
+    @Test
+    public void deviceFileRoundTrip() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 1);
+        table.add("20240101_120000.JPG", 10, DeviceFile.TYPE_PHOTO, 0, null, "http://x/t.jpg");
+
+        DeviceFile file = table.toDeviceFile(0);
+        assertEquals("20240101_120000.JPG", file.getFileName());
+        assertEquals(BASE + "20240101_120000.JPG", file.getFileUrl());
+        assertEquals("http://x/t.jpg", file.getThumbnailUrl());
+
+        DeviceFileTable copy = new DeviceFileTable(BASE, 1);
+        copy.add(file);
+        assertEquals(table.getTime(0), copy.getTime(0));
+        assertEquals("http://x/t.jpg", copy.getThumbnailUrl(0));
+        assertEquals(1, copy.getUrlOverrideCount());
+    }
+
+    /**
+     * 一万个文件的各列约为每个文件60字节，每个文件一个DeviceFile时仅字符串就要数百字节
+     */
+    @Test
+    public void tenThousandFilesStayCompact() {
+        DeviceFileTable table = new DeviceFileTable(BASE, 10000);
+        for (int i = 0; i < 10000; i++) {
+            table.add(String.format("20240101_%06d.MP4", i), 1L << 30, DeviceFile.TYPE_VIDEO);
+        }
+        assertTrue(table.estimateBytes() < 10000L * 80);
+    }
+}
@@ -0,0 +1,97 @@
+package com.also.vision.model;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * GetFileListJson直接构建文件表的测试
+ */
+public class GetFileListJsonTest {
+
+    private static JSONObject item(String name, long size) {
+        JSONObject item = new JSONObject();
+        item.put("name", name);
+        item.put("size", size);
+        return item;
+    }
+
+    private static JSONObject reply(String key, JSONObject... items) {
+        JSONArray listing = new JSONArray();
+        for (JSONObject item : items) {
+            listing.add(item);
+        }
+        JSONObject json = new JSONObject();
+        json.put("rval", 0);
+        json.put(key, listing);
+        return json;
+    }
+
+    @Test
+    public void parsesListingIntoTable() {
+        JSONObject json = reply("listing", item("20240101_120000.MP4", 100), item("20240101_120001.JPG", 5));
+        json.put("totalFileNum", 42);
+
+        DeviceFileTable table = GetFileListJson.parseTable(json, 0);
+        assertEquals(2, table.size());
+        assertEquals(DeviceFile.TYPE_VIDEO, table.getType(0));
+        assertEquals(DeviceFile.TYPE_PHOTO, table.getType(1));
+        assertEquals(100, table.getSize(0));
+        assertEquals(42, GetFileListJson.parseTotal(json));
+    }
+
+    @Test
+    public void acceptsLegacyFormat() {
+        JSONObject json = reply("files", item("20240101_120000.MP4", 100));
+        json.put("total", 7);
+
+        assertEquals(1, GetFileListJson.parseTable(json, DeviceFile.TYPE_VIDEO).size());
+        assertEquals(7, GetFileListJson.parseTotal(json));
+    }
+
+    @Test
+    public void defaultTypeAppliesWhenEntryHasNone() {
+        JSONObject typed = item("a.MP4", 1);
+        typed.put("type", DeviceFile.TYPE_PHOTO);
+        JSONObject json = reply("listing", item("b.MP4", 1), typed, new JSONObject());
+
+        DeviceFileTable table = GetFileListJson.parseTable(json, DeviceFile.TYPE_VIDEO);
+        // 没有文件名的条目被跳过
+        assertEquals(2, table.size());
+        assertEquals(DeviceFile.TYPE_VIDEO, table.getType(0));
+        assertEquals(DeviceFile.TYPE_PHOTO, table.getType(1));
+    }
+
+    @Test
+    public void keepsDeviceUrls() {
+        JSONObject inDefault = item("20240101_120000.MP4", 1);
+        inDefault.put("path", DeviceFile.BASE_PATH);
+        JSONObject event = item("20240101_120100.MP4", 1);
+        event.put("path", "/DCIM/EVENT/");
+        JSONObject photo = item("20240101_120200.JPG", 1);
+        photo.put("thumb_url", "http://192.168.42.1/thumb/20240101_120200.jpg");
+        JSONObject absolute = item("20240101_120300.MP4", 1);
+        absolute.put("url", "http://192.168.42.1/SD1/20240101_120300.MP4");
+
+        DeviceFileTable table = GetFileListJson.parseTable(reply("listing", inDefault, event, photo, absolute), 0);
+
+        assertEquals(DeviceFile.BASE_URL + "20240101_120000.MP4", table.getFileUrl(0));
+        assertEquals("http://192.168.42.1/DCIM/EVENT/20240101_120100.MP4", table.getFileUrl(1));
+        assertEquals("http://192.168.42.1/thumb/20240101_120200.jpg", table.getThumbnailUrl(2));
+        assertEquals("http://192.168.42.1/SD1/20240101_120300.MP4", table.getFileUrl(3));
+        assertEquals(3, table.getUrlOverrideCount());
+    }
+
+    @Test
+    public void pathIsResolvedAgainstSessionAddress() {
+        JSONObject event = item("20240101_120100.MP4", 1);
+        event.put("path", "DCIM/EVENT");
+        String base = "http://10.0.0.5" + DeviceFile.BASE_PATH;
+
+        DeviceFileTable table = GetFileListJson.parseTable(reply("listing", event), 0, base);
+        assertEquals("http://10.0.0.5/DCIM/EVENT/20240101_120100.MP4", table.getFileUrl(0));
+    }
+}
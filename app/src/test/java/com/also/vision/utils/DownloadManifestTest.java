@@ -0,0 +1,174 @@
+package com.also.vision.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DownloadManifest的保存、加载和逐块校验测试
+ */
+public class DownloadManifestTest {
+    private static final String URL = "http://192.168.42.1/DCIM/MOVIE/20240101_120000.MP4";
+    private static final int BLOCK = DownloadManifest.BLOCK_SIZE;
+    // 最后一个块不完整
+    private static final int LENGTH = 3 * BLOCK + BLOCK / 2;
+
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("download-manifest").toFile();
+        target = new File(dir, "20240101_120000.MP4");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 写入随机内容的目标文件，返回从文件计算的完整清单
+     */
+    private DownloadManifest writeTarget() throws Exception {
+        byte[] data = new byte[LENGTH];
+        new Random(1).nextBytes(data);
+        Files.write(target.toPath(), data);
+        DownloadManifest manifest = new DownloadManifest(URL, LENGTH);
+        try (RandomAccessFile file = new RandomAccessFile(target, "r")) {
+            assertEquals(4, manifest.hashMissing(file.getChannel()));
+        }
+        return manifest;
+    }
+
+    private void corrupt(long position) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(~value);
+        }
+    }
+
+    @Test
+    public void savedManifestLoadsBack() throws Exception {
+        DownloadManifest manifest = writeTarget();
+        manifest.markVerified(target);
+        manifest.save(target);
+
+        DownloadManifest loaded = DownloadManifest.load(target);
+        assertNotNull(loaded);
+        assertEquals(URL, loaded.getUrl());
+        assertEquals(LENGTH, loaded.getLength());
+        assertEquals(4, loaded.getBlockCount());
+        assertTrue(loaded.isComplete());
+        assertEquals(manifest.getChecksum(), loaded.getChecksum());
+        assertTrue(loaded.isVerified(target));
+    }
+
+    @Test
+    public void partialManifestKeepsBlockState() throws Exception {
+        DownloadManifest manifest = new DownloadManifest(URL, LENGTH);
+        manifest.setBlock(0, 11);
+        manifest.setBlock(2, 33);
+        manifest.save(target);
+
+        DownloadManifest loaded = DownloadManifest.load(target);
+        assertTrue(loaded.isBlockDone(0));
+        assertFalse(loaded.isBlockDone(1));
+        assertTrue(loaded.isBlockDone(2));
+        assertFalse(loaded.isComplete());
+    }
+
+    @Test
+    public void checksumIsCrcOfBlockCrcs() throws Exception {
+        DownloadManifest manifest = writeTarget();
+        byte[] data = Files.readAllBytes(target.toPath());
+        CRC32 expected = new CRC32();
+        for (int start = 0; start < LENGTH; start += BLOCK) {
+            CRC32 block = new CRC32();
+            block.update(data, start, Math.min(BLOCK, LENGTH - start));
+            int value = (int) block.getValue();
+            expected.update(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+        }
+        assertEquals(expected.getValue(), manifest.getChecksum());
+    }
+
+    @Test
+    public void verifyFindsCorruptedBlocks() throws Exception {
+        DownloadManifest manifest = writeTarget();
+        assertTrue(manifest.verify(target).isEmpty());
+
+        corrupt(BLOCK + 10);
+        corrupt(LENGTH - 1);
+        BitSet bad = manifest.verify(target);
+        assertEquals(2, bad.cardinality());
+        assertTrue(bad.get(1));
+        assertTrue(bad.get(3));
+        assertFalse(manifest.isBlockDone(1));
+        assertTrue(manifest.isBlockDone(2));
+        assertFalse(manifest.isComplete());
+    }
+
+    @Test
+    public void verifyMarksBlocksPastTruncation() throws Exception {
+        DownloadManifest manifest = writeTarget();
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(2 * BLOCK + 100);
+        }
+        BitSet bad = manifest.verify(target);
+        assertEquals(2, bad.cardinality());
+        assertEquals(2, bad.nextSetBit(0));
+    }
+
+    @Test
+    public void intactOnlyWhileFileIsUnchanged() throws Exception {
+        DownloadManifest manifest = writeTarget();
+        assertFalse(DownloadManifest.isIntact(target));
+
+        manifest.markVerified(target);
+        manifest.save(target);
+        assertTrue(DownloadManifest.isIntact(target));
+
+        assertTrue(target.setLastModified(target.lastModified() - 60_000));
+        assertFalse(DownloadManifest.isIntact(target));
+    }
+
+    @Test
+    public void damagedManifestIsIgnored() throws Exception {
+        writeTarget().save(target);
+        File file = DownloadManifest.fileOf(target);
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            // 改动第一个块的CRC32，与保存的文件校验和不符；每块为完成标记和CRC32，最后是校验和与修改时间
+            long position = file.length() - 16 - 4 * 5 + 1;
+            access.seek(position);
+            int value = access.readInt();
+            access.seek(position);
+            access.writeInt(~value);
+        }
+        assertNull(DownloadManifest.load(target));
+
+        DownloadManifest.delete(target);
+        assertFalse(file.exists());
+        assertNull(DownloadManifest.load(target));
+    }
+}
@@ -0,0 +1,112 @@
+package com.also.vision.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * DownloadQueue保存、恢复和重试未完成下载的测试，下载来自本机HTTP服务器
+ */
+public class DownloadQueueTest {
+    private static final int LENGTH = 3 * 1024 * 1024 + 123;
+    private static final String DEVICE = "SN0001";
+
+    private LocalFileServer server;
+    private File dir;
+    private File queueFile;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalFileServer(LENGTH);
+        dir = Files.createTempDirectory("download-queue").toFile();
+        queueFile = new File(dir, "download_queue.dat");
+        target = new File(dir, "20240101_120000.MP4");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 新建一个队列并等待恢复保存的下载
+     */
+    private DownloadQueue open() throws Exception {
+        DownloadQueue queue = new DownloadQueue();
+        queue.init(queueFile);
+        queue.awaitIo();
+        return queue;
+    }
+
+    private DownloadQueue.Ticket enqueue(DownloadQueue queue) {
+        return queue.enqueue(server.getUrl(), target, DEVICE, DownloadQueue.PRIORITY_BACKGROUND, null);
+    }
+
+    private static void assertFails(DownloadQueue.Ticket ticket) throws Exception {
+        try {
+            ticket.getFuture().get(10, TimeUnit.SECONDS);
+            fail("下载应该失败");
+        } catch (ExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void failedDownloadIsKeptUntilDeviceConnects() throws Exception {
+        server.setFailing(true);
+        DownloadQueue queue = open();
+        assertFails(enqueue(queue));
+        assertEquals(1, queue.getParkedCount());
+        queue.awaitIo();
+        server.setFailing(false);
+
+        // 进程重启后恢复的下载不会在设备连接之前开始
+        DownloadQueue restored = open();
+        assertEquals(1, restored.getParkedCount());
+        assertEquals(0, restored.getRunningCount());
+        int requests = server.getRequests();
+        restored.onDeviceConnected("SN0002");
+        assertEquals(1, restored.getParkedCount());
+        assertEquals(requests, server.getRequests());
+
+        restored.onDeviceConnected(DEVICE);
+        assertEquals(0, restored.getParkedCount());
+        assertEquals(1, restored.getRunningCount());
+        // 加入正在进行的下载，等待它完成
+        assertEquals(target, enqueue(restored).getFuture().get(30, TimeUnit.SECONDS));
+        assertArrayEquals(server.getData(), Files.readAllBytes(target.toPath()));
+
+        restored.awaitIo();
+        assertEquals(0, open().getQueuedCount());
+    }
+
+    @Test
+    public void repeatedFailuresAreDropped() throws Exception {
+        server.setFailing(true);
+        DownloadQueue queue = open();
+        assertFails(enqueue(queue));
+        assertFails(enqueue(queue));
+        assertEquals(1, queue.getParkedCount());
+
+        assertFails(enqueue(queue));
+        assertEquals(0, queue.getQueuedCount());
+        queue.awaitIo();
+        assertEquals(0, open().getQueuedCount());
+    }
+}
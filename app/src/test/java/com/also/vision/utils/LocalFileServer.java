@@ -0,0 +1,212 @@
+package com.also.vision.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在本机端口上提供一个随机内容文件的HTTP服务器，模拟设备的Web服务器
+ * 可以关闭Range支持、改用分块传输、放慢发送、在发送一部分后断开连接或拒绝所有请求，并记录请求。
+ * 大文件由一个随机内容的块重复组成，不必在内存中保存整个文件。
+ */
+class LocalFileServer implements AutoCloseable {
+    private static final String PATH = "/DCIM/MOVIE/20240101_120000.MP4";
+    private static final int WRITE_SIZE = 64 * 1024;
+    // 服务器处理请求的线程名前缀
+    static final String THREAD_PREFIX = "LocalFileServer-";
+
+    // 文件内容按block重复
+    private final byte[] block;
+    private final long length;
+    private final HttpServer server;
+    private final AtomicInteger threads = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+        r -> new Thread(r, THREAD_PREFIX + threads.incrementAndGet()));
+    // 各个Range请求的起始位置
+    private final List<Long> rangeStarts = new ArrayList<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    // 之后的响应在发送这么多字节后断开的剩余次数
+    private final AtomicInteger drops = new AtomicInteger();
+    private volatile long dropAfter;
+    private volatile boolean ranged = true;
+    private volatile boolean chunked = false;
+    // 所有请求都返回503
+    private volatile boolean failing = false;
+    // 每发送WRITE_SIZE字节后等待的毫秒数
+    private volatile long delay = 0;
+
+    LocalFileServer(int length) throws IOException {
+        this(length, length);
+    }
+
+    /**
+     * @param length    文件长度
+     * @param blockSize 重复的块大小
+     */
+    LocalFileServer(long length, int blockSize) throws IOException {
+        this.length = length;
+        block = new byte[blockSize];
+        new Random(length).nextBytes(block);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * 同一个文件的另一个URL
+     */
+    String getUrl(String query) {
+        return getUrl() + "?" + query;
+    }
+
+    /**
+     * 获取文件内容，只用于由一个块组成的文件
+     */
+    byte[] getData() {
+        if (length != block.length) {
+            throw new IllegalStateException("文件由多个块组成");
+        }
+        return block;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * 把文件内容的每个字节取反，之后下载的部分与之前下载的部分可以区分
+     */
+    void invert() {
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) ~block[i];
+        }
+    }
+
+    void setRanged(boolean ranged) {
+        this.ranged = ranged;
+    }
+
+    void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * 之后的times个长于after字节的响应体在发送after字节后断开连接
+     */
+    void dropAfter(long after, int times) {
+        dropAfter = after;
+        drops.set(times);
+    }
+
+    synchronized List<Long> getRangeStarts() {
+        return new ArrayList<>(rangeStarts);
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * 等待正在发送的响应结束，客户端断开后服务器要到下一次写入失败才结束
+     */
+    void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (active.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        active.incrementAndGet();
+        try {
+            respond(exchange);
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        if (failing) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        long from = 0;
+        long to = length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        boolean partial = ranged && range != null && range.startsWith("bytes=");
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            from = Long.parseLong(bounds[0]);
+            synchronized (this) {
+                rangeStarts.add(from);
+            }
+            if (!bounds[1].isEmpty()) {
+                to = Math.min(to, Long.parseLong(bounds[1]));
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + length);
+        }
+        long count = to - from + 1;
+        // 长度为0时HttpServer使用分块传输
+        exchange.sendResponseHeaders(partial ? 206 : 200, chunked ? 0 : count);
+
+        long limit = Long.MAX_VALUE;
+        if (count > dropAfter && drops.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            limit = dropAfter;
+        }
+        OutputStream out = exchange.getResponseBody();
+        long sent = 0;
+        try {
+            while (sent < count) {
+                int offset = (int) ((from + sent) % block.length);
+                int n = (int) Math.min(Math.min(WRITE_SIZE, block.length - offset), Math.min(count - sent, limit - sent));
+                if (n <= 0) {
+                    out.flush();
+                    // 处理时抛出异常，HttpServer直接关闭连接
+                    throw new IOException("模拟连接断开");
+                }
+                out.write(block, offset, n);
+                sent += n;
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+            }
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.also.vision.utils;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 从本机HTTP服务器下载大文件的吞吐量和CPU占用，与逐4KB读写的下载循环比较
+ * 默认跳过，用 ./gradlew test -Pbenchmark 运行；文件大小由-PbenchmarkMb指定，默认1024MB。
+ * CPU占用是进程CPU时间减去服务器线程的CPU时间再除以耗时，100%为一个核。
+ */
+public class RangeDownloaderBenchmarkTest {
+    private static final long MB = 1024 * 1024;
+
+    private LocalFileServer server;
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("基准测试需要 -Pbenchmark", Boolean.getBoolean("vision.benchmark"));
+        long length = Long.getLong("vision.benchmark.mb", 1024) * MB;
+        server = new LocalFileServer(length, (int) (16 * MB));
+        dir = Files.createTempDirectory("range-benchmark").toFile();
+        target = new File(dir, "20240101_120000.MP4");
+    }
+
+    @After
+    public void tearDown() {
+        if (server == null) {
+            return;
+        }
+        server.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 进程CPU时间减去服务器线程的CPU时间(纳秒)，服务器线程在测量期间不会结束
+     */
+    private static long clientCpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long server = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && (info.getThreadName().startsWith(LocalFileServer.THREAD_PREFIX)
+                || info.getThreadName().startsWith("HTTP-Dispatcher"))) {
+                server += Math.max(0, threads.getThreadCpuTime(info.getThreadId()));
+            }
+        }
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        return os.getProcessCpuTime() - server;
+    }
+
+    private void report(String name, long startNanos, long startCpu, long progressCalls) {
+        long elapsed = System.nanoTime() - startNanos;
+        long cpu = clientCpuTime() - startCpu;
+        System.out.println(String.format(Locale.US, "%s: %.0f MB/s, CPU %.0f%%, 进度回调%d次",
+            name, server.getLength() * 1e9 / MB / elapsed, cpu * 100.0 / elapsed, progressCalls));
+    }
+
+    @Test
+    public void rangeDownloader() throws Exception {
+        AtomicLong progress = new AtomicLong();
+        RangeDownloader downloader = new RangeDownloader(server.getUrl(), target,
+            (downloaded, total) -> progress.incrementAndGet());
+        downloader.setThrottled(false);
+        long startCpu = clientCpuTime();
+        long start = System.nanoTime();
+        downloader.start().get(10, TimeUnit.MINUTES);
+        report("RangeDownloader", start, startCpu, progress.get());
+        assertEquals(server.getLength(), target.length());
+    }
+
+    @Test
+    public void plainCopyLoop() throws Exception {
+        long progress = 0;
+        long startCpu = clientCpuTime();
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.getUrl()).openConnection();
+        try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                // 原来每次读取后都报告进度
+                progress++;
+            }
+        } finally {
+            connection.disconnect();
+        }
+        report("4KB读写循环", start, startCpu, progress);
+        assertEquals(server.getLength(), target.length());
+    }
+}
@@ -0,0 +1,245 @@
+package com.also.vision.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RangeDownloader对本机HTTP服务器的下载和续传测试，下载的文件与服务器的内容逐字节比较
+ */
+public class RangeDownloaderTest {
+    private static final int MB = 1024 * 1024;
+    // 大于两个分段，最后一个分段和块都不完整
+    private static final int LENGTH = (int) (RangeDownloader.SEGMENT_SIZE * 2 + 3 * MB + 12345);
+
+    private LocalFileServer server;
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalFileServer(LENGTH);
+        dir = Files.createTempDirectory("range-downloader").toFile();
+        target = new File(dir, "20240101_120000.MP4");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private RangeDownloader downloader(String url) {
+        RangeDownloader downloader = new RangeDownloader(url, target, null);
+        downloader.setThrottled(false);
+        return downloader;
+    }
+
+    private File download(String url) throws Exception {
+        return downloader(url).start().get(30, TimeUnit.SECONDS);
+    }
+
+    private void assertDownloaded() throws Exception {
+        assertArrayEquals(server.getData(), Files.readAllBytes(target.toPath()));
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(new File(target.getPath() + ".dl").exists());
+    }
+
+    @Test
+    public void rangedDownloadIsIdentical() throws Exception {
+        assertEquals(target, download(server.getUrl()));
+        assertDownloaded();
+        // 探测请求加至少三个分段
+        assertTrue(server.getRequests() >= 4);
+    }
+
+    @Test
+    public void serverWithoutRangeDownloadsSequentially() throws Exception {
+        server.setRanged(false);
+        download(server.getUrl());
+        assertDownloaded();
+        assertEquals(2, server.getRequests());
+    }
+
+    /**
+     * 取消到至少下载了minimum字节，等待临时文件关闭
+     *
+     * @return 保留的字节数
+     */
+    private long downloadPartly(long minimum) throws Exception {
+        server.setDelay(20);
+        RangeDownloader downloader = downloader(server.getUrl());
+        downloader.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (downloader.getDownloaded() < minimum && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        downloader.cancel();
+        downloader.whenReleased().get(10, TimeUnit.SECONDS);
+        server.setDelay(0);
+        server.awaitIdle();
+        return downloader.getDownloaded();
+    }
+
+    /**
+     * 服务器内容取反后再次下载，返回文件中仍是原内容的字节数，其余字节必须是新内容
+     */
+    private long redownloadInverted(String url) throws Exception {
+        byte[] original = server.getData().clone();
+        server.invert();
+        download(url);
+        byte[] downloaded = Files.readAllBytes(target.toPath());
+        assertEquals(LENGTH, downloaded.length);
+        long reused = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            if (downloaded[i] == original[i]) {
+                reused++;
+            } else {
+                assertEquals(server.getData()[i], downloaded[i]);
+            }
+        }
+        return reused;
+    }
+
+    /**
+     * 修复后的清单与文件一致
+     */
+    private void assertDownloadedBlocks() throws Exception {
+        assertFalse(new File(target.getPath() + ".part").exists());
+        DownloadManifest manifest = DownloadManifest.load(target);
+        assertTrue(manifest.isComplete());
+        assertTrue(manifest.verify(target).isEmpty());
+    }
+
+    /**
+     * 把目标文件position处的一个字节取反
+     */
+    private void corrupt(long position) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(~value);
+        }
+    }
+
+    @Test
+    public void cancelledDownloadResumes() throws Exception {
+        long kept = downloadPartly(2 * MB);
+        assertTrue(kept >= 2 * MB && kept < LENGTH);
+        assertTrue(new File(target.getPath() + ".part").exists());
+        assertTrue(new File(target.getPath() + ".dl").exists());
+
+        download(server.getUrl());
+        assertDownloaded();
+    }
+
+    @Test
+    public void resumeKeepsDownloadedBytes() throws Exception {
+        long kept = downloadPartly(2 * MB);
+        // 续传前改变服务器的内容，文件中仍是原内容的字节就是续传沿用的部分
+        assertEquals(kept, redownloadInverted(server.getUrl()));
+    }
+
+    @Test
+    public void droppedConnectionsAreRetriedFromTheirPosition() throws Exception {
+        server.dropAfter(MB + MB / 2, 2);
+        download(server.getUrl());
+        assertDownloaded();
+        // 断开的分段从已写入的位置继续，而不是从分段起点重新下载
+        assertTrue(server.getRangeStarts().contains((long) MB + MB / 2));
+    }
+
+    @Test
+    public void chunkedRangeResponsesFallBackToUrlConnection() throws Exception {
+        server.setChunked(true);
+        download(server.getUrl());
+        assertDownloaded();
+    }
+
+    @Test
+    public void progressEndsAtTotal() throws Exception {
+        List<long[]> reports = new ArrayList<>();
+        RangeDownloader downloader = new RangeDownloader(server.getUrl(), target,
+            (downloaded, total) -> {
+                synchronized (reports) {
+                    reports.add(new long[]{downloaded, total});
+                }
+            });
+        downloader.setThrottled(false);
+        downloader.start().get(30, TimeUnit.SECONDS);
+
+        synchronized (reports) {
+            assertFalse(reports.isEmpty());
+            for (int i = 1; i < reports.size(); i++) {
+                assertTrue(reports.get(i)[0] >= reports.get(i - 1)[0]);
+            }
+            assertArrayEquals(new long[]{LENGTH, LENGTH}, reports.get(reports.size() - 1));
+        }
+    }
+
+    @Test
+    public void manifestIsKeptWithDownload() throws Exception {
+        download(server.getUrl());
+        assertTrue(DownloadManifest.isIntact(target));
+        DownloadManifest manifest = DownloadManifest.load(target);
+        assertEquals(server.getUrl(), manifest.getUrl());
+        assertTrue(manifest.verify(target).isEmpty());
+    }
+
+    @Test
+    public void touchedButIntactFileIsNotFetched() throws Exception {
+        download(server.getUrl());
+        assertTrue(target.setLastModified(target.lastModified() - 60_000));
+        int requests = server.getRequests();
+
+        download(server.getUrl());
+        assertEquals(requests, server.getRequests());
+        assertTrue(DownloadManifest.isIntact(target));
+    }
+
+    @Test
+    public void corruptedBlocksAreFetchedAgain() throws Exception {
+        download(server.getUrl());
+        corrupt(2L * MB + 5);
+        corrupt(7L * MB + MB - 1);
+        assertEquals(LENGTH - 2L * DownloadManifest.BLOCK_SIZE, redownloadInverted(server.getUrl()));
+        assertDownloadedBlocks();
+    }
+
+    @Test
+    public void truncatedFileFetchesOnlyTail() throws Exception {
+        download(server.getUrl());
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(5L * MB + MB / 2);
+        }
+        // 被截断的块不完整，从这个块开始重新下载
+        assertEquals(5L * DownloadManifest.BLOCK_SIZE, redownloadInverted(server.getUrl()));
+        assertDownloadedBlocks();
+    }
+
+    @Test
+    public void fileFromOtherUrlIsFetchedAgain() throws Exception {
+        download(server.getUrl());
+        assertEquals(0, redownloadInverted(server.getUrl("other")));
+        assertEquals(server.getUrl("other"), DownloadManifest.load(target).getUrl());
+    }
+}